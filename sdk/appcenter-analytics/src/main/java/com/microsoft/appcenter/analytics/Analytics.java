@@ -18,6 +18,7 @@ import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.analytics.channel.AnalyticsListener;
 import com.microsoft.appcenter.analytics.channel.AnalyticsValidator;
+import com.microsoft.appcenter.analytics.channel.EventAggregator;
 import com.microsoft.appcenter.analytics.channel.SessionTracker;
 import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
 import com.microsoft.appcenter.analytics.ingestion.models.PageLog;
@@ -33,6 +34,7 @@ import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 import com.microsoft.appcenter.utils.async.DefaultAppCenterFuture;
 import com.microsoft.appcenter.utils.context.UserIdContext;
@@ -45,6 +47,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Analytics service.
@@ -94,6 +97,12 @@ public class Analytics extends AbstractAppCenterService {
     @VisibleForTesting
     static final int MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS = 24 * 60 * 60;
 
+    /**
+     * Default aggregation window of aggregated events.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS = 60;
+
     /**
      * Log factories managed by this service.
      */
@@ -125,6 +134,31 @@ public class Analytics extends AbstractAppCenterService {
      */
     private boolean mStartedFromApp;
 
+    /**
+     * True if events without transmission target can be published to the channel directly from the
+     * tracking thread: started from app, enabled and without default transmission target.
+     * Written in background with the instance lock held, read without lock when tracking events.
+     */
+    private volatile boolean mDirectEventsEnabled;
+
+    /**
+     * Number of commands posted in background and not run yet.
+     * Events are published directly only when none is pending, so that they are never enqueued
+     * before a command posted earlier, such as the one starting a session.
+     */
+    private final AtomicInteger mPendingCommands = new AtomicInteger();
+
+    /**
+     * Posted after each command to count it as run, whatever the enabled state.
+     */
+    private final Runnable mCommandRunRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            mPendingCommands.decrementAndGet();
+        }
+    };
+
     /**
      * Session tracker.
      */
@@ -156,6 +190,38 @@ public class Analytics extends AbstractAppCenterService {
      */
     private boolean mAutoPageTrackingEnabled = false;
 
+    /**
+     * Aggregated events of the current window, accessed only in background.
+     */
+    private final EventAggregator mEventAggregator;
+
+    /**
+     * Aggregation window in milliseconds.
+     */
+    private long mAggregationInterval;
+
+    /**
+     * Whether the end of the current aggregation window is scheduled.
+     */
+    private boolean mAggregationFlushScheduled;
+
+    /**
+     * Runnable posted on the main thread at the end of an aggregation window.
+     */
+    private final Runnable mAggregationFlushRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    flushAggregatedEvents();
+                }
+            });
+        }
+    };
+
     /**
      * Init.
      */
@@ -167,6 +233,8 @@ public class Analytics extends AbstractAppCenterService {
         mFactories.put(CommonSchemaEventLog.TYPE, new CommonSchemaEventLogFactory());
         mTransmissionTargets = new HashMap<>();
         mTransmissionInterval = TimeUnit.SECONDS.toMillis(MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS);
+        mEventAggregator = new EventAggregator();
+        mAggregationInterval = TimeUnit.SECONDS.toMillis(DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS);
     }
 
     /**
@@ -465,6 +533,37 @@ public class Analytics extends AbstractAppCenterService {
         trackEvent(name, properties, null, flags);
     }
 
+    /**
+     * Track a high frequency event in aggregated form: events with the same name and properties are
+     * folded in memory and sent as a single event per aggregation window, with the number of events
+     * and the sum, minimum and maximum of their values as additional properties named
+     * <code>aggregationCount</code>, <code>aggregationSum</code>, <code>aggregationMin</code> and
+     * <code>aggregationMax</code>. Events still in memory are sent when the application goes to background.
+     * <p>
+     * The same validation rules as {@link #trackEvent(String, Map)} apply, to the aggregated event.
+     * The aggregation properties come first, properties with the same names are skipped, and
+     * events with a NaN or infinite value are ignored.
+     *
+     * @param name       An event name.
+     * @param properties Optional properties.
+     * @param value      A value to aggregate, for example a duration or 1 to only count events.
+     * @see #setAggregationInterval(int)
+     */
+    public static void trackAggregatedEvent(String name, Map<String, String> properties, double value) {
+        getInstance().trackAggregatedEventAsync(name, properties, value);
+    }
+
+    /**
+     * Set the aggregation window of events tracked with {@link #trackAggregatedEvent(String, Map, double)}.
+     * The window should be between 3 seconds and 86400 seconds (1 day), it is 60 seconds by default.
+     *
+     * @param seconds the aggregation window in seconds.
+     * @return <code>true</code> if the window is set, <code>false</code> otherwise.
+     */
+    public static boolean setAggregationInterval(int seconds) {
+        return getInstance().setInstanceAggregationInterval(seconds);
+    }
+
     /**
      * Internal method redirection for trackEvent.
      */
@@ -659,6 +758,9 @@ public class Analytics extends AbstractAppCenterService {
                 if (mSessionTracker != null) {
                     mSessionTracker.onActivityPaused();
                 }
+
+                /* Don't keep aggregated events in memory while in background. */
+                flushAggregatedEvents();
             }
         }, updateCurrentActivityRunnable, updateCurrentActivityRunnable);
     }
@@ -711,6 +813,11 @@ public class Analytics extends AbstractAppCenterService {
             mChannel.removeGroup(ANALYTICS_CRITICAL_GROUP);
 
             /* Cleanup resources. */
+            mEventAggregator.clear();
+            if (mAggregationFlushScheduled) {
+                mAggregationFlushScheduled = false;
+                HandlerUtils.getMainHandler().removeCallbacks(mAggregationFlushRunnable);
+            }
             if (mAnalyticsValidator != null) {
                 mChannel.removeListener(mAnalyticsValidator);
                 mAnalyticsValidator = null;
@@ -725,6 +832,17 @@ public class Analytics extends AbstractAppCenterService {
                 mAnalyticsTransmissionTargetListener = null;
             }
         }
+        updateDirectEvents(enabled);
+    }
+
+    /**
+     * Update whether events without transmission target can be published to the channel directly.
+     *
+     * @param enabled current state.
+     */
+    @WorkerThread
+    private void updateDirectEvents(boolean enabled) {
+        mDirectEventsEnabled = enabled && mStartedFromApp && mDefaultTransmissionTarget == null && mChannel != null;
     }
 
     /**
@@ -802,40 +920,128 @@ public class Analytics extends AbstractAppCenterService {
      * @param transmissionTarget optional target.
      * @param flags              optional flags.
      */
-    private synchronized void trackEventAsync(final String name, final List<TypedProperty> properties, final AnalyticsTransmissionTarget transmissionTarget, final int flags) {
+    private void trackEventAsync(final String name, final List<TypedProperty> properties, final AnalyticsTransmissionTarget transmissionTarget, final int flags) {
+
+        /*
+         * Events without transmission target don't need any check in background:
+         * publish them to the channel directly instead of posting a command for each,
+         * without taking the instance lock nor reading the enabled state from storage.
+         * Otherwise, and while not started or disabled, the command reports why it's discarded.
+         * While other commands are pending, the event is posted as well to keep the order.
+         */
+        if (transmissionTarget == null && mDirectEventsEnabled && mPendingCommands.get() == 0) {
+            EventLog eventLog = new EventLog();
+            eventLog.setId(UUID.randomUUID());
+            eventLog.setName(name);
+            eventLog.setTypedProperties(properties);
+            int filteredFlags = Flags.getPersistenceFlag(flags, true);
+            mChannel.enqueueAsync(eventLog, filteredFlags == Flags.CRITICAL ? ANALYTICS_CRITICAL_GROUP : ANALYTICS_GROUP, filteredFlags);
+            return;
+        }
         final String userId = UserIdContext.getInstance().getUserId();
         post(new Runnable() {
 
             @Override
             public void run() {
-                AnalyticsTransmissionTarget aTransmissionTarget = (transmissionTarget == null) ? mDefaultTransmissionTarget : transmissionTarget;
                 EventLog eventLog = new EventLog();
-                if (aTransmissionTarget != null) {
-                    if (aTransmissionTarget.isEnabled()) {
-                        eventLog.addTransmissionTarget(aTransmissionTarget.getTransmissionTargetToken());
-                        eventLog.setTag(aTransmissionTarget);
-                        if (aTransmissionTarget == mDefaultTransmissionTarget) {
-                            eventLog.setUserId(userId);
-                        }
-                    } else {
-                        AppCenterLog.error(LOG_TAG, "This transmission target is disabled.");
-                        return;
-                    }
-                } else if (!mStartedFromApp) {
-                    AppCenterLog.error(LOG_TAG, "Cannot track event using Analytics.trackEvent if not started from app, please start from the application or use Analytics.getTransmissionTarget.");
-                    return;
-                }
                 eventLog.setId(UUID.randomUUID());
                 eventLog.setName(name);
                 eventLog.setTypedProperties(properties);
+                queueEvent(eventLog, transmissionTarget, userId, flags);
+            }
+        });
+    }
+
+    /**
+     * Enqueue an event log now.
+     *
+     * @param eventLog           event log with its identifier, name and properties.
+     * @param transmissionTarget optional target.
+     * @param userId             user identifier when the event was tracked.
+     * @param flags              optional flags.
+     */
+    @WorkerThread
+    private void queueEvent(EventLog eventLog, AnalyticsTransmissionTarget transmissionTarget, String userId, int flags) {
+        AnalyticsTransmissionTarget aTransmissionTarget = (transmissionTarget == null) ? mDefaultTransmissionTarget : transmissionTarget;
+        if (aTransmissionTarget != null) {
+            if (aTransmissionTarget.isEnabled()) {
+                eventLog.addTransmissionTarget(aTransmissionTarget.getTransmissionTargetToken());
+                eventLog.setTag(aTransmissionTarget);
+                if (aTransmissionTarget == mDefaultTransmissionTarget) {
+                    eventLog.setUserId(userId);
+                }
+            } else {
+                AppCenterLog.error(LOG_TAG, "This transmission target is disabled.");
+                return;
+            }
+        } else if (!mStartedFromApp) {
+            AppCenterLog.error(LOG_TAG, "Cannot track event using Analytics.trackEvent if not started from app, please start from the application or use Analytics.getTransmissionTarget.");
+            return;
+        }
+
+        /* Filter and validate flags. For now we support only persistence. */
+        int filteredFlags = Flags.getPersistenceFlag(flags, true);
+        mChannel.enqueue(eventLog, filteredFlags == Flags.CRITICAL ? ANALYTICS_CRITICAL_GROUP : ANALYTICS_GROUP, filteredFlags);
+    }
+
+    /**
+     * Implements {@link #trackAggregatedEvent(String, Map, double)}.
+     */
+    private synchronized void trackAggregatedEventAsync(final String name, Map<String, String> properties, final double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            AppCenterLog.error(LOG_TAG, "Aggregated event value cannot be NaN or infinite.");
+            return;
+        }
 
-                /* Filter and validate flags. For now we support only persistence. */
-                int filteredFlags = Flags.getPersistenceFlag(flags, true);
-                mChannel.enqueue(eventLog, filteredFlags == Flags.CRITICAL ? ANALYTICS_CRITICAL_GROUP : ANALYTICS_GROUP, filteredFlags);
+        /* Make a copy to prevent concurrent modification, the aggregator keeps it. */
+        final Map<String, String> propertiesCopy = properties != null ? new HashMap<>(properties) : null;
+        post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mEventAggregator.add(name, propertiesCopy, value) && !mAggregationFlushScheduled) {
+                    mAggregationFlushScheduled = true;
+                    HandlerUtils.getMainHandler().postDelayed(mAggregationFlushRunnable, mAggregationInterval);
+                }
             }
         });
     }
 
+    /**
+     * End the current aggregation window: enqueue one event per name and properties folded during the window.
+     */
+    @WorkerThread
+    private void flushAggregatedEvents() {
+        if (mAggregationFlushScheduled) {
+            mAggregationFlushScheduled = false;
+            HandlerUtils.getMainHandler().removeCallbacks(mAggregationFlushRunnable);
+        }
+        List<EventLog> eventLogs = mEventAggregator.flush();
+        if (!eventLogs.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "Enqueue {} aggregated events.", eventLogs.size());
+            String userId = UserIdContext.getInstance().getUserId();
+            for (EventLog eventLog : eventLogs) {
+                queueEvent(eventLog, null, userId, Flags.DEFAULTS);
+            }
+        }
+    }
+
+    /**
+     * Implements {@link #setAggregationInterval(int)}.
+     */
+    private synchronized boolean setInstanceAggregationInterval(int seconds) {
+        if (seconds < MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS || seconds > MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS) {
+            AppCenterLog.error(LOG_TAG, String.format(Locale.ENGLISH,
+                    "The aggregation interval is invalid. The value should be between %d seconds and %d seconds (%d day).",
+                    MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS,
+                    MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS,
+                    TimeUnit.SECONDS.toDays(MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS)));
+            return false;
+        }
+        mAggregationInterval = TimeUnit.SECONDS.toMillis(seconds);
+        return true;
+    }
+
     /**
      * Implements {@link #isAutoPageTrackingEnabled()}.
      */
@@ -895,14 +1101,19 @@ public class Analytics extends AbstractAppCenterService {
         mContext = context;
         mStartedFromApp = startedFromApp;
         super.onStarted(context, channel, appSecret, transmissionTargetToken, startedFromApp);
+
+        /* Events tracked with normal priority may be lost, they can stay in memory until sent. */
+        channel.setMemoryTailPriorities(getGroupName(), Flags.NORMAL);
         setDefaultTransmissionTarget(transmissionTargetToken);
+        updateDirectEvents(isInstanceEnabled());
     }
 
     @Override
-    public void onConfigurationUpdated(String appSecret, String transmissionTargetToken) {
+    public synchronized void onConfigurationUpdated(String appSecret, String transmissionTargetToken) {
         mStartedFromApp = true;
         startAppLevelFeatures();
         setDefaultTransmissionTarget(transmissionTargetToken);
+        updateDirectEvents(isInstanceEnabled());
     }
 
     /**
@@ -964,6 +1175,19 @@ public class Analytics extends AbstractAppCenterService {
         super.post(runnable);
     }
 
+    @Override
+    protected synchronized boolean post(Runnable runnable, Runnable coreDisabledRunnable, Runnable serviceDisabledRunnable) {
+        mPendingCommands.incrementAndGet();
+        if (!super.post(runnable, coreDisabledRunnable, serviceDisabledRunnable)) {
+            mPendingCommands.decrementAndGet();
+            return false;
+        }
+
+        /* Count the command as run once the handler processed it, whatever path it took. */
+        super.post(mCommandRunRunnable, mCommandRunRunnable, mCommandRunRunnable);
+        return true;
+    }
+
     /**
      * Post a command that will run on background even if SDK disabled (needs to be configured though).
      *
@@ -42,6 +42,17 @@ public class AnalyticsTransmissionTarget {
     @VisibleForTesting
     static AuthenticationProvider sAuthenticationProvider;
 
+    /**
+     * Channel on which the listener dispatching logs to property configurators is registered.
+     */
+    private static Channel sPropertyConfiguratorChannel;
+
+    /**
+     * Incremented when the enabled state of targets changes, which invalidates the enabled state
+     * cached by each target. Accessed only in background.
+     */
+    private static int sEnabledStateVersion;
+
     /**
      * Target token for this level.
      */
@@ -72,6 +83,16 @@ public class AnalyticsTransmissionTarget {
      */
     private Channel mChannel;
 
+    /**
+     * Value of {@link #sEnabledStateVersion} when {@link #mEnabled} was read from storage.
+     */
+    private int mEnabledStateVersion = -1;
+
+    /**
+     * Cached enabled state of this target and its ancestors.
+     */
+    private boolean mEnabled;
+
     /**
      * Create a new instance.
      *
@@ -88,7 +109,30 @@ public class AnalyticsTransmissionTarget {
     void initInBackground(Context context, Channel channel) {
         mContext = context;
         mChannel = channel;
-        channel.addListener(mPropertyConfigurator);
+        addPropertyConfiguratorListener(channel);
+    }
+
+    /**
+     * Register a single listener on the channel for all the property configurators: it runs only the
+     * configurator of the target a log was tracked with, found from the log tag, so that the cost per
+     * log does not grow with the number of targets.
+     *
+     * @param channel channel.
+     */
+    private static synchronized void addPropertyConfiguratorListener(Channel channel) {
+        if (sPropertyConfiguratorChannel != channel) {
+            sPropertyConfiguratorChannel = channel;
+            channel.addListener(new AbstractChannelListener() {
+
+                @Override
+                public void onPreparingLog(@NonNull Log log, @NonNull String groupName) {
+                    Object tag = log.getTag();
+                    if (tag instanceof AnalyticsTransmissionTarget) {
+                        ((AnalyticsTransmissionTarget) tag).getPropertyConfigurator().onPreparingLog(log, groupName);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -352,6 +396,9 @@ public class AnalyticsTransmissionTarget {
                             }
                         }
                     }
+
+                    /* Targets with the same token in other hierarchies share the state, invalidate all caches. */
+                    sEnabledStateVersion++;
                 } else {
                     AppCenterLog.error(LOG_TAG, "One of the parent transmission target is disabled, cannot change state.");
                 }
@@ -455,9 +502,19 @@ public class AnalyticsTransmissionTarget {
         return true;
     }
 
+    /**
+     * Check whether this target and its ancestors are enabled, reading the storage only when a state
+     * changed since the last check.
+     *
+     * @return true if enabled, false otherwise.
+     */
     @WorkerThread
     boolean isEnabled() {
-        return areAncestorsEnabled() && isEnabledInStorage();
+        if (mEnabledStateVersion != sEnabledStateVersion) {
+            mEnabled = areAncestorsEnabled() && isEnabledInStorage();
+            mEnabledStateVersion = sEnabledStateVersion;
+        }
+        return mEnabled;
     }
 
     /**
@@ -68,6 +68,37 @@ public class PropertyConfigurator extends AbstractChannelListener {
      */
     private final EventProperties mEventProperties = new EventProperties();
 
+    /**
+     * Incremented when a Part A property of any configurator changes, which invalidates the
+     * properties resolved from parents. Accessed only in background.
+     */
+    private static int sPartAPropertiesVersion;
+
+    /**
+     * Value of {@link #sPartAPropertiesVersion} when the resolved properties were computed.
+     */
+    private int mResolvedVersion = -1;
+
+    /**
+     * App name of this configurator or its nearest parent defining it.
+     */
+    private String mResolvedAppName;
+
+    /**
+     * App version of this configurator or its nearest parent defining it.
+     */
+    private String mResolvedAppVersion;
+
+    /**
+     * App locale of this configurator or its nearest parent defining it.
+     */
+    private String mResolvedAppLocale;
+
+    /**
+     * User identifier of this configurator or its nearest parent defining it.
+     */
+    private String mResolvedUserId;
+
     /**
      * Create a new property configurator.
      *
@@ -90,56 +121,19 @@ public class PropertyConfigurator extends AbstractChannelListener {
             UserExtension user = ((CommonSchemaLog) log).getExt().getUser();
             DeviceExtension device = ((CommonSchemaLog) log).getExt().getDevice();
 
-            /* Override app name if not null, else use the name of the nearest parent. */
-            if (mAppName != null) {
-                app.setName(mAppName);
-            } else {
-                for (AnalyticsTransmissionTarget target = mTransmissionTarget.mParentTarget; target != null; target = target.mParentTarget) {
-                    String parentAppName = target.getPropertyConfigurator().getAppName();
-                    if (parentAppName != null) {
-                        app.setName(parentAppName);
-                        break;
-                    }
-                }
+            /* Override with the values of this configurator, else with the values of the nearest parent. */
+            resolvePartAProperties();
+            if (mResolvedAppName != null) {
+                app.setName(mResolvedAppName);
             }
-
-            /* Override app version if not null, else use the version of the nearest parent. */
-            if (mAppVersion != null) {
-                app.setVer(mAppVersion);
-            } else {
-                for (AnalyticsTransmissionTarget target = mTransmissionTarget.mParentTarget; target != null; target = target.mParentTarget) {
-                    String parentAppVersion = target.getPropertyConfigurator().getAppVersion();
-                    if (parentAppVersion != null) {
-                        app.setVer(parentAppVersion);
-                        break;
-                    }
-                }
+            if (mResolvedAppVersion != null) {
+                app.setVer(mResolvedAppVersion);
             }
-
-            /* Override app locale if not null, else use the locale of the nearest parent. */
-            if (mAppLocale != null) {
-                app.setLocale(mAppLocale);
-            } else {
-                for (AnalyticsTransmissionTarget target = mTransmissionTarget.mParentTarget; target != null; target = target.mParentTarget) {
-                    String parentAppLocale = target.getPropertyConfigurator().getAppLocale();
-                    if (parentAppLocale != null) {
-                        app.setLocale(parentAppLocale);
-                        break;
-                    }
-                }
+            if (mResolvedAppLocale != null) {
+                app.setLocale(mResolvedAppLocale);
             }
-
-            /* Override userId if not null, else use the userId of the nearest parent. */
-            if (mUserId != null) {
-                user.setLocalId(mUserId);
-            } else {
-                for (AnalyticsTransmissionTarget target = mTransmissionTarget.mParentTarget; target != null; target = target.mParentTarget) {
-                    String parentUserId = target.getPropertyConfigurator().getUserId();
-                    if (parentUserId != null) {
-                        user.setLocalId(parentUserId);
-                        break;
-                    }
-                }
+            if (mResolvedUserId != null) {
+                user.setLocalId(mResolvedUserId);
             }
 
             /* Fill out the device id if it has been collected. */
@@ -153,6 +147,36 @@ public class PropertyConfigurator extends AbstractChannelListener {
         }
     }
 
+    /**
+     * Resolve the Part A properties from this configurator and its parents, unless no property changed
+     * since they were last resolved.
+     */
+    private void resolvePartAProperties() {
+        if (mResolvedVersion == sPartAPropertiesVersion) {
+            return;
+        }
+        mResolvedAppName = mAppName;
+        mResolvedAppVersion = mAppVersion;
+        mResolvedAppLocale = mAppLocale;
+        mResolvedUserId = mUserId;
+        for (AnalyticsTransmissionTarget target = mTransmissionTarget.mParentTarget; target != null; target = target.mParentTarget) {
+            PropertyConfigurator parent = target.getPropertyConfigurator();
+            if (mResolvedAppName == null) {
+                mResolvedAppName = parent.getAppName();
+            }
+            if (mResolvedAppVersion == null) {
+                mResolvedAppVersion = parent.getAppVersion();
+            }
+            if (mResolvedAppLocale == null) {
+                mResolvedAppLocale = parent.getAppLocale();
+            }
+            if (mResolvedUserId == null) {
+                mResolvedUserId = parent.getUserId();
+            }
+        }
+        mResolvedVersion = sPartAPropertiesVersion;
+    }
+
     /**
      * Checks if the log should be overridden by this instance.
      *
@@ -184,6 +208,7 @@ public class PropertyConfigurator extends AbstractChannelListener {
             @Override
             public void run() {
                 mAppName = appName;
+                sPartAPropertiesVersion++;
             }
         });
     }
@@ -208,6 +233,7 @@ public class PropertyConfigurator extends AbstractChannelListener {
             @Override
             public void run() {
                 mAppVersion = appVersion;
+                sPartAPropertiesVersion++;
             }
         });
     }
@@ -232,6 +258,7 @@ public class PropertyConfigurator extends AbstractChannelListener {
             @Override
             public void run() {
                 mAppLocale = appLocale;
+                sPartAPropertiesVersion++;
             }
         });
     }
@@ -260,6 +287,7 @@ public class PropertyConfigurator extends AbstractChannelListener {
                 @Override
                 public void run() {
                     mUserId = UserIdContext.getPrefixedUserId(userId);
+                    sPartAPropertiesVersion++;
                 }
             });
         }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics.channel;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.analytics.Analytics.LOG_TAG;
+
+/**
+ * Folds events with the same name and properties in memory into a single event per aggregation
+ * window, that holds the count, sum, minimum and maximum of the values tracked with the events.
+ * Not thread safe, used only in background.
+ */
+public class EventAggregator {
+
+    /**
+     * Property holding the number of events folded into an aggregated event.
+     */
+    @VisibleForTesting
+    static final String COUNT_PROPERTY = "aggregationCount";
+
+    /**
+     * Property holding the sum of the values of the folded events.
+     */
+    @VisibleForTesting
+    static final String SUM_PROPERTY = "aggregationSum";
+
+    /**
+     * Property holding the minimum value of the folded events.
+     */
+    @VisibleForTesting
+    static final String MIN_PROPERTY = "aggregationMin";
+
+    /**
+     * Property holding the maximum value of the folded events.
+     */
+    @VisibleForTesting
+    static final String MAX_PROPERTY = "aggregationMax";
+
+    /**
+     * Properties added to aggregated events, that events cannot use.
+     */
+    private static final String[] AGGREGATE_PROPERTIES = {COUNT_PROPERTY, SUM_PROPERTY, MIN_PROPERTY, MAX_PROPERTY};
+
+    /**
+     * Aggregates of the current window by event name and properties, in order of first occurrence.
+     */
+    private final Map<Key, Aggregate> mAggregates = new LinkedHashMap<>();
+
+    /**
+     * Fold an event into the aggregate of its name and properties.
+     *
+     * @param name       event name.
+     * @param properties event properties, the map is kept and must not be modified by the caller.
+     *                   Properties named like the aggregate properties are removed.
+     * @param value      value tracked with the event, must be finite.
+     * @return true if this is the first event of the window, false otherwise.
+     */
+    public boolean add(String name, Map<String, String> properties, double value) {
+        boolean firstEvent = mAggregates.isEmpty();
+        if (properties != null) {
+            for (String aggregateProperty : AGGREGATE_PROPERTIES) {
+                if (properties.containsKey(aggregateProperty)) {
+                    properties.remove(aggregateProperty);
+                    AppCenterLog.error(LOG_TAG, "Property '" + aggregateProperty + "' is reserved for aggregated events, skipping it.");
+                }
+            }
+        }
+        Key key = new Key(name, properties != null ? properties : Collections.<String, String>emptyMap());
+        Aggregate aggregate = mAggregates.get(key);
+        if (aggregate == null) {
+            aggregate = new Aggregate(value);
+            mAggregates.put(key, aggregate);
+        } else {
+            aggregate.add(value);
+        }
+        return firstEvent;
+    }
+
+    /**
+     * Close the current window.
+     *
+     * @return one event per name and properties folded during the window, empty if no event was tracked.
+     */
+    @NonNull
+    public List<EventLog> flush() {
+        List<EventLog> eventLogs = new ArrayList<>(mAggregates.size());
+        for (Map.Entry<Key, Aggregate> entry : mAggregates.entrySet()) {
+            Key key = entry.getKey();
+            Aggregate aggregate = entry.getValue();
+            List<TypedProperty> typedProperties = new ArrayList<>(AGGREGATE_PROPERTIES.length + key.mProperties.size());
+
+            /* Aggregate properties go first so that they are kept when there are too many properties. */
+            LongTypedProperty countProperty = new LongTypedProperty();
+            countProperty.setName(COUNT_PROPERTY);
+            countProperty.setValue(aggregate.mCount);
+            typedProperties.add(countProperty);
+            typedProperties.add(createDoubleProperty(SUM_PROPERTY, aggregate.mSum));
+            typedProperties.add(createDoubleProperty(MIN_PROPERTY, aggregate.mMin));
+            typedProperties.add(createDoubleProperty(MAX_PROPERTY, aggregate.mMax));
+            for (Map.Entry<String, String> property : key.mProperties.entrySet()) {
+                StringTypedProperty typedProperty = new StringTypedProperty();
+                typedProperty.setName(property.getKey());
+                typedProperty.setValue(property.getValue());
+                typedProperties.add(typedProperty);
+            }
+            EventLog eventLog = new EventLog();
+            eventLog.setId(UUID.randomUUID());
+            eventLog.setName(key.mName);
+            eventLog.setTypedProperties(typedProperties);
+            eventLogs.add(eventLog);
+        }
+        mAggregates.clear();
+        return eventLogs;
+    }
+
+    /**
+     * Discard the events of the current window.
+     */
+    public void clear() {
+        mAggregates.clear();
+    }
+
+    private static DoubleTypedProperty createDoubleProperty(String name, double value) {
+        DoubleTypedProperty property = new DoubleTypedProperty();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+
+    /**
+     * Identity of the events folded together.
+     */
+    private static class Key {
+
+        /**
+         * Event name.
+         */
+        private final String mName;
+
+        /**
+         * Event properties.
+         */
+        private final Map<String, String> mProperties;
+
+        /**
+         * Init.
+         *
+         * @param name       event name.
+         * @param properties event properties.
+         */
+        Key(String name, Map<String, String> properties) {
+            mName = name;
+            mProperties = properties;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return (mName != null ? mName.equals(key.mName) : key.mName == null) && mProperties.equals(key.mProperties);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mName != null ? mName.hashCode() : 0;
+            result = 31 * result + mProperties.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * Statistics of the values of the events folded together.
+     */
+    private static class Aggregate {
+
+        /**
+         * Number of events.
+         */
+        private long mCount;
+
+        /**
+         * Sum of the values.
+         */
+        private double mSum;
+
+        /**
+         * Minimum value.
+         */
+        private double mMin;
+
+        /**
+         * Maximum value.
+         */
+        private double mMax;
+
+        /**
+         * Init with the first event.
+         *
+         * @param value value of the first event.
+         */
+        Aggregate(double value) {
+            mCount = 1;
+            mSum = value;
+            mMin = value;
+            mMax = value;
+        }
+
+        /**
+         * Fold another event.
+         *
+         * @param value value of the event.
+         */
+        void add(double value) {
+            mCount++;
+            mSum += value;
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+    }
+}
@@ -6,6 +6,7 @@
 package com.microsoft.appcenter.analytics;
 
 import android.content.Context;
+import android.os.Handler;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Flags;
@@ -31,6 +32,7 @@ import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.async.AppCenterConsumer;
 import com.microsoft.appcenter.utils.context.UserIdContext;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
@@ -40,12 +42,15 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
@@ -56,6 +61,7 @@ import static com.microsoft.appcenter.Flags.CRITICAL;
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static com.microsoft.appcenter.analytics.Analytics.ANALYTICS_CRITICAL_GROUP;
 import static com.microsoft.appcenter.analytics.Analytics.ANALYTICS_GROUP;
+import static com.microsoft.appcenter.analytics.Analytics.DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS;
 import static com.microsoft.appcenter.analytics.Analytics.MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS;
 import static com.microsoft.appcenter.analytics.Analytics.MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS;
 import static org.junit.Assert.assertEquals;
@@ -73,6 +79,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -230,7 +237,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
 
         /* Send event without properties. */
         Analytics.trackEvent("eventName");
-        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNotNull(argumentCaptor.getValue());
         assertEquals("eventName", argumentCaptor.getValue().getName());
         assertNull(argumentCaptor.getValue().getTypedProperties());
@@ -246,7 +253,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
 
         /* Send event with empty Map properties. */
         Analytics.trackEvent("eventName", (Map<String, String>) null);
-        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNotNull(argumentCaptor.getValue());
         assertEquals("eventName", argumentCaptor.getValue().getName());
         assertNull(argumentCaptor.getValue().getTypedProperties());
@@ -262,7 +269,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
 
         /* Send event with empty Map properties. */
         Analytics.trackEvent("eventName", new HashMap<String, String>());
-        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNotNull(argumentCaptor.getValue());
         assertEquals("eventName", argumentCaptor.getValue().getName());
         assertEquals(Collections.emptyList(), argumentCaptor.getValue().getTypedProperties());
@@ -283,7 +290,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         StringTypedProperty stringProperty = new StringTypedProperty();
         stringProperty.setName("name");
         stringProperty.setValue("value");
-        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNotNull(argumentCaptor.getValue());
         assertEquals("eventName", argumentCaptor.getValue().getName());
         assertEquals(Collections.<TypedProperty>singletonList(stringProperty), argumentCaptor.getValue().getTypedProperties());
@@ -299,7 +306,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
 
         /* Send event with empty EventProperties. */
         Analytics.trackEvent("eventName", new EventProperties());
-        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNotNull(argumentCaptor.getValue());
         assertEquals("eventName", argumentCaptor.getValue().getName());
         assertEquals(Collections.emptyList(), argumentCaptor.getValue().getTypedProperties());
@@ -339,7 +346,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         eventProperties.set("n3", 0d);
         eventProperties.set("n4", true);
         Analytics.trackEvent("eventName", eventProperties);
-        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNotNull(argumentCaptor.getValue());
         assertEquals("eventName", argumentCaptor.getValue().getName());
         assertEquals(stringTypedProperty, argumentCaptor.getValue().getTypedProperties().get(0));
@@ -357,7 +364,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onStarted(mock(Context.class), channel, "", null, true);
         Analytics.trackEvent("eventName1", (Map<String, String>) null, NORMAL);
         Analytics.trackEvent("eventName2", (EventProperties) null, NORMAL);
-        verify(channel, times(2)).enqueue(isA(EventLog.class), anyString(), eq(NORMAL));
+        verify(channel, times(2)).enqueueAsync(isA(EventLog.class), anyString(), eq(NORMAL));
     }
 
     @Test
@@ -368,7 +375,98 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onStarted(mock(Context.class), channel, "", null, true);
         Analytics.trackEvent("eventName1", (Map<String, String>) null, CRITICAL);
         Analytics.trackEvent("eventName2", (EventProperties) null, CRITICAL);
-        verify(channel, times(2)).enqueue(isA(EventLog.class), anyString(), eq(CRITICAL));
+        verify(channel, times(2)).enqueueAsync(isA(EventLog.class), anyString(), eq(CRITICAL));
+    }
+
+    @Test(timeout = 10000)
+    public void trackEventWithoutInstanceLock() throws InterruptedException {
+        final Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Hold the instance lock in another thread. */
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                synchronized (analytics) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        };
+        thread.start();
+        locked.await();
+
+        /* Events are still published without waiting for the lock. */
+        Analytics.trackEvent("eventName", (Map<String, String>) null, NORMAL);
+        verify(channel).enqueueAsync(isA(EventLog.class), eq(ANALYTICS_GROUP), eq(NORMAL));
+        release.countDown();
+        thread.join();
+    }
+
+    @Test
+    public void trackEventDirectlyOnlyWhenEnabled() {
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Disabled: no direct publishing. */
+        Analytics.setEnabled(false);
+        Analytics.trackEvent("eventName", (Map<String, String>) null, NORMAL);
+        verify(channel, never()).enqueueAsync(any(Log.class), anyString(), anyInt());
+
+        /* Enabled again. */
+        Analytics.setEnabled(true);
+        Analytics.trackEvent("eventName", (Map<String, String>) null, NORMAL);
+        verify(channel).enqueueAsync(isA(EventLog.class), eq(ANALYTICS_GROUP), eq(NORMAL));
+
+        /* Events of the default transmission target are decorated in background. */
+        analytics.onConfigurationUpdated("", "token");
+        Analytics.trackEvent("eventName", (Map<String, String>) null, NORMAL);
+        verify(channel).enqueueAsync(any(Log.class), anyString(), anyInt());
+        verify(channel).enqueue(isA(EventLog.class), eq(ANALYTICS_GROUP), eq(NORMAL));
+    }
+
+    @Test
+    public void trackEventAfterPendingCommandKeepsOrder() {
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Hold background commands. */
+        final List<Runnable> commands = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                commands.add((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class), any(Runnable.class));
+
+        /* An event tracked while the session start is pending is not published ahead of it. */
+        analytics.onActivityResumed(new Activity());
+        Analytics.trackEvent("eventName");
+        verify(channel, never()).enqueueAsync(any(Log.class), anyString(), anyInt());
+        for (int i = 0; i < commands.size(); i++) {
+            commands.get(i).run();
+        }
+        InOrder inOrder = inOrder(channel);
+        inOrder.verify(channel).enqueue(isA(StartSessionLog.class), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+        inOrder.verify(channel).enqueue(isA(EventLog.class), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+
+        /* Once commands ran, events are published directly again. */
+        Analytics.trackEvent("eventName");
+        verify(channel).enqueueAsync(isA(EventLog.class), eq(ANALYTICS_GROUP), eq(DEFAULTS));
     }
 
     @Test
@@ -379,7 +477,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onStarted(mock(Context.class), channel, "", null, true);
         Analytics.trackEvent("eventName1", (Map<String, String>) null, 0x03);
         Analytics.trackEvent("eventName2", (EventProperties) null, 0x03);
-        verify(channel, times(2)).enqueue(isA(EventLog.class), anyString(), eq(DEFAULTS));
+        verify(channel, times(2)).enqueueAsync(isA(EventLog.class), anyString(), eq(DEFAULTS));
         verifyStatic(times(2));
         AppCenterLog.warn(eq(AppCenter.LOG_TAG), anyString());
     }
@@ -406,7 +504,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onStarted(mock(Context.class), channel, "appSecret", null, true);
         Analytics.trackEvent("eventName1");
         ArgumentCaptor<EventLog> eventLogArgumentCaptor = ArgumentCaptor.forClass(EventLog.class);
-        verify(channel).enqueue(eventLogArgumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        verify(channel).enqueueAsync(eventLogArgumentCaptor.capture(), anyString(), eq(DEFAULTS));
         assertNull(eventLogArgumentCaptor.getValue().getUserId());
     }
 
@@ -484,6 +582,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         verify(channel).removeGroup(eq(analytics.getGroupName()));
         verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).setMemoryTailPriorities(ANALYTICS_GROUP, NORMAL);
         verify(channel).addListener(isA(SessionTracker.class));
         verify(channel).addListener(isA(AnalyticsValidator.class));
         verify(channel).addListener(isA(AnalyticsTransmissionTarget.getChannelListener().getClass()));
@@ -511,6 +610,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onActivityResumed(new Activity());
         analytics.onActivityPaused(new Activity());
         verify(channel, never()).enqueue(any(Log.class), eq(analytics.getGroupName()), anyInt());
+        verify(channel, never()).enqueueAsync(any(Log.class), eq(analytics.getGroupName()), anyInt());
 
         /* Enable again, verify the async behavior of setEnabled with the callback. */
         final CountDownLatch latch = new CountDownLatch(1);
@@ -531,7 +631,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         target.trackEvent("test");
         target.getTransmissionTarget("t2").trackEvent("test");
         Analytics.trackPage("test");
-        verify(channel, times(4)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel).enqueueAsync(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel, times(3)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
 
         /* Disable again. */
         Analytics.setEnabled(false);
@@ -542,7 +643,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onActivityPaused(new Activity());
 
         /* No more log enqueued. */
-        verify(channel, times(4)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel).enqueueAsync(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel, times(3)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
     }
 
     @Test
@@ -582,7 +684,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         /* Send logs to verify the logs are enqueued after pause. */
         Analytics.trackEvent("test");
         Analytics.trackPage("test");
-        verify(channel, times(2)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel).enqueueAsync(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
 
         /* Resume Analytics. */
         Analytics.resume();
@@ -594,7 +697,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         /* Send logs to verify the logs are enqueued after resume. */
         Analytics.trackEvent("test");
         Analytics.trackPage("test");
-        verify(channel, times(4)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel, times(2)).enqueueAsync(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
+        verify(channel, times(2)).enqueue(any(Log.class), eq(analytics.getGroupName()), eq(DEFAULTS));
     }
 
     @Test
@@ -724,7 +828,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
                 captor.getValue().onFailure((Log) invocation.getArguments()[0], new Exception());
                 return null;
             }
-        }).when(channel).enqueue(any(Log.class), anyString(), anyInt());
+        }).when(channel).enqueueAsync(any(Log.class), anyString(), anyInt());
         Analytics.trackEvent("name");
         verify(listener).onBeforeSending(notNull(Log.class));
         verify(listener).onSendingSucceeded(notNull(Log.class));
@@ -742,7 +846,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         Analytics.trackEvent("name", generateEventProperties(), Flags.CRITICAL);
-        verify(channel).enqueue(any(Log.class), eq(ANALYTICS_CRITICAL_GROUP), eq(Flags.CRITICAL));
+        verify(channel).enqueueAsync(any(Log.class), eq(ANALYTICS_CRITICAL_GROUP), eq(Flags.CRITICAL));
     }
 
     @Test
@@ -756,7 +860,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         Analytics.trackEvent("name", generateEventProperties(), Flags.NORMAL);
-        verify(channel).enqueue(any(Log.class), eq(ANALYTICS_GROUP), eq(Flags.NORMAL));
+        verify(channel).enqueueAsync(any(Log.class), eq(ANALYTICS_GROUP), eq(Flags.NORMAL));
     }
 
     private EventProperties generateEventProperties() {
@@ -897,6 +1001,110 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         assertFalse(result);
     }
 
+    @Test
+    public void trackAggregatedEvent() {
+        Handler handler = mock(Handler.class);
+        when(HandlerUtils.getMainHandler()).thenReturn(handler);
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Events are kept in memory until the end of the window. */
+        Map<String, String> properties = new HashMap<>();
+        properties.put("screen", "home");
+        Analytics.trackAggregatedEvent("scroll", properties, 2);
+        Analytics.trackAggregatedEvent("scroll", properties, 4);
+        Analytics.trackAggregatedEvent("frameDrop", null, 1);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(runnable.capture(), eq(TimeUnit.SECONDS.toMillis(DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS)));
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+
+        /* End of window. */
+        runnable.getValue().run();
+        ArgumentCaptor<EventLog> eventLog = ArgumentCaptor.forClass(EventLog.class);
+        verify(channel, times(2)).enqueue(eventLog.capture(), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+        assertEquals("scroll", eventLog.getAllValues().get(0).getName());
+        assertEquals(5, eventLog.getAllValues().get(0).getTypedProperties().size());
+        assertEquals("frameDrop", eventLog.getAllValues().get(1).getName());
+        verify(handler).removeCallbacks(runnable.getValue());
+
+        /* Events are sent when going to background. */
+        Analytics.trackAggregatedEvent("scroll", properties, 2);
+        verify(handler, times(2)).postDelayed(runnable.getValue(), TimeUnit.SECONDS.toMillis(DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS));
+        analytics.onActivityPaused(new MyActivity());
+        verify(channel, times(3)).enqueue(any(EventLog.class), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+        verify(handler, times(2)).removeCallbacks(runnable.getValue());
+
+        /* Events are discarded when disabled. */
+        Analytics.trackAggregatedEvent("scroll", properties, 2);
+        Analytics.setEnabled(false);
+        verify(handler, times(3)).removeCallbacks(runnable.getValue());
+        runnable.getValue().run();
+        verify(channel, times(3)).enqueue(any(EventLog.class), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+    }
+
+    @Test
+    public void trackAggregatedEventWithInvalidValue() {
+        Handler handler = mock(Handler.class);
+        when(HandlerUtils.getMainHandler()).thenReturn(handler);
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Non finite values are ignored. */
+        Analytics.trackAggregatedEvent("scroll", null, Double.NaN);
+        Analytics.trackAggregatedEvent("scroll", null, Double.POSITIVE_INFINITY);
+        Analytics.trackAggregatedEvent("scroll", null, Double.NEGATIVE_INFINITY);
+        verify(handler, never()).postDelayed(any(Runnable.class), anyLong());
+        verifyStatic(times(3));
+        AppCenterLog.error(anyString(), contains("NaN or infinite"));
+
+        /* Other events of the window are still sent. */
+        Analytics.trackAggregatedEvent("scroll", null, 1);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(runnable.capture(), anyLong());
+        runnable.getValue().run();
+        ArgumentCaptor<EventLog> eventLog = ArgumentCaptor.forClass(EventLog.class);
+        verify(channel).enqueue(eventLog.capture(), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+        assertEquals(4, eventLog.getValue().getTypedProperties().size());
+    }
+
+    @Test
+    public void trackAggregatedEventFromLibrary() {
+        Handler handler = mock(Handler.class);
+        when(HandlerUtils.getMainHandler()).thenReturn(handler);
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, null, null, false);
+        Analytics.trackAggregatedEvent("scroll", null, 1);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(runnable.capture(), anyLong());
+        runnable.getValue().run();
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        verifyStatic();
+        AppCenterLog.error(anyString(), contains("not started from app"));
+    }
+
+    @Test
+    public void setAggregationInterval() {
+        assertFalse(Analytics.setAggregationInterval(MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS - 1));
+        assertFalse(Analytics.setAggregationInterval(MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS + 1));
+        assertTrue(Analytics.setAggregationInterval(10));
+
+        /* Can be changed after start. */
+        Handler handler = mock(Handler.class);
+        when(HandlerUtils.getMainHandler()).thenReturn(handler);
+        Analytics analytics = Analytics.getInstance();
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        assertTrue(Analytics.setAggregationInterval(20));
+        Analytics.trackAggregatedEvent("scroll", null, 1);
+        verify(handler).postDelayed(any(Runnable.class), eq(20000L));
+    }
+
     /**
      * Activity with page name automatically resolving to "My" (no "Activity" suffix).
      */
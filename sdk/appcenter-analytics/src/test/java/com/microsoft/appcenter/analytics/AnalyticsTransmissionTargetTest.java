@@ -19,6 +19,7 @@ import com.microsoft.appcenter.ingestion.models.one.ProtocolExtension;
 import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -115,6 +116,15 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
         testTrackEventWithTransmissionTarget(null, false);
     }
 
+    /**
+     * Get the last command posted to a mocked handler. Each command is followed by another one
+     * counting it as run.
+     */
+    private static Runnable lastCommand(ArgumentCaptor<Runnable> captor) {
+        List<Runnable> values = captor.getAllValues();
+        return values.get(values.size() - 2);
+    }
+
     private void testTrackEventWithTransmissionTarget(final String defaultToken, boolean startFromApp) {
 
         /* Overwrite setup for this test. */
@@ -300,6 +310,30 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
         }), anyString(), eq(DEFAULTS));
     }
 
+    @Test
+    public void enabledStateCached() {
+        AnalyticsTransmissionTarget parentTransmissionTarget = Analytics.getTransmissionTarget("parent");
+        AnalyticsTransmissionTarget childTransmissionTarget = parentTransmissionTarget.getTransmissionTarget("child");
+        String parentKey = Analytics.getInstance().getEnabledPreferenceKeyPrefix() + "parent";
+        String childKey = Analytics.getInstance().getEnabledPreferenceKeyPrefix() + "child";
+
+        /* Storage is read once. */
+        childTransmissionTarget.trackEvent("eventName1");
+        childTransmissionTarget.trackEvent("eventName2");
+        verify(mChannel, times(2)).enqueue(isA(EventLog.class), anyString(), eq(DEFAULTS));
+        verifyStatic();
+        SharedPreferencesManager.getBoolean(parentKey, true);
+        verifyStatic();
+        SharedPreferencesManager.getBoolean(childKey, true);
+
+        /* Changing the state of any target reads the storage again. */
+        Analytics.getTransmissionTarget("other").setEnabledAsync(false).get();
+        childTransmissionTarget.trackEvent("eventName3");
+        verify(mChannel, times(3)).enqueue(isA(EventLog.class), anyString(), eq(DEFAULTS));
+        verifyStatic(times(2));
+        SharedPreferencesManager.getBoolean(childKey, true);
+    }
+
     @Test
     public void setEnabledOnChild() {
 
@@ -484,10 +518,10 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
         /* Check provider updated in background thread only when AppCenter is configured/started. */
         assertNull(AnalyticsTransmissionTarget.sAuthenticationProvider);
         verify(authenticationProvider1, never()).acquireTokenAsync();
-        assertNotNull(backgroundRunnable.getValue());
+        assertNotNull(lastCommand(backgroundRunnable));
 
         /* Run background thread. */
-        backgroundRunnable.getValue().run();
+        lastCommand(backgroundRunnable).run();
 
         /* Check update. */
         assertEquals(authenticationProvider1, AnalyticsTransmissionTarget.sAuthenticationProvider);
@@ -495,15 +529,15 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
 
         /* Track an event. */
         Analytics.trackEvent("test1");
-        Runnable trackEvent1Command = backgroundRunnable.getValue();
+        Runnable trackEvent1Command = lastCommand(backgroundRunnable);
 
         /* Update authentication provider before the commands run and track a second event. */
         AuthenticationProvider.TokenProvider tokenProvider2 = mock(AuthenticationProvider.TokenProvider.class);
         AuthenticationProvider authenticationProvider2 = spy(new AuthenticationProvider(AuthenticationProvider.Type.MSA_COMPACT, "key2", tokenProvider2));
         AnalyticsTransmissionTarget.addAuthenticationProvider(authenticationProvider2);
-        Runnable addAuthProvider2Command = backgroundRunnable.getValue();
+        Runnable addAuthProvider2Command = lastCommand(backgroundRunnable);
         Analytics.trackEvent("test2");
-        Runnable trackEvent2Command = backgroundRunnable.getValue();
+        Runnable trackEvent2Command = lastCommand(backgroundRunnable);
 
         /* Simulate background thread doing everything in a sequence. */
         trackEvent1Command.run();
@@ -537,7 +571,7 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
 
         /* Disable. */
         Analytics.setEnabled(false);
-        backgroundRunnable.getValue().run();
+        lastCommand(backgroundRunnable).run();
 
         /* Add authentication provider while disabled. */
         AuthenticationProvider.TokenProvider tokenProvider = mock(AuthenticationProvider.TokenProvider.class);
@@ -545,7 +579,7 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
         AnalyticsTransmissionTarget.addAuthenticationProvider(authenticationProvider);
 
         /* Unlock command. */
-        disabledRunnable.getValue().run();
+        lastCommand(disabledRunnable).run();
 
         /* Verify update while disabled. */
         assertEquals(authenticationProvider, AnalyticsTransmissionTarget.sAuthenticationProvider);
@@ -553,7 +587,7 @@ public class AnalyticsTransmissionTargetTest extends AbstractAnalyticsTest {
 
         /* Enable. */
         Analytics.setEnabled(true);
-        disabledRunnable.getValue().run();
+        lastCommand(disabledRunnable).run();
 
         /* Call prepare log. */
         ProtocolExtension protocol = new ProtocolExtension();
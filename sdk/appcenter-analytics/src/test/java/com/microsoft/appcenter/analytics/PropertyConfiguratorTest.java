@@ -353,6 +353,70 @@ public class PropertyConfiguratorTest extends AbstractAnalyticsTest {
         assertEquals("c:alice", log.getExt().getUser().getLocalId());
     }
 
+    @Test
+    public void resolvedPropertiesUpdatedWhenParentChanges() {
+
+        /* Set up hierarchy. */
+        AnalyticsTransmissionTarget grandparent = Analytics.getTransmissionTarget("grandparent");
+        AnalyticsTransmissionTarget parent = grandparent.getTransmissionTarget("parent");
+        AnalyticsTransmissionTarget child = parent.getTransmissionTarget("child");
+        grandparent.getPropertyConfigurator().setAppName("grandparentName");
+        grandparent.getPropertyConfigurator().setUserId("c:alice");
+
+        /* Resolve properties from grandparent. */
+        CommonSchemaLog log = new CommonSchemaEventLog();
+        log.setExt(new Extensions());
+        log.getExt().setApp(new AppExtension());
+        log.getExt().setUser(new UserExtension());
+        log.setTag(child);
+        child.getPropertyConfigurator().onPreparingLog(log, "groupName");
+        assertEquals("grandparentName", log.getExt().getApp().getName());
+        assertEquals("c:alice", log.getExt().getUser().getLocalId());
+
+        /* Change a property of the parent: the next log uses it. */
+        parent.getPropertyConfigurator().setAppName("parentName");
+        log = new CommonSchemaEventLog();
+        log.setExt(new Extensions());
+        log.getExt().setApp(new AppExtension());
+        log.getExt().setUser(new UserExtension());
+        log.setTag(child);
+        child.getPropertyConfigurator().onPreparingLog(log, "groupName");
+        assertEquals("parentName", log.getExt().getApp().getName());
+        assertEquals("c:alice", log.getExt().getUser().getLocalId());
+    }
+
+    @Test
+    public void singleListenerDispatchesToTargetConfigurator() {
+
+        /* Set up hierarchy. */
+        AnalyticsTransmissionTarget parent = Analytics.getTransmissionTarget("parent");
+        AnalyticsTransmissionTarget child = parent.getTransmissionTarget("child");
+        AnalyticsTransmissionTarget other = Analytics.getTransmissionTarget("other");
+        parent.getPropertyConfigurator().setAppName("parentName");
+        other.getPropertyConfigurator().setAppName("otherName");
+
+        /* A single listener is registered for all targets. */
+        ArgumentCaptor<Channel.Listener> listener = ArgumentCaptor.forClass(Channel.Listener.class);
+        verify(mChannel).addListener(listener.capture());
+
+        /* Logs are decorated by the configurator of their target only. */
+        CommonSchemaLog log = new CommonSchemaEventLog();
+        log.setExt(new Extensions());
+        log.getExt().setApp(new AppExtension());
+        log.getExt().setUser(new UserExtension());
+        log.setTag(child);
+        listener.getValue().onPreparingLog(log, "groupName");
+        assertEquals("parentName", log.getExt().getApp().getName());
+
+        /* Other logs are ignored. */
+        log = new CommonSchemaEventLog();
+        log.setExt(new Extensions());
+        log.getExt().setApp(new AppExtension());
+        listener.getValue().onPreparingLog(log, "groupName");
+        assertNull(log.getExt().getApp().getName());
+        listener.getValue().onPreparingLog(mock(Log.class), "groupName");
+    }
+
     @Test
     public void checkGrandParentNotOverriddenByDescendants() {
         CommonSchemaLog log = new CommonSchemaEventLog();
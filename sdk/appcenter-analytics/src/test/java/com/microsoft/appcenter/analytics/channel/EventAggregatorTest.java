@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics.channel;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.analytics.channel.EventAggregator.COUNT_PROPERTY;
+import static com.microsoft.appcenter.analytics.channel.EventAggregator.MAX_PROPERTY;
+import static com.microsoft.appcenter.analytics.channel.EventAggregator.MIN_PROPERTY;
+import static com.microsoft.appcenter.analytics.channel.EventAggregator.SUM_PROPERTY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventAggregatorTest {
+
+    private static TypedProperty getProperty(EventLog eventLog, String name) {
+        for (TypedProperty property : eventLog.getTypedProperties()) {
+            if (property.getName().equals(name)) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    private static void checkAggregate(EventLog eventLog, long count, double sum, double min, double max) {
+        assertEquals(count, ((LongTypedProperty) getProperty(eventLog, COUNT_PROPERTY)).getValue());
+        assertEquals(sum, ((DoubleTypedProperty) getProperty(eventLog, SUM_PROPERTY)).getValue(), 0);
+        assertEquals(min, ((DoubleTypedProperty) getProperty(eventLog, MIN_PROPERTY)).getValue(), 0);
+        assertEquals(max, ((DoubleTypedProperty) getProperty(eventLog, MAX_PROPERTY)).getValue(), 0);
+    }
+
+    @Test
+    public void foldByNameAndProperties() {
+        EventAggregator aggregator = new EventAggregator();
+        Map<String, String> properties = new HashMap<>();
+        properties.put("screen", "home");
+        Map<String, String> sameProperties = new HashMap<>(properties);
+        Map<String, String> otherProperties = new HashMap<>();
+        otherProperties.put("screen", "settings");
+
+        /* Only the first event starts a window. */
+        assertTrue(aggregator.add("scroll", properties, 2));
+        assertFalse(aggregator.add("scroll", sameProperties, 5));
+        assertFalse(aggregator.add("scroll", properties, -1));
+        assertFalse(aggregator.add("scroll", otherProperties, 3));
+        assertFalse(aggregator.add("frameDrop", null, 1));
+        assertFalse(aggregator.add("frameDrop", new HashMap<String, String>(), 1));
+
+        /* One event per name and properties, in order of first occurrence. */
+        List<EventLog> eventLogs = aggregator.flush();
+        assertEquals(3, eventLogs.size());
+        EventLog eventLog = eventLogs.get(0);
+        assertNotNull(eventLog.getId());
+        assertEquals("scroll", eventLog.getName());
+        assertEquals(5, eventLog.getTypedProperties().size());
+        assertEquals("home", ((StringTypedProperty) getProperty(eventLog, "screen")).getValue());
+        checkAggregate(eventLog, 3, 6, -1, 5);
+        eventLog = eventLogs.get(1);
+        assertEquals("scroll", eventLog.getName());
+        assertEquals("settings", ((StringTypedProperty) getProperty(eventLog, "screen")).getValue());
+        checkAggregate(eventLog, 1, 3, 3, 3);
+        eventLog = eventLogs.get(2);
+        assertEquals("frameDrop", eventLog.getName());
+        assertEquals(4, eventLog.getTypedProperties().size());
+        assertNull(getProperty(eventLog, "screen"));
+        checkAggregate(eventLog, 2, 2, 1, 1);
+
+        /* The next event starts a new window. */
+        assertTrue(aggregator.flush().isEmpty());
+        assertTrue(aggregator.add("scroll", properties, 1));
+    }
+
+    @Test
+    public void clear() {
+        EventAggregator aggregator = new EventAggregator();
+        aggregator.add("scroll", null, 1);
+        aggregator.clear();
+        assertTrue(aggregator.flush().isEmpty());
+        assertTrue(aggregator.add(null, null, 1));
+        assertNull(aggregator.flush().get(0).getName());
+    }
+
+    @Test
+    public void aggregatePropertiesKeptFirst() {
+        EventAggregator aggregator = new EventAggregator();
+        Map<String, String> properties = new HashMap<>();
+        for (int i = 0; i < AnalyticsValidator.MAX_PROPERTY_COUNT; i++) {
+            properties.put("key" + i, "value" + i);
+        }
+        aggregator.add("scroll", properties, 1);
+        List<TypedProperty> typedProperties = aggregator.flush().get(0).getTypedProperties();
+        assertEquals(AnalyticsValidator.MAX_PROPERTY_COUNT + 4, typedProperties.size());
+
+        /* The properties kept by the validator include the aggregate ones. */
+        assertEquals(COUNT_PROPERTY, typedProperties.get(0).getName());
+        assertEquals(SUM_PROPERTY, typedProperties.get(1).getName());
+        assertEquals(MIN_PROPERTY, typedProperties.get(2).getName());
+        assertEquals(MAX_PROPERTY, typedProperties.get(3).getName());
+    }
+
+    @Test
+    public void aggregatePropertyNamesReserved() {
+        EventAggregator aggregator = new EventAggregator();
+        Map<String, String> properties = new HashMap<>();
+        properties.put(COUNT_PROPERTY, "1000");
+        properties.put(SUM_PROPERTY, "a");
+        properties.put(MIN_PROPERTY, null);
+        properties.put(MAX_PROPERTY, "b");
+        properties.put("aggregationOther", "c");
+        aggregator.add("scroll", properties, 2);
+
+        /* Same event as one without the reserved properties. */
+        Map<String, String> otherProperties = new HashMap<>();
+        otherProperties.put("aggregationOther", "c");
+        aggregator.add("scroll", otherProperties, 4);
+        List<EventLog> eventLogs = aggregator.flush();
+        assertEquals(1, eventLogs.size());
+        EventLog eventLog = eventLogs.get(0);
+        assertEquals(5, eventLog.getTypedProperties().size());
+        assertEquals("c", ((StringTypedProperty) getProperty(eventLog, "aggregationOther")).getValue());
+        checkAggregate(eventLog, 2, 6, 2, 4);
+    }
+}
@@ -131,6 +131,10 @@ public class CrashesAndroidTest {
     }
 
     private void startFresh(CrashesListener listener) {
+        startFresh(listener, false);
+    }
+
+    private void startFresh(CrashesListener listener, boolean compactCrashCapture) {
 
         /* Configure new instance. */
         AppCenterPrivateHelper.unsetInstance();
@@ -147,6 +151,7 @@ public class CrashesAndroidTest {
 
         /* Set listener. */
         Crashes.setListener(listener);
+        Crashes.setCompactCrashCaptureEnabled(compactCrashCapture);
 
         /* Set user identifier. */
         AppCenter.setUserId(mUserId);
@@ -201,6 +206,38 @@ public class CrashesAndroidTest {
         assertNull(errorReport);
     }
 
+    @Test
+    public void getLastSessionCrashReportCompactCrashCapture() throws Exception {
+
+        /* Crash on 1st process with compact crash capture. */
+        Thread.UncaughtExceptionHandler uncaughtExceptionHandler = mock(Thread.UncaughtExceptionHandler.class);
+        Thread.setDefaultUncaughtExceptionHandler(uncaughtExceptionHandler);
+        startFresh(null, true);
+        final RuntimeException exception = new IllegalArgumentException("compact");
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                throw exception;
+            }
+        };
+        thread.start();
+        thread.join();
+        File[] errorLogFiles = ErrorLogHelper.getStoredErrorLogFiles();
+        assertNotNull(errorLogFiles);
+        assertEquals(0, errorLogFiles.length);
+
+        /* Get last session crash on 2nd process, built from the crash record. */
+        startFresh(null);
+        ErrorReport errorReport = Crashes.getLastSessionCrashReport().get();
+        assertNotNull(errorReport);
+        assertNotNull(errorReport.getStackTrace());
+        assertTrue(errorReport.getStackTrace().contains("compact"));
+        assertNotNull(errorReport.getDevice());
+        assertEquals(thread.getName(), errorReport.getThreadName());
+        assertTrue(Crashes.hasCrashedInLastSession().get());
+    }
+
     @Test
     public void getLastSessionCrashReportStackOverflowException() throws Exception {
 
@@ -28,6 +28,7 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFact
 import com.microsoft.appcenter.crashes.model.ErrorReport;
 import com.microsoft.appcenter.crashes.model.NativeException;
 import com.microsoft.appcenter.crashes.model.TestCrashException;
+import com.microsoft.appcenter.crashes.utils.CrashRecordWriter;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
@@ -192,6 +193,16 @@ public class Crashes extends AbstractAppCenterService {
      */
     private boolean mSavedUncaughtException;
 
+    /**
+     * Whether uncaught exceptions are saved as compact records with a writer prepared at start.
+     */
+    private boolean mCompactCrashCaptureEnabled;
+
+    /**
+     * Writer prepared for the next uncaught exception, only set while enabled in compact capture mode.
+     */
+    private volatile CrashRecordWriter mCrashRecordWriter;
+
     /**
      * Automatic processing flag (automatic is the default).
      */
@@ -299,6 +310,19 @@ public class Crashes extends AbstractAppCenterService {
         getInstance().setInstanceListener(listener);
     }
 
+    /**
+     * Enable or disable compact crash capture, disabled by default. Must be called before AppCenter.start.
+     * <p>
+     * When enabled, a file and a buffer are reserved at start so that an uncaught exception is saved
+     * without waiting for the App Center thread nor serializing JSON on the crashing thread.
+     * The error log is built from that record on next launch.
+     *
+     * @param enabled true to enable compact crash capture, false to disable it.
+     */
+    public static void setCompactCrashCaptureEnabled(boolean enabled) {
+        getInstance().setInstanceCompactCrashCaptureEnabled(enabled);
+    }
+
     /**
      * Get the path where NDK minidump files should be created.
      * <p>
@@ -674,17 +698,79 @@ public class Crashes extends AbstractAppCenterService {
                 mUncaughtExceptionHandler.unregister();
                 mUncaughtExceptionHandler = null;
             }
+            closeCrashRecordWriter();
         } else {
 
             /* Register Java crash handler. */
             mUncaughtExceptionHandler = new UncaughtExceptionHandler();
             mUncaughtExceptionHandler.register();
 
+            /* Convert crash records saved by previous processes before looking for last session crash. */
+            if (mCrashRecordWriter == null) {
+                processCrashRecords();
+                if (mCompactCrashCaptureEnabled) {
+                    openCrashRecordWriter();
+                }
+            }
+
             /* Process minidump files. */
             processMinidumpFiles();
         }
     }
 
+    private void processCrashRecords() {
+        for (File recordFile : ErrorLogHelper.getStoredCrashRecordFiles()) {
+
+            /* Another process of the application may be running and still using its record. */
+            if (CrashRecordWriter.isLocked(recordFile)) {
+                AppCenterLog.debug(LOG_TAG, "Crash record file is in use by another process: " + recordFile);
+                continue;
+            }
+            if (recordFile.length() > 0) {
+                AppCenterLog.debug(LOG_TAG, "Process crash record file: " + recordFile);
+                try {
+                    CrashRecordWriter.CrashRecord crashRecord = CrashRecordWriter.read(recordFile);
+                    if (crashRecord != null) {
+                        saveErrorLogFiles(crashRecord.getErrorLog(), crashRecord.getStackTrace());
+                    } else {
+                        AppCenterLog.error(LOG_TAG, "Crash record is incomplete, ignoring it.");
+                    }
+                } catch (JSONException | IOException | RuntimeException e) {
+                    AppCenterLog.error(LOG_TAG, "Failed to process crash record file: " + recordFile, e);
+                }
+            }
+
+            //noinspection ResultOfMethodCallIgnored
+            recordFile.delete();
+        }
+    }
+
+    private void openCrashRecordWriter() {
+        Device device = null;
+        try {
+            device = getDeviceInfo(mContext);
+        } catch (DeviceInfoHelper.DeviceInfoException e) {
+            AppCenterLog.error(LOG_TAG, "Could not attach device properties snapshot to crash record, will attach at sending time", e);
+        }
+        try {
+            mCrashRecordWriter = new CrashRecordWriter(mContext, ErrorLogHelper.getCrashRecordFile(), device, mInitializeTimestamp);
+        } catch (JSONException | IOException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to prepare crash record file, crashes will be saved as error logs.", e);
+        }
+    }
+
+    private void closeCrashRecordWriter() {
+        CrashRecordWriter crashRecordWriter = mCrashRecordWriter;
+        if (crashRecordWriter != null) {
+            mCrashRecordWriter = null;
+            try {
+                crashRecordWriter.close();
+            } catch (IOException e) {
+                AppCenterLog.warn(LOG_TAG, "Failed to close crash record file.", e);
+            }
+        }
+    }
+
     private void processMinidumpFiles() {
 
         /* Convert minidump files to App Center crash files. */
@@ -958,6 +1044,17 @@ public class Crashes extends AbstractAppCenterService {
         return mCrashesListener;
     }
 
+    /**
+     * Implements {@link #setCompactCrashCaptureEnabled(boolean)}.
+     */
+    synchronized void setInstanceCompactCrashCaptureEnabled(boolean enabled) {
+        if (mContext != null) {
+            AppCenterLog.error(LOG_TAG, "Compact crash capture may not be changed after Crashes has been started.");
+            return;
+        }
+        mCompactCrashCaptureEnabled = enabled;
+    }
+
     @VisibleForTesting
     synchronized void setInstanceListener(CrashesListener listener) {
         if (listener == null) {
@@ -1098,6 +1195,15 @@ public class Crashes extends AbstractAppCenterService {
      * @param throwable uncaught exception or error.
      */
     void saveUncaughtException(Thread thread, Throwable throwable) {
+
+        /* In compact capture mode, the writer is only set while enabled so no need to wait for the App Center thread. */
+        CrashRecordWriter crashRecordWriter = mCrashRecordWriter;
+        if (crashRecordWriter != null && !mSavedUncaughtException) {
+            if (crashRecordWriter.write(thread, throwable, Thread.getAllStackTraces())) {
+                mSavedUncaughtException = true;
+                return;
+            }
+        }
         try {
             saveUncaughtException(thread, throwable, ErrorLogHelper.getModelExceptionFromThrowable(throwable));
         } catch (JSONException e) {
@@ -1176,6 +1282,20 @@ public class Crashes extends AbstractAppCenterService {
         return errorLogId;
     }
 
+    private void saveErrorLogFiles(ManagedErrorLog errorLog, String stackTrace) throws JSONException, IOException {
+        File errorStorageDirectory = ErrorLogHelper.getErrorStorageDirectory();
+        String filename = errorLog.getId().toString();
+        File errorLogFile = new File(errorStorageDirectory, filename + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        FileManager.write(errorLogFile, mLogSerializer.serializeLog(errorLog));
+        AppCenterLog.debug(Crashes.LOG_TAG, "Saved JSON content for ingestion into " + errorLogFile);
+        File throwableFile = new File(errorStorageDirectory, filename + ErrorLogHelper.THROWABLE_FILE_EXTENSION);
+        if (stackTrace != null) {
+            FileManager.write(throwableFile, stackTrace);
+        } else if (!throwableFile.createNewFile()) {
+            throw new IOException(throwableFile.getName());
+        }
+    }
+
     /**
      * Implementation of {@link WrapperSdkExceptionManager#setAutomaticProcessing(boolean)}.
      */
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.crashes.Crashes;
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.crashes.ingestion.models.Thread;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.context.UserIdContext;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static android.util.Log.getStackTraceString;
+import static com.microsoft.appcenter.crashes.utils.ErrorLogHelper.CAUSE_LIMIT;
+import static com.microsoft.appcenter.crashes.utils.ErrorLogHelper.CAUSE_LIMIT_HALF;
+import static com.microsoft.appcenter.crashes.utils.ErrorLogHelper.FRAME_LIMIT;
+import static com.microsoft.appcenter.crashes.utils.ErrorLogHelper.FRAME_LIMIT_HALF;
+
+/**
+ * Saves an uncaught exception as a compact binary record using a file opened and a buffer
+ * allocated ahead of time. The crashing thread neither waits for the App Center thread nor
+ * serializes JSON, the error log is built from the record on next launch.
+ */
+public class CrashRecordWriter implements Closeable {
+
+    /**
+     * Size of the scratch buffer. Thread stack traces that do not fit are left out of the record.
+     */
+    @VisibleForTesting
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Maximum length of the stack trace kept as is, longer ones are not saved.
+     */
+    private static final int MAX_STACK_TRACE_LENGTH = BUFFER_SIZE / 8;
+
+    /**
+     * Magic number identifying the record format.
+     */
+    private static final int MAGIC = 0x41435201;
+
+    /**
+     * Size of the record header: magic number then body length.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Pre-opened record file.
+     */
+    private final RandomAccessFile mFile;
+
+    /**
+     * Lock held on the record file while this process uses it.
+     */
+    private final FileLock mLock;
+
+    /**
+     * Scratch buffer the record is encoded into.
+     */
+    private final byte[] mBuffer;
+
+    /**
+     * Whether a record has already been written, only the first crash is saved.
+     */
+    private final AtomicBoolean mWritten = new AtomicBoolean();
+
+    /**
+     * Error log identifier, generated ahead of time.
+     */
+    private final UUID mErrorId;
+
+    /**
+     * Device properties snapshot taken when opening the writer, as JSON.
+     */
+    private final String mDeviceJson;
+
+    /**
+     * Process name.
+     */
+    private final String mProcessName;
+
+    /**
+     * CPU architecture.
+     */
+    private final String mArchitecture;
+
+    /**
+     * Crashes initialization timestamp, used as application launch time.
+     */
+    private final long mInitializeTimestamp;
+
+    /**
+     * Current write position in the scratch buffer.
+     */
+    private int mPosition;
+
+    /**
+     * Open and lock the record file and allocate the buffer. The file is truncated.
+     *
+     * @param context             application context.
+     * @param file                record file.
+     * @param device              device properties snapshot, can be null to attach them at sending time.
+     * @param initializeTimestamp Crashes initialization timestamp.
+     * @throws IOException   if the file cannot be opened.
+     * @throws JSONException if the device properties cannot be serialized.
+     */
+    public CrashRecordWriter(@NonNull Context context, @NonNull File file, @Nullable Device device, long initializeTimestamp) throws IOException, JSONException {
+        mErrorId = UUID.randomUUID();
+        if (device != null) {
+            JSONStringer writer = new JSONStringer();
+            writer.object();
+            device.write(writer);
+            writer.endObject();
+            mDeviceJson = writer.toString();
+        } else {
+            mDeviceJson = null;
+        }
+        mProcessName = ErrorLogHelper.getProcessName(context);
+        mArchitecture = ErrorLogHelper.getArchitecture();
+        mInitializeTimestamp = initializeTimestamp;
+        mBuffer = new byte[BUFFER_SIZE];
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mLock = mFile.getChannel().tryLock();
+            mFile.setLength(0);
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the identifier the error log will have.
+     *
+     * @return error log identifier.
+     */
+    public UUID getErrorId() {
+        return mErrorId;
+    }
+
+    /**
+     * Save an uncaught exception. Only the first call saves a record, can be called from any thread.
+     *
+     * @param thread         thread where crash occurred.
+     * @param throwable      uncaught exception or error.
+     * @param allStackTraces stack traces of all threads.
+     * @return false if the record could not be written.
+     */
+    public boolean write(@NonNull java.lang.Thread thread, @NonNull Throwable throwable, @NonNull Map<java.lang.Thread, StackTraceElement[]> allStackTraces) {
+        if (!mWritten.compareAndSet(false, true)) {
+            return true;
+        }
+        String stackTrace;
+        try {
+            stackTrace = getStackTraceString(throwable);
+        } catch (StackOverflowError e) {
+            stackTrace = null;
+        }
+        if (stackTrace != null && stackTrace.length() > MAX_STACK_TRACE_LENGTH) {
+            stackTrace = null;
+        }
+        mPosition = HEADER_SIZE;
+        boolean headerWritten = putLong(System.currentTimeMillis())
+                && putString(mErrorId.toString())
+                && putString(UserIdContext.getInstance().getUserId())
+                && putInt(Process.myPid())
+                && putString(mProcessName)
+                && putString(mArchitecture)
+                && putLong(mInitializeTimestamp)
+                && putString(mDeviceJson)
+                && putLong(thread.getId())
+                && putString(thread.getName())
+                && putString(stackTrace);
+        if (!headerWritten || !putExceptions(throwable) || !putThreads(allStackTraces)) {
+            return false;
+        }
+        setInt(0, MAGIC);
+        setInt(4, mPosition - HEADER_SIZE);
+        try {
+            mFile.seek(0);
+            mFile.write(mBuffer, 0, mPosition);
+            return true;
+        } catch (IOException e) {
+            AppCenterLog.error(Crashes.LOG_TAG, "Failed to write crash record.", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mLock != null) {
+            mLock.release();
+        }
+        mFile.close();
+    }
+
+    /**
+     * Check whether a record file is still used by a running process.
+     *
+     * @param file record file.
+     * @return true if another writer holds the lock on the file.
+     */
+    public static boolean isLocked(@NonNull File file) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            FileLock lock = randomAccessFile.getChannel().tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a crash record saved by a previous process.
+     *
+     * @param file record file.
+     * @return crash record or null if the file does not contain a complete record.
+     * @throws IOException   if the file cannot be read.
+     * @throws JSONException if the device properties cannot be parsed.
+     */
+    @Nullable
+    public static CrashRecord read(@NonNull File file) throws IOException, JSONException {
+        long fileLength = file.length();
+        if (fileLength < HEADER_SIZE) {
+            return null;
+        }
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() > fileLength - HEADER_SIZE) {
+                return null;
+            }
+            ManagedErrorLog errorLog = new ManagedErrorLog();
+            errorLog.setTimestamp(new Date(input.readLong()));
+            errorLog.setId(UUID.fromString(readString(input)));
+            errorLog.setUserId(readString(input));
+            errorLog.setProcessId(input.readInt());
+            errorLog.setProcessName(readString(input));
+            errorLog.setArchitecture(readString(input));
+            errorLog.setAppLaunchTimestamp(new Date(input.readLong()));
+            String deviceJson = readString(input);
+            if (deviceJson != null) {
+                Device device = new Device();
+                device.read(new JSONObject(deviceJson));
+                errorLog.setDevice(device);
+            }
+            errorLog.setErrorThreadId(input.readLong());
+            errorLog.setErrorThreadName(readString(input));
+            errorLog.setFatal(true);
+            String stackTrace = readString(input);
+
+            /* Rebuild cause chain. */
+            Exception topException = null;
+            Exception parentException = null;
+            int exceptionCount = input.readInt();
+            for (int i = 0; i < exceptionCount; i++) {
+                Exception exception = new Exception();
+                exception.setType(readString(input));
+                exception.setMessage(readString(input));
+                exception.setFrames(readFrames(input));
+                if (topException == null) {
+                    topException = exception;
+                } else {
+                    parentException.setInnerExceptions(Collections.singletonList(exception));
+                }
+                parentException = exception;
+            }
+            if (topException == null) {
+                return null;
+            }
+            errorLog.setException(topException);
+
+            /* Rebuild thread states. */
+            int threadCount = input.readInt();
+            List<Thread> threads = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                Thread thread = new Thread();
+                thread.setId(input.readLong());
+                thread.setName(readString(input));
+                thread.setFrames(readFrames(input));
+                threads.add(thread);
+            }
+            errorLog.setThreads(threads);
+            return new CrashRecord(errorLog, stackTrace);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Check if an element at a given index is dropped, keeping only beginning and end of a sequence.
+     */
+    private static boolean isTruncated(int index, int count, int limit, int limitHalf) {
+        return count > limit && index >= limitHalf && index < count - limitHalf;
+    }
+
+    private boolean putExceptions(Throwable throwable) {
+        int causeCount = 0;
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            causeCount++;
+        }
+        int countPosition = mPosition;
+        if (!putInt(0)) {
+            return false;
+        }
+        int count = 0;
+        int index = 0;
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause(), index++) {
+            if (isTruncated(index, causeCount, CAUSE_LIMIT, CAUSE_LIMIT_HALF)) {
+                continue;
+            }
+            int mark = mPosition;
+            if (!(putString(cause.getClass().getName()) && putString(cause.getMessage()) && putFrames(cause.getStackTrace()))) {
+                mPosition = mark;
+                break;
+            }
+            count++;
+        }
+        setInt(countPosition, count);
+        return true;
+    }
+
+    private boolean putThreads(Map<java.lang.Thread, StackTraceElement[]> allStackTraces) {
+        int countPosition = mPosition;
+        if (!putInt(0)) {
+            return false;
+        }
+        int count = 0;
+        for (Map.Entry<java.lang.Thread, StackTraceElement[]> entry : allStackTraces.entrySet()) {
+            int mark = mPosition;
+            if (!(putLong(entry.getKey().getId()) && putString(entry.getKey().getName()) && putFrames(entry.getValue()))) {
+                mPosition = mark;
+                break;
+            }
+            count++;
+        }
+        setInt(countPosition, count);
+        return true;
+    }
+
+    private boolean putFrames(StackTraceElement[] stackTrace) {
+        int countPosition = mPosition;
+        if (!putInt(0)) {
+            return false;
+        }
+        int count = 0;
+        for (int i = 0; i < stackTrace.length; i++) {
+            if (isTruncated(i, stackTrace.length, FRAME_LIMIT, FRAME_LIMIT_HALF)) {
+                continue;
+            }
+            StackTraceElement frame = stackTrace[i];
+            int mark = mPosition;
+            if (!(putString(frame.getClassName()) && putString(frame.getMethodName()) && putString(frame.getFileName()) && putInt(frame.getLineNumber()))) {
+                mPosition = mark;
+                break;
+            }
+            count++;
+        }
+        setInt(countPosition, count);
+        return true;
+    }
+
+    private boolean putString(String value) {
+        if (value == null) {
+            return putInt(-1);
+        }
+        int length = value.length();
+        if (mPosition + 4 + length * 2 > mBuffer.length) {
+            return false;
+        }
+        putInt(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            mBuffer[mPosition++] = (byte) (c >>> 8);
+            mBuffer[mPosition++] = (byte) c;
+        }
+        return true;
+    }
+
+    private boolean putLong(long value) {
+        return putInt((int) (value >>> 32)) && putInt((int) value);
+    }
+
+    private boolean putInt(int value) {
+        if (mPosition + 4 > mBuffer.length) {
+            return false;
+        }
+        setInt(mPosition, value);
+        mPosition += 4;
+        return true;
+    }
+
+    private void setInt(int position, int value) {
+        mBuffer[position] = (byte) (value >>> 24);
+        mBuffer[position + 1] = (byte) (value >>> 16);
+        mBuffer[position + 2] = (byte) (value >>> 8);
+        mBuffer[position + 3] = (byte) value;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = input.readChar();
+        }
+        return new String(chars);
+    }
+
+    private static List<StackFrame> readFrames(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        List<StackFrame> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StackFrame frame = new StackFrame();
+            frame.setClassName(readString(input));
+            frame.setMethodName(readString(input));
+            frame.setFileName(readString(input));
+            frame.setLineNumber(input.readInt());
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * Crash saved by a previous process.
+     */
+    public static class CrashRecord {
+
+        /**
+         * Error log.
+         */
+        private final ManagedErrorLog mErrorLog;
+
+        /**
+         * Stack trace as is, can be null.
+         */
+        private final String mStackTrace;
+
+        /**
+         * Init.
+         *
+         * @param errorLog   error log.
+         * @param stackTrace stack trace as is.
+         */
+        CrashRecord(ManagedErrorLog errorLog, String stackTrace) {
+            mErrorLog = errorLog;
+            mStackTrace = stackTrace;
+        }
+
+        /**
+         * Get error log.
+         *
+         * @return error log.
+         */
+        public ManagedErrorLog getErrorLog() {
+            return mErrorLog;
+        }
+
+        /**
+         * Get stack trace as is.
+         *
+         * @return stack trace, or null if it could not be saved.
+         */
+        public String getStackTrace() {
+            return mStackTrace;
+        }
+    }
+}
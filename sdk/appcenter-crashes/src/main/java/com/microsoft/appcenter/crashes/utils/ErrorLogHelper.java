@@ -65,6 +65,12 @@ public class ErrorLogHelper {
      */
     public static final String THROWABLE_FILE_EXTENSION = ".throwable";
 
+    /**
+     * File extension for an uncaught exception saved in compact crash capture mode.
+     */
+    @VisibleForTesting
+    static final String CRASH_RECORD_FILE_EXTENSION = ".record";
+
     /**
      * Directory under the FILES_PATH containing minidump files.
      */
@@ -89,7 +95,7 @@ public class ErrorLogHelper {
     /**
      * We keep the first half of the limit of frames from the beginning and the second half from end.
      */
-    private static final int FRAME_LIMIT_HALF = FRAME_LIMIT / 2;
+    static final int FRAME_LIMIT_HALF = FRAME_LIMIT / 2;
 
     /**
      * For huge exception cause chains, we keep only beginning and end of causes according to this limit.
@@ -100,7 +106,7 @@ public class ErrorLogHelper {
     /**
      * We keep the first half of the limit of causes from the beginning and the second half from end.
      */
-    private static final int CAUSE_LIMIT_HALF = CAUSE_LIMIT / 2;
+    static final int CAUSE_LIMIT_HALF = CAUSE_LIMIT / 2;
 
     /**
      * Error log directory within application files.
@@ -165,25 +171,7 @@ public class ErrorLogHelper {
 
         /* Process information. Parent one is not available on Android. */
         errorLog.setProcessId(Process.myPid());
-        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        if (activityManager != null) {
-            List<ActivityManager.RunningAppProcessInfo> runningAppProcesses = activityManager.getRunningAppProcesses();
-            if (runningAppProcesses != null) {
-                for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
-                    if (info.pid == Process.myPid()) {
-                        errorLog.setProcessName(info.processName);
-                    }
-                }
-            }
-        }
-
-        /*
-         * Process name is required field for crash processing but cannot always be available,
-         * make sure we send a default value if not found.
-         */
-        if (errorLog.getProcessName() == null) {
-            errorLog.setProcessName("");
-        }
+        errorLog.setProcessName(getProcessName(context));
 
         /* CPU architecture. */
         errorLog.setArchitecture(getArchitecture());
@@ -214,9 +202,36 @@ public class ErrorLogHelper {
         return errorLog;
     }
 
+    /**
+     * Get the name of the current process.
+     *
+     * @param context application context.
+     * @return process name or empty string if not found.
+     */
+    @NonNull
+    static String getProcessName(@NonNull Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            List<ActivityManager.RunningAppProcessInfo> runningAppProcesses = activityManager.getRunningAppProcesses();
+            if (runningAppProcesses != null) {
+                for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
+                    if (info.pid == Process.myPid() && info.processName != null) {
+                        return info.processName;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Process name is required field for crash processing but cannot always be available,
+         * make sure we send a default value if not found.
+         */
+        return "";
+    }
+
     @SuppressWarnings("deprecation")
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private static String getArchitecture() {
+    static String getArchitecture() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             return Build.SUPPORTED_ABIS[0];
         } else {
@@ -402,6 +417,33 @@ public class ErrorLogHelper {
         FileManager.deleteDirectory(minidumpDirectory);
     }
 
+    /**
+     * Get a new file where an uncaught exception is saved in compact crash capture mode.
+     * The name is unique per process start so that processes of the same application do not share a record.
+     *
+     * @return crash record file.
+     */
+    @NonNull
+    public static File getCrashRecordFile() {
+        return new File(getErrorStorageDirectory(), Process.myPid() + "-" + UUID.randomUUID() + CRASH_RECORD_FILE_EXTENSION);
+    }
+
+    /**
+     * Get the crash record files left by any process.
+     *
+     * @return crash record files.
+     */
+    @NonNull
+    public static File[] getStoredCrashRecordFiles() {
+        File[] files = getErrorStorageDirectory().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(CRASH_RECORD_FILE_EXTENSION);
+            }
+        });
+        return files != null ? files : new File[0];
+    }
+
     @Nullable
     public static File getLastErrorLogFile() {
         return FileManager.lastModifiedFile(getErrorStorageDirectory(), new FilenameFilter() {
@@ -8,6 +8,7 @@ package com.microsoft.appcenter.crashes;
 import android.content.ComponentCallbacks;
 import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.os.Looper;
 
@@ -22,6 +23,7 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.HandledErrorLogFact
 import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFactory;
 import com.microsoft.appcenter.crashes.model.ErrorReport;
 import com.microsoft.appcenter.crashes.model.TestCrashException;
+import com.microsoft.appcenter.crashes.utils.CrashRecordWriter;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
@@ -154,6 +156,7 @@ public class CrashesTest extends AbstractCrashesTest {
         UncaughtExceptionHandler mockHandler = mock(UncaughtExceptionHandler.class);
         when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(dir);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(dir.listFiles()).thenReturn(new File[]{file1, file2});
         crashes.setUncaughtExceptionHandler(mockHandler);
@@ -202,6 +205,7 @@ public class CrashesTest extends AbstractCrashesTest {
         File file2 = mock(File.class);
         when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(dir);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(dir.listFiles()).thenReturn(new File[]{file1, file2});
 
@@ -257,6 +261,7 @@ public class CrashesTest extends AbstractCrashesTest {
         File dir = mock(File.class);
         when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(dir);
         when(dir.listFiles()).thenReturn(null);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{mockErrorFile});
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
 
@@ -298,6 +303,7 @@ public class CrashesTest extends AbstractCrashesTest {
         ErrorReport report = new ErrorReport();
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(report);
@@ -346,6 +352,7 @@ public class CrashesTest extends AbstractCrashesTest {
 
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(report);
@@ -388,6 +395,7 @@ public class CrashesTest extends AbstractCrashesTest {
 
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(report);
@@ -429,6 +437,7 @@ public class CrashesTest extends AbstractCrashesTest {
     public void processPendingErrorsCorrupted() throws JSONException {
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(FileManager.read(any(File.class))).thenReturn("");
 
@@ -467,6 +476,7 @@ public class CrashesTest extends AbstractCrashesTest {
 
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
 
         Crashes crashes = Crashes.getInstance();
@@ -488,6 +498,7 @@ public class CrashesTest extends AbstractCrashesTest {
 
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(FileManager.read(any(File.class))).thenReturn("");
         Crashes crashes = Crashes.getInstance();
@@ -526,6 +537,7 @@ public class CrashesTest extends AbstractCrashesTest {
         when(errorLogFile.length()).thenReturn(1L);
         when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(errorLogFile);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         File throwableFile = mock(File.class);
         when(throwableFile.length()).thenReturn(1L);
@@ -583,6 +595,7 @@ public class CrashesTest extends AbstractCrashesTest {
     public void getChannelListenerErrors() {
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(FileManager.read(any(File.class))).thenReturn(null);
@@ -612,6 +625,7 @@ public class CrashesTest extends AbstractCrashesTest {
         /* Prepare data. Mock classes. */
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(new ErrorReport());
@@ -652,6 +666,7 @@ public class CrashesTest extends AbstractCrashesTest {
 
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(FileManager.read(any(File.class))).thenReturn(null);
@@ -756,6 +771,7 @@ public class CrashesTest extends AbstractCrashesTest {
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(null);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         assertNull(Crashes.getLastSessionCrashReport().get());
         Crashes.getInstance().onStarted(mock(Context.class), mock(Channel.class), "", null, true);
@@ -792,6 +808,7 @@ public class CrashesTest extends AbstractCrashesTest {
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(throwableFile);
         when(ErrorLogHelper.getErrorReportFromErrorLog(errorLog, STACK_TRACE)).thenReturn(errorReport);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{lastErrorLogFile});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(FileManager.read(any(File.class))).thenReturn("fake_data").thenReturn(STACK_TRACE);
 
@@ -867,6 +884,7 @@ public class CrashesTest extends AbstractCrashesTest {
         new FileWriter(lastErrorLogFile).append("fake_data").close();
         when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(lastErrorLogFile);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{lastErrorLogFile});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(FileManager.read(any(File.class))).thenReturn("fake_data");
 
@@ -904,6 +922,7 @@ public class CrashesTest extends AbstractCrashesTest {
         File file = errorStorageDirectory.newFile("last-error-log.json");
         new FileWriter(file).append("fake_data").close();
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(file);
         Crashes.getInstance().onStarted(mock(Context.class), mock(Channel.class), "", null, true);
@@ -916,6 +935,7 @@ public class CrashesTest extends AbstractCrashesTest {
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(null);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
 
         @SuppressWarnings("unchecked")
@@ -951,6 +971,7 @@ public class CrashesTest extends AbstractCrashesTest {
         when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(log);
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(new ErrorReport());
@@ -980,6 +1001,7 @@ public class CrashesTest extends AbstractCrashesTest {
         ErrorReport report2 = new ErrorReport();
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(report1).thenReturn(report2);
@@ -1087,6 +1109,7 @@ public class CrashesTest extends AbstractCrashesTest {
         ErrorReport report2 = new ErrorReport();
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), anyString())).thenReturn(report1).thenReturn(report2);
@@ -1166,6 +1189,7 @@ public class CrashesTest extends AbstractCrashesTest {
         when(errorLogFile.length()).thenReturn(1L);
         when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(errorLogFile);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{minidumpSubfolder});
         File pendingDir = mock(File.class);
         Whitebox.setInternalState(pendingDir, "path", "");
@@ -1263,6 +1287,7 @@ public class CrashesTest extends AbstractCrashesTest {
         whenNew(com.microsoft.appcenter.crashes.ingestion.models.Exception.class).withAnyArguments().thenReturn(exception);
         when(exception.getMinidumpFilePath()).thenReturn(null);
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(FileManager.read(any(File.class))).thenReturn("");
@@ -1317,6 +1342,7 @@ public class CrashesTest extends AbstractCrashesTest {
 
         /* This mocks we already processed minidump to convert to pending regular crash report as that would be the case if migrating data from older SDK. */
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
         when(FileManager.read(any(File.class))).thenReturn("");
@@ -1358,6 +1384,7 @@ public class CrashesTest extends AbstractCrashesTest {
         /* Mock error log utils. */
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
         when(ErrorLogHelper.createErrorLog(any(Context.class), any(Thread.class), any(com.microsoft.appcenter.crashes.ingestion.models.Exception.class), anyMapOf(Thread.class, StackTraceElement[].class), anyLong(), anyBoolean())).thenReturn(mErrorLog);
@@ -1406,6 +1433,130 @@ public class CrashesTest extends AbstractCrashesTest {
         FileManager.write(any(File.class), eq(jsonCrash));
     }
 
+    @Test
+    @PrepareForTest({DeviceInfoHelper.class, android.util.Log.class})
+    public void compactCrashCapture() throws Exception {
+
+        /* Mock error log utils. */
+        mockStatic(ErrorLogHelper.class);
+        mockStatic(DeviceInfoHelper.class);
+        File recordFile = errorStorageDirectory.newFile("1-crash.record");
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getCrashRecordFile()).thenReturn(recordFile);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenThrow(new DeviceInfoHelper.DeviceInfoException("mock", new PackageManager.NameNotFoundException()));
+        mockStatic(android.util.Log.class);
+        when(getStackTraceString(any(Throwable.class))).thenReturn(STACK_TRACE);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+
+        /* Simulate start SDK in compact capture mode. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.setInstanceCompactCrashCaptureEnabled(true);
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        assertTrue(recordFile.exists());
+        assertEquals(0, recordFile.length());
+
+        /* Mode cannot be changed after start. */
+        crashes.setInstanceCompactCrashCaptureEnabled(false);
+        verifyStatic();
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
+
+        /* Simulate crash: a record is written instead of error log files. */
+        crashes.saveUncaughtException(Thread.currentThread(), new IllegalArgumentException("mock"));
+        assertTrue(recordFile.length() > 0);
+        verify(logSerializer, never()).serializeLog(any(Log.class));
+        verifyStatic(never());
+        FileManager.write(any(File.class), anyString());
+
+        /* Only one crash is saved. */
+        long length = recordFile.length();
+        crashes.saveUncaughtException(Thread.currentThread(), new RuntimeException());
+        assertEquals(length, recordFile.length());
+
+        /* Record is in use while the process is alive. */
+        assertTrue(CrashRecordWriter.isLocked(recordFile));
+
+        /* Simulate process death. */
+        Whitebox.<CrashRecordWriter>getInternalState(crashes, "mCrashRecordWriter").close();
+        assertFalse(CrashRecordWriter.isLocked(recordFile));
+
+        /* Restart without compact capture mode: error log files are created from the record. */
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[]{recordFile});
+        Crashes.unsetInstance();
+        crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        ArgumentCaptor<ManagedErrorLog> errorLog = ArgumentCaptor.forClass(ManagedErrorLog.class);
+        verify(logSerializer).serializeLog(errorLog.capture());
+        assertEquals(IllegalArgumentException.class.getName(), errorLog.getValue().getException().getType());
+        assertEquals("mock", errorLog.getValue().getException().getMessage());
+        assertEquals(Long.valueOf(Thread.currentThread().getId()), errorLog.getValue().getErrorThreadId());
+        assertTrue(errorLog.getValue().getFatal());
+        assertNull(errorLog.getValue().getDevice());
+        String filename = errorLog.getValue().getId().toString();
+        verifyStatic();
+        FileManager.write(eq(new File(errorStorageDirectory.getRoot(), filename + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION)), eq("{}"));
+        verifyStatic();
+        FileManager.write(eq(new File(errorStorageDirectory.getRoot(), filename + ErrorLogHelper.THROWABLE_FILE_EXTENSION)), eq(STACK_TRACE));
+        assertFalse(recordFile.exists());
+    }
+
+    @Test
+    @PrepareForTest(android.util.Log.class)
+    public void processCrashRecordsOfAllProcesses() throws Exception {
+
+        /* Mock error log utils. */
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        mockStatic(android.util.Log.class);
+        when(getStackTraceString(any(Throwable.class))).thenReturn(STACK_TRACE);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+
+        /* Two processes crashed and left a record each. */
+        File firstRecordFile = errorStorageDirectory.newFile("1-first.record");
+        CrashRecordWriter firstWriter = new CrashRecordWriter(mock(Context.class), firstRecordFile, null, 0);
+        assertTrue(firstWriter.write(Thread.currentThread(), new IllegalArgumentException("first"), Thread.getAllStackTraces()));
+        firstWriter.close();
+        File secondRecordFile = errorStorageDirectory.newFile("2-second.record");
+        CrashRecordWriter secondWriter = new CrashRecordWriter(mock(Context.class), secondRecordFile, null, 0);
+        assertTrue(secondWriter.write(Thread.currentThread(), new IllegalStateException("second"), Thread.getAllStackTraces()));
+        secondWriter.close();
+
+        /* Another process is still running. */
+        File liveRecordFile = errorStorageDirectory.newFile("3-live.record");
+        CrashRecordWriter liveWriter = new CrashRecordWriter(mock(Context.class), liveRecordFile, null, 0);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[]{firstRecordFile, secondRecordFile, liveRecordFile});
+
+        /* Start: both leftover records are converted to error logs. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        ArgumentCaptor<ManagedErrorLog> errorLog = ArgumentCaptor.forClass(ManagedErrorLog.class);
+        verify(logSerializer, times(2)).serializeLog(errorLog.capture());
+        assertEquals(IllegalArgumentException.class.getName(), errorLog.getAllValues().get(0).getException().getType());
+        assertEquals(IllegalStateException.class.getName(), errorLog.getAllValues().get(1).getException().getType());
+        for (ManagedErrorLog log : errorLog.getAllValues()) {
+            verifyStatic();
+            FileManager.write(eq(new File(errorStorageDirectory.getRoot(), log.getId() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION)), eq("{}"));
+        }
+        assertFalse(firstRecordFile.exists());
+        assertFalse(secondRecordFile.exists());
+
+        /* The record of the running process is left untouched. */
+        assertTrue(liveRecordFile.exists());
+        liveWriter.close();
+    }
+
     @Test
     public void handlerMemoryWarning() {
 
@@ -1443,6 +1594,7 @@ public class CrashesTest extends AbstractCrashesTest {
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
 
         /* Instance crash module. */
@@ -1475,6 +1627,7 @@ public class CrashesTest extends AbstractCrashesTest {
         mockStatic(ErrorLogHelper.class);
         when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
         when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredCrashRecordFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(FileManager.read(any(File.class))).thenReturn("");
 
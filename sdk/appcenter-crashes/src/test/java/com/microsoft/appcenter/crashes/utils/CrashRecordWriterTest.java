@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.context.UserIdContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({Log.class, Process.class, AppCenterLog.class})
+public class CrashRecordWriterTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws java.lang.Exception {
+        mockStatic(Log.class);
+        mockStatic(Process.class);
+        mockStatic(AppCenterLog.class);
+        when(Log.getStackTraceString(any(Throwable.class))).thenReturn("stack trace");
+        when(Process.myPid()).thenReturn(123);
+        mFile = mTemporaryFolder.newFile("crash" + ErrorLogHelper.CRASH_RECORD_FILE_EXTENSION);
+    }
+
+    @After
+    public void tearDown() {
+        UserIdContext.unsetInstance();
+    }
+
+    @Test
+    public void writeAndRead() throws java.lang.Exception {
+        UserIdContext.getInstance().setUserId("alice");
+        CrashRecordWriter writer = new CrashRecordWriter(mock(Context.class), mFile, null, 42L);
+        assertEquals(0, mFile.length());
+        Throwable throwable = new RuntimeException("top", new IllegalStateException("cause"));
+        Map<Thread, StackTraceElement[]> allStackTraces = new HashMap<>();
+        allStackTraces.put(Thread.currentThread(), Thread.currentThread().getStackTrace());
+        assertTrue(writer.write(Thread.currentThread(), throwable, allStackTraces));
+        long length = mFile.length();
+        assertTrue(length > 0);
+
+        /* Only the first crash is saved. */
+        assertTrue(writer.write(Thread.currentThread(), new RuntimeException("second"), allStackTraces));
+        assertEquals(length, mFile.length());
+        writer.close();
+
+        /* Check error log is rebuilt. */
+        CrashRecordWriter.CrashRecord crashRecord = CrashRecordWriter.read(mFile);
+        assertNotNull(crashRecord);
+        assertEquals("stack trace", crashRecord.getStackTrace());
+        ManagedErrorLog errorLog = crashRecord.getErrorLog();
+        assertEquals(writer.getErrorId(), errorLog.getId());
+        assertEquals("alice", errorLog.getUserId());
+        assertNull(errorLog.getDevice());
+        assertEquals(Integer.valueOf(123), errorLog.getProcessId());
+        assertEquals("", errorLog.getProcessName());
+        assertEquals(42L, errorLog.getAppLaunchTimestamp().getTime());
+        assertNotNull(errorLog.getTimestamp());
+        assertEquals(Long.valueOf(Thread.currentThread().getId()), errorLog.getErrorThreadId());
+        assertEquals(Thread.currentThread().getName(), errorLog.getErrorThreadName());
+        assertTrue(errorLog.getFatal());
+        Exception exception = errorLog.getException();
+        assertEquals(RuntimeException.class.getName(), exception.getType());
+        assertEquals(throwable.getMessage(), exception.getMessage());
+        assertEquals(throwable.getStackTrace().length, exception.getFrames().size());
+        StackFrame frame = exception.getFrames().get(0);
+        assertEquals(throwable.getStackTrace()[0].getClassName(), frame.getClassName());
+        assertEquals(throwable.getStackTrace()[0].getMethodName(), frame.getMethodName());
+        assertEquals(throwable.getStackTrace()[0].getFileName(), frame.getFileName());
+        assertEquals(Integer.valueOf(throwable.getStackTrace()[0].getLineNumber()), frame.getLineNumber());
+        assertEquals(1, exception.getInnerExceptions().size());
+        assertEquals(IllegalStateException.class.getName(), exception.getInnerExceptions().get(0).getType());
+        assertEquals("cause", exception.getInnerExceptions().get(0).getMessage());
+        assertEquals(1, errorLog.getThreads().size());
+        assertEquals(Thread.currentThread().getId(), errorLog.getThreads().get(0).getId());
+        assertFalse(errorLog.getThreads().get(0).getFrames().isEmpty());
+    }
+
+    @Test
+    public void truncateFramesAndThreads() throws java.lang.Exception {
+        CrashRecordWriter writer = new CrashRecordWriter(mock(Context.class), mFile, null, 0);
+
+        /* Frames over the limit keep only beginning and end. */
+        StackTraceElement[] frames = new StackTraceElement[ErrorLogHelper.FRAME_LIMIT * 2];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new StackTraceElement("com.example.SomeVeryLongClassNameToFillTheBuffer", "method" + i, "File.java", i);
+        }
+        Throwable throwable = new RuntimeException();
+        throwable.setStackTrace(frames);
+
+        /* More threads than the buffer can hold are left out. */
+        Map<Thread, StackTraceElement[]> allStackTraces = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            allStackTraces.put(new Thread(), frames);
+        }
+        assertTrue(writer.write(Thread.currentThread(), throwable, allStackTraces));
+        assertTrue(mFile.length() <= CrashRecordWriter.BUFFER_SIZE);
+        writer.close();
+        CrashRecordWriter.CrashRecord crashRecord = CrashRecordWriter.read(mFile);
+        assertNotNull(crashRecord);
+        ManagedErrorLog errorLog = crashRecord.getErrorLog();
+        assertEquals(ErrorLogHelper.FRAME_LIMIT, errorLog.getException().getFrames().size());
+        assertEquals("method0", errorLog.getException().getFrames().get(0).getMethodName());
+        assertEquals("method" + (frames.length - 1), errorLog.getException().getFrames().get(ErrorLogHelper.FRAME_LIMIT - 1).getMethodName());
+        assertTrue(errorLog.getThreads().size() < allStackTraces.size());
+    }
+
+    @Test
+    public void lockedWhileOpen() throws java.lang.Exception {
+        assertFalse(CrashRecordWriter.isLocked(mFile));
+        CrashRecordWriter writer = new CrashRecordWriter(mock(Context.class), mFile, null, 0);
+        assertTrue(CrashRecordWriter.isLocked(mFile));
+        writer.close();
+        assertFalse(CrashRecordWriter.isLocked(mFile));
+    }
+
+    @Test
+    public void readIncompleteRecord() throws java.lang.Exception {
+
+        /* Empty file: no crash. */
+        assertNull(CrashRecordWriter.read(mFile));
+
+        /* Torn record. */
+        CrashRecordWriter writer = new CrashRecordWriter(mock(Context.class), mFile, null, 0);
+        assertTrue(writer.write(Thread.currentThread(), new RuntimeException(), new HashMap<Thread, StackTraceElement[]>()));
+        writer.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        assertNull(CrashRecordWriter.read(mFile));
+
+        /* Unknown content. */
+        file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(0);
+            file.writeInt(0);
+        } finally {
+            file.close();
+        }
+        assertNull(CrashRecordWriter.read(mFile));
+    }
+}
@@ -45,6 +45,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -339,6 +340,38 @@ public class ErrorLogHelperTest {
         ErrorLogHelper.setErrorLogDirectory(null);
     }
 
+    @Test
+    public void crashRecordFiles() throws java.lang.Exception {
+        when(Process.myPid()).thenReturn(123);
+        ErrorLogHelper.setErrorLogDirectory(mTemporaryFolder.getRoot());
+
+        /* Each process start gets its own record file. */
+        File firstFile = ErrorLogHelper.getCrashRecordFile();
+        File secondFile = ErrorLogHelper.getCrashRecordFile();
+        assertNotEquals(firstFile, secondFile);
+        assertTrue(firstFile.getName().startsWith("123-"));
+        assertTrue(firstFile.getName().endsWith(ErrorLogHelper.CRASH_RECORD_FILE_EXTENSION));
+        assertEquals(0, ErrorLogHelper.getStoredCrashRecordFiles().length);
+
+        /* All records are listed, other files are not. */
+        assertTrue(firstFile.createNewFile());
+        assertTrue(secondFile.createNewFile());
+        assertTrue(mTemporaryFolder.newFile(UUID.randomUUID() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION).exists());
+        List<File> files = Arrays.asList(ErrorLogHelper.getStoredCrashRecordFiles());
+        assertEquals(2, files.size());
+        assertTrue(files.contains(firstFile));
+        assertTrue(files.contains(secondFile));
+
+        /* Missing directory. */
+        File mockErrorLogDirectory = mock(File.class);
+        when(mockErrorLogDirectory.listFiles(any(FilenameFilter.class))).thenReturn(null);
+        ErrorLogHelper.setErrorLogDirectory(mockErrorLogDirectory);
+        assertEquals(0, ErrorLogHelper.getStoredCrashRecordFiles().length);
+
+        /* Clean up. */
+        ErrorLogHelper.setErrorLogDirectory(null);
+    }
+
     @Test
     public void validateProperties() {
         String logType = "HandledError";
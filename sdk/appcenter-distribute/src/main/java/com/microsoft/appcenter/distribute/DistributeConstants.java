@@ -291,6 +291,21 @@ public final class DistributeConstants {
      */
     public static final String PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE = PREFERENCE_PREFIX + "downloaded_release_file";
 
+    /**
+     * Preference key to store the path of a release file being downloaded, until download completes.
+     */
+    public static final String PREFERENCE_KEY_PARTIAL_RELEASE_FILE = PREFERENCE_PREFIX + "partial_release_file";
+
+    /**
+     * Preference key to store the server validator (ETag or Last-Modified) used to resume downloading a release file.
+     */
+    public static final String PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR = PREFERENCE_PREFIX + "partial_release_validator";
+
+    /**
+     * Preference key to store the expected MD5 of a release file being downloaded, when the server provides it.
+     */
+    public static final String PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5 = PREFERENCE_PREFIX + "partial_release_content_md5";
+
     @VisibleForTesting
     DistributeConstants() {
 
@@ -9,19 +9,24 @@ import android.net.TrafficStats;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.util.Base64;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -40,6 +45,59 @@ class HttpConnectionDownloadFileTask extends AsyncTask<Void, Void, Void> {
     @VisibleForTesting
     static final String APK_CONTENT_TYPE = "application/vnd.android.package-archive";
 
+    /**
+     * HTTP status code when the requested range cannot be served.
+     */
+    @VisibleForTesting
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Request header to download the end of a file.
+     */
+    @VisibleForTesting
+    static final String RANGE_HEADER = "Range";
+
+    /**
+     * Request header to get the whole file instead of the range if it changed on the server.
+     */
+    @VisibleForTesting
+    static final String IF_RANGE_HEADER = "If-Range";
+
+    /**
+     * Response header describing the range returned.
+     */
+    @VisibleForTesting
+    static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    /**
+     * Response header identifying a version of the file.
+     */
+    @VisibleForTesting
+    static final String ETAG_HEADER = "ETag";
+
+    /**
+     * Response header used as validator when no ETag is provided.
+     */
+    @VisibleForTesting
+    static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    /**
+     * Response header with the base64 encoded MD5 of the response body.
+     */
+    @VisibleForTesting
+    static final String CONTENT_MD5_HEADER = "Content-MD5";
+
+    /**
+     * Response header with the base64 encoded MD5 of the whole file, returned by Azure storage even for ranges.
+     */
+    @VisibleForTesting
+    static final String BLOB_CONTENT_MD5_HEADER = "x-ms-blob-content-md5";
+
+    /**
+     * Digest algorithm matching the content MD5 headers.
+     */
+    private static final String DIGEST_ALGORITHM = "MD5";
+
     private final HttpConnectionReleaseDownloader mDownloader;
 
     /**
@@ -67,11 +125,23 @@ class HttpConnectionDownloadFileTask extends AsyncTask<Void, Void, Void> {
             long enqueueTime = System.currentTimeMillis();
             mDownloader.onDownloadStarted(enqueueTime);
 
+            /* Resume a partial download of the same file if we know how to check it did not change. */
+            long resumeOffset = 0;
+            String validator = mDownloader.getPartialDownloadValidator(mTargetFile);
+            if (validator != null && mTargetFile.exists()) {
+                resumeOffset = mTargetFile.length();
+            }
+
             /* Create connection. */
-            URLConnection connection = createConnection();
+            HttpURLConnection connection = createConnection(resumeOffset, validator);
 
-            /* Download the release file. */
-            long totalBytesDownloaded = downloadFile(connection);
+            /* Download the release file, over several connections if the server supports it. */
+            long totalBytesDownloaded;
+            if (HttpConnectionSegmentedDownload.isSupported(connection)) {
+                totalBytesDownloaded = downloadSegments(connection);
+            } else {
+                totalBytesDownloaded = downloadFile(connection, resumeOffset);
+            }
             if (totalBytesDownloaded > 0) {
                 mDownloader.onDownloadComplete(mTargetFile);
             } else {
@@ -88,15 +158,22 @@ class HttpConnectionDownloadFileTask extends AsyncTask<Void, Void, Void> {
     /**
      * Create connection for downloading.
      *
-     * @return instance of {@link URLConnection}.
+     * @param resumeOffset number of bytes already downloaded, 0 to download the whole file.
+     * @param validator    ETag or Last-Modified value of the partially downloaded file.
+     * @return instance of {@link HttpURLConnection}.
      * @throws IOException if connection fails.
      */
-    private URLConnection createConnection() throws IOException {
+    private HttpURLConnection createConnection(long resumeOffset, String validator) throws IOException {
 
         /* Create connection. */
         URL url = new URL(mDownloadUri.toString());
         HttpsURLConnection connection = createHttpsConnection(url);
         connection.setInstanceFollowRedirects(true);
+        if (resumeOffset > 0) {
+            AppCenterLog.debug(LOG_TAG, "Resume downloading from byte " + resumeOffset);
+            connection.setRequestProperty(RANGE_HEADER, "bytes=" + resumeOffset + "-");
+            connection.setRequestProperty(IF_RANGE_HEADER, validator);
+        }
         connection.connect();
 
         /* Content type check. Produce only warning if it doesn't match. */
@@ -105,8 +182,13 @@ class HttpConnectionDownloadFileTask extends AsyncTask<Void, Void, Void> {
             AppCenterLog.warn(LOG_TAG, "The requested download has not expected content type.");
         }
 
-        /* Accept all 2xx codes. */
+        /* The partial file is not valid anymore, start over next time. */
         int responseCode = connection.getResponseCode();
+        if (responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+            discardPartialFile();
+        }
+
+        /* Accept all 2xx codes. */
         if (responseCode < 200 || responseCode >= 300) {
             throw new IOException("Download failed with HTTP error code: " + responseCode);
         }
@@ -114,43 +196,220 @@ class HttpConnectionDownloadFileTask extends AsyncTask<Void, Void, Void> {
     }
 
     /**
-     * Performs IO operation to download file through {@link URLConnection}.
-     * Saves the file to the {@link #mTargetFile).
+     * Performs IO operation to download file through {@link HttpURLConnection}.
+     * Saves the file to the {@link #mTargetFile}, appending to it if the server returned the requested range.
+     * The MD5 of the file is computed while downloading and checked if the server provided it.
      *
-     * @param connection network connection.
-     * @return total number of downloaded bytes.
-     * @throws IOException if connection fails.
+     * @param connection   network connection.
+     * @param resumeOffset number of bytes requested to skip.
+     * @return total number of bytes in the file.
+     * @throws IOException if connection fails or the file is corrupted.
      */
-    private long downloadFile(URLConnection connection) throws IOException {
+    private long downloadFile(HttpURLConnection connection, long resumeOffset) throws IOException {
+        MessageDigest digest = createDigest();
+        String expectedContentMd5;
+        if (resumeOffset > 0 && connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+            if (getContentRangeStart(connection) != resumeOffset) {
+                discardPartialFile();
+                throw new IOException("Download resumed at an unexpected range: " + connection.getHeaderField(CONTENT_RANGE_HEADER));
+            }
+            expectedContentMd5 = mDownloader.getPartialDownloadContentMd5();
+            if (digest != null) {
+                updateDigest(digest, mTargetFile);
+            }
+        } else {
+
+            /* Whole file returned, remember how to resume if interrupted. */
+            resumeOffset = 0;
+            expectedContentMd5 = getExpectedContentMd5(connection);
+            mDownloader.setPartialDownload(mTargetFile, getValidator(connection), expectedContentMd5);
+        }
         InputStream input = null;
         OutputStream output = null;
+        long totalBytesDownloaded;
         try {
             input = new BufferedInputStream(connection.getInputStream());
-            output = new FileOutputStream(mTargetFile);
-            return copyStream(input, output, connection.getContentLength());
+            output = new FileOutputStream(mTargetFile, resumeOffset > 0);
+            long contentLength = connection.getContentLength();
+            long lengthOfFile = contentLength >= 0 ? resumeOffset + contentLength : contentLength;
+            totalBytesDownloaded = copyStream(input, output, digest, resumeOffset, lengthOfFile);
         } finally {
             close(input, output);
         }
+
+        /* Reject corrupted file. */
+        if (digest != null && expectedContentMd5 != null && !isCancelled()) {
+            checkDigest(digest, expectedContentMd5);
+        }
+        return totalBytesDownloaded;
+    }
+
+    /**
+     * Download the file over several connections, see {@link HttpConnectionSegmentedDownload}.
+     * The MD5 of the file is computed after downloading and checked if the server provided it.
+     *
+     * @param connection network connection that returned the whole file.
+     * @return total number of bytes in the file.
+     * @throws IOException if connection fails or the file is corrupted.
+     */
+    private long downloadSegments(HttpURLConnection connection) throws IOException {
+
+        /* Segments are written at their position in a preallocated file, its length cannot be used to resume. */
+        String expectedContentMd5 = getExpectedContentMd5(connection);
+        mDownloader.setPartialDownload(mTargetFile, null, null);
+
+        /* Redirects were already followed, request the other segments from where the file actually is. */
+        URL url = connection.getURL();
+        if (url == null) {
+            url = new URL(mDownloadUri.toString());
+        }
+        HttpConnectionSegmentedDownload segmentedDownload = new HttpConnectionSegmentedDownload(this, mDownloader, mTargetFile, connection.getContentLength());
+        long totalBytesDownloaded = segmentedDownload.download(connection, url, getValidator(connection));
+
+        /* Reject corrupted file. */
+        if (expectedContentMd5 != null && !isCancelled()) {
+            MessageDigest digest = createDigest();
+            if (digest != null) {
+                updateDigest(digest, mTargetFile);
+                checkDigest(digest, expectedContentMd5);
+            }
+        }
+        return totalBytesDownloaded;
+    }
+
+    /**
+     * Get the MD5 of the whole file from the response headers.
+     *
+     * @param connection network connection that returned the whole file.
+     * @return base64 encoded MD5 or null if not provided.
+     */
+    private static String getExpectedContentMd5(HttpURLConnection connection) {
+        String expectedContentMd5 = connection.getHeaderField(BLOB_CONTENT_MD5_HEADER);
+        if (expectedContentMd5 == null) {
+            expectedContentMd5 = connection.getHeaderField(CONTENT_MD5_HEADER);
+        }
+        return expectedContentMd5;
+    }
+
+    /**
+     * Get the value identifying the version of the file from the response headers.
+     *
+     * @param connection network connection.
+     * @return ETag or Last-Modified value, or null if not provided.
+     */
+    private static String getValidator(HttpURLConnection connection) {
+        String validator = connection.getHeaderField(ETAG_HEADER);
+        if (validator == null) {
+            validator = connection.getHeaderField(LAST_MODIFIED_HEADER);
+        }
+        return validator;
+    }
+
+    /**
+     * Compare the digest of the downloaded file with the one provided by the server.
+     * The file is deleted if they don't match.
+     *
+     * @param digest             digest of the downloaded file.
+     * @param expectedContentMd5 base64 encoded MD5 provided by the server.
+     * @throws IOException if the file is corrupted.
+     */
+    private void checkDigest(@NonNull MessageDigest digest, @NonNull String expectedContentMd5) throws IOException {
+        byte[] expectedDigest;
+        try {
+            expectedDigest = Base64.decode(expectedContentMd5, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            expectedDigest = null;
+            AppCenterLog.warn(LOG_TAG, "Invalid content MD5 header: " + expectedContentMd5);
+        }
+        if (expectedDigest != null && !MessageDigest.isEqual(expectedDigest, digest.digest())) {
+            discardPartialFile();
+            throw new IOException("Downloaded file is corrupted.");
+        }
+    }
+
+    /**
+     * Parse the first byte position of the Content-Range response header.
+     *
+     * @param connection network connection.
+     * @return first byte position or -1 if not found.
+     */
+    static long getContentRangeStart(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField(CONTENT_RANGE_HEADER);
+        if (contentRange != null && contentRange.startsWith("bytes ")) {
+            int end = contentRange.indexOf('-');
+            if (end > 0) {
+                try {
+                    return Long.parseLong(contentRange.substring("bytes ".length(), end).trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Delete the file and forget it was partially downloaded.
+     */
+    private void discardPartialFile() {
+        mDownloader.setPartialDownload(mTargetFile, null, null);
+
+        //noinspection ResultOfMethodCallIgnored
+        mTargetFile.delete();
+    }
+
+    @Nullable
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            AppCenterLog.warn(LOG_TAG, "Cannot check integrity of downloaded file.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Update the digest with the bytes already downloaded.
+     *
+     * @param digest digest.
+     * @param file   partially downloaded file.
+     * @throws IOException if the file cannot be read.
+     */
+    private static void updateDigest(@NonNull MessageDigest digest, @NonNull File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] data = new byte[WRITE_BUFFER_SIZE];
+            int count;
+            while ((count = input.read(data)) != -1) {
+                digest.update(data, 0, count);
+            }
+        } finally {
+            close(input);
+        }
     }
 
     /**
      * Copies one stream into another and reports the progress.
      *
-     * @param inputStream  the input stream.
-     * @param outputStream the output stream.
-     * @param lengthOfFile total number of bytes in the input stream. Used only for progress reporting.
-     * @return total number of processed bytes.
+     * @param inputStream       the input stream.
+     * @param outputStream      the output stream.
+     * @param digest            digest to update with the bytes copied, can be null.
+     * @param alreadyDownloaded number of bytes downloaded before.
+     * @param lengthOfFile      total number of bytes in the file. Used only for progress reporting.
+     * @return total number of bytes in the file.
      * @throws IOException if an I/O error occurs when reading or writing.
      */
-    private long copyStream(@NonNull InputStream inputStream, @NonNull OutputStream outputStream, long lengthOfFile) throws IOException {
+    private long copyStream(@NonNull InputStream inputStream, @NonNull OutputStream outputStream, @Nullable MessageDigest digest, long alreadyDownloaded, long lengthOfFile) throws IOException {
         byte[] data = new byte[WRITE_BUFFER_SIZE];
         int count;
-        long totalBytesDownloaded = 0;
-        long lastReportedBytes = 0;
+        long totalBytesDownloaded = alreadyDownloaded;
+        long lastReportedBytes = alreadyDownloaded;
         long lastReportedTime = 0;
         while ((count = inputStream.read(data)) != -1) {
             totalBytesDownloaded += count;
             outputStream.write(data, 0, count);
+            if (digest != null) {
+                digest.update(data, 0, count);
+            }
 
             /* Update the progress each UPDATE_PROGRESS_BYTES_COUNT bytes. */
             long now = System.currentTimeMillis();
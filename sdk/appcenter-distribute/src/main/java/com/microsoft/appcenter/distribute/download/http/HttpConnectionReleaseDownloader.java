@@ -33,6 +33,9 @@ import java.util.ArrayList;
 import static com.microsoft.appcenter.distribute.DistributeConstants.KIBIBYTE_IN_BYTES;
 import static com.microsoft.appcenter.distribute.DistributeConstants.LOG_TAG;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_PARTIAL_RELEASE_FILE;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR;
 
 /**
  * Downloads new releases directly via HttpsURLConnection for Android versions prior to 5.0.
@@ -91,6 +94,58 @@ public class HttpConnectionReleaseDownloader extends AbstractReleaseDownloader {
         }
     }
 
+    /**
+     * Get the server validator to resume downloading a file.
+     *
+     * @param targetFile file being downloaded.
+     * @return ETag or Last-Modified value, or null if downloading that file cannot be resumed.
+     */
+    @WorkerThread
+    synchronized String getPartialDownloadValidator(@NonNull File targetFile) {
+        if (!targetFile.getAbsolutePath().equals(SharedPreferencesManager.getString(PREFERENCE_KEY_PARTIAL_RELEASE_FILE, null))) {
+            return null;
+        }
+        return SharedPreferencesManager.getString(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR, null);
+    }
+
+    /**
+     * Get the expected MD5 of the file being downloaded, as provided by the server when download started.
+     *
+     * @return base64 encoded MD5 or null if not provided.
+     */
+    @WorkerThread
+    synchronized String getPartialDownloadContentMd5() {
+        return SharedPreferencesManager.getString(PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5, null);
+    }
+
+    /**
+     * Store how to resume downloading a file if interrupted.
+     *
+     * @param targetFile file being downloaded.
+     * @param validator  ETag or Last-Modified value, null to clear the state as download cannot be resumed.
+     * @param contentMd5 base64 encoded MD5 provided by the server, can be null.
+     */
+    @WorkerThread
+    synchronized void setPartialDownload(@NonNull File targetFile, @Nullable String validator, @Nullable String contentMd5) {
+        if (isCancelled()) {
+            return;
+        }
+        clearPartialDownload();
+        if (validator != null) {
+            SharedPreferencesManager.putString(PREFERENCE_KEY_PARTIAL_RELEASE_FILE, targetFile.getAbsolutePath());
+            SharedPreferencesManager.putString(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR, validator);
+            if (contentMd5 != null) {
+                SharedPreferencesManager.putString(PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5, contentMd5);
+            }
+        }
+    }
+
+    private static void clearPartialDownload() {
+        SharedPreferencesManager.remove(PREFERENCE_KEY_PARTIAL_RELEASE_FILE);
+        SharedPreferencesManager.remove(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR);
+        SharedPreferencesManager.remove(PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5);
+    }
+
     /**
      * Get progress notification builder.
      *
@@ -151,6 +206,15 @@ public class HttpConnectionReleaseDownloader extends AbstractReleaseDownloader {
             removeFile(new File(filePath));
             SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE);
         }
+
+        /* Also remove a file that was partially downloaded. */
+        String partialFilePath = SharedPreferencesManager.getString(PREFERENCE_KEY_PARTIAL_RELEASE_FILE, null);
+        if (partialFilePath != null) {
+            if (!partialFilePath.equals(filePath)) {
+                removeFile(new File(partialFilePath));
+            }
+            clearPartialDownload();
+        }
         cancelProgressNotification();
     }
 
@@ -221,6 +285,9 @@ public class HttpConnectionReleaseDownloader extends AbstractReleaseDownloader {
         }
         cancelProgressNotification();
 
+        /* The file is complete, it won't be resumed anymore. */
+        clearPartialDownload();
+
         /* Check downloaded file size. */
         if (mReleaseDetails.getSize() != targetFile.length()) {
             mListener.onError("Downloaded file has incorrect size.");
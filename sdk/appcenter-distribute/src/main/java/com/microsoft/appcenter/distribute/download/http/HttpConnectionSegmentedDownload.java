@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.distribute.download.http;
+
+import android.net.TrafficStats;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static com.microsoft.appcenter.distribute.DistributeConstants.LOG_TAG;
+import static com.microsoft.appcenter.distribute.DistributeConstants.UPDATE_PROGRESS_BYTES_THRESHOLD;
+import static com.microsoft.appcenter.distribute.DistributeConstants.UPDATE_PROGRESS_TIME_THRESHOLD;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.CONTENT_RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.IF_RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.getContentRangeStart;
+import static com.microsoft.appcenter.http.HttpUtils.THREAD_STATS_TAG;
+import static com.microsoft.appcenter.http.HttpUtils.WRITE_BUFFER_SIZE;
+import static com.microsoft.appcenter.http.HttpUtils.createHttpsConnection;
+
+/**
+ * Downloads a file over several connections, each one writing a range of bytes at its position in a preallocated file.
+ * The first range is read from the connection that was already opened for the whole file.
+ */
+class HttpConnectionSegmentedDownload {
+
+    /**
+     * Response header advertising that ranges can be requested.
+     */
+    @VisibleForTesting
+    static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+
+    /**
+     * Files smaller than this are downloaded over a single connection.
+     */
+    @VisibleForTesting
+    static final long MIN_SEGMENTED_DOWNLOAD_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Number of connections used to download a file.
+     */
+    @VisibleForTesting
+    static final int SEGMENT_COUNT = 4;
+
+    /**
+     * Name prefix of the threads downloading the segments.
+     */
+    private static final String THREAD_NAME_PREFIX = "AppCenter.Distribute.Segment-";
+
+    private final HttpConnectionDownloadFileTask mTask;
+
+    private final HttpConnectionReleaseDownloader mDownloader;
+
+    /**
+     * The file to write downloaded segments to.
+     */
+    private final File mTargetFile;
+
+    /**
+     * Total number of bytes in the file.
+     */
+    private final long mLength;
+
+    /**
+     * Number of bytes downloaded by all segments.
+     */
+    private long mDownloadedBytes;
+
+    /**
+     * Number of bytes downloaded when progress was last reported.
+     */
+    private long mLastReportedBytes;
+
+    /**
+     * Time when progress was last reported.
+     */
+    private long mLastReportedTime;
+
+    /**
+     * First error that happened in a segment, stops all the other segments.
+     */
+    private volatile IOException mError;
+
+    HttpConnectionSegmentedDownload(HttpConnectionDownloadFileTask task, HttpConnectionReleaseDownloader downloader, File targetFile, long length) {
+        mTask = task;
+        mDownloader = downloader;
+        mTargetFile = targetFile;
+        mLength = length;
+    }
+
+    /**
+     * Check whether the file returned by a connection can be downloaded in segments.
+     *
+     * @param connection connection that returned the whole file.
+     * @return true if the server accepts byte ranges and the file is large enough.
+     * @throws IOException if the response cannot be read.
+     */
+    static boolean isSupported(HttpURLConnection connection) throws IOException {
+        return connection.getResponseCode() == HttpURLConnection.HTTP_OK
+                && "bytes".equalsIgnoreCase(connection.getHeaderField(ACCEPT_RANGES_HEADER))
+                && connection.getContentLength() >= MIN_SEGMENTED_DOWNLOAD_SIZE;
+    }
+
+    /**
+     * Download all the segments and wait for them to complete.
+     *
+     * @param connection connection that returned the whole file, used for the first segment.
+     * @param url        URL to request the other segments from.
+     * @param validator  ETag or Last-Modified value of the file, to fail if it changes between connections.
+     * @return number of bytes downloaded.
+     * @throws IOException if any segment fails.
+     */
+    long download(@NonNull HttpURLConnection connection, @NonNull URL url, @Nullable String validator) throws IOException {
+        AppCenterLog.debug(LOG_TAG, "Download " + mLength + " bytes over " + SEGMENT_COUNT + " connections.");
+        RandomAccessFile file = new RandomAccessFile(mTargetFile, "rw");
+        try {
+            file.setLength(mLength);
+            FileChannel channel = file.getChannel();
+            long segmentSize = (mLength + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+            Thread[] threads = new Thread[SEGMENT_COUNT - 1];
+            for (int i = 0; i < threads.length; i++) {
+                long start = (i + 1) * segmentSize;
+                long end = Math.min(start + segmentSize, mLength);
+                threads[i] = new Thread(new SegmentRunnable(url, validator, channel, start, end), THREAD_NAME_PREFIX + (i + 1));
+                threads[i].start();
+            }
+
+            /* Read the first segment from the current connection while the others are downloading. */
+            InputStream input = null;
+            try {
+                input = new BufferedInputStream(connection.getInputStream());
+                copySegment(input, channel, 0, Math.min(segmentSize, mLength));
+            } catch (IOException e) {
+                onSegmentError(e);
+            } finally {
+                close(input);
+                connection.disconnect();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+
+                    /* Cancelled, segments stop on their own. */
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            close(file);
+        }
+        if (mError != null) {
+            throw mError;
+        }
+        synchronized (this) {
+            return mDownloadedBytes;
+        }
+    }
+
+    /**
+     * Copy a segment to its position in the file.
+     *
+     * @param input   response body of the segment.
+     * @param channel file channel.
+     * @param start   position of the first byte of the segment.
+     * @param end     position after the last byte of the segment.
+     * @throws IOException if an I/O error occurs or if the response ended before the segment.
+     */
+    private void copySegment(InputStream input, FileChannel channel, long start, long end) throws IOException {
+        byte[] data = new byte[WRITE_BUFFER_SIZE];
+        long position = start;
+        while (position < end) {
+            if (mTask.isCancelled() || mError != null) {
+                return;
+            }
+            int count = input.read(data, 0, (int) Math.min(data.length, end - position));
+            if (count == -1) {
+                throw new IOException("Download of segment ended at byte " + position + " instead of " + end);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            onSegmentProgress(count);
+        }
+    }
+
+    /**
+     * Add bytes downloaded by a segment and report the progress of the whole file.
+     *
+     * @param count number of bytes downloaded.
+     */
+    private synchronized void onSegmentProgress(int count) {
+        mDownloadedBytes += count;
+
+        /* Update the progress each UPDATE_PROGRESS_BYTES_COUNT bytes. */
+        long now = System.currentTimeMillis();
+        if (mDownloadedBytes >= mLastReportedBytes + UPDATE_PROGRESS_BYTES_THRESHOLD || mDownloadedBytes == mLength ||
+                now >= mLastReportedTime + UPDATE_PROGRESS_TIME_THRESHOLD) {
+            mDownloader.onDownloadProgress(mDownloadedBytes, mLength);
+            mLastReportedBytes = mDownloadedBytes;
+            mLastReportedTime = now;
+        }
+    }
+
+    private synchronized void onSegmentError(IOException e) {
+        if (mError == null) {
+            mError = e;
+        }
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Downloads a segment other than the first one over its own connection.
+     */
+    private class SegmentRunnable implements Runnable {
+
+        private final URL mUrl;
+
+        private final String mValidator;
+
+        private final FileChannel mChannel;
+
+        private final long mStart;
+
+        private final long mEnd;
+
+        SegmentRunnable(URL url, String validator, FileChannel channel, long start, long end) {
+            mUrl = url;
+            mValidator = validator;
+            mChannel = channel;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public void run() {
+
+            /* Do tag socket to avoid strict mode issue. */
+            TrafficStats.setThreadStatsTag(THREAD_STATS_TAG);
+            HttpsURLConnection connection = null;
+            InputStream input = null;
+            try {
+                connection = createHttpsConnection(mUrl);
+                connection.setInstanceFollowRedirects(true);
+                connection.setRequestProperty(RANGE_HEADER, "bytes=" + mStart + "-" + (mEnd - 1));
+                if (mValidator != null) {
+                    connection.setRequestProperty(IF_RANGE_HEADER, mValidator);
+                }
+                connection.connect();
+
+                /* Whole file returned instead of the range means it changed since the first connection. */
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL || getContentRangeStart(connection) != mStart) {
+                    throw new IOException("Download of segment failed with HTTP code " + responseCode + " and range " + connection.getHeaderField(CONTENT_RANGE_HEADER));
+                }
+                input = new BufferedInputStream(connection.getInputStream());
+                copySegment(input, mChannel, mStart, mEnd);
+            } catch (IOException e) {
+                onSegmentError(e);
+            } finally {
+                close(input);
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                TrafficStats.clearThreadStatsTag();
+            }
+        }
+    }
+}
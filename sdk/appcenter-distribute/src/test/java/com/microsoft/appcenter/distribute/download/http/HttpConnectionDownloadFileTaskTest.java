@@ -7,6 +7,7 @@ package com.microsoft.appcenter.distribute.download.http;
 
 import android.net.TrafficStats;
 import android.net.Uri;
+import android.util.Base64;
 
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -31,6 +32,8 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -38,10 +41,19 @@ import static com.microsoft.appcenter.distribute.DistributeConstants.LOG_TAG;
 import static com.microsoft.appcenter.distribute.DistributeConstants.UPDATE_PROGRESS_BYTES_THRESHOLD;
 import static com.microsoft.appcenter.distribute.DistributeConstants.UPDATE_PROGRESS_TIME_THRESHOLD;
 import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.APK_CONTENT_TYPE;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.BLOB_CONTENT_MD5_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.CONTENT_MD5_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.CONTENT_RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.ETAG_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.HTTP_RANGE_NOT_SATISFIABLE;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.IF_RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.LAST_MODIFIED_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.RANGE_HEADER;
 import static com.microsoft.appcenter.http.HttpUtils.THREAD_STATS_TAG;
 import static com.microsoft.appcenter.http.HttpUtils.WRITE_BUFFER_SIZE;
 import static com.microsoft.appcenter.test.TestUtils.generateString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
@@ -58,6 +70,7 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 @PrepareForTest({
         AppCenterLog.class,
+        Base64.class,
         HttpUtils.class,
         TrafficStats.class
 })
@@ -325,6 +338,126 @@ public class HttpConnectionDownloadFileTaskTest {
         /* Cover clearing TrafficStats in finally block. */
     }
 
+    @Test
+    public void storeValidatorToResume() throws Exception {
+        String apk = "I'm an APK file";
+        mockConnectionContent(apk);
+        when(mUrlConnection.getHeaderField(LAST_MODIFIED_HEADER)).thenReturn("date");
+        when(mUrlConnection.getHeaderField(CONTENT_MD5_HEADER)).thenReturn("md5");
+        mockContentMd5("md5", apk);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        verify(mUrlConnection, never()).setRequestProperty(eq(RANGE_HEADER), anyString());
+        verify(mDownloader).setPartialDownload(mTargetFile, "date", "md5");
+        verifyDownloadedContent(apk);
+        verify(mDownloader).onDownloadComplete(eq(mTargetFile));
+        verify(mDownloader, never()).onDownloadError(anyString());
+    }
+
+    @Test
+    public void resumeDownload() throws Exception {
+        String apk = "I'm an APK file";
+        Files.write(mTargetFile.toPath(), apk.substring(0, 7).getBytes());
+        when(mDownloader.getPartialDownloadValidator(mTargetFile)).thenReturn("etag");
+        when(mDownloader.getPartialDownloadContentMd5()).thenReturn("md5");
+        mockContentMd5("md5", apk);
+        when(mUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PARTIAL);
+        when(mUrlConnection.getHeaderField(CONTENT_RANGE_HEADER)).thenReturn("bytes 7-14/15");
+        when(mUrlConnection.getContentLength()).thenReturn(8);
+        mockConnectionContent(apk.substring(7));
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify only the end was requested and appended. */
+        verify(mUrlConnection).setRequestProperty(RANGE_HEADER, "bytes=7-");
+        verify(mUrlConnection).setRequestProperty(IF_RANGE_HEADER, "etag");
+        verify(mDownloader, never()).setPartialDownload(any(File.class), anyString(), anyString());
+        verifyDownloadedContent(apk);
+        verify(mDownloader).onDownloadProgress(15, 15);
+        verify(mDownloader).onDownloadComplete(eq(mTargetFile));
+        verify(mDownloader, never()).onDownloadError(anyString());
+    }
+
+    @Test
+    public void restartDownloadWhenFileChanged() throws IOException {
+        String apk = "I'm a new APK file";
+        Files.write(mTargetFile.toPath(), "old".getBytes());
+        when(mDownloader.getPartialDownloadValidator(mTargetFile)).thenReturn("etag");
+        when(mUrlConnection.getHeaderField(ETAG_HEADER)).thenReturn("etag2");
+        mockConnectionContent(apk);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify whole file was replaced. */
+        verify(mUrlConnection).setRequestProperty(RANGE_HEADER, "bytes=3-");
+        verify(mDownloader).setPartialDownload(mTargetFile, "etag2", null);
+        verifyDownloadedContent(apk);
+        verify(mDownloader).onDownloadComplete(eq(mTargetFile));
+        verify(mDownloader, never()).onDownloadError(anyString());
+    }
+
+    @Test
+    public void resumeDownloadWithUnexpectedRange() throws IOException {
+        Files.write(mTargetFile.toPath(), "partial".getBytes());
+        when(mDownloader.getPartialDownloadValidator(mTargetFile)).thenReturn("etag");
+        when(mUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PARTIAL);
+        when(mUrlConnection.getHeaderField(CONTENT_RANGE_HEADER)).thenReturn("bytes 0-14/15");
+        mockConnectionContent("I'm an APK file");
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        verify(mDownloader).setPartialDownload(mTargetFile, null, null);
+        assertFalse(mTargetFile.exists());
+        verify(mDownloader, never()).onDownloadComplete(any(File.class));
+        verify(mDownloader).onDownloadError(anyString());
+    }
+
+    @Test
+    public void resumeDownloadWithRangeNotSatisfiable() throws IOException {
+        Files.write(mTargetFile.toPath(), "partial".getBytes());
+        when(mDownloader.getPartialDownloadValidator(mTargetFile)).thenReturn("etag");
+        when(mUrlConnection.getResponseCode()).thenReturn(HTTP_RANGE_NOT_SATISFIABLE);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        verify(mDownloader).setPartialDownload(mTargetFile, null, null);
+        assertFalse(mTargetFile.exists());
+        verify(mDownloader, never()).onDownloadComplete(any(File.class));
+        verify(mDownloader).onDownloadError(anyString());
+    }
+
+    @Test
+    public void rejectCorruptedFile() throws Exception {
+        mockConnectionContent("I'm a corrupted APK file");
+        when(mUrlConnection.getHeaderField(BLOB_CONTENT_MD5_HEADER)).thenReturn("md5");
+        mockContentMd5("md5", "I'm an APK file");
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        verify(mDownloader).setPartialDownload(mTargetFile, null, "md5");
+        verify(mDownloader).setPartialDownload(mTargetFile, null, null);
+        assertFalse(mTargetFile.exists());
+        verify(mDownloader, never()).onDownloadComplete(any(File.class));
+        verify(mDownloader).onDownloadError(anyString());
+    }
+
+    private void mockContentMd5(String header, String content) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(content.getBytes());
+        mockStatic(Base64.class);
+        when(Base64.decode(header, Base64.DEFAULT)).thenReturn(digest);
+    }
+
     private void mockConnectionContent(String content) throws IOException {
         InputStream inputStream = new ByteArrayInputStream(content.getBytes());
         when(mUrlConnection.getInputStream()).thenReturn(inputStream);
@@ -37,6 +37,9 @@ import java.nio.file.Files;
 
 import static android.content.Context.NOTIFICATION_SERVICE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_PARTIAL_RELEASE_FILE;
+import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -167,6 +170,47 @@ public class HttpConnectionReleaseDownloaderTest {
         SharedPreferencesManager.remove(eq(PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE));
     }
 
+    @Test
+    public void partialDownload() {
+        File file = new File("/path/to/file");
+        when(SharedPreferencesManager.getString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_FILE), anyString())).thenReturn(file.getAbsolutePath());
+        when(SharedPreferencesManager.getString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR), anyString())).thenReturn("etag");
+        when(SharedPreferencesManager.getString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5), anyString())).thenReturn("md5");
+
+        /* Validator is only returned for the same file. */
+        assertEquals("etag", mReleaseDownloader.getPartialDownloadValidator(file));
+        assertNull(mReleaseDownloader.getPartialDownloadValidator(new File("/path/to/other")));
+        assertEquals("md5", mReleaseDownloader.getPartialDownloadContentMd5());
+
+        /* Store state. */
+        mReleaseDownloader.setPartialDownload(file, "etag", "md5");
+        verifyStatic();
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_FILE), eq(file.getAbsolutePath()));
+        verifyStatic();
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR), eq("etag"));
+        verifyStatic();
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5), eq("md5"));
+
+        /* Without validator, download cannot be resumed so state is cleared. */
+        mReleaseDownloader.setPartialDownload(file, null, "md5");
+        verifyStatic(times(2));
+        SharedPreferencesManager.remove(eq(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR));
+        verifyStatic();
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_CONTENT_MD5), anyString());
+
+        /* Cancel removes the partial file and the state. */
+        mReleaseDownloader.cancel();
+        verifyStatic();
+        AsyncTaskUtils.execute(anyString(), isA(HttpConnectionRemoveFileTask.class), Mockito.<Void>anyVararg());
+        verifyStatic(times(3));
+        SharedPreferencesManager.remove(eq(PREFERENCE_KEY_PARTIAL_RELEASE_FILE));
+
+        /* Nothing is stored after cancellation. */
+        mReleaseDownloader.setPartialDownload(file, "etag2", null);
+        verifyStatic(never());
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_PARTIAL_RELEASE_VALIDATOR), eq("etag2"));
+    }
+
     @Test
     public void getNotificationBuilder() {
 
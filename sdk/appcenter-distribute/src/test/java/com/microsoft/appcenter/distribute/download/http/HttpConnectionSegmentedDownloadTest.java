@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.distribute.download.http;
+
+import android.net.TrafficStats;
+import android.net.Uri;
+
+import com.microsoft.appcenter.http.HttpUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.CONTENT_RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.ETAG_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.IF_RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionDownloadFileTask.RANGE_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionSegmentedDownload.ACCEPT_RANGES_HEADER;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionSegmentedDownload.MIN_SEGMENTED_DOWNLOAD_SIZE;
+import static com.microsoft.appcenter.distribute.download.http.HttpConnectionSegmentedDownload.SEGMENT_COUNT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({
+        AppCenterLog.class,
+        HttpUtils.class,
+        TrafficStats.class
+})
+@RunWith(PowerMockRunner.class)
+public class HttpConnectionSegmentedDownloadTest {
+
+    private static final String ETAG = "\"etag\"";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private Uri mDownloadUri;
+
+    @Mock
+    private HttpConnectionReleaseDownloader mDownloader;
+
+    private File mTargetFile;
+
+    private HttpConnectionDownloadFileTask mDownloadFileTask;
+
+    /**
+     * Number of connections opened to the server stand-in.
+     */
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        mockStatic(TrafficStats.class);
+        mockStatic(HttpUtils.class);
+        when(mDownloadUri.toString()).thenReturn("https://test/url");
+        mTargetFile = mTemporaryFolder.newFile();
+        mDownloadFileTask = new HttpConnectionDownloadFileTask(mDownloader, mDownloadUri, mTargetFile);
+    }
+
+    @Test
+    public void downloadInSegments() throws IOException {
+        byte[] content = generateContent(MIN_SEGMENTED_DOWNLOAD_SIZE + 123);
+        mockServer(content, true, true);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        assertArrayEquals(content, Files.readAllBytes(mTargetFile.toPath()));
+        assertEquals(SEGMENT_COUNT, mConnectionCount.get());
+        verify(mDownloader).setPartialDownload(eq(mTargetFile), (String) eq(null), (String) eq(null));
+        verify(mDownloader).onDownloadProgress(content.length, content.length);
+        verify(mDownloader).onDownloadComplete(eq(mTargetFile));
+        verify(mDownloader, never()).onDownloadError(anyString());
+    }
+
+    @Test
+    public void singleConnectionWithoutAcceptRanges() throws IOException {
+        byte[] content = generateContent(MIN_SEGMENTED_DOWNLOAD_SIZE + 123);
+        mockServer(content, false, true);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        assertArrayEquals(content, Files.readAllBytes(mTargetFile.toPath()));
+        assertEquals(1, mConnectionCount.get());
+        verify(mDownloader).setPartialDownload(eq(mTargetFile), eq(ETAG), (String) eq(null));
+        verify(mDownloader).onDownloadComplete(eq(mTargetFile));
+        verify(mDownloader, never()).onDownloadError(anyString());
+    }
+
+    @Test
+    public void singleConnectionForSmallFile() throws IOException {
+        byte[] content = generateContent(MIN_SEGMENTED_DOWNLOAD_SIZE - 1);
+        mockServer(content, true, true);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        assertArrayEquals(content, Files.readAllBytes(mTargetFile.toPath()));
+        assertEquals(1, mConnectionCount.get());
+        verify(mDownloader).onDownloadComplete(eq(mTargetFile));
+    }
+
+    @Test
+    public void segmentNotReturnedAsRange() throws IOException {
+
+        /* Simulate the file changing after the first connection: If-Range makes server return the whole file. */
+        byte[] content = generateContent(MIN_SEGMENTED_DOWNLOAD_SIZE + 123);
+        mockServer(content, true, false);
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        verify(mDownloader, never()).onDownloadComplete(any(File.class));
+        verify(mDownloader).onDownloadError(anyString());
+    }
+
+    @Test
+    public void segmentInterrupted() throws IOException {
+        final byte[] content = generateContent(MIN_SEGMENTED_DOWNLOAD_SIZE + 123);
+
+        /* Make the connections end early. */
+        when(HttpUtils.createHttpsConnection(any(URL.class))).thenAnswer(new Answer<HttpsURLConnection>() {
+
+            @Override
+            public HttpsURLConnection answer(InvocationOnMock invocation) throws Throwable {
+                HttpsURLConnection connection = mockConnection(content, true, true);
+                when(connection.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[10]));
+                return connection;
+            }
+        });
+
+        /* Perform background task. */
+        mDownloadFileTask.doInBackground();
+
+        /* Verify. */
+        verify(mDownloader, never()).onDownloadComplete(any(File.class));
+        verify(mDownloader).onDownloadError(anyString());
+        verify(mDownloader, never()).onDownloadProgress(eq((long) content.length), anyLong());
+    }
+
+    private static byte[] generateContent(long length) {
+        byte[] content = new byte[(int) length];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Make connections behave like a server returning a file and supporting byte ranges.
+     *
+     * @param content      the file.
+     * @param acceptRanges whether to advertise ranges support.
+     * @param returnRanges whether to return the requested range or the whole file.
+     */
+    private void mockServer(final byte[] content, final boolean acceptRanges, final boolean returnRanges) throws IOException {
+        when(HttpUtils.createHttpsConnection(any(URL.class))).thenAnswer(new Answer<HttpsURLConnection>() {
+
+            @Override
+            public HttpsURLConnection answer(InvocationOnMock invocation) throws Throwable {
+                return mockConnection(content, acceptRanges, returnRanges);
+            }
+        });
+    }
+
+    private HttpsURLConnection mockConnection(final byte[] content, boolean acceptRanges, final boolean returnRanges) throws IOException {
+        mConnectionCount.incrementAndGet();
+        HttpsURLConnection connection = mock(HttpsURLConnection.class);
+        final Map<String, String> requestProperties = new HashMap<>();
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                requestProperties.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(connection).setRequestProperty(anyString(), anyString());
+        when(connection.getHeaderField(ETAG_HEADER)).thenReturn(ETAG);
+        if (acceptRanges) {
+            when(connection.getHeaderField(ACCEPT_RANGES_HEADER)).thenReturn("bytes");
+        }
+        when(connection.getResponseCode()).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                return getRequestedRange(requestProperties, returnRanges) != null ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK;
+            }
+        });
+        when(connection.getHeaderField(CONTENT_RANGE_HEADER)).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                long[] bounds = getRequestedRange(requestProperties, returnRanges);
+                return bounds != null ? "bytes " + bounds[0] + "-" + (bounds[1] - 1) + "/" + content.length : null;
+            }
+        });
+        when(connection.getContentLength()).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                long[] bounds = getRequestedRange(requestProperties, returnRanges);
+                return bounds != null ? (int) (bounds[1] - bounds[0]) : content.length;
+            }
+        });
+        when(connection.getInputStream()).thenAnswer(new Answer<InputStream>() {
+
+            @Override
+            public InputStream answer(InvocationOnMock invocation) {
+                long[] bounds = getRequestedRange(requestProperties, returnRanges);
+                if (bounds != null) {
+                    return new ByteArrayInputStream(Arrays.copyOfRange(content, (int) bounds[0], (int) bounds[1]));
+                }
+                return new ByteArrayInputStream(content);
+            }
+        });
+        return connection;
+    }
+
+    /**
+     * Get the range the server stand-in returns.
+     *
+     * @param requestProperties request headers.
+     * @param returnRanges      whether ranges are returned.
+     * @return first and after last byte positions, or null if the whole file is returned.
+     */
+    private static long[] getRequestedRange(Map<String, String> requestProperties, boolean returnRanges) {
+        String rangeHeader = requestProperties.get(RANGE_HEADER);
+        if (rangeHeader == null || !returnRanges || !ETAG.equals(requestProperties.get(IF_RANGE_HEADER))) {
+            return null;
+        }
+        String[] bounds = rangeHeader.substring("bytes=".length()).split("-");
+        return new long[]{Long.parseLong(bounds[0]), Long.parseLong(bounds[1]) + 1};
+    }
+}
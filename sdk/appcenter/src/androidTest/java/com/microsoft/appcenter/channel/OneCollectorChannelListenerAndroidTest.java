@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.OneCollectorIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLog;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.AndroidTestUtils.generateMockLog;
+import static com.microsoft.appcenter.channel.OneCollectorChannelListener.ONE_COLLECTOR_GROUP_NAME_SUFFIX;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static com.microsoft.appcenter.test.TestUtils.TAG;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class OneCollectorChannelListenerAndroidTest {
+
+    private static final String TEST_GROUP = "group_test";
+
+    private static final String TEST_TARGET_TOKEN = "iKey-token";
+
+    /**
+     * Number of other listeners registered on the channel, like the ones modules add.
+     */
+    private static final int BENCHMARK_OTHER_LISTENERS = 5;
+
+    private static final int BENCHMARK_ITERATIONS = 5000;
+
+    @NonNull
+    private static LogSerializer createSerializer() {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory() {
+
+            @Override
+            public Collection<CommonSchemaLog> toCommonSchemaLogs(Log log) {
+                Collection<CommonSchemaLog> commonSchemaLogs = new ArrayList<>();
+                for (String transmissionTarget : log.getTransmissionTargetTokens()) {
+                    CommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
+                    PartAUtils.addPartAFromLog(log, commonSchemaLog, transmissionTarget);
+                    commonSchemaLogs.add(commonSchemaLog);
+                }
+                return commonSchemaLogs;
+            }
+        });
+        return logSerializer;
+    }
+
+    @NonNull
+    private static DefaultChannel createChannel() {
+        DefaultChannel channel = new DefaultChannel(InstrumentationRegistry.getTargetContext(), UUID.randomUUID().toString(), mock(Persistence.class), mock(Ingestion.class), mock(Handler.class));
+        for (int i = 0; i < BENCHMARK_OTHER_LISTENERS; i++) {
+            channel.addListener(new AbstractChannelListener());
+        }
+        return channel;
+    }
+
+    @NonNull
+    private static MockLog createLog() {
+        MockLog log = generateMockLog();
+        log.addTransmissionTarget(TEST_TARGET_TOKEN);
+        return log;
+    }
+
+    @Test
+    public void convertedLogPersistedOnce() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(InstrumentationRegistry.getTargetContext(), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mock(Handler.class));
+        channel.addListener(new OneCollectorChannelListener(mock(OneCollectorIngestion.class), channel, createSerializer(), UUID.randomUUID()));
+        channel.addGroup(TEST_GROUP, 50, 3000, 1, null, null);
+        Channel.Listener otherListener = spy(new AbstractChannelListener());
+        channel.addListener(otherListener);
+        Log log = createLog();
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+
+        /* Only the converted log is persisted, after being decorated once. */
+        verify(persistence).putLog(any(Log.class), eq(TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX), eq(Flags.DEFAULTS));
+        verify(persistence, never()).putLog(any(Log.class), eq(TEST_GROUP), anyInt());
+        verify(otherListener, times(2)).onPreparingLog(any(Log.class), anyString());
+        verify(otherListener).onPreparedLog(log, TEST_GROUP, Flags.DEFAULTS);
+        verify(otherListener).shouldFilter(log);
+        verifyNoMoreInteractions(otherListener);
+    }
+
+    @Test
+    public void benchmark() {
+
+        /* Previous behavior: converted logs go through the whole enqueue again. */
+        DefaultChannel nestedEnqueueChannel = createChannel();
+        NestedEnqueueListener nestedEnqueueListener = new NestedEnqueueListener(nestedEnqueueChannel, createSerializer());
+        nestedEnqueueChannel.addListener(nestedEnqueueListener);
+        nestedEnqueueChannel.addGroup(TEST_GROUP, Integer.MAX_VALUE, Long.MAX_VALUE, 1, null, null);
+        nestedEnqueueChannel.addGroup(TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX, Integer.MAX_VALUE, Long.MAX_VALUE, 1, null, null);
+
+        /* Current behavior: converted logs are only decorated. */
+        DefaultChannel channel = createChannel();
+        channel.addListener(new OneCollectorChannelListener(mock(OneCollectorIngestion.class), channel, createSerializer(), UUID.randomUUID()));
+        channel.addGroup(TEST_GROUP, Integer.MAX_VALUE, Long.MAX_VALUE, 1, null, null);
+
+        /* Warm up both paths. */
+        Map<String, DefaultChannel> channels = new LinkedHashMap<>();
+        channels.put("nestedEnqueue", nestedEnqueueChannel);
+        channels.put("enqueueConvertedLog", channel);
+        for (DefaultChannel benchmarkChannel : channels.values()) {
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                benchmarkChannel.enqueue(createLog(), TEST_GROUP, Flags.DEFAULTS);
+            }
+        }
+
+        /* Measure CPU time per event, including creating and converting the original log. */
+        for (Map.Entry<String, DefaultChannel> entry : channels.entrySet()) {
+            DefaultChannel benchmarkChannel = entry.getValue();
+            long start = Debug.threadCpuTimeNanos();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                benchmarkChannel.enqueue(createLog(), TEST_GROUP, Flags.DEFAULTS);
+            }
+            long durationNanos = Debug.threadCpuTimeNanos() - start;
+            android.util.Log.i(TAG, String.format(Locale.US, "%s: %d ns CPU/event", entry.getKey(), durationNanos / BENCHMARK_ITERATIONS));
+        }
+        assertEquals(BENCHMARK_ITERATIONS * 2, nestedEnqueueListener.mConvertedLogCount);
+    }
+
+    /**
+     * Converts logs like {@link OneCollectorChannelListener} did before converted logs skipped preparing and filtering.
+     */
+    private static class NestedEnqueueListener extends AbstractChannelListener {
+
+        private final Channel mChannel;
+
+        private final LogSerializer mLogSerializer;
+
+        private int mConvertedLogCount;
+
+        NestedEnqueueListener(Channel channel, LogSerializer logSerializer) {
+            mChannel = channel;
+            mLogSerializer = logSerializer;
+        }
+
+        @Override
+        public void onPreparedLog(@NonNull Log log, @NonNull String groupName, int flags) {
+            if (!shouldFilter(log)) {
+                return;
+            }
+            for (CommonSchemaLog commonSchemaLog : mLogSerializer.toCommonSchemaLog(log)) {
+                commonSchemaLog.setFlags((long) flags);
+                commonSchemaLog.getExt().getSdk().setInstallId(UUID.randomUUID());
+                mConvertedLogCount++;
+                mChannel.enqueue(commonSchemaLog, groupName + ONE_COLLECTOR_GROUP_NAME_SUFFIX, flags);
+            }
+        }
+
+        @Override
+        public boolean shouldFilter(@NonNull Log log) {
+            return !(log instanceof CommonSchemaLog) && !log.getTransmissionTargetTokens().isEmpty();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Build;
+import android.util.Base64;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.test.TestUtils.TAG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compare TLS handshakes per batch with and without connection reuse against a local HTTPS server.
+ */
+@SuppressWarnings("unused")
+public class ConnectionReuseAndroidTest {
+
+    /**
+     * Self-signed PKCS12 key store for 127.0.0.1, only used by the local test server.
+     */
+    private static final String KEY_STORE =
+            "MIIJgwIBAzCCCTwGCSqGSIb3DQEHAaCCCS0EggkpMIIJJTCCBWkGCSqGSIb3DQEHAaCCBVoEggVWMIIFUjCCBU4GCyqGSIb3" +
+            "DQEMCgECoIIE+zCCBPcwKQYKKoZIhvcNAQwBAzAbBBQccxIv/Hgwbxy+LNpX1fSC5PTiTQIDAMNQBIIEyOMu0ib1WoYeTMi4" +
+            "kEpterqiaJKFCywLnxMGNuds3jXm0lBWyh6xLYdJPr36u+ohkLiVV/JAYf05tkd3IKhvj6S3yXzyShWeaEFGkrrJmHCjJHgb" +
+            "z+ZpJgmT6bv+cBhHX8BrxtfnRrNeZMXYVtRF5Y6nARvW8UvaDe1UiiYVWAzuMyTDcm/VMBj5KLoAM4RRxDHtbl/2hRWNLaZO" +
+            "axqRXfd98YQqkO1VGFRc3ToLKAqLSxT7r+PgFlYjAHcJTCNvBJAn72bMHG8qUya/urKp4UXEJUR01p9iqwWMi8SPPjEHnO/5" +
+            "jHXO4w/FUGILTAAGrDYqWuE/kiE1tGT1gRRVzKasUDod+XujNRPMfIdIVGrmP03fj6JiAYK4hHx3Mo3/sKtpTgGFzCa5Naa9" +
+            "Elr4e0LSjeYVPbkqrkvEmWwoPmcXqBxHjy18NQCC2Fqpffu7m30FKiGFUg4cG4O1BpNodCHT18g8bdY+V5YK2aOtI2JRXwMI" +
+            "DWhrk/pQsMweAbRuxu16bhLHxEmM7232DzOIoB+hq0Litr4Wr8DzKSm37UeWehxyupgKJzCZbfBFwcvj5I82Waev9VjrOlgE" +
+            "VRIwjEknrri2Wj3Q5zYdVDq1o69ljMgugEr4KORTDUMiG9TzjtANVLmL6x9xIp8PrmEjjNW5/JUt4xY3LIk/drQicW0nTOTO" +
+            "AX78BbEsqxpb3KKXS3hQ59TndSHibijjTrU2SnuohOrZwA3hExSdilpF/pQHky7heHQKuzwztVGfg02yL+0w4mrK1IgY6SQG" +
+            "Triu5SX1mxYFc7hjkWgwXKmYL3DcwuYu4kB2HKyFdwkvJ/pXLnre4QkykfCtrKZXHTHLzjxl3FthWfGIYs1z21hejk4zZtJZ" +
+            "Ggk7QAJkr82AorKornU7HFRGujmKVR1p9/a00txwIymgT4zOK9y8hWfTFiKrgc6wZEw2NDswsoB0eu5bBwF3R7wMyb2YOHth" +
+            "Z/AO+rrVODmQFKvpBxV0fpeOlxVYgXmKFTyIAA32sbbrEpv/2uReOoRSA8Hg1bLUyzVMoS1DOXA8U21qnB0e8HUefxHuAk7i" +
+            "CaCQHri+Pn7lhKpEUXB6MLZ+r5TQ9iKgPYiWQHscRnE85RJHKLlXhFTjHLmnev54Rj88eVf5GuY51Eb+T9ufp+Og7kgMOhDu" +
+            "Q3IhJAZvmiyowcnZeLCYdKI/NOBud2XqeOv+dc0W1ABgPSLrX9R+K/2I7RIcwGU8qQXGhsoRxhK1fvmzq+9ZTNnFAZlAoyP9" +
+            "xhV7kLPOvVG4o3Z1ysd/aVJL6idcdqXZUxad2z20PT/8v6vH63ZQaKJCo5FsepMf8jicb+HHNMQHKJpNYj7EcTm3wJU1KlFc" +
+            "HhtiUMjylHu2CNXHvH7aF9tQ7AuwxImNNcs5DvXb3BejS0ESMo3Sc7n73mP7GRYnA7C5Saj1sQNxlIND9kmc+gTgYa4I8ecc" +
+            "7oH9THnO6i51cyUSZADET3ztZm9nh/He11RHo6cOjGYxK6ED39ndqDvlfoddqNHmWgcJnF3I5fQCjb2dMSYeR1XyT7xG6MNA" +
+            "kb30qu30FS3giD+VoCLnS5GzM0bwuPAUbcH9+7KajRHfsW0Xni0w912pkGh9NB3yw7GZLtzroEtAnzxYUjFAMBsGCSqGSIb3" +
+            "DQEJFDEOHgwAcwBlAHIAdgBlAHIwIQYJKoZIhvcNAQkVMRQEElRpbWUgMTc5MjIzOTA4NDU0MDCCA7QGCSqGSIb3DQEHBqCC" +
+            "A6UwggOhAgEAMIIDmgYJKoZIhvcNAQcBMCkGCiqGSIb3DQEMAQYwGwQUbbGas717bLp+kbOJk6aKiVgr1UgCAwDDUICCA2AT" +
+            "3RArHAjcG3+x08QoulFhSCRav70Ma/GXuz6KXzIF63ellAV8C4k35IRnrZEa1ilVFiviafsAY0rn4CMeAIEVHrqH8iGoR40h" +
+            "ug2fEMrnAmdm84w1oujPspVjdzYy5w/QFw6Qc0umAvTmS9jBWpIs8vMvbsMkYZakfBRBd2dQRRkrlP7Z5rf2TM2yFSmXGHOi" +
+            "rJikz+KCImnde+0NuQNlE5Bc+Ns/4wWPDWQHgWspQaGrpsMLBdQsOAOR3s79IKzxqEXVQ+tufwQR1PFTAsShhs8sgqEH/EmQ" +
+            "ZkGHNu4tt2tsGcxxc48mo9wMLbBdVktMiJ3BQw//kj1/qrzsFBybQrH3zzYEqqV873HdXahIBtkj3/glPd9E4SZqYX/H6PJt" +
+            "uS86Ru74n2nxisgPLemfRRcdMY5KcQB2qYfTntwQY7i+J8OXxpsL3CZV3j5KC7Np0IjxtAJKxZBDzUlH/GNE8A3GheTK4oqT" +
+            "2F8YrngpHiQ5AHP3jx6bB138Co0MZskqRmDtzvi13taEE3RwUtk8MFNIAPmn/AIMvydiqAQs5+EIyf7/W+tjyVYGt0sp4WGn" +
+            "6aFkYVKTjR0lkRZBEClibksZI5R2GO9eRVL8Bl1X/iUnOg3fS+6WW4HL8MR5KTWIXjh1o+1KW92ZvybnZjyNT+t9DFVRxUCv" +
+            "93yVn9beS3lf301yThH8casXlhfjTFCZ+GoACmQhf2HpQVvS+CVf+2BN11qvZ9a3UepMYUnqOHuuJBueomk36gB7kgXf4u0L" +
+            "k9oXjn3p5BvlAfCYR3JHe+akwHkswEpZmnv2PV3KNvB0NaKMOF7R90T9+YrEqBr3GjB25Rf5wkXFVMv46My/SIvtUjwFcrJ8" +
+            "KfHbjT3XPcMyc4n4n6SHMkQ3KGsQJgre7Wm25lBCRSvWH6MmlQdN0nU9Z6+MYOvgAa78V8LEqu+bhASdmjBsllB9qY5A30tc" +
+            "9VgBst4fhwXCUyrqIYs3drCbKBncZfnLRn4sFgVGM2XNw7yj7DgNUMKQxAvfFHWNYnzEhzPAbUNtgSNmVuNQ/PWBvUPuE5jB" +
+            "BTMXOy2cVpsQaC02WKEtLlxVosEwgWRR+lwvcCniBAQ9uWzxypXG+2clJefHBxEWxrbtibvarpEy2ThyrZGLUbtxYNanwqww" +
+            "PjAhMAkGBSsOAwIaBQAEFFNLNz1zEXcy/LIp4MsHGdToPxfrBBQrpbpey8fkRQHw9rWudTpO1VodqwIDAYag";
+
+    /**
+     * Key store password.
+     */
+    private static final char[] KEY_STORE_PASSWORD = "password".toCharArray();
+
+    /**
+     * Number of batches sent in each scenario.
+     */
+    private static final int BATCH_COUNT = 30;
+
+    /**
+     * Number of batches sent in parallel, like the channel does by default.
+     */
+    private static final int PARALLEL_REQUESTS = 3;
+
+    /**
+     * Approximate size of a batch payload in characters.
+     */
+    private static final int BATCH_SIZE = 16 * 1024;
+
+    private static final Executor SYNC_EXECUTOR = new Executor() {
+
+        @Override
+        public void execute(@SuppressWarnings("NullableProblems") Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final HttpClient.CallTemplate CALL_TEMPLATE = new HttpClient.CallTemplate() {
+
+        @Override
+        public String buildRequestBody() {
+            StringBuilder payload = new StringBuilder(BATCH_SIZE + 64).append("{\"logs\":[");
+            while (payload.length() < BATCH_SIZE) {
+                payload.append("{\"type\":\"event\",\"name\":\"benchmark\"},");
+            }
+            payload.setLength(payload.length() - 1);
+            return payload.append("]}").toString();
+        }
+
+        @Override
+        public void onBeforeCalling(URL url, Map<String, String> headers) {
+        }
+    };
+
+    private SSLSocketFactory mDefaultSocketFactory;
+
+    private SSLContext mServerContext;
+
+    @Before
+    public void setUp() throws Exception {
+
+        /* Older versions force a TLS 1.2 socket factory using the system trust store. */
+        assumeTrue(Build.VERSION.SDK_INT > Build.VERSION_CODES.LOLLIPOP);
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(new ByteArrayInputStream(Base64.decode(KEY_STORE, Base64.DEFAULT)), KEY_STORE_PASSWORD);
+
+        /* Server side. */
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+        mServerContext = SSLContext.getInstance("TLS");
+        mServerContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        /* Client side trusts only the test certificate. */
+        Certificate certificate = keyStore.getCertificate(keyStore.aliases().nextElement());
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("server", certificate);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        mDefaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(clientContext.getSocketFactory());
+    }
+
+    @After
+    public void tearDown() {
+        if (mDefaultSocketFactory != null) {
+            HttpsURLConnection.setDefaultSSLSocketFactory(mDefaultSocketFactory);
+        }
+    }
+
+    @Test
+    public void handshakesPerBatch() throws Exception {
+        int[] handshakeCounts = new int[2];
+        for (boolean connectionReuseEnabled : new boolean[]{false, true}) {
+
+            /* Use a new server each time so that no pooled connection can be reused from a previous run. */
+            MockHttpsServer server = new MockHttpsServer(mServerContext);
+            try {
+                HttpClient httpClient = new ExecutorHttpClient(false, connectionReuseEnabled, SYNC_EXECUTOR, SYNC_EXECUTOR);
+                long start = System.nanoTime();
+                sendBatches(httpClient, server.getUrl(), BATCH_COUNT);
+                long durationNanos = System.nanoTime() - start;
+                android.util.Log.i(TAG, String.format(Locale.US,
+                        "connectionReuse=%b: %.2f handshakes/batch (%d full), %.1f ms/batch",
+                        connectionReuseEnabled,
+                        (double) server.getHandshakeCount() / BATCH_COUNT,
+                        server.getFullHandshakeCount(),
+                        durationNanos / 1e6 / BATCH_COUNT));
+                handshakeCounts[connectionReuseEnabled ? 1 : 0] = server.getHandshakeCount();
+                httpClient.close();
+            } finally {
+                server.close();
+            }
+        }
+
+        /* Disconnecting closes the socket on Android, a single connection is needed with reuse. */
+        assertEquals(1, handshakeCounts[1]);
+        assertTrue(handshakeCounts[1] <= handshakeCounts[0]);
+    }
+
+    @Test
+    public void parallelBatchesShareConnections() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_REQUESTS);
+        MockHttpsServer server = new MockHttpsServer(mServerContext);
+        try {
+            HttpClient httpClient = new ExecutorHttpClient(false, true, executor, SYNC_EXECUTOR);
+            sendBatches(httpClient, server.getUrl(), BATCH_COUNT);
+            android.util.Log.i(TAG, "Parallel batches: " + server.getHandshakeCount() + " handshakes for " + BATCH_COUNT + " batches.");
+            assertTrue(server.getHandshakeCount() <= PARALLEL_REQUESTS);
+            httpClient.close();
+        } finally {
+            server.close();
+            executor.shutdown();
+        }
+    }
+
+    private static void sendBatches(HttpClient httpClient, String url, int count) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger failures = new AtomicInteger();
+        ServiceCallback serviceCallback = new ServiceCallback() {
+
+            @Override
+            public void onCallSucceeded(HttpResponse httpResponse) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onCallFailed(Exception e) {
+                android.util.Log.e(TAG, "Call failed", e);
+                failures.incrementAndGet();
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < count; i++) {
+            httpClient.callAsync(url, METHOD_POST, new HashMap<String, String>(), CALL_TEMPLATE, serviceCallback);
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * Minimal HTTP/1.1 server with keep-alive support, accepting any POST and counting TLS handshakes.
+     */
+    private static class MockHttpsServer implements Runnable, Closeable {
+
+        private static final Charset ASCII = Charset.forName("US-ASCII");
+
+        private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: 2\r\n" +
+                "\r\n" +
+                "{}").getBytes(ASCII);
+
+        private final SSLServerSocket mServerSocket;
+
+        private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+        private final Set<String> mSessionIds = Collections.synchronizedSet(new HashSet<String>());
+
+        private final AtomicInteger mHandshakeCount = new AtomicInteger();
+
+        MockHttpsServer(SSLContext context) throws IOException {
+            mServerSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            new Thread(this, "MockHttpsServer").start();
+        }
+
+        String getUrl() {
+            return "https://127.0.0.1:" + mServerSocket.getLocalPort() + "/logs";
+        }
+
+        int getHandshakeCount() {
+            return mHandshakeCount.get();
+        }
+
+        int getFullHandshakeCount() {
+            return mSessionIds.size();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final SSLSocket socket = (SSLSocket) mServerSocket.accept();
+                    mSockets.add(socket);
+                    new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }, "MockHttpsServer-connection").start();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void serve(SSLSocket socket) {
+            try {
+                socket.startHandshake();
+                mHandshakeCount.incrementAndGet();
+                mSessionIds.add(Arrays.toString(socket.getSession().getId()));
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                while (readRequest(in)) {
+                    out.write(RESPONSE);
+                    out.flush();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                mSockets.remove(socket);
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Read a request and its body.
+         *
+         * @return false if the connection was closed by the client.
+         */
+        private static boolean readRequest(InputStream in) throws IOException {
+            String line = readLine(in);
+            if (line == null) {
+                return false;
+            }
+            int contentLength = 0;
+            boolean chunked = false;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                String header = line.toLowerCase(Locale.US);
+                if (header.startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+                } else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                    chunked = true;
+                }
+            }
+            if (chunked) {
+                int chunkSize;
+                do {
+                    chunkSize = Integer.parseInt(readLine(in).trim(), 16);
+                    skip(in, chunkSize);
+                    readLine(in);
+                } while (chunkSize > 0);
+            } else {
+                skip(in, contentLength);
+            }
+            return true;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    return null;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        private static void skip(InputStream in, int length) throws IOException {
+            byte[] buffer = new byte[1024];
+            while (length > 0) {
+                int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                length -= read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mServerSocket.close();
+            synchronized (mSockets) {
+                for (Socket socket : mSockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -64,6 +64,31 @@ public class LogSerializerAndroidTest {
         new DefaultLogSerializer().deserializeLog(payload, null);
     }
 
+    @Test
+    public void validateLog() throws JSONException {
+        MockLog log = AndroidTestUtils.generateMockLog();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        String payload = serializer.serializeLog(log);
+        serializer.validateLog(payload, null);
+        serializer.validateLog(payload, MOCK_LOG_TYPE);
+    }
+
+    @Test(expected = JSONException.class)
+    public void validateUnknownType() throws JSONException {
+        MockLog log = AndroidTestUtils.generateMockLog();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        new DefaultLogSerializer().validateLog(serializer.serializeLog(log), null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void validateCorruptedJson() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        serializer.validateLog("{\"type\":\"" + MOCK_LOG_TYPE + "\"", null);
+    }
+
     @Test
     public void startServiceLog() throws JSONException {
         StartServiceLog log = new StartServiceLog();
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.os.Debug;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.one.Data;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
+import com.microsoft.appcenter.ingestion.models.one.MetadataExtension;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static com.microsoft.appcenter.test.TestUtils.TAG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("unused")
+public class StreamingLogSerializerAndroidTest {
+
+    /**
+     * Number of logs in a batch for the benchmark, maximum allowed by the channel.
+     */
+    private static final int BENCHMARK_BATCH_SIZE = 500;
+
+    /**
+     * Number of measured batches for the benchmark.
+     */
+    private static final int BENCHMARK_ITERATIONS = 20;
+
+    private static LogSerializer createSerializer(LogSerializer serializer) {
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        serializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        return serializer;
+    }
+
+    private static LogContainer generateLogContainer(int size) throws JSONException {
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+            logs.add(generateCustomPropertiesLog());
+            logs.add(generateCommonSchemaLog());
+        }
+        LogContainer container = new LogContainer();
+        container.setLogs(logs.subList(0, size));
+        return container;
+    }
+
+    private static CustomPropertiesLog generateCustomPropertiesLog() {
+        CustomPropertiesLog log = new CustomPropertiesLog();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("t1", "quote \" slash / backslash \\ tab \t newline \n control \u0001 unicode é");
+        properties.put("t2", new Date(0));
+        properties.put("t3", 42.5);
+        properties.put("t4", false);
+        properties.put("t5", null);
+        log.setProperties(properties);
+        log.setSid(UUID.randomUUID());
+        log.setTimestamp(new Date());
+        return log;
+    }
+
+    private static MockCommonSchemaLog generateCommonSchemaLog() throws JSONException {
+        MockCommonSchemaLog log = new MockCommonSchemaLog();
+        log.setVer("3.0");
+        log.setName("test");
+        log.setTimestamp(new Date());
+        log.setPopSample(3.1415);
+        log.setIKey(UUID.randomUUID().toString());
+        log.setExt(new Extensions());
+        log.getExt().setMetadata(new MetadataExtension());
+        log.getExt().getMetadata().getMetadata().put("f", new JSONObject().put("a", 1));
+        log.setData(new Data());
+        log.getData().getProperties().put("nested", new JSONObject()
+                .put("array", new JSONArray().put("a").put(1.5).put(JSONObject.NULL))
+                .put("object", new JSONObject().put("b", true)));
+        return log;
+    }
+
+    @Test
+    public void sameOutputAsDefault() throws JSONException {
+        LogSerializer defaultSerializer = createSerializer(new DefaultLogSerializer());
+        LogSerializer streamingSerializer = createSerializer(new StreamingLogSerializer());
+        LogContainer container = generateLogContainer(30);
+
+        /* Check each log. */
+        for (Log log : container.getLogs()) {
+            String payload = streamingSerializer.serializeLog(log);
+            assertEquals(defaultSerializer.serializeLog(log), payload);
+            assertEquals(log, streamingSerializer.deserializeLog(payload, log.getType()));
+        }
+
+        /* Check container. */
+        String payload = streamingSerializer.serializeContainer(container);
+        android.util.Log.v(TAG, payload);
+        assertEquals(defaultSerializer.serializeContainer(container), payload);
+
+        /* Check empty container. */
+        LogContainer emptyContainer = new LogContainer();
+        emptyContainer.setLogs(Collections.<Log>emptyList());
+        assertEquals(defaultSerializer.serializeContainer(emptyContainer), streamingSerializer.serializeContainer(emptyContainer));
+    }
+
+    @Test
+    public void largeContainer() throws JSONException {
+        LogSerializer defaultSerializer = createSerializer(new DefaultLogSerializer());
+        LogSerializer streamingSerializer = createSerializer(new StreamingLogSerializer());
+        LogContainer container = generateLogContainer(BENCHMARK_BATCH_SIZE);
+
+        /* Buffer grows beyond retained capacity, check it's still correct after being released. */
+        String expected = defaultSerializer.serializeContainer(container);
+        assertEquals(expected, streamingSerializer.serializeContainer(container));
+        assertEquals(expected, streamingSerializer.serializeContainer(container));
+        Log log = container.getLogs().get(0);
+        assertEquals(defaultSerializer.serializeLog(log), streamingSerializer.serializeLog(log));
+    }
+
+    @Test
+    public void sharedDevice() throws JSONException {
+        LogSerializer defaultSerializer = createSerializer(new DefaultLogSerializer());
+        LogSerializer streamingSerializer = createSerializer(new StreamingLogSerializer());
+
+        /* Logs share a device instance like when enqueued by the channel, except the last one. */
+        LogContainer container = generateLogContainer(10);
+        Device device = container.getLogs().get(0).getDevice();
+        for (Log log : container.getLogs()) {
+            if (log.getDevice() != null) {
+                log.setDevice(device);
+            }
+        }
+        Log lastLog = AndroidTestUtils.generateMockLog();
+        lastLog.getDevice().setLocale("fr_FR");
+        List<Log> logs = new ArrayList<>(container.getLogs());
+        logs.add(lastLog);
+        container.setLogs(logs);
+
+        /* Device JSON is reused for each log. */
+        String payload = streamingSerializer.serializeContainer(container);
+        assertEquals(defaultSerializer.serializeContainer(container), payload);
+
+        /* Equal devices read back are the same instance. */
+        LogContainer readContainer = streamingSerializer.deserializeContainer(payload, null);
+        assertEquals(container, readContainer);
+        Device readDevice = readContainer.getLogs().get(0).getDevice();
+        assertSame(readDevice, readContainer.getLogs().get(3).getDevice());
+        assertSame(readDevice, streamingSerializer.deserializeLog(streamingSerializer.serializeLog(container.getLogs().get(0)), null).getDevice());
+        assertNotSame(readDevice, readContainer.getLogs().get(10).getDevice());
+
+        /* Device JSON is not reused across containers. */
+        device.setLocale("de_DE");
+        assertEquals(defaultSerializer.serializeContainer(container), streamingSerializer.serializeContainer(container));
+    }
+
+    @Test
+    public void reuseAfterFailure() throws JSONException {
+        LogSerializer serializer = createSerializer(new StreamingLogSerializer());
+
+        /* Fail in the middle of a log. */
+        CustomPropertiesLog invalidLog = new CustomPropertiesLog();
+        invalidLog.setTimestamp(new Date());
+        Map<String, Object> invalidTypeProperties = new HashMap<>();
+        invalidTypeProperties.put("nested", new HashMap<String, Object>());
+        invalidLog.setProperties(invalidTypeProperties);
+        try {
+            serializer.serializeLog(invalidLog);
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+
+        /* Check next log is not corrupted by previous state. */
+        Log log = AndroidTestUtils.generateMockLog();
+        assertEquals(createSerializer(new DefaultLogSerializer()).serializeLog(log), serializer.serializeLog(log));
+    }
+
+    @Test
+    public void nestingErrors() throws JSONException {
+        StreamingJSONStringer writer = new StreamingJSONStringer(1);
+        assertNull(writer.toString());
+        try {
+            writer.value(1);
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+        writer.reset();
+        writer.object();
+        try {
+            writer.value(true);
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.key(null);
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.endArray();
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+        try {
+            writer.key("a").value(Double.NaN);
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+        writer.reset();
+        writer.array().endArray();
+        try {
+            writer.object();
+            fail("Expected JSONException");
+        } catch (JSONException ignored) {
+        }
+        assertEquals(new JSONStringer().array().endArray().toString(), writer.toString());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmark() throws JSONException {
+        LogSerializer defaultSerializer = createSerializer(new DefaultLogSerializer());
+        LogSerializer streamingSerializer = createSerializer(new StreamingLogSerializer());
+        LogContainer container = generateLogContainer(BENCHMARK_BATCH_SIZE);
+
+        /* Warm up both serializers. */
+        for (int i = 0; i < 3; i++) {
+            serializeBatch(defaultSerializer, container);
+            serializeBatch(streamingSerializer, container);
+        }
+
+        /* Measure: serialize every log (persistence) then the container (ingestion). */
+        Debug.startAllocCounting();
+        try {
+            for (LogSerializer serializer : new LogSerializer[]{defaultSerializer, streamingSerializer}) {
+                Debug.resetThreadAllocCount();
+                Debug.resetThreadAllocSize();
+                long start = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    serializeBatch(serializer, container);
+                }
+                long durationNanos = System.nanoTime() - start;
+                int allocCount = Debug.getThreadAllocCount();
+                int allocSize = Debug.getThreadAllocSize();
+                android.util.Log.i(TAG, String.format(Locale.US,
+                        "%s: %.1f batches/s, %d allocations/batch, %d bytes allocated/batch",
+                        serializer.getClass().getSimpleName(),
+                        BENCHMARK_ITERATIONS * 1e9 / durationNanos,
+                        allocCount / BENCHMARK_ITERATIONS,
+                        allocSize / BENCHMARK_ITERATIONS));
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void serializeBatch(LogSerializer serializer, LogContainer container) throws JSONException {
+        for (Log log : container.getLogs()) {
+            serializer.serializeLog(log);
+        }
+        serializer.serializeContainer(container);
+    }
+}
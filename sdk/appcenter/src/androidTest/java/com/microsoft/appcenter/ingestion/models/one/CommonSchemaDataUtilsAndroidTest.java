@@ -26,8 +26,10 @@ import static com.microsoft.appcenter.ingestion.models.one.CommonSchemaDataUtils
 import static com.microsoft.appcenter.ingestion.models.one.CommonSchemaDataUtils.DATA_TYPE_DOUBLE;
 import static com.microsoft.appcenter.ingestion.models.one.CommonSchemaDataUtils.DATA_TYPE_INT64;
 import static com.microsoft.appcenter.ingestion.models.one.CommonSchemaDataUtils.METADATA_FIELDS;
+import static com.microsoft.appcenter.ingestion.models.one.CommonSchemaDataUtils.MAX_LAYOUTS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -569,4 +571,57 @@ public class CommonSchemaDataUtilsAndroidTest {
         assertEquals("Some.Type", log.getData().getProperties().optString("baseType"));
         assertNull(log.getExt().getMetadata());
     }
+
+    @Test
+    public void sameLayoutSharesMetadata() throws JSONException {
+        CommonSchemaDataUtils.clearLayouts();
+        List<TypedProperty> properties = new ArrayList<>();
+        LongTypedProperty property = new LongTypedProperty();
+        property.setName("a.b");
+        property.setValue(1);
+        properties.add(property);
+        properties.add(typedProperty("a.c", "x"));
+        MockCommonSchemaLog log = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(properties, log);
+
+        /* Same names and types with other values. */
+        List<TypedProperty> otherProperties = new ArrayList<>();
+        LongTypedProperty otherProperty = new LongTypedProperty();
+        otherProperty.setName("a.b");
+        otherProperty.setValue(2);
+        otherProperties.add(otherProperty);
+        otherProperties.add(typedProperty("a.c", "y"));
+        MockCommonSchemaLog otherLog = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(otherProperties, otherLog);
+
+        /* Values are not shared but metadata is. */
+        assertEquals(1, log.getData().getProperties().getJSONObject("a").getLong("b"));
+        assertEquals("x", log.getData().getProperties().getJSONObject("a").getString("c"));
+        assertEquals(2, otherLog.getData().getProperties().getJSONObject("a").getLong("b"));
+        assertEquals("y", otherLog.getData().getProperties().getJSONObject("a").getString("c"));
+        assertSame(log.getExt().getMetadata(), otherLog.getExt().getMetadata());
+        JSONObject expectedMetadata = new JSONObject();
+        JSONObject b = new JSONObject();
+        b.put("b", DATA_TYPE_INT64);
+        JSONObject a = new JSONObject();
+        a.put("a", new JSONObject().put(METADATA_FIELDS, b));
+        expectedMetadata.put(METADATA_FIELDS, a);
+        assertEquals(expectedMetadata.toString(), otherLog.getExt().getMetadata().getMetadata().toString());
+
+        /* Another type for the same name is another layout. */
+        otherProperties.set(0, typedProperty("a.b", "z"));
+        otherLog = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(otherProperties, otherLog);
+        assertEquals("z", otherLog.getData().getProperties().getJSONObject("a").getString("b"));
+        assertNull(otherLog.getExt());
+
+        /* Least recently used layouts are evicted. */
+        for (int i = 0; i < MAX_LAYOUTS; i++) {
+            CommonSchemaDataUtils.addCommonSchemaData(Collections.<TypedProperty>singletonList(typedProperty("p" + i, "v")), new MockCommonSchemaLog());
+        }
+        otherLog = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(properties, otherLog);
+        assertNotSame(log.getExt().getMetadata(), otherLog.getExt().getMetadata());
+        assertEquals(log.getExt().getMetadata().getMetadata().toString(), otherLog.getExt().getMetadata().getMetadata().toString());
+    }
 }
@@ -19,16 +19,20 @@ import com.microsoft.appcenter.AndroidTestUtils;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.MockLog;
 import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.AppExtension;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.Data;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
 import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
@@ -51,12 +55,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import static com.microsoft.appcenter.Flags.CRITICAL;
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
 import static com.microsoft.appcenter.persistence.DatabasePersistence.SCHEMA;
+import static com.microsoft.appcenter.test.TestUtils.TAG;
 import static com.microsoft.appcenter.test.TestUtils.generateString;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -82,6 +88,31 @@ public class DatabasePersistenceAndroidTest {
      */
     private static final int MAX_STORAGE_SIZE_IN_BYTES = 32 * 1024;
 
+    /**
+     * Number of offline logs stored for the benchmark.
+     */
+    private static final int BENCHMARK_BACKLOG_SIZE = 100000;
+
+    /**
+     * Maximum storage size in bytes for the benchmark, large enough to keep the whole backlog.
+     */
+    private static final long BENCHMARK_MAX_STORAGE_SIZE_IN_BYTES = 200 * 1024 * 1024;
+
+    /**
+     * Number of logs written per transaction to fill the benchmark backlog.
+     */
+    private static final int BENCHMARK_WRITE_BATCH_SIZE = 1000;
+
+    /**
+     * Number of logs per batch in the benchmark, same as the channel default.
+     */
+    private static final int BENCHMARK_BATCH_SIZE = 50;
+
+    /**
+     * Number of batches read in the benchmark.
+     */
+    private static final int BENCHMARK_BATCH_COUNT = 100;
+
     /**
      * Context instance.
      */
@@ -104,6 +135,15 @@ public class DatabasePersistenceAndroidTest {
         sContext.deleteDatabase(DatabasePersistence.DATABASE);
     }
 
+    private static int getSharedObjectsCount(DatabasePersistence persistence) {
+        Cursor cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.SHARED_OBJECTS_TABLE, null, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @NonNull
     private ContentValues getContentValues(DatabasePersistence persistence, String group) {
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
@@ -1176,4 +1216,225 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void upgradeFromVersion6to7() throws JSONException {
+
+        /* Initialize database persistence with old version and schema. */
+        ContentValues schema = new ContentValues(SCHEMA);
+        schema.remove(DatabasePersistence.COLUMN_BATCH_ID);
+        schema.remove(DatabasePersistence.COLUMN_COMPACT_LOG);
+        schema.remove(DatabasePersistence.COLUMN_SHARED_OBJECT_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_BATCH_ID_COLUMN - 1, schema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade keeps old data. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertEquals(1, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs));
+            assertEquals(Collections.singletonList(oldLog), outputLogs);
+
+            /* Pending state is stored. */
+            assertNotNull(getContentValues(persistence, "test").getAsString(DatabasePersistence.COLUMN_BATCH_ID));
+        } finally {
+            persistence.close();
+        }
+
+        /* Pending state is cleared by a new process. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs));
+            assertEquals(Collections.singletonList(oldLog), outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion7to8() throws JSONException, PersistenceException {
+
+        /* Initialize database persistence with old version and schema. */
+        ContentValues schema = new ContentValues(SCHEMA);
+        schema.remove(DatabasePersistence.COLUMN_COMPACT_LOG);
+        schema.remove(DatabasePersistence.COLUMN_SHARED_OBJECT_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_COMPACT_LOG_COLUMNS - 1, schema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade keeps old data, which can be read along compact logs. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext, true);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(newLog, "test", NORMAL);
+            assertEquals(2, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs));
+            assertEquals(Arrays.asList(oldLog, newLog), outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void compactStorage() throws PersistenceException, JSONException {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        DatabasePersistence persistence = new DatabasePersistence(sContext, true);
+        persistence.setLogSerializer(logSerializer);
+        List<Log> logs = new ArrayList<>();
+        List<CommonSchemaLog> commonSchemaLogs = new ArrayList<>();
+        try {
+
+            /* Logs with the same device. */
+            Device device = AndroidTestUtils.generateMockLog().getDevice();
+            for (int i = 0; i < 3; i++) {
+                Log log = AndroidTestUtils.generateMockLog();
+                log.setDevice(device);
+                persistence.putLog(log, "test", NORMAL);
+                logs.add(log);
+            }
+
+            /* Common Schema logs with the same extensions except the sequence number. */
+            for (int i = 0; i < 3; i++) {
+                MockCommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
+                commonSchemaLog.setName("test");
+                commonSchemaLog.setIKey("o:test");
+                commonSchemaLog.setTimestamp(new Date());
+                commonSchemaLog.setVer("3.0");
+                commonSchemaLog.addTransmissionTarget("test-guid");
+                Extensions ext = new Extensions();
+                AppExtension app = new AppExtension();
+                app.setId("com.microsoft.unittest");
+                app.setVer("1.0");
+                ext.setApp(app);
+                SdkExtension sdk = new SdkExtension();
+                sdk.setLibVer("appcenter.android-3.2.3");
+                sdk.setSeq((long) i);
+                ext.setSdk(sdk);
+                commonSchemaLog.setExt(ext);
+                persistence.putLog(commonSchemaLog, "test/one", NORMAL);
+                commonSchemaLogs.add(commonSchemaLog);
+            }
+
+            /* Shared parts are stored once. */
+            assertEquals(2, getSharedObjectsCount(persistence));
+            ContentValues values = getContentValues(persistence, "test");
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+            assertNotNull(values.getAsByteArray(DatabasePersistence.COLUMN_COMPACT_LOG));
+            assertNotNull(values.getAsLong(DatabasePersistence.COLUMN_SHARED_OBJECT_ID));
+        } finally {
+            persistence.close();
+        }
+
+        /* Logs are restored after restart, and can be read without compact storage. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            List<String> outputPayloads = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs, outputPayloads);
+            assertNotNull(batchId);
+            assertEquals(logs, outputLogs);
+            for (int i = 0; i < logs.size(); i++) {
+                assertEquals(logs.get(i), logSerializer.deserializeLog(outputPayloads.get(i), MOCK_LOG_TYPE));
+            }
+            outputLogs.clear();
+            assertNotNull(persistence.getLogs("test/one", Collections.<String>emptyList(), 3, outputLogs));
+            assertEquals(commonSchemaLogs, outputLogs);
+            assertEquals(Collections.singleton("test-guid"), outputLogs.get(0).getTransmissionTargetTokens());
+
+            /* Shared objects are deleted with the last log using them. */
+            persistence.deleteLogs("test", batchId);
+            persistence.deleteLogs("test/one");
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertNull(persistence.getLogs("test", Collections.<String>emptyList(), 3, new ArrayList<Log>()));
+            assertEquals(0, getSharedObjectsCount(persistence));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getLogsBenchmark() throws PersistenceException {
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a large offline backlog. */
+            assertTrue(persistence.setMaxStorageSize(BENCHMARK_MAX_STORAGE_SIZE_IN_BYTES));
+            persistence.setWriteBatchSize(BENCHMARK_WRITE_BATCH_SIZE);
+            for (int i = 0; i < BENCHMARK_BACKLOG_SIZE; i++) {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            }
+            persistence.flush();
+            assertEquals(BENCHMARK_BACKLOG_SIZE, persistence.countLogs("test-p1"));
+
+            /* Measure getting batches while previous batches are still pending, as the channel does. */
+            List<String> batchIds = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_BATCH_COUNT; i++) {
+                List<Log> logs = new ArrayList<>();
+                batchIds.add(persistence.getLogs("test-p1", Collections.<String>emptyList(), BENCHMARK_BATCH_SIZE, logs));
+                assertEquals(BENCHMARK_BATCH_SIZE, logs.size());
+            }
+            long getNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String batchId : batchIds) {
+                persistence.deleteLogs("test-p1", batchId);
+            }
+            long deleteNanos = System.nanoTime() - start;
+            android.util.Log.i(TAG, String.format(Locale.US,
+                    "%d logs backlog: getLogs %.2f ms/batch, deleteLogs %.2f ms/batch",
+                    BENCHMARK_BACKLOG_SIZE,
+                    getNanos / 1e6 / BENCHMARK_BATCH_COUNT,
+                    deleteNanos / 1e6 / BENCHMARK_BATCH_COUNT));
+            assertEquals(BENCHMARK_BACKLOG_SIZE - BENCHMARK_BATCH_COUNT * BENCHMARK_BATCH_SIZE, persistence.countLogs("test-p1"));
+        } finally {
+            persistence.close();
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static com.microsoft.appcenter.test.TestUtils.TAG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SegmentFilePersistenceAndroidTest {
+
+    /**
+     * Number of logs stored then read and deleted by a benchmark iteration.
+     */
+    private static final int BENCHMARK_LOG_COUNT = 500;
+
+    /**
+     * Number of logs per batch read in the benchmark, same as the channel default.
+     */
+    private static final int BENCHMARK_BATCH_SIZE = 50;
+
+    /**
+     * Number of measured iterations for the benchmark.
+     */
+    private static final int BENCHMARK_ITERATIONS = 5;
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    private static LogSerializer createSerializer() {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        return logSerializer;
+    }
+
+    private static void deleteSegments() {
+        File[] files = new File(Constants.FILES_PATH + SegmentFilePersistence.DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        deleteSegments();
+    }
+
+    @After
+    public void tearDown() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        deleteSegments();
+    }
+
+    @Test
+    public void putLogsAndReload() throws Persistence.PersistenceException {
+        SegmentFilePersistence persistence = new SegmentFilePersistence(sContext);
+        persistence.setLogSerializer(createSerializer());
+        List<Log> expectedLogs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Log log = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log, "test-p1", NORMAL);
+            expectedLogs.add(log);
+        }
+        persistence.close();
+
+        /* Logs are read back in order after reloading the segments. */
+        persistence = new SegmentFilePersistence(sContext);
+        persistence.setLogSerializer(createSerializer());
+        List<Log> logs = new ArrayList<>();
+        String batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 20, logs);
+        assertNotNull(batchId);
+        assertEquals(expectedLogs, logs);
+        persistence.deleteLogs("test-p1", batchId);
+        assertEquals(0, persistence.countLogs("test-p1"));
+        persistence.close();
+    }
+
+    @Test
+    public void benchmark() throws Persistence.PersistenceException, IOException {
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_LOG_COUNT; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+        Persistence databasePersistence = new DatabasePersistence(sContext);
+        Persistence segmentFilePersistence = new SegmentFilePersistence(sContext);
+        try {
+            for (Persistence persistence : new Persistence[]{databasePersistence, segmentFilePersistence}) {
+                persistence.setLogSerializer(createSerializer());
+
+                /* Warm up. */
+                runIteration(persistence, logs);
+
+                /* Measure each operation separately. */
+                long putNanos = 0;
+                long getNanos = 0;
+                long deleteNanos = 0;
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    long start = System.nanoTime();
+                    for (Log log : logs) {
+                        persistence.putLog(log, "benchmark", NORMAL);
+                    }
+                    putNanos += System.nanoTime() - start;
+                    List<String> batchIds = new ArrayList<>();
+                    start = System.nanoTime();
+                    String batchId;
+                    while ((batchId = persistence.getLogs("benchmark", Collections.<String>emptyList(), BENCHMARK_BATCH_SIZE, new ArrayList<Log>())) != null) {
+                        batchIds.add(batchId);
+                    }
+                    getNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (String id : batchIds) {
+                        persistence.deleteLogs("benchmark", id);
+                    }
+                    deleteNanos += System.nanoTime() - start;
+                    assertEquals(0, persistence.countLogs("benchmark"));
+                }
+                int logCount = BENCHMARK_ITERATIONS * BENCHMARK_LOG_COUNT;
+                android.util.Log.i(TAG, String.format(Locale.US,
+                        "%s: put %.1f us/log, get %.1f us/log, delete %.1f us/log",
+                        persistence.getClass().getSimpleName(),
+                        putNanos / 1e3 / logCount,
+                        getNanos / 1e3 / logCount,
+                        deleteNanos / 1e3 / logCount));
+            }
+        } finally {
+            databasePersistence.close();
+            segmentFilePersistence.close();
+        }
+    }
+
+    private static void runIteration(Persistence persistence, List<Log> logs) throws Persistence.PersistenceException {
+        for (Log log : logs) {
+            persistence.putLog(log, "benchmark", NORMAL);
+        }
+        String batchId;
+        while ((batchId = persistence.getLogs("benchmark", Collections.<String>emptyList(), BENCHMARK_BATCH_SIZE, new ArrayList<Log>())) != null) {
+            persistence.deleteLogs("benchmark", batchId);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.utils;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static com.microsoft.appcenter.test.TestUtils.TAG;
+import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("unused")
+public class AppCenterLogAndroidTest {
+
+    /**
+     * Number of enqueued logs simulated for the benchmark, the maximum batch size.
+     */
+    private static final int BENCHMARK_LOG_COUNT = 500;
+
+    /**
+     * Number of measured iterations for the benchmark.
+     */
+    private static final int BENCHMARK_ITERATIONS = 20;
+
+    private static final String GROUP_NAME = "group_analytics";
+
+    private static final String LOG_TYPE = "event";
+
+    /**
+     * Debug logs of enqueuing a log in the channel and storing it in the database, built by concatenation.
+     */
+    private static void logEnqueueWithConcatenation(int pendingLogCount, long databaseId) {
+        AppCenterLog.debug(LOG_TAG, "enqueue(" + GROUP_NAME + ") pendingLogCount=" + pendingLogCount);
+        AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type " + LOG_TYPE + " with flags=" + 1);
+        AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + LOG_TYPE + " with databaseId=" + databaseId);
+        AppCenterLog.debug(LOG_TAG, String.format("checkPendingLogs(%s) pendingLogCount=%s batchTimeInterval=%s", GROUP_NAME, pendingLogCount, 3000L));
+    }
+
+    /**
+     * The same debug logs as {@link #logEnqueueWithConcatenation(int, long)} built from templates.
+     */
+    private static void logEnqueueWithTemplates(int pendingLogCount, long databaseId) {
+        AppCenterLog.debug(LOG_TAG, "enqueue({}) pendingLogCount={}", GROUP_NAME, pendingLogCount);
+        AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type {} with flags={}", LOG_TYPE, 1);
+        AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type {} with databaseId={}", LOG_TYPE, databaseId);
+        AppCenterLog.debug(LOG_TAG, "checkPendingLogs({}) pendingLogCount={} batchTimeInterval={}", GROUP_NAME, pendingLogCount, 3000L);
+    }
+
+    private static int measureAllocations(boolean templates) {
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int j = 0; j < BENCHMARK_LOG_COUNT; j++) {
+                if (templates) {
+                    logEnqueueWithTemplates(j, 1000 + j);
+                } else {
+                    logEnqueueWithConcatenation(j, 1000 + j);
+                }
+            }
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    @After
+    public void tearDown() {
+        AppCenterLog.setLogLevel(Log.ASSERT);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmark() {
+
+        /* Default log level in production. */
+        AppCenterLog.setLogLevel(Log.ASSERT);
+
+        /* Warm up. */
+        for (int i = 0; i < BENCHMARK_LOG_COUNT; i++) {
+            logEnqueueWithConcatenation(i, i);
+            logEnqueueWithTemplates(i, i);
+        }
+
+        /* Measure. */
+        Debug.startAllocCounting();
+        try {
+            int concatenationAllocations = measureAllocations(false);
+            int templateAllocations = measureAllocations(true);
+            android.util.Log.i(TAG, String.format(Locale.US,
+                    "Enqueue logging with log level ASSERT: %d allocations/batch with concatenation, %d allocations/batch with templates",
+                    concatenationAllocations / BENCHMARK_ITERATIONS,
+                    templateAllocations / BENCHMARK_ITERATIONS));
+            assertTrue(templateAllocations < concatenationAllocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -266,7 +266,7 @@ public class DatabaseManagerAndroidTest {
     private boolean checkTableExists(DatabaseManager databaseManager, String tableName) {
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
         builder.appendWhere("tbl_name = ?");
-        Cursor cursor = databaseManager.getCursor("sqlite_master", builder, new String[]{"tbl_name"}, new String[]{tableName}, null);
+        Cursor cursor = databaseManager.getCursor("sqlite_master", builder, new String[]{"tbl_name"}, new String[]{tableName}, null, null);
         try {
             return cursor.getCount() > 0;
         } finally {
@@ -17,18 +17,24 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
 
+import com.microsoft.appcenter.channel.BatchingMetrics;
+import com.microsoft.appcenter.channel.TimeToSendMetrics;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
+import com.microsoft.appcenter.http.DefaultHttpClient;
+import com.microsoft.appcenter.http.ExecutorHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
 import com.microsoft.appcenter.ingestion.models.json.CustomPropertiesLogFactory;
-import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.StartServiceLogFactory;
+import com.microsoft.appcenter.ingestion.models.json.StreamingLogSerializer;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.SegmentFilePersistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.ApplicationLifecycleListener;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
@@ -212,6 +218,76 @@ public class AppCenter {
      */
     private long mMaxStorageSizeInBytes = DEFAULT_MAX_STORAGE_SIZE_IN_BYTES;
 
+    /**
+     * Maximum number of logs buffered in memory before writing them to storage.
+     */
+    private int mWriteBatchSize = 1;
+
+    /**
+     * Maximum time a log can stay in memory before being written to storage, in ms.
+     */
+    private long mWriteBatchMaxDelay;
+
+    /**
+     * Maximum number of logs kept in memory until sent instead of being stored, 0 if disabled.
+     */
+    private int mMemoryTailMaxLogs;
+
+    /**
+     * Maximum time a log can stay in memory before being stored, in ms.
+     */
+    private long mMemoryTailMaxAge;
+
+    /**
+     * Minimum number of logs per batch when batching is adaptive.
+     */
+    private int mAdaptiveMinLogsPerBatch;
+
+    /**
+     * Maximum number of logs per batch when batching is adaptive, 0 if batching is not adaptive.
+     */
+    private int mAdaptiveMaxLogsPerBatch;
+
+    /**
+     * Maximum number of parallel batches when batching is adaptive.
+     */
+    private int mAdaptiveMaxParallelBatches;
+
+    /**
+     * Whether critical logs are sent through critical lanes.
+     */
+    private boolean mCriticalLanesEnabled;
+
+    /**
+     * Number of threads dedicated to network calls, 0 to use the shared AsyncTask thread pool.
+     */
+    private int mNetworkThreadCount;
+
+    /**
+     * Linux priority of the threads dedicated to network calls.
+     */
+    private int mNetworkThreadPriority;
+
+    /**
+     * Maximum number of network calls waiting for a dedicated thread.
+     */
+    private int mNetworkQueueSize;
+
+    /**
+     * Indicates whether network connections are kept alive to be reused by the next calls.
+     */
+    private boolean mConnectionReuseEnabled;
+
+    /**
+     * Indicates whether logs are stored in memory mapped segment files instead of SQLite.
+     */
+    private boolean mSegmentFileStorageEnabled;
+
+    /**
+     * Indicates whether logs are stored in SQLite in a compact form.
+     */
+    private boolean mCompactStorageEnabled;
+
     /**
      * AppCenterFuture of set maximum storage size.
      */
@@ -455,6 +531,129 @@ public class AppCenter {
         return getInstance().setInstanceMaxStorageSizeAsync(storageSizeInBytes);
     }
 
+    /**
+     * Buffer logs in memory and write them to the SQLite database in a single transaction
+     * once {@code maxLogs} logs are buffered or {@code maxDelayMillis} elapsed since the first one.
+     * This reduces disk writes when many logs are generated in a short period of time.
+     * Buffered logs are also written when the application goes to background or crashes.
+     *
+     * @param maxLogs        Maximum number of logs to buffer, 1 to write every log immediately (default).
+     * @param maxDelayMillis Maximum time a log can stay in memory, in milliseconds.
+     */
+    public static void setWriteBatching(int maxLogs, long maxDelayMillis) {
+        getInstance().setInstanceWriteBatching(maxLogs, maxDelayMillis);
+    }
+
+    /**
+     * Keep the logs that services allow to lose in memory until they are sent, instead of writing
+     * them to the SQLite database first. Such logs are only written to the database if sending
+     * them fails, when the application goes to background, once older than {@code maxAgeMillis}
+     * or when more than {@code maxLogs} logs are in memory, and are lost if the process is killed
+     * before that. Analytics allows it for events tracked with {@link Flags#NORMAL},
+     * logs tracked with {@link Flags#CRITICAL} are always written to the database first.
+     *
+     * @param maxLogs      Maximum number of logs in memory, 0 to write every log to the database first (default).
+     * @param maxAgeMillis Maximum time a log can stay in memory, in milliseconds.
+     */
+    public static void setMemoryTail(int maxLogs, long maxAgeMillis) {
+        getInstance().setInstanceMemoryTail(maxLogs, maxAgeMillis);
+    }
+
+    /**
+     * Tune the size and parallelism of log batches at runtime from the latency, payload size and
+     * failure rate of the recent batches, within the specified bounds: large batches on a fast
+     * network, smaller ones more likely to succeed on a slow or unreliable network.
+     * The batch size and parallelism a service is configured with are never exceeded.
+     *
+     * @param minLogsPerBatch    Minimum number of logs per batch.
+     * @param maxLogsPerBatch    Maximum number of logs per batch, 0 to use the fixed values of each service again (default).
+     * @param maxParallelBatches Maximum number of batches sent in parallel for a service.
+     */
+    public static void setAdaptiveBatching(int minLogsPerBatch, int maxLogsPerBatch, int maxParallelBatches) {
+        getInstance().setInstanceAdaptiveBatching(minLogsPerBatch, maxLogsPerBatch, maxParallelBatches);
+    }
+
+    /**
+     * Get the batching parameters currently in use and the network statistics of each log group.
+     * This operation is performed in background as it accesses the channel state.
+     *
+     * @return future with result being the metrics by log group, null if the SDK is not configured or disabled.
+     * @see AppCenterFuture
+     */
+    public static AppCenterFuture<Map<String, BatchingMetrics>> getBatchingMetrics() {
+        return getInstance().getInstanceBatchingMetricsAsync();
+    }
+
+    /**
+     * Send the logs tracked with {@link Flags#CRITICAL} through a lane of their own: they are sent
+     * immediately, whatever the batch interval of their service, in a batch that does not wait for
+     * the batches of normal logs to complete.
+     *
+     * @param enabled true to send critical logs through critical lanes, false to send them with the other logs (default).
+     */
+    public static void setCriticalLanesEnabled(boolean enabled) {
+        getInstance().setInstanceCriticalLanesEnabled(enabled);
+    }
+
+    /**
+     * Get the time between the creation of logs and their successful sending, by priority.
+     * This operation is performed in background as it accesses the channel state.
+     *
+     * @return future with result being the metrics by priority ({@link Flags#NORMAL} or {@link Flags#CRITICAL}),
+     * null if the SDK is not configured or disabled.
+     * @see AppCenterFuture
+     */
+    public static AppCenterFuture<Map<Integer, TimeToSendMetrics>> getTimeToSendMetrics() {
+        return getInstance().getInstanceTimeToSendMetricsAsync();
+    }
+
+    /**
+     * Run network calls on a dedicated thread pool instead of the AsyncTask thread pool shared with
+     * the application, and process their results without going through the UI thread.
+     * Calls submitted while {@code queueSize} calls are already waiting for a thread fail
+     * and are retried later. Can only be called before AppCenter.start(...).
+     *
+     * @param threadCount    Number of threads, idle threads are released after a while.
+     * @param threadPriority Linux priority of the threads, e.g. {@link android.os.Process#THREAD_PRIORITY_BACKGROUND}.
+     * @param queueSize      Maximum number of calls waiting for a thread.
+     */
+    public static void setNetworkThreadPool(int threadCount, int threadPriority, int queueSize) {
+        getInstance().setInstanceNetworkThreadPool(threadCount, threadPriority, queueSize);
+    }
+
+    /**
+     * Keep network connections alive after sending logs so that the next batches sent to the same
+     * host reuse them, saving a TCP and TLS handshake per batch. TLS sessions are resumed when a
+     * new connection is needed. Can only be called before AppCenter.start(...).
+     *
+     * @param enabled true to reuse connections, false to close them after each call (default).
+     */
+    public static void setConnectionReuseEnabled(boolean enabled) {
+        getInstance().setInstanceConnectionReuseEnabled(enabled);
+    }
+
+    /**
+     * Store logs in append-only memory mapped files instead of SQLite, which makes storing a log
+     * a memory copy. Logs already stored in the other storage are not migrated and stay there
+     * until the storage is used again. Can only be called before AppCenter.start(...).
+     *
+     * @param enabled true to store logs in memory mapped files, false to use SQLite (default).
+     */
+    public static void setSegmentFileStorageEnabled(boolean enabled) {
+        getInstance().setInstanceSegmentFileStorageEnabled(enabled);
+    }
+
+    /**
+     * Store logs in SQLite in a compact form: the device properties, which are the same for most
+     * logs, are stored once and referenced by the logs, the rest of each log is compressed. Logs
+     * already stored remain readable whatever the setting. Can only be called before AppCenter.start(...).
+     *
+     * @param enabled true to store logs in a compact form, false to store them as JSON (default).
+     */
+    public static void setCompactStorageEnabled(boolean enabled) {
+        getInstance().setInstanceCompactStorageEnabled(enabled);
+    }
+
     /**
      * {@link #setUserId(String)} implementation at instance level.
      */
@@ -551,6 +750,240 @@ public class AppCenter {
         }
     }
 
+    /**
+     * {@link #setWriteBatching(int, long)} implementation at instance level.
+     *
+     * @param maxLogs        maximum number of logs to buffer.
+     * @param maxDelayMillis maximum time a log can stay in memory.
+     */
+    private synchronized void setInstanceWriteBatching(final int maxLogs, final long maxDelayMillis) {
+        if (maxLogs < 1) {
+            AppCenterLog.error(LOG_TAG, "Maximum number of buffered logs must be at least 1.");
+            return;
+        }
+        if (maxDelayMillis < 0) {
+            AppCenterLog.error(LOG_TAG, "Maximum delay of buffered logs may not be negative.");
+            return;
+        }
+        mWriteBatchSize = maxLogs;
+        mWriteBatchMaxDelay = maxDelayMillis;
+
+        /* If SDK already configured, update channel. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setWriteBatching(maxLogs, maxDelayMillis);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setMemoryTail(int, long)} implementation at instance level.
+     *
+     * @param maxLogs      maximum number of logs in memory.
+     * @param maxAgeMillis maximum time a log can stay in memory.
+     */
+    private synchronized void setInstanceMemoryTail(final int maxLogs, final long maxAgeMillis) {
+        if (maxLogs < 0) {
+            AppCenterLog.error(LOG_TAG, "Maximum number of logs in memory may not be negative.");
+            return;
+        }
+        if (maxLogs > 0 && maxAgeMillis <= 0) {
+            AppCenterLog.error(LOG_TAG, "Maximum age of logs in memory must be positive.");
+            return;
+        }
+        mMemoryTailMaxLogs = maxLogs;
+        mMemoryTailMaxAge = maxAgeMillis;
+
+        /* If SDK already configured, update channel. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setMemoryTail(maxLogs, maxAgeMillis);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setAdaptiveBatching(int, int, int)} implementation at instance level.
+     *
+     * @param minLogsPerBatch    minimum number of logs per batch.
+     * @param maxLogsPerBatch    maximum number of logs per batch, 0 to disable.
+     * @param maxParallelBatches maximum number of batches sent in parallel.
+     */
+    private synchronized void setInstanceAdaptiveBatching(final int minLogsPerBatch, final int maxLogsPerBatch, final int maxParallelBatches) {
+        if (maxLogsPerBatch < 0) {
+            AppCenterLog.error(LOG_TAG, "Maximum number of logs per batch may not be negative.");
+            return;
+        }
+        if (maxLogsPerBatch > 0 && (minLogsPerBatch < 1 || maxLogsPerBatch < minLogsPerBatch)) {
+            AppCenterLog.error(LOG_TAG, "Batch size bounds must be at least 1 and in increasing order.");
+            return;
+        }
+        if (maxLogsPerBatch > 0 && maxParallelBatches < 1) {
+            AppCenterLog.error(LOG_TAG, "Maximum number of parallel batches must be at least 1.");
+            return;
+        }
+        mAdaptiveMinLogsPerBatch = minLogsPerBatch;
+        mAdaptiveMaxLogsPerBatch = maxLogsPerBatch;
+        mAdaptiveMaxParallelBatches = maxParallelBatches;
+
+        /* If SDK already configured, update channel. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setAdaptiveBatching(minLogsPerBatch, maxLogsPerBatch, maxParallelBatches);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setCriticalLanesEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to send critical logs through critical lanes.
+     */
+    private synchronized void setInstanceCriticalLanesEnabled(final boolean enabled) {
+        mCriticalLanesEnabled = enabled;
+
+        /* If SDK already configured, update channel. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setCriticalLanesEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #getTimeToSendMetrics()} implementation at instance level.
+     *
+     * @return future with the metrics by priority.
+     */
+    private synchronized AppCenterFuture<Map<Integer, TimeToSendMetrics>> getInstanceTimeToSendMetricsAsync() {
+        final DefaultAppCenterFuture<Map<Integer, TimeToSendMetrics>> future = new DefaultAppCenterFuture<>();
+        if (checkPrecondition()) {
+            mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    future.complete(mChannel.getTimeToSendMetrics());
+                }
+            }, new Runnable() {
+
+                @Override
+                public void run() {
+                    future.complete(null);
+                }
+            });
+        } else {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * {@link #getBatchingMetrics()} implementation at instance level.
+     *
+     * @return future with the metrics by log group.
+     */
+    private synchronized AppCenterFuture<Map<String, BatchingMetrics>> getInstanceBatchingMetricsAsync() {
+        final DefaultAppCenterFuture<Map<String, BatchingMetrics>> future = new DefaultAppCenterFuture<>();
+        if (checkPrecondition()) {
+            mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    future.complete(mChannel.getBatchingMetrics());
+                }
+            }, new Runnable() {
+
+                @Override
+                public void run() {
+                    future.complete(null);
+                }
+            });
+        } else {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * {@link #setNetworkThreadPool(int, int, int)} implementation at instance level.
+     *
+     * @param threadCount    number of threads.
+     * @param threadPriority Linux priority of the threads.
+     * @param queueSize      maximum number of calls waiting for a thread.
+     */
+    private synchronized void setInstanceNetworkThreadPool(int threadCount, int threadPriority, int queueSize) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setNetworkThreadPool may not be called after App Center has been configured.");
+            return;
+        }
+        if (threadCount < 1) {
+            AppCenterLog.error(LOG_TAG, "Number of network threads must be at least 1.");
+            return;
+        }
+        if (queueSize < 1) {
+            AppCenterLog.error(LOG_TAG, "Network queue size must be at least 1.");
+            return;
+        }
+        mNetworkThreadCount = threadCount;
+        mNetworkThreadPriority = threadPriority;
+        mNetworkQueueSize = queueSize;
+    }
+
+    /**
+     * {@link #setConnectionReuseEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to reuse connections.
+     */
+    private synchronized void setInstanceConnectionReuseEnabled(boolean enabled) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setConnectionReuseEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mConnectionReuseEnabled = enabled;
+    }
+
+    /**
+     * {@link #setSegmentFileStorageEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to store logs in memory mapped files.
+     */
+    private synchronized void setInstanceSegmentFileStorageEnabled(boolean enabled) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setSegmentFileStorageEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mSegmentFileStorageEnabled = enabled;
+    }
+
+    /**
+     * {@link #setCompactStorageEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to store logs in a compact form.
+     */
+    private synchronized void setInstanceCompactStorageEnabled(boolean enabled) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setCompactStorageEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mCompactStorageEnabled = enabled;
+    }
+
     /**
      * {@link #setCustomProperties(CustomProperties)} implementation at instance level.
      *
@@ -681,6 +1114,25 @@ public class AppCenter {
             }
         };
         mApplicationLifecycleListener = new ApplicationLifecycleListener(mHandler);
+        mApplicationLifecycleListener.registerApplicationLifecycleCallbacks(new ApplicationLifecycleListener.ApplicationLifecycleCallbacks() {
+
+            @Override
+            public void onApplicationEnterForeground() {
+            }
+
+            @Override
+            public void onApplicationEnterBackground() {
+
+                /* Don't keep logs in memory while the process can be killed at any time. */
+                mHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        mChannel.flush();
+                    }
+                });
+            }
+        });
         mApplication.registerActivityLifecycleCallbacks(mApplicationLifecycleListener);
 
         /* The rest of initialization is done in background as we need storage. */
@@ -796,14 +1248,29 @@ public class AppCenter {
         /* Instantiate HTTP client if it doesn't exist as a dependency. */
         HttpClient httpClient = DependencyConfiguration.getHttpClient();
         if (httpClient == null) {
-            httpClient = createHttpClient(mApplication);
+            if (mNetworkThreadCount > 0) {
+
+                /* Results are processed on the background thread anyway, skip the UI thread. */
+                ExecutorHttpClient executorHttpClient = new ExecutorHttpClient(true, mConnectionReuseEnabled, ExecutorHttpClient.createBoundedExecutor(mNetworkThreadCount, mNetworkThreadPriority, mNetworkQueueSize), mHandler);
+                httpClient = createHttpClient(mApplication, executorHttpClient);
+            } else if (mConnectionReuseEnabled) {
+                httpClient = createHttpClient(mApplication, new DefaultHttpClient(true, true));
+            } else {
+                httpClient = createHttpClient(mApplication);
+            }
         }
 
         /* Init channel. */
-        mLogSerializer = new DefaultLogSerializer();
+        mLogSerializer = new StreamingLogSerializer();
         mLogSerializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
         mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
-        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, httpClient, mHandler);
+        if (mSegmentFileStorageEnabled) {
+            mChannel = new DefaultChannel(mApplication, mAppSecret, new SegmentFilePersistence(mApplication), mLogSerializer, httpClient, mHandler);
+        } else if (mCompactStorageEnabled) {
+            mChannel = new DefaultChannel(mApplication, mAppSecret, new DatabasePersistence(mApplication, true), mLogSerializer, httpClient, mHandler);
+        } else {
+            mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, httpClient, mHandler);
+        }
 
         /* Complete set maximum storage size future if starting from app. */
         if (configureFromApp) {
@@ -813,6 +1280,16 @@ public class AppCenter {
             /* If from library, we apply storage size only later, we have to try using the default value in the mean time. */
             mChannel.setMaxStorageSize(DEFAULT_MAX_STORAGE_SIZE_IN_BYTES);
         }
+        if (mWriteBatchSize > 1) {
+            mChannel.setWriteBatching(mWriteBatchSize, mWriteBatchMaxDelay);
+        }
+        if (mMemoryTailMaxLogs > 0) {
+            mChannel.setMemoryTail(mMemoryTailMaxLogs, mMemoryTailMaxAge);
+        }
+        if (mAdaptiveMaxLogsPerBatch > 0) {
+            mChannel.setAdaptiveBatching(mAdaptiveMinLogsPerBatch, mAdaptiveMaxLogsPerBatch, mAdaptiveMaxParallelBatches);
+        }
+        mChannel.setCriticalLanesEnabled(mCriticalLanesEnabled);
         mChannel.setEnabled(enabled);
         mChannel.addGroup(CORE_GROUP, DEFAULT_TRIGGER_COUNT, DEFAULT_TRIGGER_INTERVAL, DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS, null, null);
         mOneCollectorChannelListener = new OneCollectorChannelListener(mChannel, mLogSerializer, httpClient, IdHelper.getInstallId());
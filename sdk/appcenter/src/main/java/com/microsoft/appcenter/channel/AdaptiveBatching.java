@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Tunes batch size and parallelism of a channel group from the outcome of the recent batches.
+ * Batches grow while they are full and sent quickly, and shrink when they are slow,
+ * too large or failing, always staying within the configured bounds.
+ * With equal minimum and maximum bounds, the values are fixed and only statistics are updated.
+ */
+class AdaptiveBatching {
+
+    /**
+     * Weight of the latest batch in the moving averages.
+     */
+    @VisibleForTesting
+    static final double SMOOTHING_FACTOR = 0.3;
+
+    /**
+     * Batches taking longer than this on average are considered slow, in ms.
+     */
+    @VisibleForTesting
+    static final long TARGET_LATENCY = 2000;
+
+    /**
+     * Batches are not grown beyond this payload size, in bytes.
+     */
+    @VisibleForTesting
+    static final long TARGET_PAYLOAD_SIZE = 256 * 1024;
+
+    /**
+     * Batches are not grown while the failure rate is above this ratio.
+     */
+    @VisibleForTesting
+    static final double MAX_FAILURE_RATE = 0.2;
+
+    /**
+     * Minimum number of logs per batch.
+     */
+    private final int mMinLogsPerBatch;
+
+    /**
+     * Maximum number of logs per batch.
+     */
+    private final int mMaxLogsPerBatch;
+
+    /**
+     * Minimum number of batches in parallel.
+     */
+    private final int mMinParallelBatches;
+
+    /**
+     * Maximum number of batches in parallel.
+     */
+    private final int mMaxParallelBatches;
+
+    /**
+     * Current number of logs per batch.
+     */
+    private int mLogsPerBatch;
+
+    /**
+     * Current number of batches in parallel.
+     */
+    private int mParallelBatches;
+
+    /**
+     * Moving average of batch latency in ms, negative until the first batch succeeds.
+     */
+    private double mLatency = -1;
+
+    /**
+     * Moving average of log size in bytes, negative while unknown.
+     */
+    private double mLogSize = -1;
+
+    /**
+     * Moving average of payload size in bytes, negative while unknown.
+     */
+    private double mPayloadSize = -1;
+
+    /**
+     * Moving average of failed batches.
+     */
+    private double mFailureRate;
+
+    /**
+     * Init with fixed values.
+     *
+     * @param logsPerBatch    number of logs per batch.
+     * @param parallelBatches number of batches in parallel.
+     */
+    AdaptiveBatching(int logsPerBatch, int parallelBatches) {
+        this(logsPerBatch, logsPerBatch, parallelBatches, parallelBatches, logsPerBatch, parallelBatches);
+    }
+
+    /**
+     * Init with values tuned within bounds.
+     *
+     * @param minLogsPerBatch    minimum number of logs per batch.
+     * @param maxLogsPerBatch    maximum number of logs per batch.
+     * @param maxParallelBatches maximum number of batches in parallel.
+     * @param logsPerBatch       initial number of logs per batch, clamped to bounds.
+     * @param parallelBatches    initial number of batches in parallel, clamped to bounds.
+     */
+    AdaptiveBatching(int minLogsPerBatch, int maxLogsPerBatch, int maxParallelBatches, int logsPerBatch, int parallelBatches) {
+        this(minLogsPerBatch, maxLogsPerBatch, 1, maxParallelBatches, logsPerBatch, parallelBatches);
+    }
+
+    private AdaptiveBatching(int minLogsPerBatch, int maxLogsPerBatch, int minParallelBatches, int maxParallelBatches, int logsPerBatch, int parallelBatches) {
+        mMinLogsPerBatch = minLogsPerBatch;
+        mMaxLogsPerBatch = maxLogsPerBatch;
+        mMinParallelBatches = minParallelBatches;
+        mMaxParallelBatches = maxParallelBatches;
+        mLogsPerBatch = clamp(logsPerBatch, minLogsPerBatch, maxLogsPerBatch);
+        mParallelBatches = clamp(parallelBatches, minParallelBatches, maxParallelBatches);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    private static double average(double average, double sample) {
+        return average < 0 ? sample : average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    /**
+     * Get the current number of logs per batch.
+     *
+     * @return number of logs per batch.
+     */
+    int getLogsPerBatch() {
+        return mLogsPerBatch;
+    }
+
+    /**
+     * Get the current number of batches in parallel.
+     *
+     * @return number of batches in parallel.
+     */
+    int getParallelBatches() {
+        return mParallelBatches;
+    }
+
+    /**
+     * Update after a batch was sent successfully.
+     *
+     * @param latency     time it took to send the batch, in ms.
+     * @param logCount    number of logs in the batch.
+     * @param payloadSize size of the batch payload in bytes, negative if unknown.
+     */
+    void onSuccess(long latency, int logCount, long payloadSize) {
+        mLatency = average(mLatency, latency);
+        mFailureRate = average(mFailureRate, 0);
+        if (payloadSize >= 0 && logCount > 0) {
+            mPayloadSize = average(mPayloadSize, payloadSize);
+            mLogSize = average(mLogSize, (double) payloadSize / logCount);
+        }
+
+        /* Slow network: smaller batches are more likely to succeed. */
+        if (mLatency > TARGET_LATENCY) {
+            mLogsPerBatch = Math.max(mMinLogsPerBatch, mLogsPerBatch * 3 / 4);
+        }
+
+        /* Grow only when there is a backlog, otherwise batches were not full anyway. */
+        else if (logCount >= mLogsPerBatch && mFailureRate < MAX_FAILURE_RATE) {
+            mLogsPerBatch = Math.min(mMaxLogsPerBatch, mLogsPerBatch + Math.max(1, mLogsPerBatch / 4));
+            mParallelBatches = Math.min(mMaxParallelBatches, mParallelBatches + 1);
+        }
+
+        /* Avoid large payloads. */
+        if (mLogSize > 0) {
+            int maxLogsForPayload = (int) Math.max(1, TARGET_PAYLOAD_SIZE / mLogSize);
+            mLogsPerBatch = clamp(Math.min(mLogsPerBatch, maxLogsForPayload), mMinLogsPerBatch, mMaxLogsPerBatch);
+        }
+    }
+
+    /**
+     * Update after a batch failed to be sent because of a network issue.
+     */
+    void onFailure() {
+        mFailureRate = average(mFailureRate, 1);
+        mLogsPerBatch = Math.max(mMinLogsPerBatch, mLogsPerBatch / 2);
+        mParallelBatches = mMinParallelBatches;
+    }
+
+    /**
+     * Get the current values.
+     *
+     * @return metrics snapshot.
+     */
+    BatchingMetrics getMetrics() {
+        return new BatchingMetrics(mLogsPerBatch, mParallelBatches, Math.round(Math.max(mLatency, 0)), Math.round(Math.max(mPayloadSize, 0)), mFailureRate);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+/**
+ * Snapshot of the batching parameters and network statistics of a channel group.
+ */
+public class BatchingMetrics {
+
+    /**
+     * Current maximum number of logs per batch.
+     */
+    private final int mMaxLogsPerBatch;
+
+    /**
+     * Current maximum number of batches sent in parallel.
+     */
+    private final int mMaxParallelBatches;
+
+    /**
+     * Average time to send a batch, in milliseconds.
+     */
+    private final long mAverageLatency;
+
+    /**
+     * Average payload size of a batch, in bytes.
+     */
+    private final long mAveragePayloadSize;
+
+    /**
+     * Recent ratio of failed batches, between 0 and 1.
+     */
+    private final double mFailureRate;
+
+    /**
+     * Init.
+     *
+     * @param maxLogsPerBatch    current maximum number of logs per batch.
+     * @param maxParallelBatches current maximum number of batches sent in parallel.
+     * @param averageLatency     average time to send a batch, in milliseconds.
+     * @param averagePayloadSize average payload size of a batch, in bytes.
+     * @param failureRate        recent ratio of failed batches.
+     */
+    BatchingMetrics(int maxLogsPerBatch, int maxParallelBatches, long averageLatency, long averagePayloadSize, double failureRate) {
+        mMaxLogsPerBatch = maxLogsPerBatch;
+        mMaxParallelBatches = maxParallelBatches;
+        mAverageLatency = averageLatency;
+        mAveragePayloadSize = averagePayloadSize;
+        mFailureRate = failureRate;
+    }
+
+    /**
+     * Get the current maximum number of logs per batch.
+     *
+     * @return maximum number of logs per batch.
+     */
+    public int getMaxLogsPerBatch() {
+        return mMaxLogsPerBatch;
+    }
+
+    /**
+     * Get the current maximum number of batches sent in parallel.
+     *
+     * @return maximum number of parallel batches.
+     */
+    public int getMaxParallelBatches() {
+        return mMaxParallelBatches;
+    }
+
+    /**
+     * Get the average time to send a batch, weighted towards the most recent batches.
+     *
+     * @return average latency in milliseconds, 0 if no batch was sent yet.
+     */
+    public long getAverageLatency() {
+        return mAverageLatency;
+    }
+
+    /**
+     * Get the average payload size of a batch, weighted towards the most recent batches.
+     *
+     * @return average payload size in bytes, 0 if unknown.
+     */
+    public long getAveragePayloadSize() {
+        return mAveragePayloadSize;
+    }
+
+    /**
+     * Get the ratio of failed batches, weighted towards the most recent batches.
+     *
+     * @return failure rate between 0 and 1.
+     */
+    public double getFailureRate() {
+        return mFailureRate;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingMetrics{" +
+                "maxLogsPerBatch=" + mMaxLogsPerBatch +
+                ", maxParallelBatches=" + mMaxParallelBatches +
+                ", averageLatency=" + mAverageLatency +
+                ", averagePayloadSize=" + mAveragePayloadSize +
+                ", failureRate=" + mFailureRate +
+                '}';
+    }
+}
@@ -11,6 +11,8 @@ import android.support.annotation.NonNull;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 
+import java.util.Map;
+
 import static com.microsoft.appcenter.Flags.CRITICAL;
 import static com.microsoft.appcenter.Flags.NORMAL;
 
@@ -35,6 +37,76 @@ public interface Channel {
      */
     boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Buffer enqueued logs in memory and write them to storage in a single transaction
+     * once {@code maxLogs} logs are buffered or {@code maxDelay} elapsed since the first one.
+     *
+     * @param maxLogs  maximum number of logs to buffer, 1 to write every log immediately.
+     * @param maxDelay maximum time a log can stay in memory, in milliseconds.
+     */
+    void setWriteBatching(int maxLogs, long maxDelay);
+
+    /**
+     * Keep the logs of the groups that allow it in memory until they are sent, instead of writing
+     * them to storage. Logs in memory are stored when a batch fails, on {@link #flush()}, once
+     * older than {@code maxAge} or when more than {@code maxLogs} logs are in memory.
+     *
+     * @param maxLogs maximum number of logs in memory, 0 to store every log immediately.
+     * @param maxAge  maximum time a log can stay in memory, in milliseconds.
+     * @see #setMemoryTailPriorities(String, int)
+     */
+    void setMemoryTail(int maxLogs, long maxAge);
+
+    /**
+     * Set the priorities of the logs of a group that can be kept in memory by the memory tail,
+     * and thus lost if the process is killed before they are sent or stored.
+     * Logs with other priorities are always stored immediately.
+     *
+     * @param groupName  the group name.
+     * @param priorities combination of {@link com.microsoft.appcenter.Flags#NORMAL} and {@link com.microsoft.appcenter.Flags#CRITICAL}, 0 to store every log of the group immediately (default).
+     */
+    void setMemoryTailPriorities(@NonNull String groupName, int priorities);
+
+    /**
+     * Write logs buffered in memory to storage.
+     */
+    void flush();
+
+    /**
+     * Tune the batch size and parallelism of every group at runtime from the latency,
+     * payload size and failure rate of its recent batches, within the specified bounds.
+     * The values a group was added with are used as a starting point and are never exceeded.
+     *
+     * @param minLogsPerBatch    minimum number of logs per batch.
+     * @param maxLogsPerBatch    maximum number of logs per batch, 0 to use fixed values again.
+     * @param maxParallelBatches maximum number of batches sent in parallel.
+     */
+    void setAdaptiveBatching(int minLogsPerBatch, int maxLogsPerBatch, int maxParallelBatches);
+
+    /**
+     * Get the batching parameters currently in use and the network statistics of every group.
+     *
+     * @return metrics by group name.
+     */
+    Map<String, BatchingMetrics> getBatchingMetrics();
+
+    /**
+     * Send the logs enqueued with the {@link com.microsoft.appcenter.Flags#CRITICAL} flag through a
+     * critical lane of their group, that sends them immediately regardless of the group batch interval,
+     * with its own parallel batch. When disabled, lanes are still added if they were enabled before
+     * so that the logs they stored are sent.
+     *
+     * @param enabled true to use critical lanes for groups, false to send critical logs with the other logs.
+     */
+    void setCriticalLanesEnabled(boolean enabled);
+
+    /**
+     * Get the time logs took to be sent, by priority.
+     *
+     * @return metrics by {@link com.microsoft.appcenter.Flags#NORMAL} or {@link com.microsoft.appcenter.Flags#CRITICAL} priority.
+     */
+    Map<Integer, TimeToSendMetrics> getTimeToSendMetrics();
+
     /**
      * Add a group for logs to be persisted and sent.
      *
@@ -70,6 +142,21 @@ public interface Channel {
      */
     void resumeGroup(String groupName, String targetToken);
 
+    /**
+     * Add log to queue to be persisted and sent, can be called from any thread.
+     * The log is published without locking and enqueued later on the channel thread,
+     * along with the other logs published in the meantime.
+     * Like with {@link #enqueue}, a log without timestamp is stamped when enqueued,
+     * so that listeners can correlate it with the current state such as the session.
+     *
+     * @param log       the log to be enqueued.
+     * @param groupName the group to use.
+     * @param flags     the flags for this log.
+     */
+    void enqueueAsync(@NonNull Log log,
+                      @NonNull String groupName,
+                      @IntRange(from = NORMAL, to = CRITICAL) int flags);
+
     /**
      * Add log to queue to be persisted and sent.
      *
@@ -81,6 +168,19 @@ public interface Channel {
                  @NonNull String groupName,
                  @IntRange(from = NORMAL, to = CRITICAL) int flags);
 
+    /**
+     * Add a log converted from the log being prepared, can only be called from {@link Listener#onPreparedLog}.
+     * The converted log is only decorated by {@link Listener#onPreparingLog} before being persisted and sent,
+     * as the log it was converted from was already prepared and filtered by the listeners.
+     *
+     * @param log       the converted log to be enqueued.
+     * @param groupName the group to use.
+     * @param flags     the flags for this log.
+     */
+    void enqueueConvertedLog(@NonNull Log log,
+                             @NonNull String groupName,
+                             @IntRange(from = NORMAL, to = CRITICAL) int flags);
+
     /**
      * Check whether channel is enabled or disabled.
      *
@@ -7,12 +7,14 @@ package com.microsoft.appcenter.channel;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpResponse;
 import com.microsoft.appcenter.http.HttpUtils;
@@ -22,15 +24,19 @@ import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.MemoryTailPersistence;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.IdHelper;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
+import org.json.JSONException;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -44,6 +50,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 
@@ -66,6 +73,35 @@ public class DefaultChannel implements Channel {
      */
     private static final long MINIMUM_TRANSMISSION_INTERVAL = 3000;
 
+    /**
+     * Suffix added to the name of a group to name its critical lane.
+     */
+    @VisibleForTesting
+    static final String CRITICAL_LANE_SUFFIX = "/critical";
+
+    /**
+     * Maximum number of batches a critical lane sends in parallel, in addition to the batches of its group.
+     */
+    @VisibleForTesting
+    static final int CRITICAL_LANE_MAX_PARALLEL_BATCHES = 1;
+
+    /**
+     * Storage key set once critical lanes are enabled, so that logs stored in the lanes are still
+     * sent after lanes are disabled.
+     */
+    @VisibleForTesting
+    static final String CRITICAL_LANES_USED_KEY = "criticalLanesUsed";
+
+    /**
+     * Start of the creation time in a stored App Center log payload.
+     */
+    private static final String RAW_TIMESTAMP_PREFIX = "\"timestamp\":\"";
+
+    /**
+     * Start of the creation time in a stored Common Schema log payload.
+     */
+    private static final String RAW_COMMON_SCHEMA_TIME_PREFIX = "\"time\":\"";
+
     /**
      * Application context.
      */
@@ -94,7 +130,22 @@ public class DefaultChannel implements Channel {
     /**
      * The Persistence instance used to store events in the local storage.
      */
-    private final Persistence mPersistence;
+    private Persistence mPersistence;
+
+    /**
+     * Memory tail in front of the storage, null until the memory tail is configured.
+     */
+    private MemoryTailPersistence mMemoryTail;
+
+    /**
+     * Maximum time a log can stay in the memory tail before being stored, in ms.
+     */
+    private long mMemoryTailMaxAge;
+
+    /**
+     * Is a check of the age of the logs in the memory tail scheduled.
+     */
+    private boolean mSpillScheduled;
 
     /**
      * The ingestion object used to send batches to the server.
@@ -127,6 +178,116 @@ public class DefaultChannel implements Channel {
      */
     private Device mDevice;
 
+    /**
+     * Maximum number of logs persistence can buffer in memory, 1 if writes are not batched.
+     */
+    private int mWriteBatchSize = 1;
+
+    /**
+     * Maximum time a log can stay in memory before persistence writes it, in ms.
+     */
+    private long mWriteBatchMaxDelay;
+
+    /**
+     * Is a flush of buffered logs scheduled.
+     */
+    private boolean mFlushScheduled;
+
+    /**
+     * Minimum number of logs per batch when batching is adaptive.
+     */
+    private int mAdaptiveMinLogsPerBatch;
+
+    /**
+     * Maximum number of logs per batch when batching is adaptive, 0 if batching is not adaptive.
+     */
+    private int mAdaptiveMaxLogsPerBatch;
+
+    /**
+     * Maximum number of parallel batches when batching is adaptive.
+     */
+    private int mAdaptiveMaxParallelBatches;
+
+    /**
+     * Whether critical logs are sent through the critical lane of their group.
+     */
+    private boolean mCriticalLanesEnabled;
+
+    /**
+     * Whether groups have a critical lane: when lanes are enabled or were enabled before, so that logs
+     * stored in the lanes are still sent.
+     */
+    private boolean mCriticalLanesAdded;
+
+    /**
+     * Runnable that writes logs buffered by persistence.
+     */
+    private final Runnable mFlushRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            getStorage().flush();
+        }
+    };
+
+    /**
+     * Runnable that stores the logs kept in the memory tail for longer than the maximum age.
+     */
+    private final Runnable mSpillRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            mSpillScheduled = false;
+            long delay = mMemoryTail.spillExpiredLogs();
+            if (delay >= 0) {
+                mSpillScheduled = true;
+                mAppCenterHandler.postDelayed(mSpillRunnable, delay);
+            }
+        }
+    };
+
+    /**
+     * Maximum number of logs published from any thread and waiting to be enqueued on the channel thread.
+     */
+    @VisibleForTesting
+    static final int ENQUEUE_BUFFER_CAPACITY = 1024;
+
+    /**
+     * Logs published by {@link #enqueueAsync(Log, String, int)} and waiting to be enqueued.
+     */
+    private final LogRingBuffer mEnqueueBuffer = new LogRingBuffer(ENQUEUE_BUFFER_CAPACITY);
+
+    /**
+     * Whether {@link #mDrainRunnable} is posted and not running yet.
+     */
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    /**
+     * Enqueues the logs drained from {@link #mEnqueueBuffer}.
+     */
+    private final LogRingBuffer.Consumer mEnqueueConsumer = new LogRingBuffer.Consumer() {
+
+        @Override
+        public void accept(@NonNull Log log, @NonNull String groupName, int flags) {
+            enqueue(log, groupName, flags);
+        }
+    };
+
+    /**
+     * Runnable that enqueues logs published from other threads, in a single batch.
+     */
+    private final Runnable mDrainRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+
+            /* Reset before draining so that a log published meanwhile schedules another run. */
+            mDrainScheduled.set(false);
+            drainEnqueueBuffer();
+        }
+    };
+
     /**
      * State checker. If this counter changes during an async call, we have to ignore the result in the callback.
      * Cancelling a database call would be unreliable, and if it's too fast you could still have the callback being called.
@@ -146,6 +307,21 @@ public class DefaultChannel implements Channel {
         this(context, appSecret, buildDefaultPersistence(context, logSerializer), new AppCenterIngestion(httpClient, logSerializer), appCenterHandler);
     }
 
+    /**
+     * Creates and initializes a new instance with a specific persistence.
+     *
+     * @param context          The context.
+     * @param appSecret        The application secret.
+     * @param persistence      The persistence, its log serializer is set by this constructor.
+     * @param logSerializer    The log serializer.
+     * @param httpClient       The HTTP client instance.
+     * @param appCenterHandler App Center looper thread handler.
+     */
+    public DefaultChannel(@NonNull Context context, String appSecret, @NonNull Persistence persistence, @NonNull LogSerializer logSerializer, @NonNull HttpClient httpClient, @NonNull Handler appCenterHandler) {
+        this(context, appSecret, persistence, new AppCenterIngestion(httpClient, logSerializer), appCenterHandler);
+        persistence.setLogSerializer(logSerializer);
+    }
+
     /**
      * Overloaded constructor with limited visibility that allows for dependency injection.
      *
@@ -185,6 +361,208 @@ public class DefaultChannel implements Channel {
         return mPersistence.setMaxStorageSize(maxStorageSizeInBytes);
     }
 
+    @Override
+    public void setWriteBatching(int maxLogs, long maxDelay) {
+        AppCenterLog.debug(LOG_TAG, "setWriteBatching(" + maxLogs + ", " + maxDelay + ")");
+        mWriteBatchSize = Math.max(maxLogs, 1);
+        mWriteBatchMaxDelay = maxDelay;
+        mPersistence.setWriteBatchSize(mWriteBatchSize);
+        if (mWriteBatchSize == 1) {
+            flushWriteBatch();
+        }
+    }
+
+    @Override
+    public void setMemoryTail(int maxLogs, long maxAge) {
+        AppCenterLog.debug(LOG_TAG, "setMemoryTail(" + maxLogs + ", " + maxAge + ")");
+        mMemoryTailMaxAge = maxAge;
+        getMemoryTail().setLimits(maxLogs, maxAge);
+        if (maxLogs <= 0) {
+            cancelSpill();
+        }
+    }
+
+    @Override
+    public void setMemoryTailPriorities(@NonNull String groupName, int priorities) {
+        MemoryTailPersistence memoryTail = getMemoryTail();
+        memoryTail.setMemoryPriorities(groupName, priorities);
+        memoryTail.setMemoryPriorities(groupName + CRITICAL_LANE_SUFFIX, priorities);
+    }
+
+    /**
+     * Get the memory tail, putting it in front of the storage if not done yet.
+     *
+     * @return the memory tail.
+     */
+    private MemoryTailPersistence getMemoryTail() {
+        if (mMemoryTail == null) {
+            mMemoryTail = new MemoryTailPersistence(mPersistence);
+            mPersistence = mMemoryTail;
+        }
+        return mMemoryTail;
+    }
+
+    /**
+     * Get the storage, behind the memory tail if any.
+     *
+     * @return the storage.
+     */
+    private Persistence getStorage() {
+        return mMemoryTail != null ? mMemoryTail.getStorage() : mPersistence;
+    }
+
+    /**
+     * Cancel the check of the age of the logs in the memory tail.
+     */
+    private void cancelSpill() {
+        if (mSpillScheduled) {
+            mSpillScheduled = false;
+            mAppCenterHandler.removeCallbacks(mSpillRunnable);
+        }
+    }
+
+    @Override
+    public void setAdaptiveBatching(int minLogsPerBatch, int maxLogsPerBatch, int maxParallelBatches) {
+        AppCenterLog.debug(LOG_TAG, "setAdaptiveBatching(" + minLogsPerBatch + ", " + maxLogsPerBatch + ", " + maxParallelBatches + ")");
+        mAdaptiveMinLogsPerBatch = minLogsPerBatch;
+        mAdaptiveMaxLogsPerBatch = maxLogsPerBatch;
+        mAdaptiveMaxParallelBatches = maxParallelBatches;
+        for (GroupState groupState : mGroupStates.values()) {
+            groupState.mBatching = createBatching(groupState.mMaxLogsPerBatch, groupState.mMaxParallelBatches);
+        }
+    }
+
+    @Override
+    public Map<String, BatchingMetrics> getBatchingMetrics() {
+        Map<String, BatchingMetrics> metrics = new HashMap<>();
+        for (GroupState groupState : mGroupStates.values()) {
+            metrics.put(groupState.mName, groupState.mBatching.getMetrics());
+        }
+        return metrics;
+    }
+
+    @Override
+    public void setCriticalLanesEnabled(boolean enabled) {
+        AppCenterLog.debug(LOG_TAG, "setCriticalLanesEnabled({})", enabled);
+        mCriticalLanesEnabled = enabled;
+        if (enabled) {
+            SharedPreferencesManager.putBoolean(CRITICAL_LANES_USED_KEY, true);
+        }
+        if (enabled || SharedPreferencesManager.getBoolean(CRITICAL_LANES_USED_KEY)) {
+            mCriticalLanesAdded = true;
+            for (GroupState groupState : new ArrayList<>(mGroupStates.values())) {
+                if (groupState.mPriority == Flags.NORMAL && groupState.mCriticalLane == null) {
+                    addCriticalLane(groupState);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<Integer, TimeToSendMetrics> getTimeToSendMetrics() {
+        Map<Integer, TimeToSendMetrics> metrics = new HashMap<>();
+        for (int priority : new int[]{Flags.NORMAL, Flags.CRITICAL}) {
+            long logCount = 0;
+            long totalTimeToSend = 0;
+            long maxTimeToSend = 0;
+            for (GroupState groupState : mGroupStates.values()) {
+                if (groupState.mPriority == priority) {
+                    logCount += groupState.mTimeToSendCount;
+                    totalTimeToSend += groupState.mTotalTimeToSend;
+                    maxTimeToSend = Math.max(maxTimeToSend, groupState.mMaxTimeToSend);
+                }
+            }
+            metrics.put(priority, new TimeToSendMetrics(logCount, logCount > 0 ? totalTimeToSend / logCount : 0, maxTimeToSend));
+        }
+        return metrics;
+    }
+
+    /**
+     * Add the critical lane of a group: a group sending the critical logs immediately with its own parallel batch.
+     *
+     * @param groupState the group state.
+     */
+    private void addCriticalLane(GroupState groupState) {
+        GroupState lane = new GroupState(groupState.mName + CRITICAL_LANE_SUFFIX, groupState.mMaxLogsPerBatch, 0, CRITICAL_LANE_MAX_PARALLEL_BATCHES, groupState.mIngestion, groupState.mListener, Flags.CRITICAL);
+        lane.mBatching = createBatching(lane.mMaxLogsPerBatch, lane.mMaxParallelBatches);
+        lane.mPaused = groupState.mPaused;
+        lane.mPausedTargetKeys.addAll(groupState.mPausedTargetKeys);
+        lane.mPendingLogCount = mPersistence.countLogs(lane.mName);
+        groupState.mCriticalLane = lane;
+        mGroupStates.put(lane.mName, lane);
+        if (mAppSecret != null || mIngestion != lane.mIngestion) {
+            checkPendingLogs(lane);
+        }
+    }
+
+    /**
+     * Create the batching policy of a group.
+     *
+     * @param maxLogsPerBatch    batch size the group was added with.
+     * @param maxParallelBatches parallel batches the group was added with.
+     * @return adaptive policy limited by the group values if enabled, fixed policy otherwise.
+     */
+    private AdaptiveBatching createBatching(int maxLogsPerBatch, int maxParallelBatches) {
+        if (mAdaptiveMaxLogsPerBatch > 0) {
+
+            /* The group values are hard limits: e.g. crashes are sent one by one, critical lanes use a single batch. */
+            int maxAdaptiveLogsPerBatch = Math.min(mAdaptiveMaxLogsPerBatch, maxLogsPerBatch);
+            int minAdaptiveLogsPerBatch = Math.min(mAdaptiveMinLogsPerBatch, maxAdaptiveLogsPerBatch);
+            int maxAdaptiveParallelBatches = Math.min(mAdaptiveMaxParallelBatches, maxParallelBatches);
+            return new AdaptiveBatching(minAdaptiveLogsPerBatch, maxAdaptiveLogsPerBatch, maxAdaptiveParallelBatches, maxLogsPerBatch, maxParallelBatches);
+        }
+        return new AdaptiveBatching(maxLogsPerBatch, maxParallelBatches);
+    }
+
+    @Override
+    public void enqueueAsync(@NonNull final Log log, @NonNull final String groupName, final int flags) {
+        if (mEnqueueBuffer.offer(log, groupName, flags)) {
+            if (mDrainScheduled.compareAndSet(false, true)) {
+                mAppCenterHandler.post(mDrainRunnable);
+            }
+        } else {
+
+            /* Buffer is full, fall back to a runnable, after what is already buffered. */
+            mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    drainEnqueueBuffer();
+                    enqueue(log, groupName, flags);
+                }
+            });
+        }
+    }
+
+    /**
+     * Enqueue the logs published from other threads.
+     */
+    private void drainEnqueueBuffer() {
+        int count = mEnqueueBuffer.drain(mEnqueueConsumer);
+        if (count > 0) {
+            AppCenterLog.verbose(LOG_TAG, "Enqueued {} logs published from other threads.", count);
+        }
+    }
+
+    @Override
+    public void flush() {
+        flushWriteBatch();
+        if (mMemoryTail != null) {
+            cancelSpill();
+            mMemoryTail.flush();
+        }
+    }
+
+    /**
+     * Write the logs buffered by the storage, if a write is scheduled.
+     */
+    private void flushWriteBatch() {
+        if (mFlushScheduled) {
+            mAppCenterHandler.removeCallbacks(mFlushRunnable);
+            mFlushRunnable.run();
+        }
+    }
+
     /**
      * Call this after every async (such as database/ingestion) callback and stop processing if it returns false.
      * That means either the groupState was removed (or removed/added again),
@@ -220,10 +598,11 @@ public class DefaultChannel implements Channel {
     public void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener) {
 
         /* Init group. */
-        AppCenterLog.debug(LOG_TAG, "addGroup(" + groupName + ")");
+        AppCenterLog.debug(LOG_TAG, "addGroup({})", groupName);
         ingestion = ingestion == null ? mIngestion : ingestion;
         mIngestions.add(ingestion);
-        final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener);
+        final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener, Flags.NORMAL);
+        groupState.mBatching = createBatching(maxLogsPerBatch, maxParallelBatches);
         mGroupStates.put(groupName, groupState);
 
         /* Count pending logs. */
@@ -240,6 +619,11 @@ public class DefaultChannel implements Channel {
             checkPendingLogs(groupState);
         }
 
+        /* Send critical logs on their own lane, also if lanes were used before to send the logs they stored. */
+        if (mCriticalLanesAdded) {
+            addCriticalLane(groupState);
+        }
+
         /* Call listeners so that they can react on group adding. */
         for (Listener listener : mListeners) {
             listener.onGroupAdded(groupName, groupListener, batchTimeInterval);
@@ -248,10 +632,14 @@ public class DefaultChannel implements Channel {
 
     @Override
     public void removeGroup(String groupName) {
-        AppCenterLog.debug(LOG_TAG, "removeGroup(" + groupName + ")");
+        AppCenterLog.debug(LOG_TAG, "removeGroup({})", groupName);
         GroupState groupState = mGroupStates.remove(groupName);
         if (groupState != null) {
             cancelTimer(groupState);
+            if (groupState.mCriticalLane != null) {
+                mGroupStates.remove(groupState.mCriticalLane.mName);
+                cancelTimer(groupState.mCriticalLane);
+            }
         }
 
         /* Call listeners so that they can react on group removed. */
@@ -264,15 +652,10 @@ public class DefaultChannel implements Channel {
     public void pauseGroup(String groupName, String targetToken) {
         GroupState groupState = mGroupStates.get(groupName);
         if (groupState != null) {
-            if (targetToken != null) {
-                String targetKey = PartAUtils.getTargetKey(targetToken);
-                if (groupState.mPausedTargetKeys.add(targetKey)) {
-                    AppCenterLog.debug(LOG_TAG, "pauseGroup(" + groupName + ", " + targetKey + ")");
-                }
-            } else if (!groupState.mPaused) {
-                AppCenterLog.debug(LOG_TAG, "pauseGroup(" + groupName + ")");
-                groupState.mPaused = true;
-                cancelTimer(groupState);
+            String targetKey = targetToken != null ? PartAUtils.getTargetKey(targetToken) : null;
+            pauseGroupState(groupState, targetKey);
+            if (groupState.mCriticalLane != null) {
+                pauseGroupState(groupState.mCriticalLane, targetKey);
             }
 
             /* Call listeners so that they can react on group resuming. */
@@ -286,25 +669,10 @@ public class DefaultChannel implements Channel {
     public void resumeGroup(String groupName, String targetToken) {
         GroupState groupState = mGroupStates.get(groupName);
         if (groupState != null) {
-            if (targetToken != null) {
-                String targetKey = PartAUtils.getTargetKey(targetToken);
-                if (groupState.mPausedTargetKeys.remove(targetKey)) {
-
-                    /*
-                     * Log count can be 0 in memory because of the partial pause, but we might have
-                     * logs in storage for this key, a simple fix is to reevaluate log count and check
-                     * for logs again. This might create a batch with fewer logs than expected as
-                     * the log count does not exclude logs with paused keys, this would be an optimization
-                     * that does not seem necessary for now.
-                     */
-                    AppCenterLog.debug(LOG_TAG, "resumeGroup(" + groupName + ", " + targetKey + ")");
-                    groupState.mPendingLogCount = mPersistence.countLogs(groupName);
-                    checkPendingLogs(groupState);
-                }
-            } else if (groupState.mPaused) {
-                AppCenterLog.debug(LOG_TAG, "resumeGroup(" + groupName + ")");
-                groupState.mPaused = false;
-                checkPendingLogs(groupState);
+            String targetKey = targetToken != null ? PartAUtils.getTargetKey(targetToken) : null;
+            resumeGroupState(groupState, targetKey);
+            if (groupState.mCriticalLane != null) {
+                resumeGroupState(groupState.mCriticalLane, targetKey);
             }
 
             /* Call listeners so that they can react on group resuming. */
@@ -314,6 +682,52 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Pause a group or one of its transmission targets.
+     *
+     * @param groupState the group state.
+     * @param targetKey  the target key to pause, or null to pause the entire group.
+     */
+    private void pauseGroupState(GroupState groupState, String targetKey) {
+        if (targetKey != null) {
+            if (groupState.mPausedTargetKeys.add(targetKey)) {
+                AppCenterLog.debug(LOG_TAG, "pauseGroup({}, {})", groupState.mName, targetKey);
+            }
+        } else if (!groupState.mPaused) {
+            AppCenterLog.debug(LOG_TAG, "pauseGroup({})", groupState.mName);
+            groupState.mPaused = true;
+            cancelTimer(groupState);
+        }
+    }
+
+    /**
+     * Resume a group or one of its transmission targets.
+     *
+     * @param groupState the group state.
+     * @param targetKey  the target key to resume, or null to resume the entire group.
+     */
+    private void resumeGroupState(GroupState groupState, String targetKey) {
+        if (targetKey != null) {
+            if (groupState.mPausedTargetKeys.remove(targetKey)) {
+
+                /*
+                 * Log count can be 0 in memory because of the partial pause, but we might have
+                 * logs in storage for this key, a simple fix is to reevaluate log count and check
+                 * for logs again. This might create a batch with fewer logs than expected as
+                 * the log count does not exclude logs with paused keys, this would be an optimization
+                 * that does not seem necessary for now.
+                 */
+                AppCenterLog.debug(LOG_TAG, "resumeGroup({}, {})", groupState.mName, targetKey);
+                groupState.mPendingLogCount = mPersistence.countLogs(groupState.mName);
+                checkPendingLogs(groupState);
+            }
+        } else if (groupState.mPaused) {
+            AppCenterLog.debug(LOG_TAG, "resumeGroup({})", groupState.mName);
+            groupState.mPaused = false;
+            checkPendingLogs(groupState);
+        }
+    }
+
     @Override
     public boolean isEnabled() {
         return mEnabled;
@@ -363,11 +777,15 @@ public class DefaultChannel implements Channel {
      */
     @Override
     public void clear(String groupName) {
-        if (!mGroupStates.containsKey(groupName)) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
             return;
         }
-        AppCenterLog.debug(LOG_TAG, "clear(" + groupName + ")");
+        AppCenterLog.debug(LOG_TAG, "clear({})", groupName);
         mPersistence.deleteLogs(groupName);
+        if (groupState.mCriticalLane != null) {
+            mPersistence.deleteLogs(groupState.mCriticalLane.mName);
+        }
 
         /* Call listeners so that they can react on group clearing. */
         for (Listener listener : mListeners) {
@@ -394,13 +812,13 @@ public class DefaultChannel implements Channel {
             cancelTimer(groupState);
 
             /* Delete all other batches and call callback method that are currently in progress. */
-            for (Iterator<Map.Entry<String, List<Log>>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
-                Map.Entry<String, List<Log>> entry = iterator.next();
+            for (Iterator<Map.Entry<String, SendingBatch>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, SendingBatch> entry = iterator.next();
                 iterator.remove();
                 if (deleteLogs) {
                     GroupListener groupListener = groupState.mListener;
                     if (groupListener != null) {
-                        for (Log log : entry.getValue()) {
+                        for (Log log : entry.getValue().mLogs) {
                             groupListener.onFailure(log, exception);
                         }
                     }
@@ -461,19 +879,32 @@ public class DefaultChannel implements Channel {
             return;
         }
         int pendingLogCount = groupState.mPendingLogCount;
-        int maxFetch = Math.min(pendingLogCount, groupState.mMaxLogsPerBatch);
-        AppCenterLog.debug(LOG_TAG, "triggerIngestion(" + groupState.mName + ") pendingLogCount=" + pendingLogCount);
+        int maxFetch = Math.min(pendingLogCount, groupState.mBatching.getLogsPerBatch());
+        AppCenterLog.debug(LOG_TAG, "triggerIngestion({}) pendingLogCount={}", groupState.mName, pendingLogCount);
         cancelTimer(groupState);
 
         /* Check if we have reached the maximum number of pending batches, log to LogCat and don't trigger another sending. */
-        if (groupState.mSendingBatches.size() == groupState.mMaxParallelBatches) {
-            AppCenterLog.debug(LOG_TAG, "Already sending " + groupState.mMaxParallelBatches + " batches of analytics data to the server.");
+        int maxParallelBatches = groupState.mBatching.getParallelBatches();
+        if (groupState.mSendingBatches.size() >= maxParallelBatches) {
+            AppCenterLog.debug(LOG_TAG, "Already sending {} batches of analytics data to the server.", maxParallelBatches);
             return;
         }
 
-        /* Get a batch from Persistence. */
+        /*
+         * Get a batch from Persistence. If ingestion can send the stored payloads as is,
+         * logs are deserialized only when the group listener or the ingestion needs them.
+         */
         final List<Log> batch = new ArrayList<>(maxFetch);
-        final String batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch);
+        final String batchId;
+        List<String> rawBatch = null;
+        Ingestion ingestion = groupState.mIngestion;
+        if (ingestion.isRawLogsSupported()) {
+            rawBatch = new ArrayList<>(maxFetch);
+            List<Log> outLogs = groupState.mListener != null || ingestion.isLogsRequired() ? batch : null;
+            batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, outLogs, rawBatch);
+        } else {
+            batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch);
+        }
 
         /* Decrement counter. */
         groupState.mPendingLogCount -= maxFetch;
@@ -482,7 +913,7 @@ public class DefaultChannel implements Channel {
         if (batchId == null) {
             return;
         }
-        AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") pendingLogCount=" + groupState.mPendingLogCount);
+        AppCenterLog.debug(LOG_TAG, "ingestLogs({},{}) pendingLogCount={}", groupState.mName, batchId, groupState.mPendingLogCount);
 
         /* Call group listener before sending logs to ingestion service. */
         if (groupState.mListener != null) {
@@ -491,9 +922,22 @@ public class DefaultChannel implements Channel {
             }
         }
 
-        /* Remember this batch. */
-        groupState.mSendingBatches.put(batchId, batch);
-        sendLogs(groupState, mCurrentState, batch, batchId);
+        /* Remember this batch, logs are not deserialized when sending stored payloads without listener. */
+        SendingBatch sendingBatch;
+        if (rawBatch != null && batch.isEmpty()) {
+            sendingBatch = new SendingBatch(batch, rawBatch.size());
+            for (String rawLog : rawBatch) {
+                sendingBatch.addCreationTime(getRawLogTime(rawLog));
+            }
+        } else {
+            sendingBatch = new SendingBatch(batch, batch.size());
+            for (Log log : batch) {
+                Date timestamp = log.getTimestamp();
+                sendingBatch.addCreationTime(timestamp != null ? timestamp.getTime() : -1);
+            }
+        }
+        groupState.mSendingBatches.put(batchId, sendingBatch);
+        sendLogs(groupState, mCurrentState, batch, rawBatch, batchId);
     }
 
     /**
@@ -502,23 +946,42 @@ public class DefaultChannel implements Channel {
      * @param groupState   The group state.
      * @param currentState The current state.
      * @param batch        The log batch.
+     * @param rawBatch     The stored JSON payloads of the batch, null if not fetched.
      * @param batchId      The batch ID.
      */
     @MainThread
-    private void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, final String batchId) {
+    private void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, List<String> rawBatch, final String batchId) {
 
         /* Send logs. */
         LogContainer logContainer = new LogContainer();
         logContainer.setLogs(batch);
+        logContainer.setRawLogs(rawBatch);
+
+        /* Collect what batching adapts to: log count, payload size when known and latency. */
+        final int logCount;
+        final long payloadSize;
+        if (rawBatch != null) {
+            long size = 0;
+            for (String rawLog : rawBatch) {
+                size += rawLog.length();
+            }
+            logCount = rawBatch.size();
+            payloadSize = size;
+        } else {
+            logCount = batch.size();
+            payloadSize = -1;
+        }
+        final long startTime = SystemClock.elapsedRealtime();
         groupState.mIngestion.sendAsync(mAppSecret, mInstallId, logContainer, new ServiceCallback() {
 
             @Override
             public void onCallSucceeded(HttpResponse httpResponse) {
+                final long latency = SystemClock.elapsedRealtime() - startTime;
                 mAppCenterHandler.post(new Runnable() {
 
                     @Override
                     public void run() {
-                        handleSendingSuccess(groupState, batchId);
+                        handleSendingSuccess(groupState, batchId, latency, logCount, payloadSize);
                     }
                 });
             }
@@ -554,16 +1017,21 @@ public class DefaultChannel implements Channel {
     /**
      * The actual implementation to react to sending a batch to the server successfully.
      *
-     * @param groupState The group state.
-     * @param batchId    The batch ID.
+     * @param groupState  The group state.
+     * @param batchId     The batch ID.
+     * @param latency     The time it took to send the batch, in ms.
+     * @param logCount    The number of logs in the batch.
+     * @param payloadSize The approximate size of the batch payload, negative if unknown.
      */
-    private void handleSendingSuccess(@NonNull GroupState groupState, @NonNull String batchId) {
-        List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
-        if (removedLogsForBatchId != null) {
+    private void handleSendingSuccess(@NonNull GroupState groupState, @NonNull String batchId, long latency, int logCount, long payloadSize) {
+        SendingBatch removedBatch = groupState.mSendingBatches.remove(batchId);
+        if (removedBatch != null) {
+            groupState.mBatching.onSuccess(latency, logCount, payloadSize);
+            updateTimeToSend(groupState, removedBatch);
             mPersistence.deleteLogs(groupState.mName, batchId);
             GroupListener groupListener = groupState.mListener;
             if (groupListener != null) {
-                for (Log log : removedLogsForBatchId) {
+                for (Log log : removedBatch.mLogs) {
                     groupListener.onSuccess(log);
                 }
             }
@@ -571,6 +1039,52 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Add the time logs took from their creation to being sent to the group statistics.
+     *
+     * @param groupState the group state.
+     * @param batch      the batch that was sent.
+     */
+    private void updateTimeToSend(@NonNull GroupState groupState, @NonNull SendingBatch batch) {
+        if (batch.mTimedLogCount > 0) {
+            long now = System.currentTimeMillis();
+            groupState.mTimeToSendCount += batch.mTimedLogCount;
+            groupState.mTotalTimeToSend += Math.max(batch.mTimedLogCount * now - batch.mCreationTimeSum, 0);
+            groupState.mMaxTimeToSend = Math.max(groupState.mMaxTimeToSend, now - batch.mOldestCreationTime);
+        }
+    }
+
+    /**
+     * Get the creation time of a stored log payload without deserializing it.
+     * Logs write their creation time before any nested object, so the first match is the one of the log.
+     *
+     * @param rawLog the stored JSON payload of the log.
+     * @return the creation time in ms, or -1 if not found.
+     */
+    @VisibleForTesting
+    static long getRawLogTime(@NonNull String rawLog) {
+        int start = rawLog.indexOf(RAW_TIMESTAMP_PREFIX);
+        int prefixLength = RAW_TIMESTAMP_PREFIX.length();
+        int commonSchemaStart = rawLog.indexOf(RAW_COMMON_SCHEMA_TIME_PREFIX);
+        if (commonSchemaStart >= 0 && (start < 0 || commonSchemaStart < start)) {
+            start = commonSchemaStart;
+            prefixLength = RAW_COMMON_SCHEMA_TIME_PREFIX.length();
+        }
+        if (start < 0) {
+            return -1;
+        }
+        start += prefixLength;
+        int end = rawLog.indexOf('"', start);
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return JSONDateUtils.toDate(rawLog.substring(start, end)).getTime();
+        } catch (JSONException e) {
+            return -1;
+        }
+    }
+
     /**
      * The actual implementation to react to not being able to send a batch to the server.
      * Will disable the sender in case of a recoverable error.
@@ -582,16 +1096,17 @@ public class DefaultChannel implements Channel {
      */
     private void handleSendingFailure(@NonNull GroupState groupState, @NonNull String batchId, @NonNull Exception e) {
         String groupName = groupState.mName;
-        List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
-        if (removedLogsForBatchId != null) {
+        SendingBatch removedBatch = groupState.mSendingBatches.remove(batchId);
+        if (removedBatch != null) {
             AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupName + " id=" + batchId + " failed", e);
             boolean recoverableError = HttpUtils.isRecoverableError(e);
             if (recoverableError) {
-                groupState.mPendingLogCount += removedLogsForBatchId.size();
+                groupState.mBatching.onFailure();
+                groupState.mPendingLogCount += removedBatch.mLogCount;
             } else {
                 GroupListener groupListener = groupState.mListener;
                 if (groupListener != null) {
-                    for (Log log : removedLogsForBatchId) {
+                    for (Log log : removedBatch.mLogs) {
                         groupListener.onFailure(log, e);
                     }
                 }
@@ -602,6 +1117,23 @@ public class DefaultChannel implements Channel {
 
     @Override
     public void enqueue(@NonNull Log log, @NonNull final String groupName, int flags) {
+        enqueue(log, groupName, flags, false);
+    }
+
+    @Override
+    public void enqueueConvertedLog(@NonNull Log log, @NonNull String groupName, int flags) {
+        enqueue(log, groupName, flags, true);
+    }
+
+    /**
+     * Add log to queue to be persisted and sent.
+     *
+     * @param log       the log to be enqueued.
+     * @param groupName the group to use.
+     * @param flags     the flags for this log.
+     * @param converted true if the log was converted from a log already prepared and filtered by the listeners.
+     */
+    private void enqueue(@NonNull Log log, @NonNull final String groupName, int flags, boolean converted) {
 
         /* Check group name is registered. */
         GroupState groupState = mGroupStates.get(groupName);
@@ -647,56 +1179,77 @@ public class DefaultChannel implements Channel {
             log.setTimestamp(new Date());
         }
 
-        /* Notify listeners that log is prepared and is in a final state. */
-        for (Listener listener : mListeners) {
-            listener.onPreparedLog(log, groupName, flags);
-        }
-
-        /* Call listeners so that they can filter the log. */
-        boolean filteredOut = false;
-        for (Listener listener : mListeners) {
-            filteredOut = filteredOut || listener.shouldFilter(log);
-        }
+        /* A converted log is not prepared and filtered again, the log it was converted from already was. */
+        if (!converted) {
 
-        /* If filtered out, nothing more to do. */
-        if (filteredOut) {
-            AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was filtered out by listener(s)");
-        } else {
-            if (mAppSecret == null && groupState.mIngestion == mIngestion) {
+            /* Notify listeners that log is prepared and is in a final state. */
+            for (Listener listener : mListeners) {
+                listener.onPreparedLog(log, groupName, flags);
+            }
 
-                /* Log was not filtered out but no app secret has been provided. Do nothing in this case. */
-                AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was not filtered out by listener(s) but no app secret was provided. Not persisting/sending the log.");
-                return;
+            /* Call listeners so that they can filter the log. */
+            boolean filteredOut = false;
+            for (Listener listener : mListeners) {
+                filteredOut = filteredOut || listener.shouldFilter(log);
             }
-            try {
 
-                /* Persist log. */
-                mPersistence.putLog(log, groupName, flags);
-            } catch (Persistence.PersistenceException e) {
-                AppCenterLog.error(LOG_TAG, "Error persisting log", e);
-                if (groupState.mListener != null) {
-                    groupState.mListener.onBeforeSending(log);
-                    groupState.mListener.onFailure(log, e);
-                }
+            /* If filtered out, nothing more to do. */
+            if (filteredOut) {
+                AppCenterLog.debug(LOG_TAG, "Log of type '{}' was filtered out by listener(s)", log.getType());
                 return;
             }
+        }
+        if (mAppSecret == null && groupState.mIngestion == mIngestion) {
 
-            /* Nothing more to do if the log is from a paused transmission target. */
-            Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
-            String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
-            if (groupState.mPausedTargetKeys.contains(targetKey)) {
-                AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
-                return;
+            /* Log was not filtered out but no app secret has been provided. Do nothing in this case. */
+            AppCenterLog.debug(LOG_TAG, "Log of type '{}' was not filtered out by listener(s) but no app secret was provided. Not persisting/sending the log.", log.getType());
+            return;
+        }
+
+        /* Send critical logs through the critical lane of the group. */
+        if (mCriticalLanesEnabled && groupState.mCriticalLane != null && Flags.getPersistenceFlag(flags, false) == Flags.CRITICAL) {
+            groupState = groupState.mCriticalLane;
+        }
+        try {
+
+            /* Persist log. */
+            long databaseId = mPersistence.putLog(log, groupState.mName, flags);
+
+            /* Make sure a buffered log is written within the configured delay. */
+            if (mWriteBatchSize > 1 && databaseId == Persistence.PENDING_WRITE_ID && !mFlushScheduled) {
+                mFlushScheduled = true;
+                mAppCenterHandler.postDelayed(mFlushRunnable, mWriteBatchMaxDelay);
             }
 
-            /* Increment counters and schedule ingestion if we are enabled. */
-            groupState.mPendingLogCount++;
-            AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
-            if (mEnabled) {
-                checkPendingLogs(groupState);
-            } else {
-                AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
+            /* Make sure a log kept in the memory tail is stored if not sent within the configured age. */
+            if (mMemoryTail != null && databaseId == Persistence.PENDING_WRITE_ID && !mSpillScheduled) {
+                mSpillScheduled = true;
+                mAppCenterHandler.postDelayed(mSpillRunnable, mMemoryTailMaxAge);
+            }
+        } catch (Persistence.PersistenceException e) {
+            AppCenterLog.error(LOG_TAG, "Error persisting log", e);
+            if (groupState.mListener != null) {
+                groupState.mListener.onBeforeSending(log);
+                groupState.mListener.onFailure(log, e);
             }
+            return;
+        }
+
+        /* Nothing more to do if the log is from a paused transmission target. */
+        Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
+        String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
+        if (groupState.mPausedTargetKeys.contains(targetKey)) {
+            AppCenterLog.debug(LOG_TAG, "Transmission target ikey={} is paused.", targetKey);
+            return;
+        }
+
+        /* Increment counters and schedule ingestion if we are enabled. */
+        groupState.mPendingLogCount++;
+        AppCenterLog.debug(LOG_TAG, "enqueue({}) pendingLogCount={}", groupState.mName, groupState.mPendingLogCount);
+        if (mEnabled) {
+            checkPendingLogs(groupState);
+        } else {
+            AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
         }
     }
 
@@ -707,8 +1260,8 @@ public class DefaultChannel implements Channel {
      */
     @VisibleForTesting
     void checkPendingLogs(@NonNull GroupState groupState) {
-        AppCenterLog.debug(LOG_TAG, String.format("checkPendingLogs(%s) pendingLogCount=%s batchTimeInterval=%s",
-                groupState.mName, groupState.mPendingLogCount, groupState.mBatchTimeInterval));
+        AppCenterLog.debug(LOG_TAG, "checkPendingLogs({}) pendingLogCount={} batchTimeInterval={}",
+                groupState.mName, groupState.mPendingLogCount, groupState.mBatchTimeInterval);
         Long batchTimeInterval = resolveTriggerInterval(groupState);
 
         /* Check if there is no need to trigger ingestion. */
@@ -754,7 +1307,7 @@ public class DefaultChannel implements Channel {
             /* The timer isn't started or has invalid value (start time in the future), so start it and store the current time. */
             if (startTimer == 0 || startTimer > now) {
                 SharedPreferencesManager.putLong(START_TIMER_PREFIX + groupState.mName, now);
-                AppCenterLog.debug(LOG_TAG, "The timer value for " + groupState.mName + " has been saved.");
+                AppCenterLog.debug(LOG_TAG, "The timer value for {} has been saved.", groupState.mName);
                 return groupState.mBatchTimeInterval;
             }
 
@@ -765,14 +1318,14 @@ public class DefaultChannel implements Channel {
             /* If the interval is over. */
             if (startTimer + groupState.mBatchTimeInterval < now) {
                 SharedPreferencesManager.remove(START_TIMER_PREFIX + groupState.mName);
-                AppCenterLog.debug(LOG_TAG, "The timer for " + groupState.mName + " channel finished.");
+                AppCenterLog.debug(LOG_TAG, "The timer for {} channel finished.", groupState.mName);
             }
             return null;
         }
     }
 
     private Long resolveDefaultTriggerInterval(@NonNull GroupState groupState) {
-        if (groupState.mPendingLogCount >= groupState.mMaxLogsPerBatch) {
+        if (groupState.mPendingLogCount >= groupState.mBatching.getLogsPerBatch()) {
             return 0L;
         }
         return groupState.mPendingLogCount > 0 ? groupState.mBatchTimeInterval : null;
@@ -795,6 +1348,8 @@ public class DefaultChannel implements Channel {
 
     @Override
     public void shutdown() {
+        drainEnqueueBuffer();
+        flush();
         suspend(false, new CancellationException());
     }
 
@@ -824,10 +1379,40 @@ public class DefaultChannel implements Channel {
          */
         final int mMaxParallelBatches;
 
+        /**
+         * Priority of the logs sent by this group: {@link Flags#CRITICAL} for a critical lane, {@link Flags#NORMAL} otherwise.
+         */
+        final int mPriority;
+
+        /**
+         * Batch size and parallelism currently in use, initialized when the group is added.
+         */
+        AdaptiveBatching mBatching;
+
+        /**
+         * Critical lane of this group, null if none.
+         */
+        GroupState mCriticalLane;
+
+        /**
+         * Number of logs measured in {@link #mTotalTimeToSend}.
+         */
+        long mTimeToSendCount;
+
+        /**
+         * Sum of the times measured between the creation of logs and their successful sending, in ms.
+         */
+        long mTotalTimeToSend;
+
+        /**
+         * Maximum time measured between the creation of a log and its successful sending, in ms.
+         */
+        long mMaxTimeToSend;
+
         /**
          * Batches being currently sent to ingestion.
          */
-        final Map<String, List<Log>> mSendingBatches = new HashMap<>();
+        final Map<String, SendingBatch> mSendingBatches = new HashMap<>();
 
         /**
          * Ingestion for the group state.
@@ -881,14 +1466,71 @@ public class DefaultChannel implements Channel {
          * @param maxParallelBatches max number of parallel batches.
          * @param ingestion          ingestion for the group state.
          * @param listener           listener for a service.
+         * @param priority           priority of the logs sent by the group.
          */
-        GroupState(String name, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener listener) {
+        GroupState(String name, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener listener, int priority) {
             mName = name;
             mMaxLogsPerBatch = maxLogsPerBatch;
             mBatchTimeInterval = batchTimeInterval;
             mMaxParallelBatches = maxParallelBatches;
             mIngestion = ingestion;
             mListener = listener;
+            mPriority = priority;
+        }
+    }
+
+    /**
+     * State of a batch being sent to ingestion.
+     */
+    private static class SendingBatch {
+
+        /**
+         * Logs of the batch, empty if the stored payloads are sent without being deserialized.
+         */
+        final List<Log> mLogs;
+
+        /**
+         * Number of logs in the batch.
+         */
+        final int mLogCount;
+
+        /**
+         * Number of logs of the batch with a known creation time.
+         */
+        int mTimedLogCount;
+
+        /**
+         * Sum of the known creation times of the logs, in ms.
+         */
+        long mCreationTimeSum;
+
+        /**
+         * Oldest known creation time of the logs, in ms.
+         */
+        long mOldestCreationTime = Long.MAX_VALUE;
+
+        /**
+         * Init.
+         *
+         * @param logs     logs of the batch.
+         * @param logCount number of logs in the batch.
+         */
+        SendingBatch(List<Log> logs, int logCount) {
+            mLogs = logs;
+            mLogCount = logCount;
+        }
+
+        /**
+         * Add the creation time of a log of the batch.
+         *
+         * @param creationTime creation time in ms, negative if unknown.
+         */
+        void addCreationTime(long creationTime) {
+            if (creationTime >= 0) {
+                mTimedLogCount++;
+                mCreationTimeSum += creationTime;
+                mOldestCreationTime = Math.min(mOldestCreationTime, creationTime);
+            }
         }
     }
 }
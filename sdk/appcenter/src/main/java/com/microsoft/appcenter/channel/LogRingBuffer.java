@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.NonNull;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of logs to enqueue, with multiple producers and a single consumer.
+ * Each slot has a sequence number telling whether it is free for a given producer position or
+ * published for a given consumer position, so producers only compete on claiming a position
+ * and neither side ever blocks.
+ */
+class LogRingBuffer {
+
+    /**
+     * Receives the logs drained from the buffer.
+     */
+    interface Consumer {
+
+        /**
+         * Called for each log, in publication order.
+         *
+         * @param log       log.
+         * @param groupName group name.
+         * @param flags     flags.
+         */
+        void accept(@NonNull Log log, @NonNull String groupName, int flags);
+    }
+
+    /**
+     * Mask to compute a slot index from a position, capacity is a power of 2.
+     */
+    private final int mMask;
+
+    /**
+     * Slot sequence numbers: equal to the position when free for producer at that position,
+     * position + 1 when published for consumer at that position.
+     */
+    private final AtomicLongArray mSequences;
+
+    /**
+     * Logs by slot.
+     */
+    private final Log[] mLogs;
+
+    /**
+     * Group names by slot.
+     */
+    private final String[] mGroupNames;
+
+    /**
+     * Flags by slot.
+     */
+    private final int[] mFlags;
+
+    /**
+     * Next position to claim by producers.
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * Next position to read by the consumer, only accessed by the consumer thread.
+     */
+    private long mHead;
+
+    /**
+     * Init.
+     *
+     * @param capacity maximum number of logs waiting to be drained, must be a power of 2.
+     */
+    LogRingBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2.");
+        }
+        mMask = capacity - 1;
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, i);
+        }
+        mLogs = new Log[capacity];
+        mGroupNames = new String[capacity];
+        mFlags = new int[capacity];
+    }
+
+    /**
+     * Publish a log, can be called from any thread.
+     *
+     * @param log       log.
+     * @param groupName group name.
+     * @param flags     flags.
+     * @return false if the buffer is full, the log is not published in that case.
+     */
+    boolean offer(@NonNull Log log, @NonNull String groupName, int flags) {
+        long position;
+        int index;
+        while (true) {
+            position = mTail.get();
+            index = (int) position & mMask;
+            long sequence = mSequences.get(index);
+            if (sequence == position) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+
+                /* Slot not released by the consumer yet: full. */
+                return false;
+            }
+
+            /* Otherwise another producer claimed this position, retry with the next one. */
+        }
+        mLogs[index] = log;
+        mGroupNames[index] = groupName;
+        mFlags[index] = flags;
+
+        /* The volatile write makes the slot content visible to the consumer. */
+        mSequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Pass every published log to the consumer, must always be called from the same thread.
+     * Logs published while draining are drained as well.
+     *
+     * @param consumer consumer.
+     * @return number of logs drained.
+     */
+    int drain(@NonNull Consumer consumer) {
+        int count = 0;
+        while (true) {
+            int index = (int) mHead & mMask;
+            if (mSequences.get(index) != mHead + 1) {
+                return count;
+            }
+            Log log = mLogs[index];
+            String groupName = mGroupNames[index];
+            int flags = mFlags[index];
+            mLogs[index] = null;
+            mGroupNames[index] = null;
+
+            /* Release the slot for the producer one lap later before calling consumer. */
+            mSequences.set(index, mHead + mLogs.length);
+            mHead++;
+            count++;
+            consumer.accept(log, groupName, flags);
+        }
+    }
+}
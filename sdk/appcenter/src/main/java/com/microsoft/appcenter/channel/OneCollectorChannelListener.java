@@ -154,10 +154,10 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
             sdk.setInstallId(mInstallId);
         }
 
-        /* Enqueue logs to one collector group. */
+        /* Enqueue logs to one collector group, without preparing and filtering them again. */
         String oneCollectorGroupName = getOneCollectorGroupName(groupName);
         for (CommonSchemaLog commonSchemaLog : commonSchemaLogs) {
-            mChannel.enqueue(commonSchemaLog, oneCollectorGroupName, flags);
+            mChannel.enqueueConvertedLog(commonSchemaLog, oneCollectorGroupName, flags);
         }
     }
 
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+/**
+ * Time between the creation of logs and their successful sending, for a priority.
+ * Only logs that the channel had to deserialize to send them, because a service or the ingestion
+ * needs them, are measured.
+ */
+public class TimeToSendMetrics {
+
+    /**
+     * Number of logs measured.
+     */
+    private final long mLogCount;
+
+    /**
+     * Average time to send a log, in milliseconds.
+     */
+    private final long mAverageTimeToSend;
+
+    /**
+     * Maximum time to send a log, in milliseconds.
+     */
+    private final long mMaxTimeToSend;
+
+    /**
+     * Init.
+     *
+     * @param logCount          number of logs measured.
+     * @param averageTimeToSend average time to send a log, in milliseconds.
+     * @param maxTimeToSend     maximum time to send a log, in milliseconds.
+     */
+    TimeToSendMetrics(long logCount, long averageTimeToSend, long maxTimeToSend) {
+        mLogCount = logCount;
+        mAverageTimeToSend = averageTimeToSend;
+        mMaxTimeToSend = maxTimeToSend;
+    }
+
+    /**
+     * Get the number of logs measured since the groups were added.
+     *
+     * @return number of logs.
+     */
+    public long getLogCount() {
+        return mLogCount;
+    }
+
+    /**
+     * Get the average time between the creation of a log and its successful sending.
+     *
+     * @return average time in milliseconds, 0 if no log was measured.
+     */
+    public long getAverageTimeToSend() {
+        return mAverageTimeToSend;
+    }
+
+    /**
+     * Get the maximum time between the creation of a log and its successful sending.
+     *
+     * @return maximum time in milliseconds, 0 if no log was measured.
+     */
+    public long getMaxTimeToSend() {
+        return mMaxTimeToSend;
+    }
+
+    @Override
+    public String toString() {
+        return "TimeToSendMetrics{" +
+                "logCount=" + mLogCount +
+                ", averageTimeToSend=" + mAverageTimeToSend +
+                ", maxTimeToSend=" + mMaxTimeToSend +
+                '}';
+    }
+}
@@ -78,12 +78,29 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
      */
     private final boolean mCompressionEnabled;
 
+    /**
+     * Indicates whether connections are kept alive to be reused by the next calls.
+     */
+    private final boolean mConnectionReuseEnabled;
+
     public DefaultHttpClient() {
         this(true);
     }
 
     public DefaultHttpClient(boolean compressionEnabled) {
+        this(compressionEnabled, false);
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled     whether compression is enabled.
+     * @param connectionReuseEnabled whether connections are kept alive after a call to be reused
+     *                               by the next calls to the same host, which saves TCP and TLS handshakes.
+     */
+    public DefaultHttpClient(boolean compressionEnabled, boolean connectionReuseEnabled) {
         mCompressionEnabled = compressionEnabled;
+        mConnectionReuseEnabled = connectionReuseEnabled;
     }
 
     @VisibleForTesting
@@ -93,7 +110,7 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
 
     @Override
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
-        final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionEnabled);
+        final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionEnabled, mConnectionReuseEnabled);
         try {
             task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         } catch (final RejectedExecutionException e) {
@@ -150,8 +167,21 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
         /* Nothing to do. */
     }
 
-    @VisibleForTesting
+    /**
+     * Check whether request payloads are compressed.
+     *
+     * @return true if compression is enabled.
+     */
     boolean isCompressionEnabled() {
         return mCompressionEnabled;
     }
+
+    /**
+     * Check whether connections are reused between calls.
+     *
+     * @return true if connection reuse is enabled.
+     */
+    boolean isConnectionReuseEnabled() {
+        return mConnectionReuseEnabled;
+    }
 }
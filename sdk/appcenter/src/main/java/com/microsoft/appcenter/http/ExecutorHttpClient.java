@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Handler;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * HTTP client that runs calls on a caller-supplied executor instead of the shared
+ * {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} and delivers results on a caller-supplied
+ * executor or handler instead of the UI thread.
+ */
+public class ExecutorHttpClient extends DefaultHttpClient {
+
+    /**
+     * Prefix of the names of the threads created by {@link #createBoundedExecutor(int, int, int)}.
+     */
+    @VisibleForTesting
+    static final String THREAD_NAME_PREFIX = "AppCenter.Network-";
+
+    /**
+     * Time an idle thread of {@link #createBoundedExecutor(int, int, int)} is kept alive, in seconds.
+     */
+    @VisibleForTesting
+    static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Executor running the HTTP calls.
+     */
+    private final Executor mExecutor;
+
+    /**
+     * Executor delivering the results to the service callbacks.
+     */
+    private final Executor mCallbackExecutor;
+
+    /**
+     * Calls in progress.
+     */
+    private final Set<ExecutorCall> mCalls = new HashSet<>();
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled whether compression is enabled.
+     * @param executor           executor running the HTTP calls.
+     * @param callbackHandler    handler on which the service callbacks are called.
+     */
+    public ExecutorHttpClient(boolean compressionEnabled, @NonNull Executor executor, @NonNull Handler callbackHandler) {
+        this(compressionEnabled, false, executor, callbackHandler);
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled     whether compression is enabled.
+     * @param connectionReuseEnabled whether connections are kept alive to be reused by the next calls.
+     * @param executor               executor running the HTTP calls.
+     * @param callbackHandler        handler on which the service callbacks are called.
+     */
+    public ExecutorHttpClient(boolean compressionEnabled, boolean connectionReuseEnabled, @NonNull Executor executor, @NonNull final Handler callbackHandler) {
+        this(compressionEnabled, connectionReuseEnabled, executor, new Executor() {
+
+            @Override
+            public void execute(@NonNull Runnable command) {
+                callbackHandler.post(command);
+            }
+        });
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled whether compression is enabled.
+     * @param executor           executor running the HTTP calls.
+     * @param callbackExecutor   executor on which the service callbacks are called.
+     */
+    public ExecutorHttpClient(boolean compressionEnabled, @NonNull Executor executor, @NonNull Executor callbackExecutor) {
+        this(compressionEnabled, false, executor, callbackExecutor);
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled     whether compression is enabled.
+     * @param connectionReuseEnabled whether connections are kept alive to be reused by the next calls.
+     * @param executor               executor running the HTTP calls.
+     * @param callbackExecutor       executor on which the service callbacks are called.
+     */
+    public ExecutorHttpClient(boolean compressionEnabled, boolean connectionReuseEnabled, @NonNull Executor executor, @NonNull Executor callbackExecutor) {
+        super(compressionEnabled, connectionReuseEnabled);
+        mExecutor = executor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Create an executor suitable for network calls, with a fixed number of threads and a bounded queue.
+     * Calls submitted while the queue is full are rejected and reported as failed to their callback.
+     *
+     * @param threadCount    number of threads, idle threads are released after a while.
+     * @param threadPriority Linux priority of the threads, e.g. {@link Process#THREAD_PRIORITY_BACKGROUND}.
+     * @param queueSize      maximum number of calls waiting for a thread.
+     * @return the executor.
+     */
+    public static ThreadPoolExecutor createBoundedExecutor(int threadCount, final int threadPriority, int queueSize) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(threadPriority);
+                        runnable.run();
+                    }
+                }, THREAD_NAME_PREFIX + mCount.incrementAndGet());
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @VisibleForTesting
+    synchronized Set<ExecutorCall> getCalls() {
+        return mCalls;
+    }
+
+    @Override
+    public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
+        ExecutorCall call = new ExecutorCall(url, method, headers, callTemplate, serviceCallback);
+        synchronized (this) {
+            mCalls.add(call);
+        }
+        try {
+            mExecutor.execute(call);
+        } catch (final RejectedExecutionException e) {
+
+            /* Queue is full: report failure so that the retry mechanism applies, but after returning. */
+            call.finish();
+            mCallbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    serviceCallback.onCallFailed(e);
+                }
+            });
+        }
+        return call;
+    }
+
+    @Override
+    public void close() {
+        List<ExecutorCall> calls;
+        synchronized (this) {
+            calls = new ArrayList<>(mCalls);
+        }
+        if (calls.size() > 0) {
+            AppCenterLog.debug(LOG_TAG, "Cancelling " + calls.size() + " network call(s).");
+            for (ExecutorCall call : calls) {
+                call.cancel();
+            }
+        }
+        super.close();
+    }
+
+    /**
+     * HTTP call running on the executor, finished exactly once: either by delivering its result
+     * or by being cancelled, in which case its callback is never called.
+     */
+    @VisibleForTesting
+    class ExecutorCall extends DefaultHttpClientCall implements Runnable, ServiceCall {
+
+        /**
+         * Callback of the call.
+         */
+        private final ServiceCallback mServiceCallback;
+
+        /**
+         * Whether the call was cancelled.
+         */
+        private volatile boolean mCancelled;
+
+        /**
+         * Whether the call was finished.
+         */
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+
+        ExecutorCall(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+            super(url, method, headers, callTemplate, isCompressionEnabled(), isConnectionReuseEnabled());
+            mServiceCallback = serviceCallback;
+        }
+
+        @Override
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Object result = call();
+            mCallbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (finish()) {
+                        if (result instanceof Exception) {
+                            mServiceCallback.onCallFailed((Exception) result);
+                        } else {
+                            mServiceCallback.onCallSucceeded((HttpResponse) result);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+
+            /* This doesn't interrupt the call, the call checks the state between its steps. */
+            mCancelled = true;
+            finish();
+        }
+
+        /**
+         * Stop tracking the call.
+         *
+         * @return true if the call was finished by this call, false if it was already finished.
+         */
+        boolean finish() {
+            if (mFinished.compareAndSet(false, true)) {
+                synchronized (ExecutorHttpClient.this) {
+                    mCalls.remove(this);
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -8,6 +8,8 @@ package com.microsoft.appcenter.http;
 import org.json.JSONException;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.Map;
 
@@ -50,6 +52,24 @@ public interface HttpClient extends Closeable {
         void onBeforeCalling(URL url, Map<String, String> headers);
     }
 
+    /**
+     * Call callbacks that can write the request body directly to the connection,
+     * without building it as a string first.
+     * {@link #buildRequestBody()} is still used when the payload needs to be logged.
+     */
+    interface StreamingCallTemplate extends CallTemplate {
+
+        /**
+         * Called when the method is POST to write request body.
+         * The body is compressed while being written if compression is enabled.
+         *
+         * @param writer writer to the request body, must not be closed by this callback.
+         * @throws IOException   if the body cannot be written to the connection.
+         * @throws JSONException callback can throw this to make the call fail if a JSON error occurs.
+         */
+        void writeRequestBody(Writer writer) throws IOException, JSONException;
+    }
+
     /**
      * Make this client active again after closing.
      */
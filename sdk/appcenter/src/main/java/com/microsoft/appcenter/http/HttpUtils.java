@@ -27,6 +27,7 @@ import java.util.regex.Pattern;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * HTTP utilities.
@@ -89,6 +90,11 @@ public class HttpUtils {
      */
     private static final Pattern API_KEY_PATTERN = Pattern.compile("-[^,]+(,|$)");
 
+    /**
+     * Shared socket factory forcing TLS 1.2, created on first use.
+     */
+    private static SSLSocketFactory sTls1_2SocketFactory;
+
     @VisibleForTesting
     HttpUtils() {
     }
@@ -198,6 +204,18 @@ public class HttpUtils {
         return new HttpClientRetryer(createHttpClientWithoutRetryer(context, compressionEnabled));
     }
 
+    /**
+     * Add the retry and network state behaviors to an HTTP client.
+     *
+     * @param context           context.
+     * @param defaultHttpClient HTTP client without the additional behaviors, like {@link ExecutorHttpClient}.
+     * @return decorated HTTP client.
+     */
+    public static HttpClient createHttpClient(@NonNull Context context, @NonNull HttpClient defaultHttpClient) {
+        NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
+        return new HttpClientRetryer(new HttpClientNetworkStateHandler(defaultHttpClient, networkStateHelper));
+    }
+
     public static HttpClient createHttpClientWithoutRetryer(@NonNull Context context, boolean compressionEnabled) {
         HttpClient httpClient = new DefaultHttpClient(compressionEnabled);
         NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
@@ -205,6 +223,20 @@ public class HttpUtils {
         return httpClient;
     }
 
+    /**
+     * Get the socket factory forcing TLS 1.2.
+     * The same instance must be used for all connections: pooled connections are only reused for
+     * the same socket factory and TLS sessions are only resumed within the same SSL context.
+     *
+     * @return socket factory.
+     */
+    private static synchronized SSLSocketFactory getTls1_2SocketFactory() {
+        if (sTls1_2SocketFactory == null) {
+            sTls1_2SocketFactory = new TLS1_2SocketFactory();
+        }
+        return sTls1_2SocketFactory;
+    }
+
     /**
      * Create HTTPS connection.
      *
@@ -239,7 +271,7 @@ public class HttpUtils {
          * See https://github.com/square/okhttp/issues/2372#issuecomment-244807676
          */
         if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
-            httpsURLConnection.setSSLSocketFactory(new TLS1_2SocketFactory());
+            httpsURLConnection.setSSLSocketFactory(getTls1_2SocketFactory());
         }
 
         /* Configure connection timeouts. */
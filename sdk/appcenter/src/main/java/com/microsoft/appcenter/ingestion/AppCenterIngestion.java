@@ -12,13 +12,16 @@ import com.microsoft.appcenter.http.AbstractAppCallTemplate;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -92,6 +95,16 @@ public class AppCenterIngestion implements Ingestion {
         return mHttpClient.callAsync(mLogUrl + API_PATH, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
+    @Override
+    public boolean isRawLogsSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isLogsRequired() {
+        return false;
+    }
+
     @Override
     public void close() throws IOException {
         mHttpClient.close();
@@ -105,7 +118,17 @@ public class AppCenterIngestion implements Ingestion {
     /**
      * Inner class is used to be able to mock System.currentTimeMillis, does not work if using anonymous inner class...
      */
-    private static class IngestionCallTemplate extends AbstractAppCallTemplate {
+    private static class IngestionCallTemplate extends AbstractAppCallTemplate implements HttpClient.StreamingCallTemplate {
+
+        /**
+         * Start of a payload written log by log, same as {@link LogSerializer#serializeContainer}.
+         */
+        private static final String LOGS_PREFIX = "{\"logs\":[";
+
+        /**
+         * End of a payload written log by log.
+         */
+        private static final String LOGS_SUFFIX = "]}";
 
         private final LogSerializer mLogSerializer;
 
@@ -119,8 +142,53 @@ public class AppCenterIngestion implements Ingestion {
         @Override
         public String buildRequestBody() throws JSONException {
 
+            /* Splice stored JSON payloads when available. */
+            List<String> rawLogs = mLogContainer.getRawLogs();
+            if (rawLogs != null) {
+                int length = LOGS_PREFIX.length() + LOGS_SUFFIX.length();
+                for (String rawLog : rawLogs) {
+                    length += rawLog.length() + 1;
+                }
+                StringBuilder payload = new StringBuilder(length);
+                payload.append(LOGS_PREFIX);
+                for (int i = 0; i < rawLogs.size(); i++) {
+                    if (i > 0) {
+                        payload.append(',');
+                    }
+                    payload.append(rawLogs.get(i));
+                }
+                return payload.append(LOGS_SUFFIX).toString();
+            }
+
             /* Serialize payload. */
             return mLogSerializer.serializeContainer(mLogContainer);
         }
+
+        @Override
+        public void writeRequestBody(Writer writer) throws IOException, JSONException {
+
+            /* Write stored JSON payloads one by one when available. */
+            writer.write(LOGS_PREFIX);
+            List<String> rawLogs = mLogContainer.getRawLogs();
+            if (rawLogs != null) {
+                for (int i = 0; i < rawLogs.size(); i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(rawLogs.get(i));
+                }
+            } else {
+
+                /* Serialize payload log by log. */
+                List<Log> logs = mLogContainer.getLogs();
+                for (int i = 0; i < logs.size(); i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(mLogSerializer.serializeLog(logs.get(i)));
+                }
+            }
+            writer.write(LOGS_SUFFIX);
+        }
     }
 }
@@ -29,6 +29,22 @@ public interface Ingestion extends Closeable {
      */
     ServiceCall sendAsync(String appSecret, UUID installId, LogContainer logContainer, ServiceCallback serviceCallback) throws IllegalArgumentException;
 
+    /**
+     * Check if this ingestion can send {@link LogContainer#getRawLogs()} as is
+     * instead of serializing {@link LogContainer#getLogs()}.
+     *
+     * @return true if raw logs are supported, false otherwise.
+     */
+    boolean isRawLogsSupported();
+
+    /**
+     * Check if this ingestion needs {@link LogContainer#getLogs()} even when sending raw logs,
+     * for example to compute request headers.
+     *
+     * @return true if logs must be provided, false if raw logs are enough.
+     */
+    boolean isLogsRequired();
+
     /**
      * Update log URL.
      *
@@ -24,6 +24,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -186,6 +187,18 @@ public class OneCollectorIngestion implements Ingestion {
         mLogUrl = logUrl;
     }
 
+    @Override
+    public boolean isRawLogsSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isLogsRequired() {
+
+        /* Logs are needed to compute API keys and tickets headers. */
+        return true;
+    }
+
     @Override
     public void reopen() {
         mHttpClient.reopen();
@@ -199,7 +212,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Call template implementation for One Collector.
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.StreamingCallTemplate {
 
         /**
          * Log serializer.
@@ -222,8 +235,17 @@ public class OneCollectorIngestion implements Ingestion {
         @Override
         public String buildRequestBody() throws JSONException {
 
-            /* Serialize payload. */
+            /* Stored JSON payloads are spliced as is when available. */
             StringBuilder jsonStream = new StringBuilder();
+            List<String> rawLogs = mLogContainer.getRawLogs();
+            if (rawLogs != null) {
+                for (String rawLog : rawLogs) {
+                    jsonStream.append(rawLog).append('\n');
+                }
+                return jsonStream.toString();
+            }
+
+            /* Serialize payload. */
             for (Log log : mLogContainer.getLogs()) {
                 jsonStream.append(mLogSerializer.serializeLog(log));
 
@@ -233,6 +255,26 @@ public class OneCollectorIngestion implements Ingestion {
             return jsonStream.toString();
         }
 
+        @Override
+        public void writeRequestBody(Writer writer) throws IOException, JSONException {
+
+            /* Write stored JSON payloads one by one when available. */
+            List<String> rawLogs = mLogContainer.getRawLogs();
+            if (rawLogs != null) {
+                for (String rawLog : rawLogs) {
+                    writer.write(rawLog);
+                    writer.write('\n');
+                }
+                return;
+            }
+
+            /* Serialize payload log by log. */
+            for (Log log : mLogContainer.getLogs()) {
+                writer.write(mLogSerializer.serializeLog(log));
+                writer.write('\n');
+            }
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
@@ -167,9 +167,8 @@ public abstract class AbstractLog implements Log {
         JSONUtils.write(writer, DISTRIBUTION_GROUP_ID, getDistributionGroupId());
         JSONUtils.write(writer, USER_ID, getUserId());
         if (getDevice() != null) {
-            writer.key(DEVICE).object();
-            getDevice().write(writer);
-            writer.endObject();
+            writer.key(DEVICE);
+            JSONUtils.writeSharedObject(writer, getDevice());
         }
     }
 
@@ -187,7 +186,7 @@ public abstract class AbstractLog implements Log {
         if (object.has(DEVICE)) {
             Device device = new Device();
             device.read(object.getJSONObject(DEVICE));
-            setDevice(device);
+            setDevice(DeviceInterner.intern(device));
         }
     }
 
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves devices read from stored logs with the same content to a single instance,
+ * like the channel attaches a single device instance to all the logs it enqueues.
+ * Devices returned by this class are shared by many logs and must not be modified.
+ */
+public final class DeviceInterner {
+
+    /**
+     * Maximum number of distinct devices kept, a device changes only on configuration or app updates.
+     */
+    @VisibleForTesting
+    static final int MAX_SIZE = 8;
+
+    /**
+     * Devices by content, the least recently used is evicted first.
+     */
+    private static final Map<Device, Device> sDevices = new LinkedHashMap<Device, Device>(MAX_SIZE, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Device, Device> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    @VisibleForTesting
+    DeviceInterner() {
+
+        /* Hide constructor in utils. */
+    }
+
+    /**
+     * Get the shared instance of a device.
+     *
+     * @param device device that was just read.
+     * @return a previously interned device with the same content, or the given device that is now interned.
+     */
+    @NonNull
+    public static synchronized Device intern(@NonNull Device device) {
+        Device interned = sDevices.get(device);
+        if (interned == null) {
+            sDevices.put(device, device);
+            return device;
+        }
+        return interned;
+    }
+
+    /**
+     * Forget all interned devices.
+     */
+    @VisibleForTesting
+    static synchronized void clear() {
+        sDevices.clear();
+    }
+}
@@ -17,6 +17,11 @@ public class LogContainer {
      */
     private List<Log> logs;
 
+    /**
+     * The list of logs as stored JSON payloads.
+     */
+    private List<String> rawLogs;
+
     /**
      * Get the logs value.
      *
@@ -35,6 +40,24 @@ public class LogContainer {
         this.logs = logs;
     }
 
+    /**
+     * Get the raw logs value.
+     *
+     * @return the raw logs value
+     */
+    public List<String> getRawLogs() {
+        return this.rawLogs;
+    }
+
+    /**
+     * Set the raw logs value: logs already serialized to JSON, sent as is instead of serializing logs again.
+     *
+     * @param rawLogs the raw logs value to set
+     */
+    public void setRawLogs(List<String> rawLogs) {
+        this.rawLogs = rawLogs;
+    }
+
     @SuppressWarnings("EqualsReplaceableByObjectsCall")
     @Override
     public boolean equals(Object o) {
@@ -45,11 +68,16 @@ public class LogContainer {
             return false;
         }
         LogContainer container = (LogContainer) o;
-        return logs != null ? logs.equals(container.logs) : container.logs == null;
+        if (logs != null ? !logs.equals(container.logs) : container.logs != null) {
+            return false;
+        }
+        return rawLogs != null ? rawLogs.equals(container.rawLogs) : container.rawLogs == null;
     }
 
     @Override
     public int hashCode() {
-        return logs != null ? logs.hashCode() : 0;
+        int result = logs != null ? logs.hashCode() : 0;
+        result = 31 * result + (rawLogs != null ? rawLogs.hashCode() : 0);
+        return result;
     }
 }
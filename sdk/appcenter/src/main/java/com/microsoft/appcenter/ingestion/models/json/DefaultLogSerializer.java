@@ -31,7 +31,7 @@ public class DefaultLogSerializer implements LogSerializer {
     private final Map<String, LogFactory> mLogFactories = new HashMap<>();
 
     @NonNull
-    private JSONStringer writeLog(JSONStringer writer, Log log) throws JSONException {
+    JSONStringer writeLog(JSONStringer writer, Log log) throws JSONException {
         writer.object();
         log.write(writer);
         writer.endObject();
@@ -39,7 +39,7 @@ public class DefaultLogSerializer implements LogSerializer {
     }
 
     @NonNull
-    private Log readLog(JSONObject object, String type) throws JSONException {
+    private LogFactory getLogFactory(JSONObject object, String type) throws JSONException {
         if (type == null) {
             type = object.getString(TYPE);
         }
@@ -47,7 +47,12 @@ public class DefaultLogSerializer implements LogSerializer {
         if (logFactory == null) {
             throw new JSONException("Unknown log type: " + type);
         }
-        Log log = logFactory.create();
+        return logFactory;
+    }
+
+    @NonNull
+    private Log readLog(JSONObject object, String type) throws JSONException {
+        Log log = getLogFactory(object, type).create();
         log.read(object);
         return log;
     }
@@ -64,6 +69,11 @@ public class DefaultLogSerializer implements LogSerializer {
         return readLog(new JSONObject(json), type);
     }
 
+    @Override
+    public void validateLog(@NonNull String json, String type) throws JSONException {
+        getLogFactory(new JSONObject(json), type);
+    }
+
     @Override
     public Collection<CommonSchemaLog> toCommonSchemaLog(@NonNull Log log) {
         return mLogFactories.get(log.getType()).toCommonSchemaLogs(log);
@@ -75,8 +85,11 @@ public class DefaultLogSerializer implements LogSerializer {
 
         /* Init JSON serializer. */
         JSONStringer writer = new JSONStringer();
+        return writeContainer(writer, logContainer).toString();
+    }
 
-        /* Start writing JSON. */
+    @NonNull
+    JSONStringer writeContainer(JSONStringer writer, LogContainer logContainer) throws JSONException {
         writer.object();
         writer.key(LOGS).array();
         for (Log log : logContainer.getLogs()) {
@@ -84,7 +97,7 @@ public class DefaultLogSerializer implements LogSerializer {
         }
         writer.endArray();
         writer.endObject();
-        return writer.toString();
+        return writer;
     }
 
     @NonNull
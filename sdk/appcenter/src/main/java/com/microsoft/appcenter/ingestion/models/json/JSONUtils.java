@@ -116,6 +116,24 @@ public class JSONUtils {
         }
     }
 
+    /**
+     * Write a model that is shared by many logs, as an object value after a key.
+     * A {@link StreamingJSONStringer} writing a log container serializes each instance only once.
+     *
+     * @param writer writer.
+     * @param value  model to write.
+     * @throws JSONException if the model cannot be written.
+     */
+    public static void writeSharedObject(JSONStringer writer, Model value) throws JSONException {
+        if (writer instanceof StreamingJSONStringer) {
+            ((StreamingJSONStringer) writer).sharedObject(value);
+        } else {
+            writer.object();
+            value.write(writer);
+            writer.endObject();
+        }
+    }
+
     public static void writeStringArray(JSONStringer writer, String key, List<String> values) throws JSONException {
         if (values != null) {
             writer.key(key).array();
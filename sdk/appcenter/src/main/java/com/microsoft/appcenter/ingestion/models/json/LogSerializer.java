@@ -23,6 +23,8 @@ public interface LogSerializer {
     @NonNull
     Log deserializeLog(@NonNull String json, String type) throws JSONException;
 
+    void validateLog(@NonNull String json, String type) throws JSONException;
+
     Collection<CommonSchemaLog> toCommonSchemaLog(@NonNull Log log);
 
     @NonNull
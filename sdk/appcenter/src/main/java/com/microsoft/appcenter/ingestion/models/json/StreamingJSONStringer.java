@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import com.microsoft.appcenter.ingestion.models.Model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * {@link JSONStringer} that appends directly to a reusable buffer.
+ * It produces the same output as {@link JSONStringer} without indentation,
+ * but can be reset and reused so that serializing many logs does not allocate
+ * a new buffer and scope stack for each of them.
+ */
+class StreamingJSONStringer extends JSONStringer {
+
+    /**
+     * An array with no elements requires no separators or newlines before it is closed.
+     */
+    private static final int EMPTY_ARRAY = 0;
+
+    /**
+     * An array with at least one value requires a comma before the next element.
+     */
+    private static final int NONEMPTY_ARRAY = 1;
+
+    /**
+     * An object with no keys or values requires no separators or newlines before it is closed.
+     */
+    private static final int EMPTY_OBJECT = 2;
+
+    /**
+     * An object whose most recent element is a key. The next element must be a value.
+     */
+    private static final int DANGLING_KEY = 3;
+
+    /**
+     * An object with at least one name/value pair requires a comma before the next element.
+     */
+    private static final int NONEMPTY_OBJECT = 4;
+
+    /**
+     * Initial depth of the scope stack, logs rarely nest deeper.
+     */
+    private static final int INITIAL_STACK_SIZE = 16;
+
+    /**
+     * Hexadecimal digits used to escape control characters.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Output buffer.
+     */
+    private final StringBuilder mOut;
+
+    /**
+     * Nesting stack, contains scope constants.
+     */
+    private int[] mStack = new int[INITIAL_STACK_SIZE];
+
+    /**
+     * Number of scopes in {@link #mStack}.
+     */
+    private int mStackSize;
+
+    /**
+     * JSON of the shared objects already written by instance, null when not reusing them.
+     */
+    private Map<Model, String> mSharedObjects;
+
+    /**
+     * Init.
+     *
+     * @param initialCapacity initial capacity of the output buffer.
+     */
+    StreamingJSONStringer(int initialCapacity) {
+        mOut = new StringBuilder(initialCapacity);
+    }
+
+    /**
+     * Clear the output and nesting state to reuse this instance.
+     */
+    void reset() {
+        mOut.setLength(0);
+        mStackSize = 0;
+        mSharedObjects = null;
+    }
+
+    /**
+     * Remember the JSON of shared objects until the next {@link #reset()} to write it again
+     * without serializing the object, for example the device of every log in a container.
+     * Shared objects must not be modified in between.
+     */
+    void reuseSharedObjects() {
+        if (mSharedObjects == null) {
+            mSharedObjects = new IdentityHashMap<>();
+        }
+    }
+
+    /**
+     * Write a model shared by many logs as an object value.
+     *
+     * @param model model to write.
+     * @return this instance.
+     * @throws JSONException if nesting is invalid or the model cannot be written.
+     */
+    JSONStringer sharedObject(Model model) throws JSONException {
+        String json = mSharedObjects != null ? mSharedObjects.get(model) : null;
+        if (json != null) {
+            peek();
+            beforeValue();
+            mOut.append(json);
+            return this;
+        }
+        object();
+        int start = mOut.length() - 1;
+        model.write(this);
+        endObject();
+        if (mSharedObjects != null) {
+            mSharedObjects.put(model, mOut.substring(start));
+        }
+        return this;
+    }
+
+    /**
+     * Get the capacity of the output buffer.
+     *
+     * @return the capacity in characters.
+     */
+    int capacity() {
+        return mOut.capacity();
+    }
+
+    @Override
+    public JSONStringer array() throws JSONException {
+        return open(EMPTY_ARRAY, '[');
+    }
+
+    @Override
+    public JSONStringer endArray() throws JSONException {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    @Override
+    public JSONStringer object() throws JSONException {
+        return open(EMPTY_OBJECT, '{');
+    }
+
+    @Override
+    public JSONStringer endObject() throws JSONException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    @Override
+    public JSONStringer key(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        int context = peek();
+        if (context == NONEMPTY_OBJECT) {
+            mOut.append(',');
+        } else if (context != EMPTY_OBJECT) {
+            throw new JSONException("Nesting problem");
+        }
+        mStack[mStackSize - 1] = DANGLING_KEY;
+        string(name);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(Object value) throws JSONException {
+        peek();
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            object();
+            for (Iterator<String> keys = object.keys(); keys.hasNext(); ) {
+                String key = keys.next();
+                key(key).value(object.opt(key));
+            }
+            return endObject();
+        }
+        beforeValue();
+        if (value == null || value instanceof Boolean || value == JSONObject.NULL) {
+            mOut.append(value);
+        } else if (value instanceof Number) {
+            mOut.append(JSONObject.numberToString((Number) value));
+        } else {
+            string(value.toString());
+        }
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(boolean value) throws JSONException {
+        peek();
+        beforeValue();
+        mOut.append(value);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(double value) throws JSONException {
+        peek();
+        String number = JSONObject.numberToString(value);
+        beforeValue();
+        mOut.append(number);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(long value) throws JSONException {
+        peek();
+        beforeValue();
+        mOut.append(value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return mOut.length() == 0 ? null : mOut.toString();
+    }
+
+    /**
+     * Open a new array or object.
+     *
+     * @param empty       scope of the new empty array or object.
+     * @param openBracket bracket to write.
+     * @return this instance.
+     * @throws JSONException if nesting is invalid.
+     */
+    private JSONStringer open(int empty, char openBracket) throws JSONException {
+        if (mStackSize == 0 && mOut.length() > 0) {
+            throw new JSONException("Nesting problem: multiple top-level roots");
+        }
+        beforeValue();
+        if (mStackSize == mStack.length) {
+            mStack = Arrays.copyOf(mStack, mStackSize * 2);
+        }
+        mStack[mStackSize++] = empty;
+        mOut.append(openBracket);
+        return this;
+    }
+
+    /**
+     * Close the current array or object.
+     *
+     * @param empty        scope of the empty array or object to close.
+     * @param nonempty     scope of the non empty array or object to close.
+     * @param closeBracket bracket to write.
+     * @return this instance.
+     * @throws JSONException if nesting is invalid.
+     */
+    private JSONStringer close(int empty, int nonempty, char closeBracket) throws JSONException {
+        int context = peek();
+        if (context != nonempty && context != empty) {
+            throw new JSONException("Nesting problem");
+        }
+        mStackSize--;
+        mOut.append(closeBracket);
+        return this;
+    }
+
+    /**
+     * Get the current scope.
+     *
+     * @return the current scope.
+     * @throws JSONException if there is no current scope.
+     */
+    private int peek() throws JSONException {
+        if (mStackSize == 0) {
+            throw new JSONException("Nesting problem");
+        }
+        return mStack[mStackSize - 1];
+    }
+
+    /**
+     * Insert any necessary separators before a value and update the current scope.
+     *
+     * @throws JSONException if a value is not expected in the current scope.
+     */
+    private void beforeValue() throws JSONException {
+        if (mStackSize == 0) {
+            return;
+        }
+        int context = mStack[mStackSize - 1];
+        if (context == EMPTY_ARRAY) {
+            mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+        } else if (context == NONEMPTY_ARRAY) {
+            mOut.append(',');
+        } else if (context == DANGLING_KEY) {
+            mOut.append(':');
+            mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+        } else {
+            throw new JSONException("Nesting problem");
+        }
+    }
+
+    /**
+     * Append a quoted and escaped string.
+     *
+     * @param value string to append.
+     */
+    private void string(String value) {
+        mOut.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    mOut.append('\\').append(c);
+                    break;
+
+                case '\t':
+                    mOut.append("\\t");
+                    break;
+
+                case '\b':
+                    mOut.append("\\b");
+                    break;
+
+                case '\n':
+                    mOut.append("\\n");
+                    break;
+
+                case '\r':
+                    mOut.append("\\r");
+                    break;
+
+                case '\f':
+                    mOut.append("\\f");
+                    break;
+
+                default:
+                    if (c <= 0x1F) {
+                        mOut.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        mOut.append(c);
+                    }
+                    break;
+            }
+        }
+        mOut.append('"');
+    }
+}
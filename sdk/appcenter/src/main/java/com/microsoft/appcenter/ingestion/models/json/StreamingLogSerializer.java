@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+
+import org.json.JSONException;
+
+/**
+ * Log serializer that writes models straight into a reusable per thread buffer
+ * instead of allocating a new {@link org.json.JSONStringer} for every log.
+ * The output is the same as {@link DefaultLogSerializer}.
+ * Deserialization is inherited as {@link com.microsoft.appcenter.ingestion.models.Model#read}
+ * needs a {@link org.json.JSONObject} anyway.
+ */
+public class StreamingLogSerializer extends DefaultLogSerializer {
+
+    /**
+     * Initial capacity of a writer buffer in characters, fits most logs.
+     */
+    @VisibleForTesting
+    static final int INITIAL_BUFFER_CAPACITY = 1024;
+
+    /**
+     * A writer whose buffer grew larger than this number of characters is not kept for reuse
+     * so that a large log container does not retain memory.
+     */
+    @VisibleForTesting
+    static final int MAX_RETAINED_BUFFER_CAPACITY = 64 * 1024;
+
+    /**
+     * Reusable writer for each thread, as persistence and ingestion serialize in parallel.
+     */
+    private final ThreadLocal<StreamingJSONStringer> mWriter = new ThreadLocal<StreamingJSONStringer>() {
+
+        @Override
+        protected StreamingJSONStringer initialValue() {
+            return new StreamingJSONStringer(INITIAL_BUFFER_CAPACITY);
+        }
+    };
+
+    @NonNull
+    @Override
+    public String serializeLog(@NonNull Log log) throws JSONException {
+        StreamingJSONStringer writer = obtainWriter();
+        try {
+            return writeLog(writer, log).toString();
+        } finally {
+            releaseWriter(writer);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
+        StreamingJSONStringer writer = obtainWriter();
+        try {
+
+            /* Logs of a container usually share the same device instance. */
+            writer.reuseSharedObjects();
+            writeContainer(writer, logContainer);
+            return writer.toString();
+        } finally {
+            releaseWriter(writer);
+        }
+    }
+
+    /**
+     * Get the writer of the current thread, ready to use.
+     *
+     * @return writer.
+     */
+    private StreamingJSONStringer obtainWriter() {
+        StreamingJSONStringer writer = mWriter.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * Release the writer of the current thread after use.
+     *
+     * @param writer writer.
+     */
+    private void releaseWriter(StreamingJSONStringer writer) {
+        if (writer.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+            mWriter.remove();
+        }
+    }
+}
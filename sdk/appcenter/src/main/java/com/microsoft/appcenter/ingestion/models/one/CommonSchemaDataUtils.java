@@ -19,8 +19,11 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.microsoft.appcenter.ingestion.models.one.Data.BASE_DATA;
 import static com.microsoft.appcenter.ingestion.models.one.Data.BASE_TYPE;
@@ -44,6 +47,23 @@ public class CommonSchemaDataUtils {
     @VisibleForTesting
     static final int DATA_TYPE_DATETIME = 9;
 
+    /**
+     * Maximum number of property layouts kept in {@link #sLayouts}.
+     */
+    @VisibleForTesting
+    static final int MAX_LAYOUTS = 64;
+
+    /**
+     * Property layouts by property names and metadata types, the least recently used is evicted first.
+     */
+    private static final Map<String, PropertyLayout> sLayouts = new LinkedHashMap<String, PropertyLayout>(MAX_LAYOUTS, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PropertyLayout> eldest) {
+            return size() > MAX_LAYOUTS;
+        }
+    };
+
     /**
      * Adds part B and part C properties to a log and Part A metadata.
      *
@@ -60,11 +80,11 @@ public class CommonSchemaDataUtils {
             Data data = new Data();
             dest.setData(data);
 
-            /* We also build Part A metadata extension at the same time to reflect the data. */
-            MetadataExtension metadata = new MetadataExtension();
+            /* Validate properties and identify their layout from names and metadata types. */
+            List<TypedProperty> validProperties = new ArrayList<>(properties.size());
+            List<Object> values = new ArrayList<>(properties.size());
+            StringBuilder layoutKey = new StringBuilder();
             for (TypedProperty property : properties) {
-
-                /* Validate property and get type. */
                 Object value;
                 try {
                     value = validateProperty(property);
@@ -72,18 +92,20 @@ public class CommonSchemaDataUtils {
                     AppCenterLog.warn(LOG_TAG, e.getMessage());
                     continue;
                 }
-
-                /* Get metadata type. */
-                Integer metadataType = getMetadataType(property);
-
-                /* Split property name by dot. */
+                validProperties.add(property);
+                values.add(value);
                 String key = property.getName();
-                String[] keys = key.split("\\.", -1);
+                layoutKey.append(key.length()).append(':').append(key).append(getMetadataType(property)).append(';');
+            }
+            PropertyLayout layout = getLayout(layoutKey.toString(), validProperties);
+
+            /* Fill data following the nesting of the layout. */
+            for (int propertyIndex = 0; propertyIndex < values.size(); propertyIndex++) {
+                String[] keys = layout.mPaths[propertyIndex];
                 int lastIndex = keys.length - 1;
 
                 /* Handle all intermediate keys. */
                 JSONObject destProperties = data.getProperties();
-                JSONObject destMetadata = metadata.getMetadata();
                 for (int i = 0; i < lastIndex; i++) {
 
                     /* Add data sub object. */
@@ -99,9 +121,6 @@ public class CommonSchemaDataUtils {
                         destProperties.put(subKey, subDataObject);
                     }
                     destProperties = subDataObject;
-
-                    /* Handle metadata. */
-                    destMetadata = addIntermediateMetadata(destMetadata, subKey);
                 }
 
                 /* Handle the last key for data, the leaf. */
@@ -109,25 +128,18 @@ public class CommonSchemaDataUtils {
                 if (destProperties.has(lastKey)) {
                     AppCenterLog.warn(LOG_TAG, "Property key '" + lastKey + "' already has a value, the old value will be overridden.");
                 }
-                destProperties.put(lastKey, value);
-
-                /* Handle the last key for meta-data, the leaf. */
-                addLeafMetadata(metadataType, destMetadata, lastKey);
+                destProperties.put(lastKey, values.get(propertyIndex));
             }
 
-            /* Warn/cleanup if baseData and baseType are not paired. */
+            /* Warn/cleanup if baseData and baseType are not paired, metadata of the layout is already cleaned up. */
             JSONObject dataObject = data.getProperties();
             String baseType = dataObject.optString(BASE_TYPE, null);
             JSONObject baseData = dataObject.optJSONObject(BASE_DATA);
             if (baseType == null && baseData != null) {
 
-                /* Discard unpaired data and metadata. */
+                /* Discard unpaired data. */
                 AppCenterLog.warn(LOG_TAG, "baseData was set but baseType is missing.");
                 dataObject.remove(BASE_DATA);
-                JSONObject baseMetaData = metadata.getMetadata().optJSONObject(METADATA_FIELDS);
-
-                /* baseMetaData is always non null as baseData has at least 1 sub object and not cleaned up yet if empty. */
-                baseMetaData.remove(BASE_DATA);
             }
             if (baseType != null && baseData == null) {
 
@@ -136,12 +148,12 @@ public class CommonSchemaDataUtils {
                 dataObject.remove(BASE_TYPE);
             }
 
-            /* Add metadata extension only if not empty after cleanup. */
-            if (!cleanUpEmptyObjectsInMetadata(metadata.getMetadata())) {
+            /* Add metadata extension only if not empty after cleanup, it's shared by the logs with the same layout. */
+            if (layout.mMetadata != null) {
                 if (dest.getExt() == null) {
                     dest.setExt(new Extensions());
                 }
-                dest.getExt().setMetadata(metadata);
+                dest.getExt().setMetadata(layout.mMetadata);
             }
         } catch (JSONException ignore) {
 
@@ -149,6 +161,74 @@ public class CommonSchemaDataUtils {
         }
     }
 
+    /**
+     * Get the layout of properties, compiling it if it's not cached.
+     *
+     * @param layoutKey  key identifying the property names and metadata types.
+     * @param properties valid properties.
+     * @return the layout.
+     * @throws JSONException if JSON put fails.
+     */
+    private static PropertyLayout getLayout(String layoutKey, List<TypedProperty> properties) throws JSONException {
+        synchronized (sLayouts) {
+            PropertyLayout layout = sLayouts.get(layoutKey);
+            if (layout == null) {
+                layout = compileLayout(properties);
+                sLayouts.put(layoutKey, layout);
+            }
+            return layout;
+        }
+    }
+
+    /**
+     * Compute the nesting of properties and the Part A metadata that only depend on property names and types.
+     *
+     * @param properties valid properties.
+     * @return the layout.
+     * @throws JSONException if JSON put fails.
+     */
+    private static PropertyLayout compileLayout(List<TypedProperty> properties) throws JSONException {
+        String[][] paths = new String[properties.size()][];
+        MetadataExtension metadata = new MetadataExtension();
+        boolean hasBaseType = false;
+        boolean hasBaseData = false;
+        for (int propertyIndex = 0; propertyIndex < paths.length; propertyIndex++) {
+            TypedProperty property = properties.get(propertyIndex);
+
+            /* Split property name by dot. */
+            String[] keys = property.getName().split("\\.", -1);
+            paths[propertyIndex] = keys;
+            int lastIndex = keys.length - 1;
+            hasBaseType |= lastIndex == 0 && BASE_TYPE.equals(keys[0]);
+            hasBaseData |= lastIndex > 0 && BASE_DATA.equals(keys[0]);
+
+            /* Handle all intermediate keys. */
+            JSONObject destMetadata = metadata.getMetadata();
+            for (int i = 0; i < lastIndex; i++) {
+                destMetadata = addIntermediateMetadata(destMetadata, keys[i]);
+            }
+
+            /* Handle the last key for meta-data, the leaf. */
+            addLeafMetadata(getMetadataType(property), destMetadata, keys[lastIndex]);
+        }
+
+        /* Discard metadata of unpaired data, baseMetaData is always non null as baseData has at least 1 sub object. */
+        if (!hasBaseType && hasBaseData) {
+            metadata.getMetadata().optJSONObject(METADATA_FIELDS).remove(BASE_DATA);
+        }
+        return new PropertyLayout(paths, cleanUpEmptyObjectsInMetadata(metadata.getMetadata()) ? null : metadata);
+    }
+
+    /**
+     * Clear the cached property layouts.
+     */
+    @VisibleForTesting
+    static void clearLayouts() {
+        synchronized (sLayouts) {
+            sLayouts.clear();
+        }
+    }
+
     /**
      * Validate typed property.
      *
@@ -295,4 +375,31 @@ public class CommonSchemaDataUtils {
         }
         return object.length() == 0;
     }
+
+    /**
+     * Nesting and metadata shared by the properties with the same names and types.
+     */
+    private static class PropertyLayout {
+
+        /**
+         * Name of each property split by dot.
+         */
+        private final String[][] mPaths;
+
+        /**
+         * Metadata extension, null if empty. Shared by logs, must not be modified.
+         */
+        private final MetadataExtension mMetadata;
+
+        /**
+         * Init.
+         *
+         * @param paths    name of each property split by dot.
+         * @param metadata metadata extension, null if empty.
+         */
+        PropertyLayout(String[][] paths, MetadataExtension metadata) {
+            mPaths = paths;
+            mMetadata = metadata;
+        }
+    }
 }
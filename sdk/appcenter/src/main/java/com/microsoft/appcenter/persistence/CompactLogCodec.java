@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.DeviceInterner;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
+import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes logs for the compact storage of {@link DatabasePersistence}.
+ * The part of a log that is the same for many logs, the device for App Center logs or the Part A
+ * extensions other than the SDK one for Common Schema logs, is split to be stored only once.
+ * The rest of the log is stored as JSON compressed with a dictionary of the most common keys.
+ * This class is not thread safe.
+ */
+class CompactLogCodec implements Closeable {
+
+    /**
+     * Version of the encoding, stored as the first byte.
+     */
+    @VisibleForTesting
+    static final byte FORMAT_VERSION = 1;
+
+    /**
+     * Charset of the compressed JSON.
+     */
+    private static final String CHARSET_NAME = "UTF-8";
+
+    /**
+     * Preset dictionary, strings that are more likely to be found are at the end.
+     */
+    private static final byte[] DICTIONARY = getBytes("\"distributionGroupId\":\"\",\"typedProperties\":[{\"type\":\"boolean\",\"name\":\"\",\"value\":true},"
+            + "{\"type\":\"long\",\"type\":\"double\",\"type\":\"dateTime\",\"type\":\"string\",\"name\":\"\",\"value\":\"\"}],"
+            + "\"properties\":{},\"ver\":\"3.0\",\"name\":\"\",\"time\":\"\",\"iKey\":\"o:\",\"flags\":1,"
+            + "\"ext\":{\"sdk\":{\"libVer\":\"appcenter.android-\",\"epoch\":\"\",\"seq\":1,\"installId\":\"\"}},\"data\":{\"baseType\":\"\",\"baseData\":{}},"
+            + "{\"type\":\"event\",\"timestamp\":\"\",\"sid\":\"\",\"userId\":\"\",\"id\":\"\",\"name\":\"\"}");
+
+    /**
+     * Compressor, reused for every log.
+     */
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Decompressor, reused for every log.
+     */
+    private final Inflater mInflater = new Inflater();
+
+    /**
+     * Buffer used to compress and decompress.
+     */
+    private final byte[] mBuffer = new byte[4096];
+
+    /**
+     * Encode a log.
+     *
+     * @param logSerializer serializer.
+     * @param log           log to encode, left unchanged.
+     * @return encoded log.
+     * @throws JSONException if the log cannot be serialized.
+     */
+    @NonNull
+    EncodedLog encode(@NonNull LogSerializer logSerializer, @NonNull Log log) throws JSONException {
+        String sharedObject = null;
+        String json;
+        if (log instanceof CommonSchemaLog) {
+            CommonSchemaLog commonSchemaLog = (CommonSchemaLog) log;
+            Extensions ext = commonSchemaLog.getExt();
+            if (ext != null) {
+
+                /* The SDK extension has a sequence number, keep it in the log. */
+                SdkExtension sdk = ext.getSdk();
+                Extensions sdkExt = new Extensions();
+                sdkExt.setSdk(sdk);
+                ext.setSdk(null);
+                try {
+                    sharedObject = write(ext);
+                    commonSchemaLog.setExt(sdkExt);
+                    json = logSerializer.serializeLog(log);
+                } finally {
+                    ext.setSdk(sdk);
+                    commonSchemaLog.setExt(ext);
+                }
+            } else {
+                json = logSerializer.serializeLog(log);
+            }
+        } else {
+            Device device = log.getDevice();
+            if (device != null) {
+                sharedObject = write(device);
+                log.setDevice(null);
+                try {
+                    json = logSerializer.serializeLog(log);
+                } finally {
+                    log.setDevice(device);
+                }
+            } else {
+                json = logSerializer.serializeLog(log);
+            }
+        }
+        byte[] jsonBytes = getBytes(json);
+        int jsonSize = jsonBytes.length + (sharedObject != null ? getBytes(sharedObject).length : 0);
+        return new EncodedLog(compress(jsonBytes), sharedObject, jsonSize);
+    }
+
+    /**
+     * Decode a log.
+     *
+     * @param logSerializer serializer.
+     * @param payload       compressed log.
+     * @param type          log type.
+     * @param sharedObject  JSON of the part shared with other logs, if any.
+     * @return decoded log.
+     * @throws JSONException if the log cannot be decoded.
+     */
+    @NonNull
+    Log decode(@NonNull LogSerializer logSerializer, @NonNull byte[] payload, String type, @Nullable String sharedObject) throws JSONException {
+        Log log = logSerializer.deserializeLog(decompress(payload), type);
+        if (sharedObject != null) {
+            JSONObject object = new JSONObject(sharedObject);
+            if (log instanceof CommonSchemaLog) {
+                CommonSchemaLog commonSchemaLog = (CommonSchemaLog) log;
+                Extensions ext = new Extensions();
+                ext.read(object);
+                if (commonSchemaLog.getExt() != null) {
+                    ext.setSdk(commonSchemaLog.getExt().getSdk());
+                }
+                commonSchemaLog.setExt(ext);
+            } else {
+                Device device = new Device();
+                device.read(object);
+                log.setDevice(DeviceInterner.intern(device));
+            }
+        }
+        return log;
+    }
+
+    @Override
+    public void close() {
+        mDeflater.end();
+        mInflater.end();
+    }
+
+    private byte[] compress(byte[] input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+        output.write(FORMAT_VERSION);
+        mDeflater.reset();
+        mDeflater.setDictionary(DICTIONARY);
+        mDeflater.setInput(input);
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            int count = mDeflater.deflate(mBuffer);
+            output.write(mBuffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    private String decompress(byte[] payload) throws JSONException {
+        if (payload.length == 0 || payload[0] != FORMAT_VERSION) {
+            throw new JSONException("Unsupported compact log format.");
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length * 4);
+        mInflater.reset();
+        mInflater.setInput(payload, 1, payload.length - 1);
+        try {
+            while (!mInflater.finished()) {
+                int count = mInflater.inflate(mBuffer);
+                if (count == 0) {
+                    if (mInflater.needsDictionary()) {
+                        mInflater.setDictionary(DICTIONARY);
+                    } else if (mInflater.needsInput()) {
+                        throw new JSONException("Truncated compact log.");
+                    }
+                }
+                output.write(mBuffer, 0, count);
+            }
+            return output.toString(CHARSET_NAME);
+        } catch (DataFormatException | IllegalArgumentException | UnsupportedEncodingException e) {
+            throw new JSONException("Invalid compact log: " + e.getMessage());
+        }
+    }
+
+    private static String write(Model model) throws JSONException {
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        model.write(writer);
+        writer.endObject();
+        return writer.toString();
+    }
+
+    private static byte[] getBytes(String string) {
+        try {
+            return string.getBytes(CHARSET_NAME);
+        } catch (UnsupportedEncodingException e) {
+
+            /* UTF-8 is always supported. */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Result of {@link #encode(LogSerializer, Log)}.
+     */
+    static class EncodedLog {
+
+        /**
+         * Compressed log without the shared part.
+         */
+        private final byte[] mPayload;
+
+        /**
+         * JSON of the part of the log shared with other logs, if any.
+         */
+        private final String mSharedObject;
+
+        /**
+         * Size of the log in JSON, in bytes.
+         */
+        private final int mJsonSize;
+
+        EncodedLog(byte[] payload, String sharedObject, int jsonSize) {
+            mPayload = payload;
+            mSharedObject = sharedObject;
+            mJsonSize = jsonSize;
+        }
+
+        byte[] getPayload() {
+            return mPayload;
+        }
+
+        String getSharedObject() {
+            return mSharedObject;
+        }
+
+        int getJsonSize() {
+            return mJsonSize;
+        }
+    }
+}
@@ -21,7 +21,6 @@ import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
-import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SQLiteUtils;
@@ -80,10 +79,23 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final int VERSION_TIMESTAMP_COLUMN = 5;
 
+    /**
+     * Version where the batch identifier column was added, upgrading from a previous version
+     * (but not older than {@link #VERSION_TIMESTAMP_COLUMN}) only adds the column.
+     */
+    @VisibleForTesting
+    static final int VERSION_BATCH_ID_COLUMN = 7;
+
+    /**
+     * Version where the compact log columns and the shared objects table were added.
+     */
+    @VisibleForTesting
+    static final int VERSION_COMPACT_LOG_COLUMNS = 8;
+
     /**
      * Current version of the schema.
      */
-    private static final int VERSION = 6;
+    private static final int VERSION = VERSION_COMPACT_LOG_COLUMNS;
 
     /**
      * Project identifier part of the target token in clear text (the target token key).
@@ -102,6 +114,36 @@ public class DatabasePersistence extends Persistence {
      */
     private static final String COLUMN_DATA_TYPE = "type";
 
+    /**
+     * Identifier of the batch a log is being sent with, null if the log is not pending.
+     */
+    @VisibleForTesting
+    static final String COLUMN_BATCH_ID = "batch_id";
+
+    /**
+     * Name of compact log column in the table, used instead of {@link #COLUMN_LOG} when logs are stored with {@link CompactLogCodec}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_COMPACT_LOG = "compact_log";
+
+    /**
+     * Identifier of the row of {@link #SHARED_OBJECTS_TABLE} holding the part of a compact log shared with other logs.
+     */
+    @VisibleForTesting
+    static final String COLUMN_SHARED_OBJECT_ID = "shared_object_id";
+
+    /**
+     * Table of JSON objects shared by compact logs, such as devices.
+     */
+    @VisibleForTesting
+    static final String SHARED_OBJECTS_TABLE = "shared_objects";
+
+    /**
+     * Name of the JSON object column in {@link #SHARED_OBJECTS_TABLE}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_SHARED_OBJECT = "object";
+
     /**
      * Database name.
      */
@@ -112,7 +154,12 @@ public class DatabasePersistence extends Persistence {
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0);
+    static final ContentValues SCHEMA = getSchema();
+
+    /**
+     * Schema of {@link #SHARED_OBJECTS_TABLE}.
+     */
+    private static final ContentValues SHARED_OBJECTS_SCHEMA = getSharedObjectsSchema();
 
     /**
      * Priority index.
@@ -120,15 +167,15 @@ public class DatabasePersistence extends Persistence {
     private static final String INDEX_PRIORITY = "ix_" + TABLE + "_" + COLUMN_PRIORITY;
 
     /**
-     * Order by clause to select logs.
+     * Index to select logs that are not pending in a group in {@link #GET_SORT_ORDER} without sorting.
+     * The row identifier is implicitly the last key of the index.
      */
-    private static final String GET_SORT_ORDER = COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY;
+    private static final String INDEX_BATCH = "ix_" + TABLE + "_" + COLUMN_BATCH_ID;
 
     /**
-     * Size limit (in bytes) for a database row log payload.
-     * A separate file is used if payload is larger.
+     * Order by clause to select logs.
      */
-    private static final int PAYLOAD_MAX_SIZE = (int) (1.9 * 1024 * 1024);
+    private static final String GET_SORT_ORDER = COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY;
 
     /**
      * Sub path for directory where to store large payloads.
@@ -140,6 +187,11 @@ public class DatabasePersistence extends Persistence {
      */
     private static final String PAYLOAD_FILE_EXTENSION = ".json";
 
+    /**
+     * Length of the batch identifiers appended to the group name in pending state keys.
+     */
+    private static final int BATCH_ID_LENGTH = UUID.randomUUID().toString().length();
+
     /**
      * Database manager instance to access Persistence database.
      */
@@ -158,6 +210,24 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     final Set<Long> mPendingDbIdentifiers;
 
+    /**
+     * Pending logs whose payload is stored in a file rather than in the database.
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingLargePayloadDbIdentifiers;
+
+    /**
+     * Logs waiting to be written to the database in a single transaction.
+     */
+    @VisibleForTesting
+    final List<ContentValues> mPendingWrites;
+
+    /**
+     * Target token encryption.
+     */
+    @VisibleForTesting
+    final TargetTokenCrypto mTargetTokenCrypto;
+
     /**
      * Application context.
      */
@@ -168,6 +238,36 @@ public class DatabasePersistence extends Persistence {
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Maximum number of logs buffered in {@link #mPendingWrites} before writing them.
+     */
+    private int mWriteBatchSize = 1;
+
+    /**
+     * Whether batch identifiers persisted by a previous process have been cleared.
+     */
+    private boolean mBatchIdsCleared;
+
+    /**
+     * Whether new logs are stored with {@link CompactLogCodec}.
+     */
+    private boolean mCompactStorageEnabled;
+
+    /**
+     * Codec for compact logs, created when first needed.
+     */
+    private CompactLogCodec mCompactLogCodec;
+
+    /**
+     * Cache of {@link #SHARED_OBJECTS_TABLE} identifiers by JSON object.
+     */
+    private final Map<String, Long> mSharedObjectIds = new HashMap<>();
+
+    /**
+     * Cache of {@link #SHARED_OBJECTS_TABLE} JSON objects by identifier.
+     */
+    private final Map<Long, String> mSharedObjects = new HashMap<>();
+
     /**
      * Initializes variables with default values.
      *
@@ -177,6 +277,17 @@ public class DatabasePersistence extends Persistence {
         this(context, VERSION, SCHEMA);
     }
 
+    /**
+     * Initializes variables with default values.
+     *
+     * @param context               application context.
+     * @param compactStorageEnabled true to store new logs in a compact form, see {@link CompactLogCodec}.
+     */
+    public DatabasePersistence(Context context, boolean compactStorageEnabled) {
+        this(context, VERSION, SCHEMA);
+        mCompactStorageEnabled = compactStorageEnabled;
+    }
+
     /**
      * Initializes variables.
      *
@@ -187,16 +298,29 @@ public class DatabasePersistence extends Persistence {
     DatabasePersistence(Context context, int version, @SuppressWarnings("SameParameterValue") final ContentValues schema) {
         mContext = context;
         mPendingDbIdentifiersGroups = new HashMap<>();
+        mTargetTokenCrypto = new TargetTokenCrypto(context);
         mPendingDbIdentifiers = new HashSet<>();
+        mPendingLargePayloadDbIdentifiers = new HashSet<>();
+        mPendingWrites = new ArrayList<>();
         mDatabaseManager = new DatabaseManager(context, DATABASE, TABLE, version, schema, new DatabaseManager.Listener() {
 
             private void createPriorityIndex(SQLiteDatabase db) {
                 db.execSQL("CREATE INDEX `" + INDEX_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_PRIORITY + "`)");
             }
 
+            private void createBatchIndex(SQLiteDatabase db) {
+                db.execSQL("CREATE INDEX `" + INDEX_BATCH + "` ON " + TABLE + " (`" + COLUMN_GROUP + "`, `" + COLUMN_BATCH_ID + "`, `" + COLUMN_PRIORITY + "` DESC)");
+            }
+
+            private void createSharedObjectsTable(SQLiteDatabase db) {
+                SQLiteUtils.createTable(db, SHARED_OBJECTS_TABLE, SHARED_OBJECTS_SCHEMA);
+            }
+
             @Override
             public void onCreate(SQLiteDatabase db) {
                 createPriorityIndex(db);
+                createBatchIndex(db);
+                createSharedObjectsTable(db);
             }
 
             @Override
@@ -205,12 +329,24 @@ public class DatabasePersistence extends Persistence {
                 /*
                  * With version 3.0 of the SDK we decided to remove timestamp column and as
                  * it's a major SDK version and SQLite does not support removing column we just start over.
-                 * When adding a new column in a future version, update this code by something like
-                 * if (oldVersion <= VERSION_TIMESTAMP_COLUMN) {drop/create} else {add missing columns}
+                 * Versions after that only add columns, keeping the stored logs.
                  */
-                SQLiteUtils.dropTable(db, TABLE);
-                SQLiteUtils.createTable(db, TABLE, schema);
-                createPriorityIndex(db);
+                if (oldVersion <= VERSION_TIMESTAMP_COLUMN) {
+                    SQLiteUtils.dropTable(db, TABLE);
+                    SQLiteUtils.createTable(db, TABLE, schema);
+                    createPriorityIndex(db);
+                    createBatchIndex(db);
+                } else {
+                    if (oldVersion < VERSION_BATCH_ID_COLUMN) {
+                        db.execSQL("ALTER TABLE `" + TABLE + "` ADD COLUMN `" + COLUMN_BATCH_ID + "` TEXT");
+                        createBatchIndex(db);
+                    }
+                    if (oldVersion < VERSION_COMPACT_LOG_COLUMNS) {
+                        db.execSQL("ALTER TABLE `" + TABLE + "` ADD COLUMN `" + COLUMN_COMPACT_LOG + "` BLOB");
+                        db.execSQL("ALTER TABLE `" + TABLE + "` ADD COLUMN `" + COLUMN_SHARED_OBJECT_ID + "` INTEGER");
+                    }
+                }
+                createSharedObjectsTable(db);
             }
         });
         mLargePayloadDirectory = new File(Constants.FILES_PATH + PAYLOAD_LARGE_DIRECTORY);
@@ -219,6 +355,30 @@ public class DatabasePersistence extends Persistence {
         mLargePayloadDirectory.mkdirs();
     }
 
+    /**
+     * Get the table schema.
+     *
+     * @return schema.
+     */
+    private static ContentValues getSchema() {
+        ContentValues schema = getContentValues("", "", "", "", "", 0);
+        schema.put(COLUMN_BATCH_ID, "");
+        schema.put(COLUMN_COMPACT_LOG, new byte[0]);
+        schema.put(COLUMN_SHARED_OBJECT_ID, 0L);
+        return schema;
+    }
+
+    /**
+     * Get the schema of {@link #SHARED_OBJECTS_TABLE}.
+     *
+     * @return schema.
+     */
+    private static ContentValues getSharedObjectsSchema() {
+        ContentValues schema = new ContentValues();
+        schema.put(COLUMN_SHARED_OBJECT, "");
+        return schema;
+    }
+
     /**
      * Instantiates {@link ContentValues} with the give values.
      *
@@ -242,20 +402,56 @@ public class DatabasePersistence extends Persistence {
 
     @Override
     public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        flush();
         return mDatabaseManager.setMaxSize(maxStorageSizeInBytes);
     }
 
+    @Override
+    public void setWriteBatchSize(@IntRange(from = 1) int writeBatchSize) {
+        mWriteBatchSize = Math.max(writeBatchSize, 1);
+        if (mPendingWrites.size() >= mWriteBatchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (mPendingWrites.isEmpty()) {
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "Writing {} buffered log(s) to the Persistence database.", mPendingWrites.size());
+        long[] databaseIds = mDatabaseManager.put(mPendingWrites, COLUMN_PRIORITY);
+        mPendingWrites.clear();
+        int failedCount = 0;
+        for (long databaseId : databaseIds) {
+            if (databaseId == -1) {
+                failedCount++;
+            }
+        }
+        if (failedCount > 0) {
+            AppCenterLog.error(LOG_TAG, "Failed to store " + failedCount + " buffered log(s) to the Persistence database.");
+        }
+    }
+
     @Override
     public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
 
         /* Convert log to JSON string and put in the database. */
         try {
-            AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type " + log.getType() + " with flags=" + flags);
-            String payload = getLogSerializer().serializeLog(log);
+            AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type {} with flags={}", log.getType(), flags);
+            String payload = null;
+            CompactLogCodec.EncodedLog encodedLog = null;
             ContentValues contentValues;
+            int payloadSize;
+            if (mCompactStorageEnabled) {
+                encodedLog = getCompactLogCodec().encode(getLogSerializer(), log);
+                payloadSize = encodedLog.getJsonSize();
+            } else {
+                payload = getLogSerializer().serializeLog(log);
 
-            //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
-            int payloadSize = payload.getBytes("UTF-8").length;
+                //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+                payloadSize = payload.getBytes("UTF-8").length;
+            }
             boolean isLargePayload = payloadSize >= PAYLOAD_MAX_SIZE;
             String targetKey;
             String targetToken;
@@ -265,7 +461,7 @@ public class DatabasePersistence extends Persistence {
                 }
                 targetToken = log.getTransmissionTargetTokens().iterator().next();
                 targetKey = PartAUtils.getTargetKey(targetToken);
-                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+                targetToken = mTargetTokenCrypto.encrypt(targetToken);
             } else {
                 targetKey = null;
                 targetToken = null;
@@ -278,12 +474,42 @@ public class DatabasePersistence extends Persistence {
                 throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
                         "Current maximum database size is " + maxSize + " bytes.");
             }
+
+            /* Large payloads are stored as JSON files. */
+            if (isLargePayload && encodedLog != null) {
+                encodedLog = null;
+                payload = getLogSerializer().serializeLog(log);
+            }
             contentValues = getContentValues(group, isLargePayload ? null : payload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false));
+            if (encodedLog != null) {
+                contentValues.put(COLUMN_COMPACT_LOG, encodedLog.getPayload());
+                String sharedObject = encodedLog.getSharedObject();
+                if (sharedObject != null) {
+                    long sharedObjectId = getSharedObjectId(sharedObject);
+                    if (sharedObjectId == -1) {
+                        throw new PersistenceException("Failed to store a shared object to the Persistence database for log type " + log.getType() + ".");
+                    }
+                    contentValues.put(COLUMN_SHARED_OBJECT_ID, sharedObjectId);
+                }
+            }
+
+            /* Buffer the log if writes are batched, large payloads are always written immediately as they need their identifier. */
+            if (mWriteBatchSize > 1 && !isLargePayload) {
+                mPendingWrites.add(contentValues);
+                AppCenterLog.debug(LOG_TAG, "Buffered a log for log type {}, pendingWrites={}", log.getType(), mPendingWrites.size());
+                if (mPendingWrites.size() >= mWriteBatchSize) {
+                    flush();
+                }
+                return PENDING_WRITE_ID;
+            }
+
+            /* Keep insertion order with previously buffered logs. */
+            flush();
             long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
             if (databaseId == -1) {
                 throw new PersistenceException("Failed to store a log to the Persistence database for log type " + log.getType() + ".");
             }
-            AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + log.getType() + " with databaseId=" + databaseId);
+            AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type {} with databaseId={}", log.getType(), databaseId);
             if (isLargePayload) {
                 AppCenterLog.debug(LOG_TAG, "Payload is larger than what SQLite supports, storing payload in a separate file.");
                 File directory = getLargePayloadGroupDirectory(group);
@@ -299,7 +525,7 @@ public class DatabasePersistence extends Persistence {
                     mDatabaseManager.delete(databaseId);
                     throw e;
                 }
-                AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
+                AppCenterLog.debug(LOG_TAG, "Payload written to {}", payloadFile);
             }
             return databaseId;
         } catch (JSONException e) {
@@ -309,6 +535,117 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
+    @NonNull
+    private CompactLogCodec getCompactLogCodec() {
+        if (mCompactLogCodec == null) {
+            mCompactLogCodec = new CompactLogCodec();
+        }
+        return mCompactLogCodec;
+    }
+
+    /**
+     * Get the identifier of a shared object, storing it if it's not stored yet.
+     *
+     * @param sharedObject JSON object.
+     * @return identifier in {@link #SHARED_OBJECTS_TABLE} or -1 if the object could not be stored.
+     */
+    private long getSharedObjectId(@NonNull String sharedObject) {
+        Long id = mSharedObjectIds.get(sharedObject);
+        if (id == null) {
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(COLUMN_SHARED_OBJECT + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(SHARED_OBJECTS_TABLE, builder, SELECT_PRIMARY_KEY, new String[]{sharedObject}, null, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        id = cursor.getLong(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get shared object: ", e);
+            }
+            if (id == null) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_SHARED_OBJECT, sharedObject);
+                id = mDatabaseManager.put(SHARED_OBJECTS_TABLE, values);
+                if (id == -1) {
+                    return id;
+                }
+                AppCenterLog.debug(LOG_TAG, "Stored a shared object with id={}", id);
+            }
+            mSharedObjectIds.put(sharedObject, id);
+            mSharedObjects.put(id, sharedObject);
+        }
+        return id;
+    }
+
+    /**
+     * Get a shared object.
+     *
+     * @param id identifier in {@link #SHARED_OBJECTS_TABLE}.
+     * @return JSON object or null if not found.
+     */
+    @Nullable
+    private String getSharedObject(long id) {
+        String sharedObject = mSharedObjects.get(id);
+        if (sharedObject == null) {
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(SHARED_OBJECTS_TABLE, builder, new String[]{COLUMN_SHARED_OBJECT}, new String[]{String.valueOf(id)}, null, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        sharedObject = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get shared object: ", e);
+            }
+            if (sharedObject != null) {
+                mSharedObjectIds.put(sharedObject, id);
+                mSharedObjects.put(id, sharedObject);
+            }
+        }
+        return sharedObject;
+    }
+
+    /**
+     * Delete shared objects that are not used by any log anymore.
+     */
+    private void deleteUnusedSharedObjects() {
+        int deletedCount = mDatabaseManager.delete(SHARED_OBJECTS_TABLE, PRIMARY_KEY + " NOT IN (SELECT " + COLUMN_SHARED_OBJECT_ID + " FROM " + TABLE + " WHERE " + COLUMN_SHARED_OBJECT_ID + " IS NOT NULL)", null);
+        if (deletedCount > 0) {
+            AppCenterLog.debug(LOG_TAG, "Deleted {} unused shared objects.", deletedCount);
+            mSharedObjectIds.clear();
+            mSharedObjects.clear();
+        }
+    }
+
+    /**
+     * Read a compact log.
+     *
+     * @param values  database row.
+     * @param payload compact log.
+     * @return log.
+     * @throws JSONException if the log cannot be decoded.
+     */
+    @NonNull
+    private Log readCompactLog(@NonNull ContentValues values, @NonNull byte[] payload) throws JSONException {
+        String sharedObject = null;
+        Long sharedObjectId = values.getAsLong(COLUMN_SHARED_OBJECT_ID);
+        if (sharedObjectId != null) {
+            sharedObject = getSharedObject(sharedObjectId);
+            if (sharedObject == null) {
+                throw new JSONException("Shared object " + sharedObjectId + " not found.");
+            }
+        }
+        return getCompactLogCodec().decode(getLogSerializer(), payload, values.getAsString(COLUMN_DATA_TYPE), sharedObject);
+    }
+
     @NonNull
     @VisibleForTesting
     File getLargePayloadGroupDirectory(String group) {
@@ -332,17 +669,25 @@ public class DatabasePersistence extends Persistence {
     public void deleteLogs(@NonNull String group, @NonNull String id) {
 
         /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence database for " + group + " with " + id);
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence database for {} with {}", group, id);
         AppCenterLog.debug(LOG_TAG, "The IDs for deleting log(s) is/are:");
 
-        /* Delete logs. */
+        /* Delete logs in a single transaction, only looking for payload files for logs that have one. */
         List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
-        File directory = getLargePayloadGroupDirectory(group);
         if (dbIdentifiers != null) {
+            mDatabaseManager.delete(dbIdentifiers);
+            File directory = null;
             for (Long dbIdentifier : dbIdentifiers) {
-                AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
-                deleteLog(directory, dbIdentifier);
+                AppCenterLog.debug(LOG_TAG, "\t{}", dbIdentifier);
                 mPendingDbIdentifiers.remove(dbIdentifier);
+                if (mPendingLargePayloadDbIdentifiers.remove(dbIdentifier)) {
+                    if (directory == null) {
+                        directory = getLargePayloadGroupDirectory(group);
+                    }
+
+                    //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
+                    getLargePayloadFile(directory, dbIdentifier).delete();
+                }
             }
         }
     }
@@ -351,7 +696,10 @@ public class DatabasePersistence extends Persistence {
     public void deleteLogs(String group) {
 
         /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the Persistence database for " + group);
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the Persistence database for {}", group);
+
+        /* Write buffered logs first so that they are deleted as well. */
+        flush();
 
         /* Delete large payload files. */
         File directory = getLargePayloadGroupDirectory(group);
@@ -369,12 +717,18 @@ public class DatabasePersistence extends Persistence {
 
         /* Delete from database. */
         int deletedCount = mDatabaseManager.delete(COLUMN_GROUP, group);
-        AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs.");
-
-        /* Delete from pending state. */
-        for (Iterator<String> iterator = mPendingDbIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
-            String key = iterator.next();
-            if (key.startsWith(group)) {
+        AppCenterLog.debug(LOG_TAG, "Deleted {} logs.", deletedCount);
+        deleteUnusedSharedObjects();
+
+        /* Delete from pending state, batch identifiers are UUIDs: don't match groups sharing the prefix. */
+        for (Iterator<Map.Entry<String, List<Long>>> iterator = mPendingDbIdentifiersGroups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Long>> entry = iterator.next();
+            String key = entry.getKey();
+            if (key.startsWith(group) && key.length() == group.length() + BATCH_ID_LENGTH) {
+                for (Long dbIdentifier : entry.getValue()) {
+                    mPendingDbIdentifiers.remove(dbIdentifier);
+                    mPendingLargePayloadDbIdentifiers.remove(dbIdentifier);
+                }
                 iterator.remove();
             }
         }
@@ -383,6 +737,9 @@ public class DatabasePersistence extends Persistence {
     @Override
     public int countLogs(@NonNull String group) {
 
+        /* Buffered logs must be counted. */
+        flush();
+
         /* Query database and get scanner. */
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
         builder.appendWhere(COLUMN_GROUP + " = ?");
@@ -404,13 +761,29 @@ public class DatabasePersistence extends Persistence {
     @Override
     @Nullable
     public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        return getLogs(group, pausedTargetKeys, limit, outLogs, null);
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads) {
 
         /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence database for " + group);
+        AppCenterLog.debug(LOG_TAG, "Trying to get {} logs from the Persistence database for {}", limit, group);
+
+        /* Make buffered logs visible to the query. */
+        flush();
+
+        /* Logs that were pending when the previous process stopped are not pending anymore. */
+        if (!mBatchIdsCleared) {
+            clearBatchIds();
+            deleteUnusedSharedObjects();
+            mBatchIdsCleared = true;
+        }
 
-        /* Query database. */
+        /* Query database, pending logs are excluded by the query. */
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
-        builder.appendWhere(COLUMN_GROUP + " = ?");
+        builder.appendWhere(COLUMN_GROUP + " = ? AND " + COLUMN_BATCH_ID + " IS NULL");
         List<String> selectionArgs = new ArrayList<>();
         selectionArgs.add(group);
         if (!pausedTargetKeys.isEmpty()) {
@@ -427,13 +800,15 @@ public class DatabasePersistence extends Persistence {
         /* Add logs to output parameter after deserialization if logs are not already sent. */
         int count = 0;
         Map<Long, Log> candidates = new LinkedHashMap<>();
+        List<String> candidatePayloads = new ArrayList<>();
+        List<Long> candidateLargePayloadDbIdentifiers = new ArrayList<>();
         List<Long> failedDbIdentifiers = new ArrayList<>();
         File largePayloadGroupDirectory = getLargePayloadGroupDirectory(group);
         String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
         Cursor cursor = null;
         ContentValues values;
         try {
-            cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER);
+            cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER, String.valueOf(limit));
         } catch (RuntimeException e) {
             AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
         }
@@ -469,29 +844,49 @@ public class DatabasePersistence extends Persistence {
 
                     /* Deserialize JSON to Log. */
                     String logPayload;
+                    Log log = null;
                     String databasePayload = values.getAsString(COLUMN_LOG);
-                    if (databasePayload == null) {
-                        File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
-                        AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
-                        logPayload = FileManager.read(file);
-                        if (logPayload == null) {
-                            throw new JSONException("Log payload is null and not stored as a file.");
-                        }
+                    byte[] compactPayload = values.getAsByteArray(COLUMN_COMPACT_LOG);
+                    if (compactPayload != null) {
+
+                        /* Rebuild the JSON from the log if needed. */
+                        log = readCompactLog(values, compactPayload);
+                        logPayload = outPayloads != null ? getLogSerializer().serializeLog(log) : null;
                     } else {
-                        logPayload = databasePayload;
+                        if (databasePayload == null) {
+                            File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
+                            AppCenterLog.debug(LOG_TAG, "Read payload file {}", file);
+                            logPayload = FileManager.read(file);
+                            if (logPayload == null) {
+                                throw new JSONException("Log payload is null and not stored as a file.");
+                            }
+                        } else {
+                            logPayload = databasePayload;
+                        }
+                        String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
+                        if (outLogs != null) {
+                            log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
+                        } else {
+
+                            /* Stored payloads are sent as is: don't let a corrupted one fail the whole batch. */
+                            getLogSerializer().validateLog(logPayload, databasePayloadType);
+                        }
                     }
-                    String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
-                    Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
 
                     /* Restore target token. */
-                    String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
-                    if (targetToken != null) {
-                        CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken);
-                        log.addTransmissionTarget(data.getDecryptedData());
+                    if (outLogs != null) {
+                        String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
+                        if (targetToken != null) {
+                            log.addTransmissionTarget(mTargetTokenCrypto.decrypt(targetToken));
+                        }
                     }
 
                     /* Add log to list and count. */
+                    if (databasePayload == null && compactPayload == null) {
+                        candidateLargePayloadDbIdentifiers.add(dbIdentifier);
+                    }
                     candidates.put(dbIdentifier, log);
+                    candidatePayloads.add(logPayload);
                     count++;
                 } catch (JSONException e) {
 
@@ -528,7 +923,7 @@ public class DatabasePersistence extends Persistence {
         String id = UUID.randomUUID().toString();
 
         /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        AppCenterLog.debug(LOG_TAG, "Returning {} log(s) with an ID, {}", candidates.size(), id);
         AppCenterLog.debug(LOG_TAG, "The SID/ID pairs for returning log(s) is/are:");
         List<Long> pendingDbIdentifiersGroup = new ArrayList<>();
         for (Map.Entry<Long, Log> entry : candidates.entrySet()) {
@@ -541,11 +936,24 @@ public class DatabasePersistence extends Persistence {
             pendingDbIdentifiersGroup.add(dbIdentifier);
 
             /* Add to output parameter. */
-            outLogs.add(entry.getValue());
+            if (outLogs != null) {
+                outLogs.add(entry.getValue());
 
-            /* Log. */
-            AppCenterLog.debug(LOG_TAG, "\t" + entry.getValue().getSid() + " / " + dbIdentifier);
+                /* Log. */
+                AppCenterLog.debug(LOG_TAG, "\t{} / {}", entry.getValue().getSid(), dbIdentifier);
+            } else {
+                AppCenterLog.debug(LOG_TAG, "\t{}", dbIdentifier);
+            }
+        }
+        if (outPayloads != null) {
+            outPayloads.addAll(candidatePayloads);
         }
+        mPendingLargePayloadDbIdentifiers.addAll(candidateLargePayloadDbIdentifiers);
+
+        /* Persist pending state so that next queries skip these logs. */
+        ContentValues batchValues = new ContentValues();
+        batchValues.put(COLUMN_BATCH_ID, id);
+        mDatabaseManager.update(batchValues, pendingDbIdentifiersGroup);
 
         /* Update pending IDs. */
         mPendingDbIdentifiersGroups.put(group + id, pendingDbIdentifiersGroup);
@@ -556,11 +964,27 @@ public class DatabasePersistence extends Persistence {
     public void clearPendingLogState() {
         mPendingDbIdentifiers.clear();
         mPendingDbIdentifiersGroups.clear();
+        mPendingLargePayloadDbIdentifiers.clear();
+        clearBatchIds();
         AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
     }
 
+    /**
+     * Mark all logs as not pending in the database.
+     */
+    private void clearBatchIds() {
+        ContentValues values = new ContentValues();
+        values.putNull(COLUMN_BATCH_ID);
+        mDatabaseManager.update(values, COLUMN_BATCH_ID + " IS NOT NULL", null);
+    }
+
     @Override
     public void close() {
+        flush();
+        if (mCompactLogCodec != null) {
+            mCompactLogCodec.close();
+            mCompactLogCodec = null;
+        }
         mDatabaseManager.close();
     }
 
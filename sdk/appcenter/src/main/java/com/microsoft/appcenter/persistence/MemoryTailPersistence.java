@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
+
+/**
+ * Keeps the most recent logs of selected groups and priorities in memory in front of a storage,
+ * so that logs sent shortly after being enqueued are never written to the storage.
+ * <p>
+ * Durability: the logs of a group are kept in memory only for the priorities set by
+ * {@link #setMemoryPriorities(String, int)}, all the other logs are written to the storage
+ * immediately. Logs kept in memory are written to the storage when a batch fails, on
+ * {@link #flush()}, when they get older than the maximum age or when the maximum number of logs
+ * in memory is exceeded. Logs kept in memory, including the ones being sent, are lost if the
+ * process is killed before any of these events.
+ * <p>
+ * Stored logs are returned before logs kept in memory. Not thread safe, used only in background.
+ */
+public class MemoryTailPersistence extends Persistence {
+
+    /**
+     * Storage behind the memory tail.
+     */
+    private final Persistence mStorage;
+
+    /**
+     * Maximum number of logs kept in memory, 0 if disabled.
+     */
+    private int mMaxLogs;
+
+    /**
+     * Maximum time a log can stay in memory before being stored, in ms.
+     */
+    private long mMaxAge;
+
+    /**
+     * Priorities kept in memory by group name.
+     */
+    private final Map<String, Integer> mMemoryPriorities = new HashMap<>();
+
+    /**
+     * Logs kept in memory not being sent yet, by group name, oldest first.
+     */
+    private final Map<String, LinkedList<MemoryLog>> mTails = new HashMap<>();
+
+    /**
+     * Logs kept in memory being sent, by batch identifier.
+     */
+    private final Map<String, List<MemoryLog>> mPendingBatches = new HashMap<>();
+
+    /**
+     * Number of logs kept in memory, including the ones being sent.
+     */
+    private int mLogCount;
+
+    /**
+     * Groups known to have no log in the storage that can be returned, to avoid querying it.
+     */
+    private final Set<String> mGroupsWithoutStoredLogs = new HashSet<>();
+
+    /**
+     * Init.
+     *
+     * @param storage storage behind the memory tail, the log serializer of the storage is used.
+     */
+    public MemoryTailPersistence(@NonNull Persistence storage) {
+        mStorage = storage;
+    }
+
+    /**
+     * Get the storage behind the memory tail.
+     *
+     * @return the storage.
+     */
+    @NonNull
+    public Persistence getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Set the limits of the logs kept in memory.
+     *
+     * @param maxLogs maximum number of logs kept in memory, 0 to store every log immediately.
+     * @param maxAge  maximum time a log can stay in memory before being stored, in ms.
+     */
+    public void setLimits(@IntRange(from = 0) int maxLogs, long maxAge) {
+        mMaxLogs = Math.max(maxLogs, 0);
+        mMaxAge = maxAge;
+        if (mMaxLogs == 0) {
+            flush();
+            mGroupsWithoutStoredLogs.clear();
+        } else if (getTailLogCount() > mMaxLogs) {
+            flush();
+        }
+    }
+
+    /**
+     * Set the priorities of the logs of a group that can be kept in memory.
+     *
+     * @param group      the group of the logs.
+     * @param priorities combination of {@link Flags#NORMAL} and {@link Flags#CRITICAL}, 0 to store every log of the group immediately (default).
+     */
+    public void setMemoryPriorities(@NonNull String group, int priorities) {
+        if (priorities == 0) {
+            mMemoryPriorities.remove(group);
+        } else {
+            mMemoryPriorities.put(group, priorities);
+        }
+    }
+
+    /**
+     * Store the logs kept in memory for longer than the maximum age.
+     *
+     * @return the delay until the oldest remaining log in memory gets older than the maximum age, in ms, or -1 if no log remains.
+     */
+    public long spillExpiredLogs() {
+        long now = System.currentTimeMillis();
+        if (spillLogs(now - mMaxAge)) {
+            mStorage.flush();
+        }
+        long oldestTime = Long.MAX_VALUE;
+        for (LinkedList<MemoryLog> tail : mTails.values()) {
+            if (!tail.isEmpty()) {
+                oldestTime = Math.min(oldestTime, tail.getFirst().mTime);
+            }
+        }
+        return oldestTime == Long.MAX_VALUE ? -1 : Math.max(oldestTime + mMaxAge - now, 1);
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        Integer priorities = mMemoryPriorities.get(group);
+        if (mMaxLogs == 0 || priorities == null || (priorities & Flags.getPersistenceFlag(flags, false)) == 0) {
+            mGroupsWithoutStoredLogs.remove(group);
+            return mStorage.putLog(log, group, flags);
+        }
+        LinkedList<MemoryLog> tail = mTails.get(group);
+        if (tail == null) {
+            tail = new LinkedList<>();
+            mTails.put(group, tail);
+        }
+        tail.add(new MemoryLog(log, group, flags));
+        mLogCount++;
+        AppCenterLog.debug(LOG_TAG, "Kept a log in memory for log type {}, memoryLogs={}", log.getType(), mLogCount);
+
+        /* Store the logs not being sent when the memory is full. */
+        if (mLogCount > mMaxLogs) {
+            flush();
+        }
+        return PENDING_WRITE_ID;
+    }
+
+    @Override
+    public void setWriteBatchSize(@IntRange(from = 1) int writeBatchSize) {
+        mStorage.setWriteBatchSize(writeBatchSize);
+    }
+
+    /**
+     * Store all the logs kept in memory that are not being sent, then write the logs buffered by the storage.
+     */
+    @Override
+    public void flush() {
+        spillLogs(Long.MAX_VALUE);
+        mStorage.flush();
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String batchId) {
+        List<MemoryLog> batch = mPendingBatches.remove(batchId);
+        if (batch != null) {
+            mLogCount -= batch.size();
+        } else {
+            mStorage.deleteLogs(group, batchId);
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        LinkedList<MemoryLog> tail = mTails.remove(group);
+        if (tail != null) {
+            mLogCount -= tail.size();
+        }
+        for (Iterator<List<MemoryLog>> iterator = mPendingBatches.values().iterator(); iterator.hasNext(); ) {
+            List<MemoryLog> batch = iterator.next();
+            if (batch.get(0).mGroup.equals(group)) {
+                mLogCount -= batch.size();
+                iterator.remove();
+            }
+        }
+        mStorage.deleteLogs(group);
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        int count = mStorage.countLogs(group);
+        LinkedList<MemoryLog> tail = mTails.get(group);
+        if (tail != null) {
+            count += tail.size();
+        }
+        for (List<MemoryLog> batch : mPendingBatches.values()) {
+            if (batch.get(0).mGroup.equals(group)) {
+                count += batch.size();
+            }
+        }
+        return count;
+    }
+
+    @Nullable
+    @Override
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        if (!mGroupsWithoutStoredLogs.contains(group)) {
+            String batchId = mStorage.getLogs(group, pausedTargetKeys, limit, outLogs);
+            if (batchId != null || !checkStorageEmpty(group, pausedTargetKeys)) {
+                return batchId;
+            }
+        }
+        return getMemoryLogs(group, pausedTargetKeys, limit, outLogs, null);
+    }
+
+    @Nullable
+    @Override
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads) {
+        if (!mGroupsWithoutStoredLogs.contains(group)) {
+            String batchId = mStorage.getLogs(group, pausedTargetKeys, limit, outLogs, outPayloads);
+            if (batchId != null || !checkStorageEmpty(group, pausedTargetKeys)) {
+                return batchId;
+            }
+        }
+        return getMemoryLogs(group, pausedTargetKeys, limit, outLogs, outPayloads);
+    }
+
+    /**
+     * Remember that the storage returned no log for a group, if the memory tail is enabled.
+     *
+     * @param group            the group of the logs.
+     * @param pausedTargetKeys target keys excluded from the query.
+     * @return true if the logs kept in memory can be returned, false if the memory tail is disabled.
+     */
+    private boolean checkStorageEmpty(@NonNull String group, @NonNull Collection<String> pausedTargetKeys) {
+        if (mMaxLogs == 0) {
+            return false;
+        }
+
+        /* Logs of paused targets might remain in the storage. */
+        if (pausedTargetKeys.isEmpty()) {
+            mGroupsWithoutStoredLogs.add(group);
+        }
+        return true;
+    }
+
+    /**
+     * Get a batch of logs kept in memory.
+     *
+     * @param group            the group of the logs.
+     * @param pausedTargetKeys target keys to exclude.
+     * @param limit            the max number of logs to be returned.
+     * @param outLogs          a list to receive the logs, or null.
+     * @param outPayloads      a list to receive the JSON payload of each log, or null.
+     * @return the batch identifier, or null if no log is kept in memory for the group.
+     */
+    @Nullable
+    private String getMemoryLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, int limit, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads) {
+        LinkedList<MemoryLog> tail = mTails.get(group);
+        if (tail == null) {
+            return null;
+        }
+        List<MemoryLog> batch = new ArrayList<>(Math.min(limit, tail.size()));
+        for (Iterator<MemoryLog> iterator = tail.iterator(); iterator.hasNext() && batch.size() < limit; ) {
+            MemoryLog memoryLog = iterator.next();
+            if (pausedTargetKeys.contains(memoryLog.mTargetKey)) {
+                continue;
+            }
+            iterator.remove();
+            if (outPayloads != null) {
+                try {
+                    outPayloads.add(getLogSerializer().serializeLog(memoryLog.mLog));
+                } catch (JSONException e) {
+                    AppCenterLog.error(LOG_TAG, "Cannot serialize a log kept in memory, discarding it.", e);
+                    mLogCount--;
+                    continue;
+                }
+            }
+            if (outLogs != null) {
+                outLogs.add(memoryLog.mLog);
+            }
+            batch.add(memoryLog);
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+        String batchId = UUID.randomUUID().toString();
+        mPendingBatches.put(batchId, batch);
+        AppCenterLog.debug(LOG_TAG, "Returning {} log(s) kept in memory with batchId={}", batch.size(), batchId);
+        return batchId;
+    }
+
+    /**
+     * Store the logs kept in memory of the batches being sent, as they failed, and make the stored logs available again.
+     */
+    @Override
+    public void clearPendingLogState() {
+        mStorage.clearPendingLogState();
+        mGroupsWithoutStoredLogs.clear();
+        for (List<MemoryLog> batch : mPendingBatches.values()) {
+            mLogCount -= batch.size();
+            for (MemoryLog memoryLog : batch) {
+                storeLog(memoryLog);
+            }
+        }
+        mPendingBatches.clear();
+        mStorage.flush();
+    }
+
+    @Override
+    LogSerializer getLogSerializer() {
+        return mStorage.getLogSerializer();
+    }
+
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        return mStorage.setMaxStorageSize(maxStorageSizeInBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        mStorage.close();
+    }
+
+    /**
+     * Store the logs kept in memory, not being sent, since the given time or before.
+     *
+     * The storage is not flushed.
+     *
+     * @param maxTime the time of the most recent log to store, {@link Long#MAX_VALUE} to store all of them.
+     * @return true if any log was stored, false otherwise.
+     */
+    private boolean spillLogs(long maxTime) {
+        int count = 0;
+        for (LinkedList<MemoryLog> tail : mTails.values()) {
+            while (!tail.isEmpty() && tail.getFirst().mTime <= maxTime) {
+                storeLog(tail.removeFirst());
+                count++;
+            }
+        }
+        if (count > 0) {
+            mLogCount -= count;
+            AppCenterLog.debug(LOG_TAG, "Stored {} log(s) kept in memory", count);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write a log kept in memory to the storage.
+     *
+     * @param memoryLog the log.
+     */
+    private void storeLog(@NonNull MemoryLog memoryLog) {
+        try {
+            mStorage.putLog(memoryLog.mLog, memoryLog.mGroup, memoryLog.mFlags);
+            mGroupsWithoutStoredLogs.remove(memoryLog.mGroup);
+        } catch (PersistenceException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to store a log kept in memory.", e);
+        }
+    }
+
+    /**
+     * Get the number of logs kept in memory that are not being sent.
+     *
+     * @return the number of logs.
+     */
+    @VisibleForTesting
+    int getTailLogCount() {
+        int count = 0;
+        for (LinkedList<MemoryLog> tail : mTails.values()) {
+            count += tail.size();
+        }
+        return count;
+    }
+
+    /**
+     * A log kept in memory.
+     */
+    private static class MemoryLog {
+
+        /**
+         * Log.
+         */
+        final Log mLog;
+
+        /**
+         * Group of the log.
+         */
+        final String mGroup;
+
+        /**
+         * Flags the log was enqueued with.
+         */
+        final int mFlags;
+
+        /**
+         * Target key of Common Schema logs, null for other logs.
+         */
+        final String mTargetKey;
+
+        /**
+         * Time the log was kept in memory.
+         */
+        final long mTime;
+
+        /**
+         * Init.
+         *
+         * @param log   log.
+         * @param group group of the log.
+         * @param flags flags the log was enqueued with.
+         */
+        MemoryLog(Log log, String group, int flags) {
+            mLog = log;
+            mGroup = group;
+            mFlags = flags;
+            mTargetKey = log instanceof CommonSchemaLog ? PartAUtils.getTargetKey(log.getTransmissionTargetTokens().iterator().next()) : null;
+            mTime = System.currentTimeMillis();
+        }
+    }
+}
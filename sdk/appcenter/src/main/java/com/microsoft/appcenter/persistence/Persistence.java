@@ -28,18 +28,44 @@ public abstract class Persistence implements Closeable {
      */
     private LogSerializer mLogSerializer;
 
+    /**
+     * Identifier returned by {@link #putLog(Log, String, int)} when the log is buffered
+     * and will be written to the storage by the next {@link #flush()}.
+     */
+    public static final long PENDING_WRITE_ID = 0;
+
+    /**
+     * Size limit (in bytes) for a stored log payload, which is also the maximum payload size supported by OneCollector.
+     * Larger payloads are stored in a separate file, or rejected for Common Schema logs.
+     */
+    static final int PAYLOAD_MAX_SIZE = (int) (1.9 * 1024 * 1024);
+
     /**
      * Writes a log to the storage with the given {@code group}.
      *
      * @param log   The log to be placed in the storage.
      * @param group The group of the storage for the log.
      * @param flags The persistence flags.
-     * @return Log identifier from persistence after saving.
+     * @return Log identifier from persistence after saving, or {@link #PENDING_WRITE_ID} if write is buffered.
      * @throws PersistenceException Exception will be thrown if Persistence cannot write a log to the storage.
      */
     public abstract long putLog(@NonNull Log log, @NonNull String group,
                                 @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException;
 
+    /**
+     * Sets the maximum number of logs that {@link #putLog(Log, String, int)} can buffer in memory
+     * before writing all of them to the storage at once.
+     * Any read or delete operation writes the buffered logs first.
+     *
+     * @param writeBatchSize The maximum number of buffered logs, 1 to write every log immediately.
+     */
+    public abstract void setWriteBatchSize(@IntRange(from = 1) int writeBatchSize);
+
+    /**
+     * Writes the logs buffered by {@link #putLog(Log, String, int)} to the storage.
+     */
+    public abstract void flush();
+
     /**
      * Deletes a log with the give ID from the {@code group}.
      *
@@ -75,6 +101,20 @@ public abstract class Persistence implements Closeable {
     @Nullable
     public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs);
 
+    /**
+     * Gets an array of logs for the given {@code group} along with their stored JSON payloads.
+     * Logs are deserialized only if {@code outLogs} is not null.
+     *
+     * @param group            The group of the storage for logs.
+     * @param pausedTargetKeys List of target token keys to exclude from the log query.
+     * @param limit            The max number of logs to be returned.
+     * @param outLogs          A list to receive {@link Log} objects, or null to skip deserialization.
+     * @param outPayloads      A list to receive the JSON payload of each log in the same order as {@code outLogs}, or null.
+     * @return An ID for the returned logs. {@code null} if no logs exist.
+     */
+    @Nullable
+    public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads);
+
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, Collection, int, List)}}.
      */
@@ -0,0 +1,912 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence storing logs in append-only segment files that are memory mapped.
+ * <p>
+ * Storing a log is a copy into the mapped memory of the last segment, there is no SQL
+ * statement to compile or transaction to commit. An in-memory index rebuilt from the segments
+ * at startup answers queries. Deleted records are only flagged in place, the disk space is
+ * released when all the records of a segment are deleted and the segment file is removed.
+ * <p>
+ * Logs stored with {@link DatabasePersistence} are not migrated to this persistence.
+ */
+public class SegmentFilePersistence extends Persistence {
+
+    /**
+     * Sub path for the directory where to store segment files.
+     */
+    @VisibleForTesting
+    static final String DIRECTORY = "/appcenter/log_segments";
+
+    /**
+     * Segment file extension.
+     */
+    @VisibleForTesting
+    static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+    /**
+     * Default size of a segment file in bytes, a larger record gets its own segment of the exact size.
+     */
+    @VisibleForTesting
+    static final int SEGMENT_SIZE = 128 * 1024;
+
+    /**
+     * Default maximum storage size in bytes, same as the SQLite database.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_MAX_STORAGE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Record state of a stored log.
+     */
+    private static final byte STATE_LIVE = 1;
+
+    /**
+     * Record state of a deleted log.
+     */
+    private static final byte STATE_DELETED = 2;
+
+    /**
+     * Size of the record length prefix, a record is committed when its length is written.
+     */
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * Size of a record header after the length: state, priority and identifier.
+     */
+    private static final int HEADER_SIZE = 1 + 1 + 8;
+
+    /**
+     * Order in which logs are read: highest priority first then oldest first.
+     */
+    private static final Comparator<Entry> READ_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry left, Entry right) {
+            if (left.mPriority != right.mPriority) {
+                return right.mPriority - left.mPriority;
+            }
+            return compareIds(left, right);
+        }
+    };
+
+    /**
+     * Order in which logs are evicted when storage is full: lowest priority first then oldest first.
+     */
+    private static final Comparator<Entry> EVICTION_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry left, Entry right) {
+            if (left.mPriority != right.mPriority) {
+                return left.mPriority - right.mPriority;
+            }
+            return compareIds(left, right);
+        }
+    };
+
+    /**
+     * Pending log groups. Key is a UUID and value is a list of log identifiers.
+     */
+    @VisibleForTesting
+    final Map<String, List<Long>> mPendingIdentifiersGroups = new HashMap<>();
+
+    /**
+     * Pending logs across all groups.
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingIdentifiers = new HashSet<>();
+
+    /**
+     * Segments ordered by sequence number, the last one receives new records.
+     */
+    @VisibleForTesting
+    final List<Segment> mSegments = new ArrayList<>();
+
+    /**
+     * Stored logs by identifier.
+     */
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Stored logs by group, in read order.
+     */
+    private final Map<String, TreeSet<Entry>> mGroupEntries = new HashMap<>();
+
+    /**
+     * All stored logs, in eviction order.
+     */
+    private final TreeSet<Entry> mEvictionEntries = new TreeSet<>(EVICTION_ORDER);
+
+    /**
+     * Target token encryption.
+     */
+    private final TargetTokenCrypto mTargetTokenCrypto;
+
+    /**
+     * Directory containing the segment files.
+     */
+    private final File mDirectory;
+
+    /**
+     * Maximum size of all segment files.
+     */
+    private long mMaxStorageSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Current size of all segment files.
+     */
+    private long mStorageSize;
+
+    /**
+     * Identifier of the next stored log.
+     */
+    private long mNextId = PENDING_WRITE_ID + 1;
+
+    /**
+     * Sequence number of the next segment file.
+     */
+    private long mNextSequence;
+
+    /**
+     * Initializes the persistence and loads the existing segment files.
+     *
+     * @param context application context.
+     */
+    public SegmentFilePersistence(Context context) {
+        this(context, new File(Constants.FILES_PATH + DIRECTORY));
+    }
+
+    /**
+     * Initializes the persistence and loads the existing segment files.
+     *
+     * @param context   application context.
+     * @param directory directory containing the segment files.
+     */
+    @VisibleForTesting
+    SegmentFilePersistence(Context context, File directory) {
+        mTargetTokenCrypto = new TargetTokenCrypto(context);
+        mDirectory = directory;
+
+        //noinspection ResultOfMethodCallIgnored we'll get an error anyway when creating a segment.
+        mDirectory.mkdirs();
+        loadSegments();
+    }
+
+    /**
+     * Compare log identifiers.
+     *
+     * @param left  an entry.
+     * @param right another entry.
+     * @return comparison result.
+     */
+    private static int compareIds(Entry left, Entry right) {
+        return left.mId < right.mId ? -1 : (left.mId == right.mId ? 0 : 1);
+    }
+
+    /**
+     * Get the sequence number of a segment file.
+     *
+     * @param file segment file.
+     * @return sequence number or -1 if the file is not a segment file.
+     */
+    private static long getSequence(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_FILE_EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the UTF-8 bytes of an optional string.
+     *
+     * @param value string.
+     * @return bytes or null.
+     * @throws IOException if encoding is not supported.
+     */
+    private static byte[] toBytes(String value) throws IOException {
+
+        //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+        return value == null ? null : value.getBytes("UTF-8");
+    }
+
+    /**
+     * Get the size of a string field in a record.
+     *
+     * @param value string bytes or null.
+     * @return size in bytes.
+     */
+    private static int fieldSize(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Write a string field at the current position of a buffer.
+     *
+     * @param buffer buffer.
+     * @param value  string bytes or null.
+     */
+    private static void writeField(MappedByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
+    /**
+     * Read a string field at the current position of a buffer.
+     *
+     * @param buffer buffer.
+     * @return string or null.
+     * @throws IOException if the field is corrupted.
+     */
+    private static String readField(MappedByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid field length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Skip a string field at the current position of a buffer.
+     *
+     * @param buffer buffer.
+     * @throws IOException if the field is corrupted.
+     */
+    private static void skipField(MappedByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid field length " + length);
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Map the segment files found in the directory and index their live records.
+     */
+    private void loadSegments() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File left, File right) {
+                long leftSequence = getSequence(left);
+                long rightSequence = getSequence(right);
+                return leftSequence < rightSequence ? -1 : (leftSequence == rightSequence ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            long sequence = getSequence(file);
+            if (sequence < 0) {
+                continue;
+            }
+            mNextSequence = sequence + 1;
+            try {
+                Segment segment = new Segment(file, file.length());
+                mSegments.add(segment);
+                mStorageSize += segment.mBuffer.capacity();
+                scanSegment(segment);
+                if (segment.mLiveCount == 0) {
+                    removeSegment(segment);
+                }
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to load log segment " + file, e);
+
+                //noinspection ResultOfMethodCallIgnored the file is unusable.
+                file.delete();
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mEntries.size() + " log(s) from " + mSegments.size() + " segment(s).");
+    }
+
+    /**
+     * Index the live records of a segment and find where to append new records.
+     *
+     * @param segment segment.
+     */
+    private void scanSegment(Segment segment) {
+        MappedByteBuffer buffer = segment.mBuffer;
+        int position = 0;
+        while (position + LENGTH_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+
+            /* Stop appending to a segment with a torn or corrupted record. */
+            if (length < HEADER_SIZE || length > buffer.capacity() - position - LENGTH_SIZE) {
+                AppCenterLog.error(LOG_TAG, "Corrupted record in log segment " + segment.mFile + " at offset " + position);
+                position = buffer.capacity();
+                break;
+            }
+            byte state = buffer.get(position + LENGTH_SIZE);
+            if (state == STATE_LIVE) {
+                try {
+                    buffer.position(position + LENGTH_SIZE + 1);
+                    int priority = buffer.get();
+                    long id = buffer.getLong();
+                    String group = readField(buffer);
+                    skipField(buffer);
+                    String targetKey = readField(buffer);
+                    if (group != null) {
+                        addEntry(new Entry(id, group, priority, targetKey, segment, position));
+                        mNextId = Math.max(mNextId, id + 1);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    AppCenterLog.error(LOG_TAG, "Corrupted record in log segment " + segment.mFile + " at offset " + position, e);
+                    buffer.put(position + LENGTH_SIZE, STATE_DELETED);
+                }
+            }
+            position += LENGTH_SIZE + length;
+        }
+        segment.mWritePosition = position;
+    }
+
+    /**
+     * Add a log to the index.
+     *
+     * @param entry log entry.
+     */
+    private void addEntry(Entry entry) {
+        mEntries.put(entry.mId, entry);
+        TreeSet<Entry> groupEntries = mGroupEntries.get(entry.mGroup);
+        if (groupEntries == null) {
+            groupEntries = new TreeSet<>(READ_ORDER);
+            mGroupEntries.put(entry.mGroup, groupEntries);
+        }
+        groupEntries.add(entry);
+        mEvictionEntries.add(entry);
+        entry.mSegment.mLiveCount++;
+    }
+
+    /**
+     * Delete a log: flag the record as deleted, remove it from the index and
+     * remove its segment file if it has no live record anymore.
+     *
+     * @param id log identifier.
+     */
+    private void deleteLog(long id) {
+        Entry entry = mEntries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        TreeSet<Entry> groupEntries = mGroupEntries.get(entry.mGroup);
+        groupEntries.remove(entry);
+        if (groupEntries.isEmpty()) {
+            mGroupEntries.remove(entry.mGroup);
+        }
+        mEvictionEntries.remove(entry);
+        Segment segment = entry.mSegment;
+        segment.mBuffer.put(entry.mOffset + LENGTH_SIZE, STATE_DELETED);
+        segment.mLiveCount--;
+        if (segment.mLiveCount == 0) {
+            removeSegment(segment);
+        }
+    }
+
+    /**
+     * Remove a segment without live records and its file.
+     *
+     * @param segment segment.
+     */
+    private void removeSegment(Segment segment) {
+        mSegments.remove(segment);
+        mStorageSize -= segment.mBuffer.capacity();
+        segment.close();
+
+        //noinspection ResultOfMethodCallIgnored deleted records are ignored if the file remains.
+        segment.mFile.delete();
+    }
+
+    /**
+     * Free space by deleting whole segments, as deleting a log only frees space once its segment has no live record.
+     * Segments are chosen before deleting anything: lowest highest priority first then oldest first,
+     * and only if all their logs have a lower or equal priority than the new log.
+     *
+     * @param neededSize size to free.
+     * @param size       record size.
+     * @param priority   priority of the log to store.
+     * @throws PersistenceException if not enough segments can be deleted, nothing is deleted then.
+     */
+    private void evictSegments(long neededSize, int size, int priority) throws PersistenceException {
+
+        /* Find the highest priority of each segment. */
+        final Map<Segment, Integer> segmentPriorities = new HashMap<>();
+        for (Segment segment : mSegments) {
+            segmentPriorities.put(segment, Flags.NORMAL);
+        }
+        for (Entry entry : mEvictionEntries) {
+            Integer segmentPriority = segmentPriorities.get(entry.mSegment);
+            if (segmentPriority == null || entry.mPriority > segmentPriority) {
+                segmentPriorities.put(entry.mSegment, entry.mPriority);
+            }
+        }
+
+        /* Plan which segments to delete. */
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : mSegments) {
+            if (segmentPriorities.get(segment) <= priority) {
+                candidates.add(segment);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Segment>() {
+
+            @Override
+            public int compare(Segment left, Segment right) {
+                return segmentPriorities.get(left) - segmentPriorities.get(right);
+            }
+        });
+        List<Segment> evictedSegments = new ArrayList<>();
+        long freedSize = 0;
+        for (Iterator<Segment> iterator = candidates.iterator(); iterator.hasNext() && freedSize < neededSize; ) {
+            Segment segment = iterator.next();
+            evictedSegments.add(segment);
+            freedSize += segment.mBuffer.capacity();
+        }
+        if (freedSize < neededSize) {
+            throw new PersistenceException("Storage is full, cannot store a log of " + size + " bytes.");
+        }
+
+        /* Delete the logs of the planned segments, the last deleted log of a segment removes it. */
+        Set<Segment> evictedSegmentSet = new HashSet<>(evictedSegments);
+        List<Long> evictedIdentifiers = new ArrayList<>();
+        for (Entry entry : mEvictionEntries) {
+            if (evictedSegmentSet.contains(entry.mSegment)) {
+                evictedIdentifiers.add(entry.mId);
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Storage is full, deleting " + evictedIdentifiers.size() + " log(s) in " + evictedSegments.size() + " segment(s).");
+        for (Long id : evictedIdentifiers) {
+            mPendingIdentifiers.remove(id);
+            deleteLog(id);
+        }
+        for (Segment segment : evictedSegments) {
+            if (segment.mLiveCount == 0 && mSegments.contains(segment)) {
+                removeSegment(segment);
+            }
+        }
+    }
+
+    /**
+     * Get a segment with room for a record, evicting logs if storage is full.
+     *
+     * @param size     record size.
+     * @param priority priority of the log to store.
+     * @return segment.
+     * @throws PersistenceException if there is not enough room for the record.
+     */
+    private Segment reserve(int size, int priority) throws PersistenceException {
+        if (!mSegments.isEmpty()) {
+            Segment segment = mSegments.get(mSegments.size() - 1);
+            if (segment.mBuffer.capacity() - segment.mWritePosition >= size) {
+                return segment;
+            }
+        }
+        long capacity = Math.max(Math.min(SEGMENT_SIZE, mMaxStorageSize), size);
+        if (mStorageSize + capacity > mMaxStorageSize) {
+            evictSegments(mStorageSize + capacity - mMaxStorageSize, size, priority);
+        }
+        File file = new File(mDirectory, mNextSequence++ + SEGMENT_FILE_EXTENSION);
+        try {
+            Segment segment = new Segment(file, capacity);
+            mSegments.add(segment);
+            mStorageSize += capacity;
+            AppCenterLog.debug(LOG_TAG, "Created log segment {}", file);
+            return segment;
+        } catch (IOException e) {
+
+            //noinspection ResultOfMethodCallIgnored we are already failing.
+            file.delete();
+            throw new PersistenceException("Cannot create log segment file.", e);
+        }
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        try {
+            AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence segments for log type {} with flags={}", log.getType(), flags);
+            byte[] payload = toBytes(getLogSerializer().serializeLog(log));
+            String targetKey;
+            String targetToken;
+            if (log instanceof CommonSchemaLog) {
+                if (payload.length >= PAYLOAD_MAX_SIZE) {
+                    throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
+                }
+                targetToken = log.getTransmissionTargetTokens().iterator().next();
+                targetKey = PartAUtils.getTargetKey(targetToken);
+                targetToken = mTargetTokenCrypto.encrypt(targetToken);
+            } else {
+                targetKey = null;
+                targetToken = null;
+            }
+            byte[] groupBytes = toBytes(group);
+            byte[] typeBytes = toBytes(log.getType());
+            byte[] targetKeyBytes = toBytes(targetKey);
+            byte[] targetTokenBytes = toBytes(targetToken);
+            int length = HEADER_SIZE + fieldSize(groupBytes) + fieldSize(typeBytes) + fieldSize(targetKeyBytes) + fieldSize(targetTokenBytes) + fieldSize(payload);
+            int size = LENGTH_SIZE + length;
+            if (size > mMaxStorageSize) {
+                throw new PersistenceException("Log is too large (" + size + " bytes) to store in segments. " +
+                        "Current maximum storage size is " + mMaxStorageSize + " bytes.");
+            }
+            int priority = Flags.getPersistenceFlag(flags, false);
+            Segment segment = reserve(size, priority);
+            long id = mNextId++;
+
+            /* Write the length last: a record without length is ignored when loading. */
+            int offset = segment.mWritePosition;
+            MappedByteBuffer buffer = segment.mBuffer;
+            buffer.position(offset + LENGTH_SIZE);
+            buffer.put(STATE_LIVE);
+            buffer.put((byte) priority);
+            buffer.putLong(id);
+            writeField(buffer, groupBytes);
+            writeField(buffer, typeBytes);
+            writeField(buffer, targetKeyBytes);
+            writeField(buffer, targetTokenBytes);
+            writeField(buffer, payload);
+            buffer.putInt(offset, length);
+            segment.mWritePosition = offset + size;
+            addEntry(new Entry(id, group, priority, targetKey, segment, offset));
+            AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence segments for log type {} with id={}", log.getType(), id);
+            return id;
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string.", e);
+        } catch (IOException e) {
+            throw new PersistenceException("Cannot encode log.", e);
+        }
+    }
+
+    /**
+     * Records are written to mapped memory as soon as they are stored, this has no buffering to configure.
+     *
+     * @param writeBatchSize ignored.
+     */
+    @Override
+    public void setWriteBatchSize(@IntRange(from = 1) int writeBatchSize) {
+    }
+
+    /**
+     * Force the content of the segments to the disk.
+     * The memory mapped by a process that crashes is still written, this only matters if the device stops.
+     */
+    @Override
+    public void flush() {
+        for (Segment segment : mSegments) {
+            segment.mBuffer.force();
+        }
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence segments for {} with {}", group, id);
+        List<Long> identifiers = mPendingIdentifiersGroups.remove(group + id);
+        if (identifiers != null) {
+            for (Long identifier : identifiers) {
+                deleteLog(identifier);
+                mPendingIdentifiers.remove(identifier);
+            }
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the Persistence segments for {}", group);
+        TreeSet<Entry> groupEntries = mGroupEntries.get(group);
+        int deletedCount = 0;
+        if (groupEntries != null) {
+            for (Entry entry : new ArrayList<>(groupEntries)) {
+                deleteLog(entry.mId);
+                mPendingIdentifiers.remove(entry.mId);
+                deletedCount++;
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Deleted {} logs.", deletedCount);
+
+        /* Delete from pending state. */
+        for (Iterator<String> iterator = mPendingIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        TreeSet<Entry> groupEntries = mGroupEntries.get(group);
+        return groupEntries == null ? 0 : groupEntries.size();
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        return getLogs(group, pausedTargetKeys, limit, outLogs, null);
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get {} logs from the Persistence segments for {}", limit, group);
+        List<Long> identifiers = new ArrayList<>();
+        List<Long> failedIdentifiers = new ArrayList<>();
+        TreeSet<Entry> groupEntries = mGroupEntries.get(group);
+        if (groupEntries != null) {
+            for (Iterator<Entry> iterator = groupEntries.iterator(); iterator.hasNext() && identifiers.size() < limit; ) {
+                Entry entry = iterator.next();
+                if (mPendingIdentifiers.contains(entry.mId) || (entry.mTargetKey != null && pausedTargetKeys.contains(entry.mTargetKey))) {
+                    continue;
+                }
+                try {
+
+                    /* Skip group and target key, they are already in the index. */
+                    MappedByteBuffer buffer = entry.mSegment.mBuffer;
+                    buffer.position(entry.mOffset + LENGTH_SIZE + HEADER_SIZE);
+                    skipField(buffer);
+                    String type = readField(buffer);
+                    skipField(buffer);
+                    String targetToken = readField(buffer);
+                    String payload = readField(buffer);
+                    if (payload == null) {
+                        throw new JSONException("Log payload is null.");
+                    }
+                    if (outLogs != null) {
+                        Log log = getLogSerializer().deserializeLog(payload, type);
+                        if (targetToken != null) {
+                            log.addTransmissionTarget(mTargetTokenCrypto.decrypt(targetToken));
+                        }
+                        outLogs.add(log);
+                    } else {
+
+                        /* Stored payloads are sent as is: don't let a corrupted one fail the whole batch. */
+                        getLogSerializer().validateLog(payload, type);
+                    }
+                    if (outPayloads != null) {
+                        outPayloads.add(payload);
+                    }
+                    identifiers.add(entry.mId);
+                } catch (JSONException | IOException | RuntimeException e) {
+
+                    /* If it is not able to deserialize, delete and get another log. */
+                    AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the segments", e);
+                    failedIdentifiers.add(entry.mId);
+                }
+            }
+        }
+
+        /* Delete any logs that cannot be de-serialized. */
+        if (failedIdentifiers.size() > 0) {
+            for (long id : failedIdentifiers) {
+                deleteLog(id);
+            }
+            AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
+        }
+
+        /* No logs found. */
+        if (identifiers.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in the Persistence segments at the moment");
+            return null;
+        }
+
+        /* Generate an ID and mark logs as pending. */
+        String id = UUID.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning {} log(s) with an ID, {}", identifiers.size(), id);
+        mPendingIdentifiers.addAll(identifiers);
+        mPendingIdentifiersGroups.put(group + id, identifiers);
+        return id;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        mPendingIdentifiers.clear();
+        mPendingIdentifiersGroups.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    /**
+     * Set maximum size of all segment files.
+     *
+     * @param maxStorageSizeInBytes maximum size.
+     * @return true if the size was set, false if the segment files are already larger.
+     */
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (maxStorageSizeInBytes < mStorageSize) {
+            AppCenterLog.error(LOG_TAG, "Cannot change storage size to " + maxStorageSizeInBytes + " bytes as it's smaller than the current size of " + mStorageSize + " bytes.");
+            return false;
+        }
+        mMaxStorageSize = maxStorageSizeInBytes;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        for (Segment segment : mSegments) {
+            segment.close();
+        }
+        mSegments.clear();
+        mEntries.clear();
+        mGroupEntries.clear();
+        mEvictionEntries.clear();
+        mStorageSize = 0;
+    }
+
+    /**
+     * A memory mapped segment file.
+     */
+    @VisibleForTesting
+    static class Segment {
+
+        /**
+         * Segment file.
+         */
+        final File mFile;
+
+        /**
+         * Mapped file content.
+         */
+        final MappedByteBuffer mBuffer;
+
+        /**
+         * File used for mapping.
+         */
+        private final RandomAccessFile mRandomAccessFile;
+
+        /**
+         * Offset where to append the next record.
+         */
+        int mWritePosition;
+
+        /**
+         * Number of records not deleted.
+         */
+        int mLiveCount;
+
+        /**
+         * Open and map a segment file, creating it with the given size if needed.
+         *
+         * @param file segment file.
+         * @param size file size.
+         * @throws IOException if the file cannot be mapped.
+         */
+        Segment(File file, long size) throws IOException {
+            mFile = file;
+            mRandomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                if (mRandomAccessFile.length() != size) {
+                    mRandomAccessFile.setLength(size);
+                }
+                mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                mRandomAccessFile.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Close the file, the mapping remains valid until garbage collected.
+         */
+        void close() {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                AppCenterLog.warn(LOG_TAG, "Failed to close log segment " + mFile, e);
+            }
+        }
+    }
+
+    /**
+     * Index entry of a stored log.
+     */
+    private static class Entry {
+
+        /**
+         * Log identifier.
+         */
+        final long mId;
+
+        /**
+         * Group.
+         */
+        final String mGroup;
+
+        /**
+         * Priority.
+         */
+        final int mPriority;
+
+        /**
+         * Target key or null.
+         */
+        final String mTargetKey;
+
+        /**
+         * Segment containing the record.
+         */
+        final Segment mSegment;
+
+        /**
+         * Record offset in the segment.
+         */
+        final int mOffset;
+
+        /**
+         * Init.
+         *
+         * @param id        log identifier.
+         * @param group     group.
+         * @param priority  priority.
+         * @param targetKey target key or null.
+         * @param segment   segment containing the record.
+         * @param offset    record offset in the segment.
+         */
+        Entry(long id, String group, int priority, String targetKey, Segment segment, int offset) {
+            mId = id;
+            mGroup = group;
+            mPriority = priority;
+            mTargetKey = targetKey;
+            mSegment = segment;
+            mOffset = offset;
+        }
+    }
+}
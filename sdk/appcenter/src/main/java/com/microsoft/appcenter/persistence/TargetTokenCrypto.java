@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encrypts target tokens for storage, reusing results as logs of a target share the same token.
+ */
+class TargetTokenCrypto {
+
+    /**
+     * Maximum number of target tokens kept in each cache.
+     */
+    @VisibleForTesting
+    static final int CACHE_SIZE = 32;
+
+    /**
+     * Encrypted target tokens by target token, to encrypt a token only once for all its logs.
+     */
+    @VisibleForTesting
+    final Map<String, String> mEncryptedTargetTokens = new HashMap<>();
+
+    /**
+     * Target tokens by encrypted target token, to decrypt a token only once for all its logs.
+     */
+    @VisibleForTesting
+    final Map<String, String> mDecryptedTargetTokens = new HashMap<>();
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Init.
+     *
+     * @param context application context.
+     */
+    TargetTokenCrypto(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Encrypt a target token, reusing the result for the same token.
+     * Logs of a target then share the same encrypted value, which also makes decryption cache effective.
+     *
+     * @param targetToken target token.
+     * @return encrypted target token.
+     */
+    String encrypt(String targetToken) {
+        String encryptedTargetToken = mEncryptedTargetTokens.get(targetToken);
+        if (encryptedTargetToken == null) {
+            encryptedTargetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+            if (mEncryptedTargetTokens.size() >= CACHE_SIZE) {
+                mEncryptedTargetTokens.clear();
+            }
+            mEncryptedTargetTokens.put(targetToken, encryptedTargetToken);
+        }
+        return encryptedTargetToken;
+    }
+
+    /**
+     * Decrypt a target token, reusing the result for the same encrypted value.
+     *
+     * @param encryptedTargetToken encrypted target token.
+     * @return target token.
+     */
+    String decrypt(String encryptedTargetToken) {
+        String targetToken = mDecryptedTargetTokens.get(encryptedTargetToken);
+        if (targetToken == null) {
+            targetToken = CryptoUtils.getInstance(mContext).decrypt(encryptedTargetToken).getDecryptedData();
+
+            /* Don't keep failures (original data returned) in case they are transient. */
+            if (targetToken != null && !targetToken.equals(encryptedTargetToken)) {
+                if (mDecryptedTargetTokens.size() >= CACHE_SIZE) {
+                    mDecryptedTargetTokens.clear();
+                }
+                mDecryptedTargetTokens.put(encryptedTargetToken, targetToken);
+            }
+        }
+        return targetToken;
+    }
+}
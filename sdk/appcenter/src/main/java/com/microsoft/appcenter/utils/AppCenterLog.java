@@ -16,6 +16,8 @@ import static android.util.Log.VERBOSE;
  * Wrapper class for logging in the SDK as well as
  * setting the desired log level for end users.
  * Log levels correspond to those of android.util.Log.
+ * Methods taking a message template build the message only if the level is enabled,
+ * so that frequent logs do not allocate strings when logging is disabled.
  *
  * @see Log
  */
@@ -32,6 +34,11 @@ public class AppCenterLog {
      */
     public static final int NONE = 8;
 
+    /**
+     * Placeholder replaced by an argument in message templates.
+     */
+    private static final String PLACEHOLDER = "{}";
+
     /**
      * Current log level.
      */
@@ -83,6 +90,32 @@ public class AppCenterLog {
         }
     }
 
+    /**
+     * Log a message with level VERBOSE, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with a {@code {}} placeholder
+     * @param arg      the placeholder value
+     */
+    public static void verbose(@NonNull String tag, @NonNull String template, Object arg) {
+        if (sLogLevel <= Log.VERBOSE) {
+            Log.v(tag, format(template, arg));
+        }
+    }
+
+    /**
+     * Log a message with level VERBOSE, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with a {@code {}} placeholder
+     * @param arg      the placeholder value
+     */
+    public static void verbose(@NonNull String tag, @NonNull String template, long arg) {
+        if (sLogLevel <= Log.VERBOSE) {
+            Log.v(tag, format(template, arg));
+        }
+    }
+
     /**
      * Log a message with level DEBUG
      *
@@ -108,6 +141,104 @@ public class AppCenterLog {
         }
     }
 
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with a {@code {}} placeholder
+     * @param arg      the placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, Object arg) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg));
+        }
+    }
+
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with a {@code {}} placeholder
+     * @param arg      the placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, long arg) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg));
+        }
+    }
+
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with 2 {@code {}} placeholders
+     * @param arg1     the first placeholder value
+     * @param arg2     the second placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, Object arg1, Object arg2) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg1, arg2));
+        }
+    }
+
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with 2 {@code {}} placeholders
+     * @param arg1     the first placeholder value
+     * @param arg2     the second placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, Object arg1, long arg2) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg1, arg2));
+        }
+    }
+
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with 2 {@code {}} placeholders
+     * @param arg1     the first placeholder value
+     * @param arg2     the second placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, long arg1, Object arg2) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg1, arg2));
+        }
+    }
+
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with 3 {@code {}} placeholders
+     * @param arg1     the first placeholder value
+     * @param arg2     the second placeholder value
+     * @param arg3     the third placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, Object arg1, Object arg2, long arg3) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg1, arg2, arg3));
+        }
+    }
+
+    /**
+     * Log a message with level DEBUG, built from a template only if the level is enabled.
+     *
+     * @param tag      the log tag for your message
+     * @param template the log message with 3 {@code {}} placeholders
+     * @param arg1     the first placeholder value
+     * @param arg2     the second placeholder value
+     * @param arg3     the third placeholder value
+     */
+    public static void debug(@NonNull String tag, @NonNull String template, Object arg1, long arg2, long arg3) {
+        if (sLogLevel <= Log.DEBUG) {
+            Log.d(tag, format(template, arg1, arg2, arg3));
+        }
+    }
+
     /**
      * Log a message with level INFO
      *
@@ -210,4 +341,26 @@ public class AppCenterLog {
             Log.println(Log.ASSERT, tag, message + "\n" + Log.getStackTraceString(throwable));
         }
     }
+
+    /**
+     * Replace the placeholders of a message template by values, in order.
+     * Placeholders without a value are left as is.
+     *
+     * @param template message template.
+     * @param args     placeholder values.
+     * @return the message.
+     */
+    private static String format(String template, Object... args) {
+        StringBuilder message = new StringBuilder(template.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = template.indexOf(PLACEHOLDER, start);
+            if (index < 0) {
+                break;
+            }
+            message.append(template, start, index).append(arg);
+            start = index + PLACEHOLDER.length();
+        }
+        return message.append(template, start, template.length()).toString();
+    }
 }
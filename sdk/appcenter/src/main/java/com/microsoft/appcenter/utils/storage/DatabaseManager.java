@@ -21,7 +21,11 @@ import android.support.annotation.VisibleForTesting;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
 
@@ -40,6 +44,12 @@ public class DatabaseManager implements Closeable {
      */
     public static final String[] SELECT_PRIMARY_KEY = {PRIMARY_KEY};
 
+    /**
+     * Maximum number of arguments in a SQL statement for SQLite versions before 3.32.
+     */
+    @VisibleForTesting
+    static final int MAX_SQL_VARIABLES = 999;
+
     /**
      * Application context instance.
      */
@@ -220,6 +230,59 @@ public class DatabaseManager implements Closeable {
         return id;
     }
 
+    /**
+     * Stores several entries to the table in a single transaction. If the table becomes full while
+     * inserting, the transaction is rolled back and every entry is stored again one by one with
+     * {@link #put(ContentValues, String)} so that the oldest logs can be discarded.
+     *
+     * @param valuesList     The entries to be stored.
+     * @param priorityColumn When storage full and deleting data, use this column to determine which entries to delete first.
+     * @return The database identifiers in the same order as {@code valuesList}, -1 for entries that could not be inserted.
+     */
+    public long[] put(@NonNull List<ContentValues> valuesList, @NonNull String priorityColumn) {
+        long[] ids = new long[valuesList.size()];
+        try {
+            SQLiteDatabase database = getDatabase();
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = database.insertOrThrow(mDefaultTable, null, valuesList.get(i));
+                }
+                database.setTransactionSuccessful();
+                return ids;
+            } catch (SQLiteFullException e) {
+                AppCenterLog.debug(LOG_TAG, "Storage is full, storing " + ids.length + " entries one by one.");
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to insert %s entries to database %s in a single transaction.", ids.length, mDatabase), e);
+        }
+
+        /* Transaction was rolled back, insert one by one to evict older entries when needed. */
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = put(valuesList.get(i), priorityColumn);
+        }
+        return ids;
+    }
+
+    /**
+     * Stores an entry to another table than the default one. The size of the database is not
+     * managed for such tables, they are meant for small amounts of data.
+     *
+     * @param table  The table to perform the operation on.
+     * @param values The entry to be stored.
+     * @return If the entry was inserted, the database identifier. Otherwise -1.
+     */
+    public long put(@NonNull String table, @NonNull ContentValues values) {
+        try {
+            return getDatabase().insertOrThrow(table, null, values);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to insert values (%s) to table %s of database %s.", values.toString(), table, mDatabase), e);
+            return -1;
+        }
+    }
+
     /**
      * Deletes the entry by the identifier from the database.
      *
@@ -229,6 +292,89 @@ public class DatabaseManager implements Closeable {
         delete(mDefaultTable, PRIMARY_KEY, id);
     }
 
+    /**
+     * Deletes the entries by identifiers from the database in a single transaction.
+     *
+     * @param ids The database identifiers.
+     * @return the number of rows affected.
+     */
+    public int delete(@NonNull Collection<Long> ids) {
+        return deleteOrUpdate(ids, null);
+    }
+
+    /**
+     * Updates the entries by identifiers in a single transaction.
+     *
+     * @param values The values to update.
+     * @param ids    The database identifiers.
+     * @return the number of rows affected.
+     */
+    public int update(@NonNull ContentValues values, @NonNull Collection<Long> ids) {
+        return deleteOrUpdate(ids, values);
+    }
+
+    /**
+     * Updates the entries that match a condition.
+     *
+     * @param values      The values to update.
+     * @param whereClause The optional condition, all entries are updated if null.
+     * @param whereArgs   The optional condition arguments.
+     * @return the number of rows affected.
+     */
+    public int update(@NonNull ContentValues values, @Nullable String whereClause, @Nullable String[] whereArgs) {
+        try {
+            return getDatabase().update(mDefaultTable, values, whereClause, whereArgs);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to update values that match condition=\"%s\" and values=\"%s\" from database %s.", whereClause, Arrays.toString(whereArgs), mDatabase), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes or updates the entries by identifiers in a single transaction.
+     *
+     * @param ids    The database identifiers.
+     * @param values The values to update, null to delete the entries.
+     * @return the number of rows affected.
+     */
+    private int deleteOrUpdate(@NonNull Collection<Long> ids, @Nullable ContentValues values) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            SQLiteDatabase database = getDatabase();
+            database.beginTransaction();
+            try {
+
+                /* Split the identifiers as the number of arguments of a statement is limited. */
+                Iterator<Long> iterator = ids.iterator();
+                while (iterator.hasNext()) {
+                    List<String> whereArgs = new ArrayList<>();
+                    StringBuilder inList = new StringBuilder();
+                    while (iterator.hasNext() && whereArgs.size() < MAX_SQL_VARIABLES) {
+                        whereArgs.add(String.valueOf(iterator.next()));
+                        inList.append(inList.length() == 0 ? "?" : ",?");
+                    }
+                    String whereClause = PRIMARY_KEY + " IN (" + inList + ")";
+                    String[] whereArgsArray = whereArgs.toArray(new String[0]);
+                    if (values == null) {
+                        count += database.delete(mDefaultTable, whereClause, whereArgsArray);
+                    } else {
+                        count += database.update(mDefaultTable, values, whereClause, whereArgsArray);
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to %s %s entries from database %s.", values == null ? "delete" : "update", ids.size(), mDatabase), e);
+            return 0;
+        }
+        return count;
+    }
+
     /**
      * Deletes the entries that matches key == value.
      *
@@ -240,6 +386,23 @@ public class DatabaseManager implements Closeable {
         return delete(mDefaultTable, key, value);
     }
 
+    /**
+     * Deletes the entries of a table that match a condition.
+     *
+     * @param table       The table to perform the operation on.
+     * @param whereClause The optional condition, all entries are deleted if null.
+     * @param whereArgs   The optional condition arguments.
+     * @return the number of rows affected.
+     */
+    public int delete(@NonNull String table, @Nullable String whereClause, @Nullable String[] whereArgs) {
+        try {
+            return getDatabase().delete(table, whereClause, whereArgs);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to delete values that match condition=\"%s\" and values=\"%s\" from table %s of database %s.", whereClause, Arrays.toString(whereArgs), table, mDatabase), e);
+            return 0;
+        }
+    }
+
     /**
      * Deletes the entries that matches key == value.
      *
@@ -308,7 +471,22 @@ public class DatabaseManager implements Closeable {
      * @throws RuntimeException If an error occurs.
      */
     public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
-        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder);
+        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Gets a cursor for at most {@code limit} rows in the table matching the query.
+     *
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself).
+     * @return A cursor for the rows that match the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
+        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder, limit);
     }
 
     /**
@@ -319,15 +497,16 @@ public class DatabaseManager implements Closeable {
      * @param columns       Columns to select, null for all.
      * @param selectionArgs The array of values for selection.
      * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself), null for no limit.
      * @return A cursor for all rows that matches the given criteria.
      * @throws RuntimeException If an error occurs.
      */
-    Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
+    public Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
         if (queryBuilder == null) {
             queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
         }
         queryBuilder.setTables(table);
-        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder);
+        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder, limit);
     }
 
     /**
@@ -5,16 +5,39 @@
 
 package com.microsoft.appcenter;
 
+import android.content.Context;
+import android.os.Handler;
+
+import com.microsoft.appcenter.channel.BatchingMetrics;
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.channel.TimeToSendMetrics;
+import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.SegmentFilePersistence;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
 import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 public class AppCenterStorageTest extends AbstractAppCenterTest {
 
@@ -106,4 +129,161 @@ public class AppCenterStorageTest extends AbstractAppCenterTest {
         /* And result returned to developer. */
         assertTrue(future.get());
     }
+
+    @Test
+    public void configureWriteBatching() {
+
+        /* Invalid values are ignored. */
+        AppCenter.setWriteBatching(0, 100);
+        AppCenter.setWriteBatching(10, -1);
+
+        /* Configure before start. */
+        AppCenter.setWriteBatching(10, 100);
+
+        /* Start AppCenter. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setWriteBatching(10, 100);
+
+        /* Configure after start. */
+        AppCenter.setWriteBatching(1, 0);
+        verify(mChannel).setWriteBatching(1, 0);
+        verify(mChannel, times(2)).setWriteBatching(anyInt(), anyLong());
+    }
+
+    @Test
+    public void writeBatchingDisabledByDefault() {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel, never()).setWriteBatching(anyInt(), anyLong());
+    }
+
+    @Test
+    public void configureMemoryTail() {
+
+        /* Invalid values are ignored. */
+        AppCenter.setMemoryTail(-1, 100);
+        AppCenter.setMemoryTail(10, 0);
+
+        /* Configure before start. */
+        AppCenter.setMemoryTail(10, 100);
+
+        /* Start AppCenter. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setMemoryTail(10, 100);
+
+        /* Configure after start. */
+        AppCenter.setMemoryTail(0, 0);
+        verify(mChannel).setMemoryTail(0, 0);
+        verify(mChannel, times(2)).setMemoryTail(anyInt(), anyLong());
+    }
+
+    @Test
+    public void memoryTailDisabledByDefault() {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel, never()).setMemoryTail(anyInt(), anyLong());
+    }
+
+    @Test
+    public void configureAdaptiveBatching() throws Exception {
+
+        /* Invalid values are ignored. */
+        AppCenter.setAdaptiveBatching(0, 100, 2);
+        AppCenter.setAdaptiveBatching(10, 5, 2);
+        AppCenter.setAdaptiveBatching(10, 100, 0);
+        AppCenter.setAdaptiveBatching(0, -1, 0);
+
+        /* No metrics before start. */
+        assertNull(AppCenter.getBatchingMetrics().get());
+
+        /* Configure before start. */
+        AppCenter.setAdaptiveBatching(10, 100, 2);
+
+        /* Start AppCenter. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setAdaptiveBatching(10, 100, 2);
+
+        /* Configure after start. */
+        AppCenter.setAdaptiveBatching(20, 200, 3);
+        verify(mChannel).setAdaptiveBatching(20, 200, 3);
+
+        /* Disable. */
+        AppCenter.setAdaptiveBatching(0, 0, 0);
+        verify(mChannel).setAdaptiveBatching(0, 0, 0);
+        verify(mChannel, times(3)).setAdaptiveBatching(anyInt(), anyInt(), anyInt());
+
+        /* Get metrics. */
+        Map<String, BatchingMetrics> metrics = new HashMap<>();
+        when(mChannel.getBatchingMetrics()).thenReturn(metrics);
+        assertSame(metrics, AppCenter.getBatchingMetrics().get());
+    }
+
+    @Test
+    public void adaptiveBatchingDisabledByDefault() {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel, never()).setAdaptiveBatching(anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void criticalLanes() throws Exception {
+
+        /* No metrics before start. */
+        assertNull(AppCenter.getTimeToSendMetrics().get());
+
+        /* Configure before start. */
+        AppCenter.setCriticalLanesEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setCriticalLanesEnabled(true);
+
+        /* Configure after start. */
+        AppCenter.setCriticalLanesEnabled(false);
+        verify(mChannel).setCriticalLanesEnabled(false);
+
+        /* Get metrics. */
+        Map<Integer, TimeToSendMetrics> metrics = new HashMap<>();
+        when(mChannel.getTimeToSendMetrics()).thenReturn(metrics);
+        assertSame(metrics, AppCenter.getTimeToSendMetrics().get());
+    }
+
+    @Test
+    public void criticalLanesDisabledByDefault() {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setCriticalLanesEnabled(false);
+        verify(mChannel, never()).setCriticalLanesEnabled(true);
+    }
+
+    @Test
+    public void segmentFileStorage() throws Exception {
+        SegmentFilePersistence persistence = mock(SegmentFilePersistence.class);
+        whenNew(SegmentFilePersistence.class).withAnyArguments().thenReturn(persistence);
+
+        /* Configure before start. */
+        AppCenter.setSegmentFileStorageEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), same(persistence), any(LogSerializer.class), any(HttpClient.class), any(Handler.class));
+
+        /* Cannot change after start. */
+        AppCenter.setSegmentFileStorageEnabled(false);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), same(persistence), any(LogSerializer.class), any(HttpClient.class), any(Handler.class));
+    }
+
+    @Test
+    public void compactStorage() throws Exception {
+        DatabasePersistence persistence = mock(DatabasePersistence.class);
+        whenNew(DatabasePersistence.class).withAnyArguments().thenReturn(persistence);
+
+        /* Configure before start. */
+        AppCenter.setCompactStorageEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DatabasePersistence.class).withArguments(any(Context.class), eq(true));
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), same(persistence), any(LogSerializer.class), any(HttpClient.class), any(Handler.class));
+
+        /* Cannot change after start. */
+        AppCenter.setCompactStorageEnabled(false);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), same(persistence), any(LogSerializer.class), any(HttpClient.class), any(Handler.class));
+    }
+
+    @Test
+    public void databaseStorageByDefault() throws Exception {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), any(HttpClient.class), any(Handler.class));
+    }
 }
@@ -9,6 +9,8 @@ import android.content.Context;
 import android.os.Handler;
 
 import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.http.DefaultHttpClient;
+import com.microsoft.appcenter.http.ExecutorHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientRetryer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
@@ -16,11 +18,16 @@ import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import org.junit.After;
 import org.junit.Test;
 
+import java.util.concurrent.Executor;
+
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 public class DependencyConfigurationTest extends AbstractAppCenterTest {
 
@@ -47,6 +54,64 @@ public class DependencyConfigurationTest extends AbstractAppCenterTest {
         verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(mockHttpClient), any(Handler.class));
     }
 
+    @Test
+    public void setNetworkThreadPoolUsesExecutorHttpClient() throws Exception {
+        whenNew(ExecutorHttpClient.class).withAnyArguments().thenReturn(mock(ExecutorHttpClient.class));
+
+        /* Invalid values are ignored. */
+        AppCenter.setNetworkThreadPool(0, 0, 10);
+        AppCenter.setNetworkThreadPool(2, 0, 0);
+
+        /* Configure before start. */
+        AppCenter.setNetworkThreadPool(2, 10, 20);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET);
+
+        /* Verify that the channel was instantiated with the executor HTTP client wrapped with default behaviors. */
+        verifyNew(ExecutorHttpClient.class).withArguments(eq(true), eq(false), any(Executor.class), any(Handler.class));
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), isA(HttpClientRetryer.class), any(Handler.class));
+    }
+
+    @Test
+    public void setConnectionReuseEnabledUsesReusableHttpClient() throws Exception {
+        whenNew(DefaultHttpClient.class).withAnyArguments().thenReturn(mock(DefaultHttpClient.class));
+        AppCenter.setConnectionReuseEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET);
+        verifyNew(DefaultHttpClient.class).withArguments(true, true);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), isA(HttpClientRetryer.class), any(Handler.class));
+
+        /* Cannot be changed after start. */
+        AppCenter.setConnectionReuseEnabled(false);
+        verifyNew(DefaultHttpClient.class).withArguments(true, true);
+    }
+
+    @Test
+    public void setConnectionReuseEnabledWithNetworkThreadPool() throws Exception {
+        whenNew(ExecutorHttpClient.class).withAnyArguments().thenReturn(mock(ExecutorHttpClient.class));
+        AppCenter.setConnectionReuseEnabled(true);
+        AppCenter.setNetworkThreadPool(2, 10, 20);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET);
+        verifyNew(ExecutorHttpClient.class).withArguments(eq(true), eq(true), any(Executor.class), any(Handler.class));
+    }
+
+    @Test
+    public void setNetworkThreadPoolAfterStartIgnored() throws Exception {
+        whenNew(ExecutorHttpClient.class).withAnyArguments().thenReturn(mock(ExecutorHttpClient.class));
+        AppCenter.start(mApplication, DUMMY_APP_SECRET);
+        AppCenter.setNetworkThreadPool(2, 10, 20);
+        verifyNew(ExecutorHttpClient.class, never()).withArguments(anyBoolean(), anyBoolean(), any(Executor.class), any(Handler.class));
+    }
+
+    @Test
+    public void injectedHttpClientTakesPrecedenceOverNetworkThreadPool() throws Exception {
+        whenNew(ExecutorHttpClient.class).withAnyArguments().thenReturn(mock(ExecutorHttpClient.class));
+        HttpClient mockHttpClient = mock(HttpClient.class);
+        DependencyConfiguration.setHttpClient(mockHttpClient);
+        AppCenter.setNetworkThreadPool(2, 10, 20);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET);
+        verifyNew(ExecutorHttpClient.class, never()).withArguments(anyBoolean(), anyBoolean(), any(Executor.class), any(Handler.class));
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(mockHttpClient), any(Handler.class));
+    }
+
     @After
     public void resetDependencies() {
         DependencyConfiguration.setHttpClient(null);
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import org.junit.Test;
+
+import static com.microsoft.appcenter.channel.AdaptiveBatching.TARGET_LATENCY;
+import static com.microsoft.appcenter.channel.AdaptiveBatching.TARGET_PAYLOAD_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchingTest {
+
+    @Test
+    public void fixedValues() {
+        AdaptiveBatching batching = new AdaptiveBatching(50, 3);
+        batching.onSuccess(100, 50, 1000);
+        batching.onFailure();
+        batching.onSuccess(TARGET_LATENCY * 2, 50, 1000);
+        assertEquals(50, batching.getLogsPerBatch());
+        assertEquals(3, batching.getParallelBatches());
+
+        /* Statistics are still collected. */
+        BatchingMetrics metrics = batching.getMetrics();
+        assertEquals(50, metrics.getMaxLogsPerBatch());
+        assertEquals(3, metrics.getMaxParallelBatches());
+        assertTrue(metrics.getAverageLatency() > 100);
+        assertEquals(1000, metrics.getAveragePayloadSize());
+        assertTrue(metrics.getFailureRate() > 0);
+    }
+
+    @Test
+    public void initialValuesClamped() {
+        AdaptiveBatching batching = new AdaptiveBatching(10, 100, 2, 500, 3);
+        assertEquals(100, batching.getLogsPerBatch());
+        assertEquals(2, batching.getParallelBatches());
+        batching = new AdaptiveBatching(10, 100, 2, 1, 0);
+        assertEquals(10, batching.getLogsPerBatch());
+        assertEquals(1, batching.getParallelBatches());
+
+        /* No batch sent yet. */
+        BatchingMetrics metrics = batching.getMetrics();
+        assertEquals(0, metrics.getAverageLatency());
+        assertEquals(0, metrics.getAveragePayloadSize());
+        assertEquals(0, metrics.getFailureRate(), 0);
+    }
+
+    @Test
+    public void growOnFastFullBatches() {
+        AdaptiveBatching batching = new AdaptiveBatching(10, 100, 3, 40, 1);
+        batching.onSuccess(100, 40, 4000);
+        assertEquals(50, batching.getLogsPerBatch());
+        assertEquals(2, batching.getParallelBatches());
+
+        /* Batches that are not full don't grow. */
+        batching.onSuccess(100, 20, 2000);
+        assertEquals(50, batching.getLogsPerBatch());
+        assertEquals(2, batching.getParallelBatches());
+
+        /* Growth is bounded. */
+        for (int i = 0; i < 20; i++) {
+            batching.onSuccess(100, batching.getLogsPerBatch(), batching.getLogsPerBatch() * 100);
+        }
+        assertEquals(100, batching.getLogsPerBatch());
+        assertEquals(3, batching.getParallelBatches());
+    }
+
+    @Test
+    public void growWithoutPayloadSize() {
+        AdaptiveBatching batching = new AdaptiveBatching(10, 100, 3, 40, 1);
+        batching.onSuccess(100, 40, -1);
+        assertEquals(50, batching.getLogsPerBatch());
+        assertEquals(0, batching.getMetrics().getAveragePayloadSize());
+    }
+
+    @Test
+    public void shrinkOnSlowBatches() {
+        AdaptiveBatching batching = new AdaptiveBatching(10, 100, 3, 80, 2);
+        batching.onSuccess(TARGET_LATENCY + 1, 80, 8000);
+        assertEquals(60, batching.getLogsPerBatch());
+        assertEquals(2, batching.getParallelBatches());
+
+        /* Shrinking is bounded. */
+        for (int i = 0; i < 20; i++) {
+            batching.onSuccess(TARGET_LATENCY * 2, 10, 1000);
+        }
+        assertEquals(10, batching.getLogsPerBatch());
+    }
+
+    @Test
+    public void limitPayloadSize() {
+        AdaptiveBatching batching = new AdaptiveBatching(1, 500, 3, 100, 1);
+
+        /* Logs so large that only 10 fit in the target payload. */
+        batching.onSuccess(100, 100, TARGET_PAYLOAD_SIZE * 10);
+        assertEquals(10, batching.getLogsPerBatch());
+
+        /* Minimum bound has priority. */
+        batching = new AdaptiveBatching(20, 500, 3, 100, 1);
+        batching.onSuccess(100, 100, TARGET_PAYLOAD_SIZE * 10);
+        assertEquals(20, batching.getLogsPerBatch());
+    }
+
+    @Test
+    public void backOffOnFailures() {
+        AdaptiveBatching batching = new AdaptiveBatching(10, 100, 3, 80, 3);
+        batching.onFailure();
+        assertEquals(40, batching.getLogsPerBatch());
+        assertEquals(1, batching.getParallelBatches());
+        batching.onFailure();
+        batching.onFailure();
+        assertEquals(10, batching.getLogsPerBatch());
+
+        /* Don't grow again until failure rate is low enough. */
+        batching.onSuccess(100, 10, 1000);
+        assertEquals(10, batching.getLogsPerBatch());
+        assertEquals(1, batching.getParallelBatches());
+        for (int i = 0; i < 10; i++) {
+            batching.onSuccess(100, batching.getLogsPerBatch(), 1000);
+        }
+        assertTrue(batching.getLogsPerBatch() > 10);
+        assertTrue(batching.getParallelBatches() > 1);
+    }
+}
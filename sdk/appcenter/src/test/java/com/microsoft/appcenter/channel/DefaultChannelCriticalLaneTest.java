@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.HttpResponse;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.channel.DefaultChannel.CRITICAL_LANES_USED_KEY;
+import static com.microsoft.appcenter.channel.DefaultChannel.CRITICAL_LANE_SUFFIX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+public class DefaultChannelCriticalLaneTest extends AbstractDefaultChannelTest {
+
+    private static final String CRITICAL_GROUP = TEST_GROUP + CRITICAL_LANE_SUFFIX;
+
+    /**
+     * Answer returning one log created at the given time for each call.
+     */
+    private static Answer<String> getTimestampedLogsAnswer(final long timestamp) {
+        return new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                Log log = mock(Log.class);
+                when(log.getTimestamp()).thenReturn(new Date(timestamp));
+                ((List<Log>) invocation.getArguments()[3]).add(log);
+                return UUID.randomUUID().toString();
+            }
+        };
+    }
+
+    /**
+     * Answer returning the given stored payload for each call.
+     */
+    private static Answer<String> getRawLogsAnswer(final String rawLog) {
+        return new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<String>) invocation.getArguments()[4]).add(rawLog);
+                return UUID.randomUUID().toString();
+            }
+        };
+    }
+
+    @Test
+    public void criticalLogsSentImmediately() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        Ingestion ingestion = mock(Ingestion.class);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any())).then(getGetLogsAnswer(1));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* No lane by default. */
+        assertNull(channel.getGroupState(CRITICAL_GROUP));
+        verify(persistence, never()).countLogs(CRITICAL_GROUP);
+
+        /* Critical logs are stored with the other logs without lanes. */
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).putLog(log, TEST_GROUP, Flags.CRITICAL);
+
+        /* Enable lanes. */
+        channel.setCriticalLanesEnabled(true);
+        verifyStatic();
+        SharedPreferencesManager.putBoolean(CRITICAL_LANES_USED_KEY, true);
+        assertNotNull(channel.getGroupState(CRITICAL_GROUP));
+        verify(persistence).countLogs(CRITICAL_GROUP);
+
+        /* Normal logs wait for the batch interval. */
+        Log normalLog = mock(Log.class);
+        channel.enqueue(normalLog, TEST_GROUP, Flags.NORMAL);
+        verify(persistence).putLog(normalLog, TEST_GROUP, Flags.NORMAL);
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
+        verify(ingestion, never()).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* Critical logs are sent immediately. */
+        Log criticalLog = mock(Log.class);
+        channel.enqueue(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).putLog(criticalLog, CRITICAL_GROUP, Flags.CRITICAL);
+        verify(persistence).getLogs(eq(CRITICAL_GROUP), anyListOf(String.class), eq(1), Matchers.<List<Log>>any());
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* Disabling lanes sends critical logs with the other logs again. */
+        channel.setCriticalLanesEnabled(false);
+        Log otherCriticalLog = mock(Log.class);
+        channel.enqueue(otherCriticalLog, TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).putLog(otherCriticalLog, TEST_GROUP, Flags.CRITICAL);
+    }
+
+    @Test
+    public void laneKeepsSingleBatchWithAdaptiveBatching() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        Ingestion ingestion = mock(Ingestion.class);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any())).then(getGetLogsAnswer(1));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setCriticalLanesEnabled(true);
+        channel.setAdaptiveBatching(10, 100, MAX_PARALLEL_BATCHES + 1);
+
+        /* The lane keeps its single batch, the group its own parallelism. */
+        Map<String, BatchingMetrics> metrics = channel.getBatchingMetrics();
+        assertEquals(DefaultChannel.CRITICAL_LANE_MAX_PARALLEL_BATCHES, metrics.get(CRITICAL_GROUP).getMaxParallelBatches());
+        assertEquals(MAX_PARALLEL_BATCHES, metrics.get(TEST_GROUP).getMaxParallelBatches());
+
+        /* A second critical log waits for the batch in flight. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).getLogs(eq(CRITICAL_GROUP), anyListOf(String.class), eq(1), Matchers.<List<Log>>any());
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void lanesAddedWhenPreviouslyUsed() throws Persistence.PersistenceException {
+        when(SharedPreferencesManager.getBoolean(CRITICAL_LANES_USED_KEY)).thenReturn(true);
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(CRITICAL_GROUP)).thenReturn(1);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any())).then(getGetLogsAnswer(1));
+        Ingestion ingestion = mock(Ingestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setCriticalLanesEnabled(false);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Logs stored in the lane are still sent even if lanes are disabled. */
+        verify(persistence).getLogs(eq(CRITICAL_GROUP), anyListOf(String.class), eq(1), Matchers.<List<Log>>any());
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* But new critical logs are not stored there. */
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).putLog(log, TEST_GROUP, Flags.CRITICAL);
+    }
+
+    @Test
+    public void laneFollowsGroup() {
+        Persistence persistence = mock(Persistence.class);
+        Ingestion ingestion = mock(Ingestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setCriticalLanesEnabled(true);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        DefaultChannel.GroupState lane = channel.getGroupState(CRITICAL_GROUP);
+        assertNotNull(lane);
+        assertEquals(Flags.CRITICAL, lane.mPriority);
+        assertEquals(0, lane.mBatchTimeInterval);
+        assertEquals(DefaultChannel.CRITICAL_LANE_MAX_PARALLEL_BATCHES, lane.mMaxParallelBatches);
+
+        /* Pause and resume. */
+        channel.pauseGroup(TEST_GROUP, null);
+        assertEquals(true, lane.mPaused);
+        channel.resumeGroup(TEST_GROUP, null);
+        assertEquals(false, lane.mPaused);
+        channel.pauseGroup(TEST_GROUP, MOCK_TOKEN);
+        assertEquals(1, lane.mPausedTargetKeys.size());
+        channel.resumeGroup(TEST_GROUP, MOCK_TOKEN);
+        assertEquals(0, lane.mPausedTargetKeys.size());
+
+        /* Clear. */
+        channel.clear(TEST_GROUP);
+        verify(persistence).deleteLogs(CRITICAL_GROUP);
+
+        /* Remove. */
+        channel.removeGroup(TEST_GROUP);
+        assertNull(channel.getGroupState(CRITICAL_GROUP));
+    }
+
+    @Test
+    public void timeToSendMetrics() throws Persistence.PersistenceException {
+        when(System.currentTimeMillis()).thenReturn(10000L);
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any())).then(getTimestampedLogsAnswer(2000L));
+        when(persistence.getLogs(eq(CRITICAL_GROUP), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any())).then(getTimestampedLogsAnswer(9000L));
+        Ingestion ingestion = mock(Ingestion.class);
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setCriticalLanesEnabled(true);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Nothing measured yet. */
+        Map<Integer, TimeToSendMetrics> metrics = channel.getTimeToSendMetrics();
+        assertEquals(0, metrics.get(Flags.NORMAL).getLogCount());
+        assertEquals(0, metrics.get(Flags.CRITICAL).getAverageTimeToSend());
+
+        /* Send a normal and a critical log. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        assertEquals(2, callbacks.size());
+        for (ServiceCallback callback : callbacks) {
+            callback.onCallSucceeded(new HttpResponse(200, ""));
+        }
+        verify(persistence).deleteLogs(eq(TEST_GROUP), anyString());
+        verify(persistence).deleteLogs(eq(CRITICAL_GROUP), anyString());
+        metrics = channel.getTimeToSendMetrics();
+        TimeToSendMetrics normalMetrics = metrics.get(Flags.NORMAL);
+        assertEquals(1, normalMetrics.getLogCount());
+        assertEquals(8000, normalMetrics.getAverageTimeToSend());
+        assertEquals(8000, normalMetrics.getMaxTimeToSend());
+        TimeToSendMetrics criticalMetrics = metrics.get(Flags.CRITICAL);
+        assertEquals(1, criticalMetrics.getLogCount());
+        assertEquals(1000, criticalMetrics.getAverageTimeToSend());
+        assertEquals(1000, criticalMetrics.getMaxTimeToSend());
+        assertNotNull(criticalMetrics.toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void timeToSendMetricsOfRawLogs() throws Persistence.PersistenceException {
+        when(System.currentTimeMillis()).thenReturn(10000L);
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), isNull(List.class), anyListOf(String.class)))
+                .then(getRawLogsAnswer("{\"type\":\"mock\",\"timestamp\":\"1970-01-01T00:00:02.000Z\",\"properties\":{\"time\":\"1970-01-01T00:00:01.000Z\"}}"))
+                .then(getRawLogsAnswer("{\"type\":\"mock\",\"timestamp\":\"1970-01-01T00:00:04.000Z\"}"));
+        when(persistence.getLogs(eq(CRITICAL_GROUP), anyListOf(String.class), anyInt(), isNull(List.class), anyListOf(String.class)))
+                .then(getRawLogsAnswer("{\"ver\":\"3.0\",\"name\":\"test\",\"time\":\"1970-01-01T00:00:09.000Z\",\"data\":{\"timestamp\":\"1970-01-01T00:00:01.000Z\"}}"))
+                .then(getRawLogsAnswer("{}"));
+        Ingestion ingestion = mock(Ingestion.class);
+        when(ingestion.isRawLogsSupported()).thenReturn(true);
+        when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setCriticalLanesEnabled(true);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Stored payloads are sent without being deserialized but still measured. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        verify(persistence, never()).getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class));
+        Map<Integer, TimeToSendMetrics> metrics = channel.getTimeToSendMetrics();
+        TimeToSendMetrics normalMetrics = metrics.get(Flags.NORMAL);
+        assertEquals(2, normalMetrics.getLogCount());
+        assertEquals(7000, normalMetrics.getAverageTimeToSend());
+        assertEquals(8000, normalMetrics.getMaxTimeToSend());
+
+        /* Payloads without a creation time are not measured. */
+        TimeToSendMetrics criticalMetrics = metrics.get(Flags.CRITICAL);
+        assertEquals(1, criticalMetrics.getLogCount());
+        assertEquals(1000, criticalMetrics.getAverageTimeToSend());
+        assertEquals(1000, criticalMetrics.getMaxTimeToSend());
+    }
+
+    @Test
+    public void getRawLogTime() {
+        assertEquals(2000, DefaultChannel.getRawLogTime("{\"type\":\"mock\",\"timestamp\":\"1970-01-01T00:00:02.000Z\"}"));
+        assertEquals(9000, DefaultChannel.getRawLogTime("{\"ver\":\"3.0\",\"time\":\"1970-01-01T00:00:09.000Z\",\"data\":{\"timestamp\":\"x\"}}"));
+        assertEquals(-1, DefaultChannel.getRawLogTime("{}"));
+        assertEquals(-1, DefaultChannel.getRawLogTime("{\"timestamp\":\"1970"));
+        assertEquals(-1, DefaultChannel.getRawLogTime("{\"timestamp\":\"invalid\"}"));
+    }
+}
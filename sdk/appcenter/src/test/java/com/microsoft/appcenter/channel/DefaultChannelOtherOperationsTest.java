@@ -8,17 +8,28 @@ package com.microsoft.appcenter.channel;
 import android.content.Context;
 
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.HttpResponse;
+import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.persistence.Persistence;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -28,9 +39,11 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -74,6 +87,25 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         verifyNoMoreInteractions(listener);
     }
 
+    @Test
+    public void convertedLogOnlyDecorated() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Channel.Listener listener = spy(new AbstractChannelListener());
+        when(listener.shouldFilter(any(Log.class))).thenReturn(true);
+        channel.addListener(listener);
+
+        /* Converted log is decorated and persisted, but neither prepared nor filtered again. */
+        Log log = mock(Log.class);
+        channel.enqueueConvertedLog(log, TEST_GROUP, Flags.CRITICAL);
+        verify(listener).onPreparingLog(log, TEST_GROUP);
+        verifyNoMoreInteractions(listener);
+        verify(log).setDevice(any(Device.class));
+        verify(log).setTimestamp(any(Date.class));
+        verify(persistence).putLog(log, TEST_GROUP, Flags.CRITICAL);
+    }
+
     @Test
     public void clear() {
         Persistence mockPersistence = mock(Persistence.class);
@@ -109,6 +141,232 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         verify(mockPersistence).clearPendingLogState();
     }
 
+    @Test
+    public void writeBatching() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.putLog(any(Log.class), anyString(), anyInt())).thenReturn(Persistence.PENDING_WRITE_ID);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setWriteBatching(10, 200);
+        verify(mockPersistence).setWriteBatchSize(10);
+
+        /* Buffered logs schedule a single flush. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<Runnable> flushRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(flushRunnable.capture(), eq(200L));
+
+        /* Shutdown writes buffered logs immediately. */
+        channel.shutdown();
+        verify(mAppCenterHandler).removeCallbacks(flushRunnable.getValue());
+        verify(mockPersistence).flush();
+
+        /* Nothing to flush anymore. */
+        channel.flush();
+        verify(mockPersistence).flush();
+
+        /* Disabling batching writes buffered logs. */
+        channel.setWriteBatching(1, 0);
+        verify(mockPersistence).setWriteBatchSize(1);
+    }
+
+    @Test
+    public void memoryTail() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setMemoryTail(10, 5000);
+        channel.setMemoryTailPriorities(TEST_GROUP, Flags.NORMAL);
+
+        /* Normal logs stay in memory and schedule a single check of their age. */
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        ArgumentCaptor<Runnable> spillRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(spillRunnable.capture(), eq(5000L));
+
+        /* Critical logs are stored immediately. */
+        Log criticalLog = mock(Log.class);
+        channel.enqueue(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        verify(mockPersistence).putLog(criticalLog, TEST_GROUP, Flags.CRITICAL);
+
+        /* Logs still in memory are checked again later. */
+        spillRunnable.getValue().run();
+        verify(mAppCenterHandler, times(2)).postDelayed(eq(spillRunnable.getValue()), anyLong());
+
+        /* Flush, like when going to background, stores the logs in memory. */
+        channel.flush();
+        verify(mAppCenterHandler).removeCallbacks(spillRunnable.getValue());
+        verify(mockPersistence).putLog(log, TEST_GROUP, Flags.NORMAL);
+        verify(mockPersistence, times(2)).putLog(any(Log.class), eq(TEST_GROUP), eq(Flags.NORMAL));
+        verify(mockPersistence).flush();
+
+        /* Disabling the memory tail stores every log immediately. */
+        channel.setMemoryTail(0, 0);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence, times(3)).putLog(any(Log.class), eq(TEST_GROUP), eq(Flags.NORMAL));
+    }
+
+    @Test
+    public void enqueueAsync() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Hold posted commands. */
+        final List<Runnable> commands = new ArrayList<>();
+        doAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                commands.add((Runnable) invocation.getArguments()[0]);
+                return true;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class));
+
+        /* A single command enqueues all published logs. */
+        Log log1 = mock(Log.class);
+        Log log2 = mock(Log.class);
+        channel.enqueueAsync(log1, TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueueAsync(log2, TEST_GROUP, Flags.CRITICAL);
+        assertEquals(1, commands.size());
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+
+        /* Logs are timestamped when enqueued, like other logs, so that listeners see them as current. */
+        verify(log1, never()).setTimestamp(any(Date.class));
+        verify(log2, never()).setTimestamp(any(Date.class));
+        commands.remove(0).run();
+        verify(log1).setTimestamp(notNull(Date.class));
+        verify(log2).setTimestamp(notNull(Date.class));
+        verify(mockPersistence).putLog(log1, TEST_GROUP, Flags.NORMAL);
+        verify(mockPersistence).putLog(log2, TEST_GROUP, Flags.CRITICAL);
+
+        /* Next log schedules another command. */
+        Log log3 = mock(Log.class);
+        channel.enqueueAsync(log3, TEST_GROUP, Flags.DEFAULTS);
+        assertEquals(1, commands.size());
+
+        /* When buffer is full, logs are enqueued by their own command after the buffered ones. */
+        for (int i = 1; i < DefaultChannel.ENQUEUE_BUFFER_CAPACITY; i++) {
+            channel.enqueueAsync(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+        assertEquals(1, commands.size());
+        Log overflowLog = mock(Log.class);
+        channel.enqueueAsync(overflowLog, TEST_GROUP, Flags.DEFAULTS);
+        assertEquals(2, commands.size());
+        commands.remove(1).run();
+        verify(mockPersistence, times(DefaultChannel.ENQUEUE_BUFFER_CAPACITY + 3)).putLog(any(Log.class), eq(TEST_GROUP), anyInt());
+        verify(mockPersistence).putLog(overflowLog, TEST_GROUP, Flags.NORMAL);
+
+        /* Scheduled command has nothing left to do. */
+        commands.remove(0).run();
+        verify(mockPersistence, times(DefaultChannel.ENQUEUE_BUFFER_CAPACITY + 3)).putLog(any(Log.class), eq(TEST_GROUP), anyInt());
+
+        /* Shutdown enqueues buffered logs. */
+        Log log4 = mock(Log.class);
+        channel.enqueueAsync(log4, TEST_GROUP, Flags.DEFAULTS);
+        channel.shutdown();
+        verify(mockPersistence).putLog(log4, TEST_GROUP, Flags.NORMAL);
+    }
+
+    @Test
+    public void adaptiveBatching() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any()))
+                .then(getGetLogsAnswer());
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 40, BATCH_TIME_INTERVAL, 2, null, null);
+
+        /* Fixed values by default. */
+        BatchingMetrics metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(40, metrics.getMaxLogsPerBatch());
+        assertEquals(2, metrics.getMaxParallelBatches());
+
+        /* Enable adaptive batching, starting from group values. */
+        channel.setAdaptiveBatching(10, 100, 3);
+        metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(40, metrics.getMaxLogsPerBatch());
+        assertEquals(2, metrics.getMaxParallelBatches());
+
+        /* Fill a batch and make it succeed. */
+        for (int i = 0; i < 40; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(40), Matchers.<List<Log>>any());
+        callbacks.get(0).onCallSucceeded(new HttpResponse(200, ""));
+
+        /* Group values are never exceeded. */
+        metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(40, metrics.getMaxLogsPerBatch());
+        assertEquals(2, metrics.getMaxParallelBatches());
+        for (int i = 0; i < 80; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+        verify(mockPersistence, times(3)).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(40), Matchers.<List<Log>>any());
+        assertEquals(3, callbacks.size());
+
+        /* Network failure backs off. */
+        callbacks.get(1).onCallFailed(new SocketException());
+        metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(20, metrics.getMaxLogsPerBatch());
+        assertEquals(1, metrics.getMaxParallelBatches());
+        assertTrue(metrics.getFailureRate() > 0);
+
+        /* Disabling adaptive batching restores group values. */
+        channel.setAdaptiveBatching(0, 0, 0);
+        metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(40, metrics.getMaxLogsPerBatch());
+        assertEquals(2, metrics.getMaxParallelBatches());
+    }
+
+    @Test
+    public void adaptiveBatchingKeepsTriggerCountOfOne() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any()))
+                .then(getGetLogsAnswer());
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+
+        /* Same values as the crashes group. */
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, 1, null, null);
+        channel.setAdaptiveBatching(10, 100, 2);
+        BatchingMetrics metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(1, metrics.getMaxLogsPerBatch());
+        assertEquals(1, metrics.getMaxParallelBatches());
+
+        /* Each log is still sent immediately on its own, even after a successful batch. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(1), Matchers.<List<Log>>any());
+        callbacks.get(0).onCallSucceeded(new HttpResponse(200, ""));
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence, times(2)).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(1), Matchers.<List<Log>>any());
+        assertEquals(2, callbacks.size());
+        metrics = channel.getBatchingMetrics().get(TEST_GROUP);
+        assertEquals(1, metrics.getMaxLogsPerBatch());
+        assertEquals(1, metrics.getMaxParallelBatches());
+        verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
+    }
+
     @Test
     public void filter() throws Persistence.PersistenceException {
 
@@ -31,6 +31,7 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -39,12 +40,15 @@ import static com.microsoft.appcenter.Flags.NORMAL;
 import static com.microsoft.appcenter.channel.DefaultChannel.START_TIMER_PREFIX;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -75,6 +79,101 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         verify(mAppCenterHandler, never()).removeCallbacks(any(Runnable.class));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sendRawLogsWithoutDeserializing() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockIngestion.isRawLogsSupported()).thenReturn(true);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), isNull(List.class), anyListOf(String.class))).then(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                ((List<String>) invocation.getArguments()[4]).add("{}");
+                return UUID.randomUUID().toString();
+            }
+        });
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Enqueue a log: sent from the stored payload without getting log objects. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertEquals(Collections.singletonList("{}"), container.getValue().getRawLogs());
+        assertTrue(container.getValue().getLogs().isEmpty());
+        verify(mockPersistence, never()).getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class));
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sendRawLogsRecoverableFailure() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockIngestion.isRawLogsSupported()).thenReturn(true);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), isNull(List.class), anyListOf(String.class))).then(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                List<String> rawLogs = (List<String>) invocation.getArguments()[4];
+                rawLogs.add("{}");
+                rawLogs.add("{}");
+                return UUID.randomUUID().toString();
+            }
+        });
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException())).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Sending the stored payloads fails. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertFalse(channel.isEnabled());
+        verify(mockPersistence).clearPendingLogState();
+
+        /* The logs of the failed batch are pending again even though they were not deserialized. */
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* They are sent again when the channel is enabled. */
+        channel.setEnabled(true);
+        verify(mockIngestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sendRawLogsWithGroupListener() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockIngestion.isRawLogsSupported()).thenReturn(true);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        final Log log = mock(Log.class);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), notNull(List.class), anyListOf(String.class))).then(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).add(log);
+                ((List<String>) invocation.getArguments()[4]).add("{}");
+                return UUID.randomUUID().toString();
+            }
+        });
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+
+        /* Listener still gets log objects while payload is sent as stored. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertEquals(Collections.singletonList("{}"), container.getValue().getRawLogs());
+        assertEquals(Collections.singletonList(log), container.getValue().getLogs());
+        verify(mockListener).onBeforeSending(log);
+        verify(mockListener).onSuccess(log);
+    }
+
     @Test
     public void analyticsSuccess() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.NonNull;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.StartServiceLog;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class LogRingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        new LogRingBuffer(3);
+    }
+
+    @Test
+    public void offerAndDrain() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        Log log1 = mock(Log.class);
+        Log log2 = mock(Log.class);
+        assertTrue(buffer.offer(log1, "g1", NORMAL));
+        assertTrue(buffer.offer(log2, "g2", CRITICAL));
+        final List<Object[]> drained = new ArrayList<>();
+        LogRingBuffer.Consumer consumer = new LogRingBuffer.Consumer() {
+
+            @Override
+            public void accept(@NonNull Log log, @NonNull String groupName, int flags) {
+                drained.add(new Object[]{log, groupName, flags});
+            }
+        };
+        assertEquals(2, buffer.drain(consumer));
+        assertSame(log1, drained.get(0)[0]);
+        assertEquals("g1", drained.get(0)[1]);
+        assertEquals(NORMAL, drained.get(0)[2]);
+        assertSame(log2, drained.get(1)[0]);
+        assertEquals("g2", drained.get(1)[1]);
+        assertEquals(CRITICAL, drained.get(1)[2]);
+
+        /* Nothing left. */
+        assertEquals(0, buffer.drain(consumer));
+    }
+
+    @Test
+    public void fullThenWrapAround() {
+        LogRingBuffer buffer = new LogRingBuffer(2);
+        final AtomicInteger count = new AtomicInteger();
+        LogRingBuffer.Consumer consumer = new LogRingBuffer.Consumer() {
+
+            @Override
+            public void accept(@NonNull Log log, @NonNull String groupName, int flags) {
+                count.incrementAndGet();
+            }
+        };
+        for (int lap = 0; lap < 3; lap++) {
+            assertTrue(buffer.offer(mock(Log.class), "g", NORMAL));
+            assertTrue(buffer.offer(mock(Log.class), "g", NORMAL));
+            assertFalse(buffer.offer(mock(Log.class), "g", NORMAL));
+            assertEquals(2, buffer.drain(consumer));
+        }
+        assertEquals(6, count.get());
+    }
+
+    @Test
+    public void drainWhilePublishing() {
+        final LogRingBuffer buffer = new LogRingBuffer(4);
+        final AtomicInteger count = new AtomicInteger();
+        assertTrue(buffer.offer(mock(Log.class), "g", NORMAL));
+
+        /* Logs published from the consumer callback are drained in the same call. */
+        assertEquals(3, buffer.drain(new LogRingBuffer.Consumer() {
+
+            @Override
+            public void accept(@NonNull Log log, @NonNull String groupName, int flags) {
+                if (count.incrementAndGet() < 3) {
+                    assertTrue(buffer.offer(mock(Log.class), "g", NORMAL));
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        final int producerCount = 4;
+        final int logsPerProducer = 20000;
+        final LogRingBuffer buffer = new LogRingBuffer(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Log[][] logs = new Log[producerCount][logsPerProducer];
+        final Map<Log, Integer> producerByLog = new IdentityHashMap<>();
+        for (int producer = 0; producer < producerCount; producer++) {
+            for (int i = 0; i < logsPerProducer; i++) {
+                logs[producer][i] = new StartServiceLog();
+                producerByLog.put(logs[producer][i], producer);
+            }
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (Log log : logs[producer]) {
+                        while (!buffer.offer(log, "g" + producer, NORMAL)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        /* Consume on this thread: every log exactly once, in order for a given producer. */
+        final int[] nextIndex = new int[producerCount];
+        final AtomicInteger drained = new AtomicInteger();
+        LogRingBuffer.Consumer consumer = new LogRingBuffer.Consumer() {
+
+            @Override
+            public void accept(@NonNull Log log, @NonNull String groupName, int flags) {
+                int producer = producerByLog.get(log);
+                assertEquals("g" + producer, groupName);
+                assertSame(logs[producer][nextIndex[producer]++], log);
+                drained.incrementAndGet();
+            }
+        };
+        start.countDown();
+        while (drained.get() < producerCount * logsPerProducer) {
+            if (buffer.drain(consumer) == 0) {
+                Thread.yield();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, buffer.drain(consumer));
+        for (int producer = 0; producer < producerCount; producer++) {
+            assertEquals(logsPerProducer, nextIndex[producer]);
+        }
+    }
+}
@@ -145,11 +145,11 @@ public class OneCollectorChannelListenerTest {
         assertEquals(installId, log2.getExt().getSdk().getInstallId());
 
         /* Verify enqueue. */
-        verify(channel).enqueue(log1, TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX, DEFAULTS);
-        verify(channel).enqueue(log2, TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX, DEFAULTS);
+        verify(channel).enqueueConvertedLog(log1, TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX, DEFAULTS);
+        verify(channel).enqueueConvertedLog(log2, TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX, DEFAULTS);
 
         /* We simulated that we see on prepared log on the enqueued log, verify no more enqueuing. */
-        verify(channel, times(2)).enqueue(any(Log.class), anyString(), eq(DEFAULTS));
+        verify(channel, times(2)).enqueueConvertedLog(any(Log.class), anyString(), eq(DEFAULTS));
 
         /* Mock log with another key to see new seq/epoch. */
         when(originalLog.getTransmissionTargetTokens()).thenReturn(new HashSet<>(Collections.singletonList("t2")));
@@ -203,7 +203,7 @@ public class OneCollectorChannelListenerTest {
         verify(logSerializer).toCommonSchemaLog(any(Log.class));
 
         /* Verify no enqueuing as the log was invalid. */
-        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        verify(channel, never()).enqueueConvertedLog(any(Log.class), anyString(), anyInt());
     }
 
     @Test
@@ -221,7 +221,7 @@ public class OneCollectorChannelListenerTest {
         verify(logSerializer, never()).toCommonSchemaLog(any(Log.class));
 
         /* Verify no enqueuing. */
-        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        verify(channel, never()).enqueueConvertedLog(any(Log.class), anyString(), anyInt());
     }
 
     @Test
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -47,6 +48,7 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -57,6 +59,8 @@ import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyMapOf;
@@ -82,6 +86,7 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
 @PrepareForTest({
         AppCenterLog.class,
         DefaultHttpClient.class,
+        DefaultHttpClientCall.class,
         DefaultHttpClientCallTask.class,
         HttpUtils.class,
         TrafficStats.class
@@ -117,7 +122,8 @@ public class DefaultHttpClientTest {
                         (HttpClient.CallTemplate) invocation.getArguments()[3],
                         (ServiceCallback) invocation.getArguments()[4],
                         (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5],
-                        (boolean) invocation.getArguments()[6]));
+                        (boolean) invocation.getArguments()[6],
+                        (boolean) invocation.getArguments()[7]));
                 when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
 
                     @Override
@@ -177,6 +183,23 @@ public class DefaultHttpClientTest {
         }
     }
 
+    @Test
+    public void tls1_2SocketFactoryShared() throws Exception {
+
+        /* Connections must use the same socket factory to be pooled and resume TLS sessions. */
+        String urlString = "https://mock/logs?api-version=1.0.0";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.KITKAT);
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), null, mock(ServiceCallback.class));
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), null, mock(ServiceCallback.class));
+        ArgumentCaptor<SSLSocketFactory> socketFactory = ArgumentCaptor.forClass(SSLSocketFactory.class);
+        verify(urlConnection, times(2)).setSSLSocketFactory(socketFactory.capture());
+        assertTrue(socketFactory.getAllValues().get(0) instanceof TLS1_2SocketFactory);
+        assertSame(socketFactory.getAllValues().get(0), socketFactory.getAllValues().get(1));
+    }
+
     private void testTls1_2Setting(int apiLevel, int tlsSetExpectedCalls) throws Exception {
         String urlString = "https://mock/logs?api-version=1.0.0";
         HttpsURLConnection urlConnection = mockConnection(urlString);
@@ -687,7 +710,8 @@ public class DefaultHttpClientTest {
                         (HttpClient.CallTemplate) invocation.getArguments()[3],
                         (ServiceCallback) invocation.getArguments()[4],
                         (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5],
-                        (boolean) invocation.getArguments()[6]));
+                        (boolean) invocation.getArguments()[6],
+                        (boolean) invocation.getArguments()[7]));
                 callTask.set(call);
                 when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
 
@@ -917,6 +941,74 @@ public class DefaultHttpClientTest {
         TrafficStats.clearThreadStatsTag();
     }
 
+    @Test
+    public void reuseConnectionWhenResponseConsumed() throws Exception {
+        String urlString = "https://mock/get";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayInputStream inputStream = spy(new ByteArrayInputStream("OK".getBytes()));
+        when(urlConnection.getInputStream()).thenReturn(inputStream);
+        ByteArrayInputStream errorStream = spy(new ByteArrayInputStream("Busy".getBytes()));
+        when(urlConnection.getErrorStream()).thenReturn(errorStream);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, true);
+        assertTrue(httpClient.isConnectionReuseEnabled());
+        mockCall();
+
+        /* Success: stream closed to release the connection to the pool without disconnecting. */
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        verify(inputStream).close();
+        verify(urlConnection, never()).disconnect();
+
+        /* Error responses are also fully read. */
+        when(urlConnection.getResponseCode()).thenReturn(503);
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(serviceCallback).onCallFailed(new HttpException(new HttpResponse(503, "Busy")));
+        verify(errorStream).close();
+        verify(urlConnection, never()).disconnect();
+        assertEquals(0, httpClient.getTasks().size());
+    }
+
+    @Test
+    public void disconnectWhenCancelledOnReceivingWithConnectionReuse() throws Exception {
+        String urlString = "https://mock/get";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        mockCall(new Consumer<DefaultHttpClientCallTask>() {
+
+            @Override
+            public void accept(final DefaultHttpClientCallTask call) {
+                when(call.isCancelled()).thenReturn(false, false, true);
+            }
+        });
+
+        /* Response may not have been fully read, connection cannot be reused. */
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, true);
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, mock(ServiceCallback.class));
+        verify(urlConnection).disconnect();
+        assertEquals(0, httpClient.getTasks().size());
+    }
+
+    @Test
+    public void disconnectWhenFailedToReadResponseWithConnectionReuse() throws Exception {
+        String urlString = "https://mock/get";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        InputStream inputStream = mock(InputStream.class);
+        when(urlConnection.getInputStream()).thenReturn(inputStream);
+        IOException exception = new IOException("mock");
+        when(inputStream.read(any(byte[].class), anyInt(), anyInt())).thenThrow(exception);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, true);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(serviceCallback).onCallFailed(exception);
+        verify(inputStream).close();
+        verify(urlConnection).disconnect();
+    }
+
     @Test
     public void failedWithError() throws Exception {
         String urlString = "https://mock/get";
@@ -1076,6 +1168,131 @@ public class DefaultHttpClientTest {
         }));
     }
 
+    @Test
+    public void sendStreamingGzip() throws Exception {
+
+        /* Mock no verbose logging. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure API client with a template writing the payload. */
+        final String payload = "{\"a\":\"\u00e9\"}";
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Writer) invocation.getArguments()[0]).write(payload);
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(Writer.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        verifyNoMoreInteractions(serviceCallback);
+
+        /* Payload is compressed even if small as length is not known in advance. */
+        verify(urlConnection).setRequestProperty("Content-Type", "application/json");
+        verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
+        verify(urlConnection).setDoOutput(true);
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        verify(urlConnection, never()).setFixedLengthStreamingMode(anyInt());
+        verify(urlConnection).disconnect();
+        verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
+        verify(callTemplate, never()).buildRequestBody();
+        httpClient.close();
+
+        /* Verify payload. */
+        InputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        int b;
+        while ((b = gzipStream.read()) >= 0) {
+            uncompressed.write(b);
+        }
+        assertEquals(payload, new String(uncompressed.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void sendStreamingWhenCompressionDisabled() throws Exception {
+
+        /* Mock no verbose logging. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure API client with a template writing the payload. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Writer) invocation.getArguments()[0]).write("mockPayload");
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(Writer.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient(false);
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        assertEquals("mockPayload", buffer.toString());
+        httpClient.close();
+    }
+
+    @Test
+    public void sendStreamingTemplateWithVerboseLogging() throws Exception {
+
+        /* Mock verbose logging. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.VERBOSE);
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Payload is built as a string to be logged. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn("mockPayload");
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "custom");
+        httpClient.callAsync(urlString, METHOD_POST, headers, callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        verify(callTemplate, never()).writeRequestBody(any(Writer.class));
+        verify(urlConnection).setFixedLengthStreamingMode(anyInt());
+        assertEquals("mockPayload", buffer.toString());
+        httpClient.close();
+    }
+
     @Test
     public void sendNoGzipWhenCompressionDisabled() throws Exception {
 
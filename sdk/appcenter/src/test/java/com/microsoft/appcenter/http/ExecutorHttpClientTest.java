@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.net.TrafficStats;
+import android.os.Handler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@SuppressWarnings("unused")
+@PrepareForTest({
+        DefaultHttpClientCall.class,
+        HttpUtils.class,
+        TrafficStats.class
+})
+public class ExecutorHttpClientTest {
+
+    private static final String MOCK_URL = "https://mock";
+
+    private static final Executor SYNC_EXECUTOR = new Executor() {
+
+        @Override
+        public void execute(@SuppressWarnings("NullableProblems") Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    /**
+     * Executor keeping the commands to run them later.
+     */
+    private static Executor deferredExecutor(final List<Runnable> commands) {
+        return new Executor() {
+
+            @Override
+            public void execute(@SuppressWarnings("NullableProblems") Runnable command) {
+                commands.add(command);
+            }
+        };
+    }
+
+    /**
+     * Mock the connection of the calls to return the specified status code.
+     */
+    private static HttpsURLConnection mockConnection(int status) throws Exception {
+        mockStatic(TrafficStats.class);
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(MOCK_URL).thenReturn(url);
+        when(url.getProtocol()).thenReturn("https");
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(status);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        when(urlConnection.getErrorStream()).thenReturn(new ByteArrayInputStream("Error".getBytes()));
+        return urlConnection;
+    }
+
+    @Test
+    public void success() throws Exception {
+        HttpsURLConnection urlConnection = mockConnection(200);
+        List<Runnable> callbacks = new ArrayList<>();
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, SYNC_EXECUTOR, deferredExecutor(callbacks));
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+
+        /* Call done in background but callback is not called until callback executor runs it. */
+        verify(urlConnection).getInputStream();
+        assertEquals(1, httpClient.getCalls().size());
+        assertEquals(1, callbacks.size());
+        verifyZeroInteractions(serviceCallback);
+
+        /* Run callback. */
+        callbacks.get(0).run();
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        assertEquals(0, httpClient.getCalls().size());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        mockConnection(503);
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, SYNC_EXECUTOR, SYNC_EXECUTOR);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        ArgumentCaptor<Exception> exception = ArgumentCaptor.forClass(Exception.class);
+        verify(serviceCallback).onCallFailed(exception.capture());
+        assertTrue(exception.getValue() instanceof HttpException);
+        assertEquals(503, ((HttpException) exception.getValue()).getHttpResponse().getStatusCode());
+        assertEquals(0, httpClient.getCalls().size());
+    }
+
+    @Test
+    public void callbackOnHandler() throws Exception {
+        mockConnection(200);
+        Handler handler = mock(Handler.class);
+        doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        }).when(handler).post(any(Runnable.class));
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, SYNC_EXECUTOR, handler);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(handler).post(any(Runnable.class));
+        verify(serviceCallback).onCallSucceeded(any(HttpResponse.class));
+    }
+
+    @Test
+    public void cancelAfterResponse() throws Exception {
+        mockConnection(200);
+        List<Runnable> callbacks = new ArrayList<>();
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, SYNC_EXECUTOR, deferredExecutor(callbacks));
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        ServiceCall serviceCall = httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        serviceCall.cancel();
+        assertEquals(0, httpClient.getCalls().size());
+
+        /* Callback is not called after cancel. */
+        callbacks.get(0).run();
+        verifyZeroInteractions(serviceCallback);
+
+        /* Cancelling again has no effect. */
+        serviceCall.cancel();
+        assertEquals(0, httpClient.getCalls().size());
+    }
+
+    @Test
+    public void cancelBeforeRunning() throws Exception {
+        HttpsURLConnection urlConnection = mockConnection(200);
+        List<Runnable> commands = new ArrayList<>();
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, deferredExecutor(commands), SYNC_EXECUTOR);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        ServiceCall serviceCall = httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        serviceCall.cancel();
+        assertEquals(0, httpClient.getCalls().size());
+
+        /* Call is skipped. */
+        commands.get(0).run();
+        verifyZeroInteractions(urlConnection);
+        verifyZeroInteractions(serviceCallback);
+    }
+
+    @Test
+    public void cancelDuringCall() throws Exception {
+        HttpsURLConnection urlConnection = mockConnection(200);
+        final AtomicReference<ServiceCall> serviceCall = new AtomicReference<>();
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                serviceCall.get().cancel();
+                return null;
+            }
+        }).when(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
+        List<Runnable> commands = new ArrayList<>();
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, deferredExecutor(commands), SYNC_EXECUTOR);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        serviceCall.set(httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), callTemplate, serviceCallback));
+        commands.get(0).run();
+
+        /* The call stops at the next step and the callback is not called. */
+        verify(urlConnection, never()).getResponseCode();
+        verify(urlConnection).disconnect();
+        verifyZeroInteractions(serviceCallback);
+        assertEquals(0, httpClient.getCalls().size());
+    }
+
+    @Test
+    public void rejected() throws Exception {
+        final RejectedExecutionException exception = new RejectedExecutionException();
+        List<Runnable> callbacks = new ArrayList<>();
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(true, new Executor() {
+
+            @Override
+            public void execute(@SuppressWarnings("NullableProblems") Runnable command) {
+                throw exception;
+            }
+        }, deferredExecutor(callbacks));
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+
+        /* Failure is reported only after returning. */
+        verifyZeroInteractions(serviceCallback);
+        assertEquals(0, httpClient.getCalls().size());
+        callbacks.get(0).run();
+        verify(serviceCallback).onCallFailed(exception);
+    }
+
+    @Test
+    public void close() throws Exception {
+        mockConnection(200);
+        List<Runnable> callbacks = new ArrayList<>();
+        ExecutorHttpClient httpClient = new ExecutorHttpClient(false, SYNC_EXECUTOR, deferredExecutor(callbacks));
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(MOCK_URL, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        assertEquals(1, httpClient.getCalls().size());
+        httpClient.close();
+        assertEquals(0, httpClient.getCalls().size());
+        callbacks.get(0).run();
+        verifyZeroInteractions(serviceCallback);
+    }
+
+    @Test
+    public void boundedExecutor() throws Exception {
+        ThreadPoolExecutor executor = ExecutorHttpClient.createBoundedExecutor(1, 10, 1);
+        try {
+            assertEquals(1, executor.getCorePoolSize());
+            assertEquals(1, executor.getMaximumPoolSize());
+            assertTrue(executor.allowsCoreThreadTimeOut());
+
+            /* Block the only thread. */
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicReference<String> threadName = new AtomicReference<>();
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    threadName.set(Thread.currentThread().getName());
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(ExecutorHttpClient.THREAD_NAME_PREFIX + 1, threadName.get());
+
+            /* Fill the queue then check next call is rejected. */
+            Runnable noop = mock(Runnable.class);
+            executor.execute(noop);
+            try {
+                executor.execute(noop);
+                fail("Expected RejectedExecutionException");
+            } catch (RejectedExecutionException ignored) {
+            }
+            release.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void compression() {
+        assertTrue(new ExecutorHttpClient(true, SYNC_EXECUTOR, SYNC_EXECUTOR).isCompressionEnabled());
+        assertFalse(new ExecutorHttpClient(false, SYNC_EXECUTOR, SYNC_EXECUTOR).isCompressionEnabled());
+    }
+}
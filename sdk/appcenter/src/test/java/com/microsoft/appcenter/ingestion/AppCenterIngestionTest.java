@@ -19,14 +19,18 @@ import org.json.JSONException;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,7 +39,9 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
@@ -73,6 +79,7 @@ public class AppCenterIngestionTest {
         container.setLogs(logs);
         LogSerializer serializer = mock(LogSerializer.class);
         when(serializer.serializeContainer(any(LogContainer.class))).thenReturn("mockPayload");
+        when(serializer.serializeLog(log)).thenReturn("mockLog");
 
         /* Configure mock HTTP. */
         final ServiceCall call = mock(ServiceCall.class);
@@ -100,6 +107,9 @@ public class AppCenterIngestionTest {
         verify(mHttpClient).callAsync(eq("http://mock" + AppCenterIngestion.API_PATH), eq(METHOD_POST), eq(expectedHeaders), notNull(HttpClient.CallTemplate.class), eq(serviceCallback));
         assertNotNull(callTemplate.get());
         assertEquals("mockPayload", callTemplate.get().buildRequestBody());
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.get()).writeRequestBody(writer);
+        assertEquals("{\"logs\":[mockLog]}", writer.toString());
 
         /* Verify close. */
         ingestion.close();
@@ -110,6 +120,60 @@ public class AppCenterIngestionTest {
         verify(mHttpClient).reopen();
     }
 
+    @Test
+    public void writeLogsOneByOne() throws Exception {
+
+        /* Build some payload. */
+        LogContainer container = new LogContainer();
+        Log firstLog = mock(Log.class);
+        Log secondLog = mock(Log.class);
+        container.setLogs(Arrays.asList(firstLog, secondLog));
+        LogSerializer serializer = mock(LogSerializer.class);
+        when(serializer.serializeLog(firstLog)).thenReturn("{\"type\":\"a\"}");
+        when(serializer.serializeLog(secondLog)).thenReturn("{\"type\":\"b\"}");
+
+        /* Configure mock HTTP. */
+        ArgumentCaptor<HttpClient.CallTemplate> callTemplate = ArgumentCaptor.forClass(HttpClient.CallTemplate.class);
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), callTemplate.capture(), any(ServiceCallback.class))).thenReturn(mock(ServiceCall.class));
+
+        /* Logs are serialized straight into the writer without building the container. */
+        AppCenterIngestion ingestion = new AppCenterIngestion(mHttpClient, serializer);
+        ingestion.sendAsync(UUID.randomUUID().toString(), UUID.randomUUID(), container, mock(ServiceCallback.class));
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.getValue()).writeRequestBody(writer);
+        assertEquals("{\"logs\":[{\"type\":\"a\"},{\"type\":\"b\"}]}", writer.toString());
+        verify(serializer, never()).serializeContainer(any(LogContainer.class));
+    }
+
+    @Test
+    public void sendRawLogs() throws Exception {
+
+        /* Build some payload from stored JSON. */
+        LogContainer container = new LogContainer();
+        container.setRawLogs(Arrays.asList("{\"type\":\"a\"}", "{\"type\":\"b\"}"));
+        LogSerializer serializer = mock(LogSerializer.class);
+
+        /* Configure mock HTTP. */
+        ArgumentCaptor<HttpClient.CallTemplate> callTemplate = ArgumentCaptor.forClass(HttpClient.CallTemplate.class);
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), callTemplate.capture(), any(ServiceCallback.class))).thenReturn(mock(ServiceCall.class));
+
+        /* Payloads are spliced without serializing again. */
+        AppCenterIngestion ingestion = new AppCenterIngestion(mHttpClient, serializer);
+        assertTrue(ingestion.isRawLogsSupported());
+        assertFalse(ingestion.isLogsRequired());
+        ingestion.sendAsync(UUID.randomUUID().toString(), UUID.randomUUID(), container, mock(ServiceCallback.class));
+        assertEquals("{\"logs\":[{\"type\":\"a\"},{\"type\":\"b\"}]}", callTemplate.getValue().buildRequestBody());
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.getValue()).writeRequestBody(writer);
+        assertEquals("{\"logs\":[{\"type\":\"a\"},{\"type\":\"b\"}]}", writer.toString());
+        verify(serializer, never()).serializeContainer(any(LogContainer.class));
+
+        /* Check empty batch. */
+        container.setRawLogs(Collections.<String>emptyList());
+        ingestion.sendAsync(UUID.randomUUID().toString(), UUID.randomUUID(), container, mock(ServiceCallback.class));
+        assertEquals("{\"logs\":[]}", callTemplate.getValue().buildRequestBody());
+    }
+
     @Test
     public void failedSerialization() throws Exception {
 
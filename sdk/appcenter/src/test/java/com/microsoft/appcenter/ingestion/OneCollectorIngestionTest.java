@@ -35,6 +35,7 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -167,6 +168,9 @@ public class OneCollectorIngestionTest {
         verify(mHttpClient).callAsync(eq("http://mock"), eq(METHOD_POST), eq(expectedHeaders), notNull(HttpClient.CallTemplate.class), eq(serviceCallback));
         assertNotNull(callTemplate.getValue());
         assertEquals("mockPayload1\nmockPayload2\n", callTemplate.getValue().buildRequestBody());
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.getValue()).writeRequestBody(writer);
+        assertEquals("mockPayload1\nmockPayload2\n", writer.toString());
 
         /* Verify close. */
         ingestion.close();
@@ -177,6 +181,37 @@ public class OneCollectorIngestionTest {
         verify(mHttpClient).reopen();
     }
 
+    @Test
+    public void sendRawLogs() throws Exception {
+
+        /* Build some payload with logs for headers and stored JSON for body. */
+        Extensions ext = new Extensions() {{
+            setProtocol(new ProtocolExtension());
+        }};
+        final CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getExt()).thenReturn(ext);
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton("token1"));
+        LogContainer container = new LogContainer();
+        container.setLogs(Collections.<Log>singletonList(log));
+        container.setRawLogs(Collections.singletonList("{\"name\":\"a\"}"));
+        LogSerializer serializer = mock(LogSerializer.class);
+
+        /* Configure mock HTTP. */
+        ArgumentCaptor<HttpClient.CallTemplate> callTemplate = ArgumentCaptor.forClass(HttpClient.CallTemplate.class);
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), callTemplate.capture(), any(ServiceCallback.class))).thenReturn(mock(ServiceCall.class));
+
+        /* Payloads are spliced without serializing again. */
+        OneCollectorIngestion ingestion = new OneCollectorIngestion(mHttpClient, serializer);
+        assertTrue(ingestion.isRawLogsSupported());
+        assertTrue(ingestion.isLogsRequired());
+        ingestion.sendAsync(null, null, container, mock(ServiceCallback.class));
+        assertEquals("{\"name\":\"a\"}\n", callTemplate.getValue().buildRequestBody());
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.getValue()).writeRequestBody(writer);
+        assertEquals("{\"name\":\"a\"}\n", writer.toString());
+        verify(serializer, never()).serializeLog(any(Log.class));
+    }
+
     @Test
     public void passTicketsDebug() {
         Constants.APPLICATION_DEBUGGABLE = true;
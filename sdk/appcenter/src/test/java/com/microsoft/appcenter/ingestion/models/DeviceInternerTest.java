@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@SuppressWarnings("unused")
+public class DeviceInternerTest {
+
+    private static Device generateDevice(String locale) {
+        Device device = new Device();
+        device.setSdkName("appcenter.android");
+        device.setModel("S5");
+        device.setLocale(locale);
+        return device;
+    }
+
+    @After
+    public void tearDown() {
+        DeviceInterner.clear();
+    }
+
+    @Test
+    public void utilsCoverage() {
+        new DeviceInterner();
+    }
+
+    @Test
+    public void equalDevicesShareInstance() {
+        Device device = generateDevice("en_US");
+        assertSame(device, DeviceInterner.intern(device));
+        assertSame(device, DeviceInterner.intern(generateDevice("en_US")));
+
+        /* Different content is a different instance. */
+        Device otherDevice = generateDevice("fr_FR");
+        assertSame(otherDevice, DeviceInterner.intern(otherDevice));
+        assertSame(device, DeviceInterner.intern(generateDevice("en_US")));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        Device device = DeviceInterner.intern(generateDevice("0"));
+        Device secondDevice = DeviceInterner.intern(generateDevice("1"));
+        for (int i = 2; i < DeviceInterner.MAX_SIZE; i++) {
+            DeviceInterner.intern(generateDevice(String.valueOf(i)));
+        }
+
+        /* Use the first device so that the second one is evicted. */
+        assertSame(device, DeviceInterner.intern(generateDevice("0")));
+        DeviceInterner.intern(generateDevice("new"));
+        assertSame(device, DeviceInterner.intern(generateDevice("0")));
+        assertNotSame(secondDevice, DeviceInterner.intern(generateDevice("1")));
+    }
+}
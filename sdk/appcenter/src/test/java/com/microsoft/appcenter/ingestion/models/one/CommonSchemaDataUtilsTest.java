@@ -16,6 +16,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -26,7 +27,7 @@ import static org.powermock.api.mockito.PowerMockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(Data.class)
+@PrepareForTest({Data.class, MetadataExtension.class})
 public class CommonSchemaDataUtilsTest {
 
     @Test
@@ -36,6 +37,7 @@ public class CommonSchemaDataUtilsTest {
         JSONObject value = mock(JSONObject.class);
         whenNew(JSONObject.class).withNoArguments().thenReturn(value);
         when(value.put(anyString(), any())).thenThrow(new JSONException("mock"));
+        when(value.keys()).thenReturn(Collections.<String>emptyIterator());
         CommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
         List<TypedProperty> properties = new ArrayList<>();
         StringTypedProperty stringTypedProperty = new StringTypedProperty();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
+import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompactLogCodecTest {
+
+    private static final String JSON = "{\"type\":\"event\",\"timestamp\":\"2020-01-01T00:00:00.000Z\",\"sid\":\"8b7bd9bc-4ee3-4b9e-a8e8-0b1b8a9e6b50\",\"id\":\"8b7bd9bc-4ee3-4b9e-a8e8-0b1b8a9e6b50\",\"name\":\"click\",\"properties\":{\"button\":\"ok\"}}";
+
+    private LogSerializer mLogSerializer;
+
+    private CompactLogCodec mCodec;
+
+    @Before
+    public void setUp() {
+        mLogSerializer = mock(LogSerializer.class);
+        mCodec = new CompactLogCodec();
+    }
+
+    @After
+    public void tearDown() {
+        mCodec.close();
+    }
+
+    @Test
+    public void encodeAndDecode() throws JSONException {
+        final Log log = mock(Log.class);
+        when(mLogSerializer.serializeLog(log)).thenReturn(JSON);
+        CompactLogCodec.EncodedLog encodedLog = mCodec.encode(mLogSerializer, log);
+
+        /* No device: nothing shared. */
+        assertNull(encodedLog.getSharedObject());
+        assertEquals(JSON.length(), encodedLog.getJsonSize());
+        byte[] payload = encodedLog.getPayload();
+        assertEquals(CompactLogCodec.FORMAT_VERSION, payload[0]);
+        assertTrue(payload.length < JSON.length());
+
+        /* The JSON is restored. */
+        Log decodedLog = mock(Log.class);
+        when(mLogSerializer.deserializeLog(JSON, "event")).thenReturn(decodedLog);
+        assertSame(decodedLog, mCodec.decode(mLogSerializer, payload, "event", null));
+
+        /* The codec can be reused. */
+        assertTrue(Arrays.equals(payload, mCodec.encode(mLogSerializer, log).getPayload()));
+        assertSame(decodedLog, mCodec.decode(mLogSerializer, payload, "event", null));
+    }
+
+    @Test
+    public void deviceRemovedWhileSerializing() throws JSONException {
+        final Log log = mock(Log.class);
+        Device device = mock(Device.class);
+        when(log.getDevice()).thenReturn(device);
+        when(mLogSerializer.serializeLog(log)).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+
+                /* Check the device is not in the serialized log. */
+                verify(log).setDevice(null);
+                return JSON;
+            }
+        });
+        mCodec.encode(mLogSerializer, log);
+
+        /* Device is restored. */
+        verify(log).setDevice(device);
+    }
+
+    @Test
+    public void extensionsRemovedWhileSerializing() throws JSONException {
+        final CommonSchemaLog log = mock(CommonSchemaLog.class);
+        final Extensions ext = new Extensions();
+        final SdkExtension sdk = new SdkExtension();
+        ext.setSdk(sdk);
+        when(log.getExt()).thenReturn(ext);
+        when(mLogSerializer.serializeLog(log)).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+
+                /* Check only the SDK extension is in the serialized log. */
+                verify(log).setExt(any(Extensions.class));
+                assertNull(ext.getSdk());
+                return JSON;
+            }
+        });
+        mCodec.encode(mLogSerializer, log);
+
+        /* Extensions are restored. */
+        verify(log).setExt(same(ext));
+        assertSame(sdk, ext.getSdk());
+    }
+
+    @Test
+    public void decodeInvalidPayload() throws JSONException {
+        when(mLogSerializer.serializeLog(any(Log.class))).thenReturn(JSON);
+        byte[] payload = mCodec.encode(mLogSerializer, mock(Log.class)).getPayload();
+
+        /* Unknown version. */
+        byte[] invalidPayload = payload.clone();
+        invalidPayload[0] = CompactLogCodec.FORMAT_VERSION + 1;
+        decodeInvalidPayload(invalidPayload);
+
+        /* Truncated. */
+        decodeInvalidPayload(Arrays.copyOf(payload, payload.length / 2));
+
+        /* Corrupted. */
+        invalidPayload = payload.clone();
+        invalidPayload[1] = 0;
+        decodeInvalidPayload(invalidPayload);
+        decodeInvalidPayload(new byte[0]);
+    }
+
+    private void decodeInvalidPayload(byte[] payload) throws JSONException {
+        try {
+            mCodec.decode(mLogSerializer, payload, "event", null);
+            fail("Expected JSONException.");
+        } catch (JSONException ignored) {
+        }
+        verify(mLogSerializer, never()).deserializeLog(anyString(), anyString());
+    }
+}
@@ -15,9 +15,12 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
+import com.microsoft.appcenter.utils.storage.FileManager;
 
 import org.json.JSONException;
 import org.junit.Rule;
@@ -27,7 +30,9 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -35,15 +40,22 @@ import java.util.List;
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNotNull;
 import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -51,7 +63,7 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @SuppressWarnings("unused")
-@PrepareForTest({AppCenterLog.class, DatabaseManager.class, DatabasePersistence.class})
+@PrepareForTest({AppCenterLog.class, CryptoUtils.class, DatabaseManager.class, DatabasePersistence.class, FileManager.class})
 public class DatabasePersistenceTest {
 
     @Rule
@@ -112,7 +124,7 @@ public class DatabasePersistenceTest {
         for (int i = 0; i < groupCount; i++) {
             MockCursor mockCursor = new MockCursor(list.get(i));
             mockCursor.mockBuildValues(mockDatabaseManager);
-            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(i)}), anyString()))
+            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(i)}), anyString(), anyString()))
                     .thenReturn(mockCursor);
         }
 
@@ -138,6 +150,193 @@ public class DatabasePersistenceTest {
         assertEquals(0, persistence.mPendingDbIdentifiers.size());
     }
 
+    @Test
+    public void getRawLogs() throws Exception {
+
+        /* Mock logs. */
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 2; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{\"id\":" + i + "}");
+            when(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN)).thenReturn("token");
+            fieldValues.add(values);
+        }
+
+        /* Mock instances. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        MockCursor mockCursor = new MockCursor(fieldValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get stored payloads without deserializing logs. */
+        List<String> outPayloads = new ArrayList<>();
+        String batchId = persistence.getLogs("mock", Collections.<String>emptyList(), 50, null, outPayloads);
+        assertNotNull(batchId);
+        assertEquals(Arrays.asList("{\"id\":0}", "{\"id\":1}"), outPayloads);
+        verify(logSerializer, never()).deserializeLog(anyString(), anyString());
+
+        /* Logs are now pending. */
+        assertEquals(2, persistence.mPendingDbIdentifiers.size());
+        persistence.deleteLogs("mock", batchId);
+        verify(databaseManager).delete(Arrays.asList(0L, 1L));
+        verify(databaseManager, never()).delete(anyLong());
+    }
+
+    @Test
+    public void pendingStateStoredInDatabase() throws Exception {
+
+        /* Mock logs. */
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 2; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            fieldValues.add(values);
+        }
+
+        /* Mock instances. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        MockCursor mockCursor = new MockCursor(fieldValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(mock(LogSerializer.class));
+
+        /* Batch identifiers from a previous process are cleared once, query is bounded. */
+        String batchId = persistence.getLogs("mock", Collections.<String>emptyList(), 50, null, new ArrayList<String>());
+        assertNotNull(batchId);
+        persistence.getLogs("mock", Collections.<String>emptyList(), 50, null, new ArrayList<String>());
+        verify(databaseManager).update(any(ContentValues.class), eq(DatabasePersistence.COLUMN_BATCH_ID + " IS NOT NULL"), isNull(String[].class));
+        verify(databaseManager, times(2)).getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), eq(new String[]{"mock"}), eq(DatabasePersistence.COLUMN_PRIORITY + " DESC, " + DatabaseManager.PRIMARY_KEY), eq("50"));
+
+        /* Returned logs are marked pending in the database. */
+        verify(databaseManager).update(any(ContentValues.class), eq(Arrays.asList(0L, 1L)));
+
+        /* Clearing pending state clears it in the database too. */
+        persistence.clearPendingLogState();
+        verify(databaseManager, times(2)).update(any(ContentValues.class), eq(DatabasePersistence.COLUMN_BATCH_ID + " IS NOT NULL"), isNull(String[].class));
+    }
+
+    @Test
+    public void deleteLogsInBulk() throws Exception {
+
+        /* Mock logs, the second one has its payload in a file. */
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 3; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(i == 1 ? null : "{}");
+            fieldValues.add(values);
+        }
+
+        /* Mock instances. */
+        mockStatic(FileManager.class);
+        when(FileManager.read(any(File.class))).thenReturn("{}");
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        MockCursor mockCursor = new MockCursor(fieldValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        DatabasePersistence persistence = spy(new DatabasePersistence(mock(Context.class)));
+        persistence.setLogSerializer(mock(LogSerializer.class));
+        File largePayloadFile = mock(File.class);
+        doReturn(largePayloadFile).when(persistence).getLargePayloadFile(any(File.class), eq(1L));
+        String batchId = persistence.getLogs("mock", Collections.<String>emptyList(), 50, null, new ArrayList<String>());
+        assertNotNull(batchId);
+        assertEquals(Collections.singleton(1L), persistence.mPendingLargePayloadDbIdentifiers);
+
+        /* Rows are deleted with a single call and only the existing payload file is deleted. */
+        persistence.deleteLogs("mock", batchId);
+        verify(databaseManager).delete(Arrays.asList(0L, 1L, 2L));
+        verify(databaseManager, never()).delete(anyLong());
+        verify(largePayloadFile).delete();
+        verify(persistence, times(2)).getLargePayloadFile(any(File.class), anyLong());
+        assertTrue(persistence.mPendingLargePayloadDbIdentifiers.isEmpty());
+        assertTrue(persistence.mPendingDbIdentifiers.isEmpty());
+    }
+
+    @Test
+    public void deleteGroupClearsPendingState() throws Exception {
+
+        /* Mock logs, the second one has its payload in a file. */
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 2; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(i == 1 ? null : "{}");
+            fieldValues.add(values);
+        }
+
+        /* Mock instances. */
+        mockStatic(FileManager.class);
+        when(FileManager.read(any(File.class))).thenReturn("{}");
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        MockCursor mockCursor = new MockCursor(fieldValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        DatabasePersistence persistence = spy(new DatabasePersistence(mock(Context.class)));
+        persistence.setLogSerializer(mock(LogSerializer.class));
+        doReturn(mock(File.class)).when(persistence).getLargePayloadFile(any(File.class), eq(1L));
+        assertNotNull(persistence.getLogs("mock", Collections.<String>emptyList(), 50, null, new ArrayList<String>()));
+        assertEquals(Collections.singleton(1L), persistence.mPendingLargePayloadDbIdentifiers);
+
+        /* Deleting a group sharing the prefix keeps the pending state. */
+        persistence.deleteLogs("mo");
+        assertEquals(Collections.singleton(1L), persistence.mPendingLargePayloadDbIdentifiers);
+        assertEquals(2, persistence.mPendingDbIdentifiers.size());
+
+        /* Deleting the group clears all its pending state. */
+        persistence.deleteLogs("mock");
+        assertTrue(persistence.mPendingDbIdentifiersGroups.isEmpty());
+        assertTrue(persistence.mPendingDbIdentifiers.isEmpty());
+        assertTrue(persistence.mPendingLargePayloadDbIdentifiers.isEmpty());
+    }
+
+    @Test
+    public void deleteStoredPayloadsThatCannotBeDeserialized() throws Exception {
+
+        /* Mock logs, the first one is corrupted. */
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 2; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(i == 0 ? "{corrupted" : "{}");
+            fieldValues.add(values);
+        }
+
+        /* Mock instances. */
+        mockStatic(AppCenterLog.class);
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        MockCursor mockCursor = new MockCursor(fieldValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        doThrow(new JSONException("mock")).when(logSerializer).validateLog(eq("{corrupted"), anyString());
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* The corrupted payload is deleted instead of being sent. */
+        List<String> outPayloads = new ArrayList<>();
+        assertNotNull(persistence.getLogs("mock", Collections.<String>emptyList(), 50, null, outPayloads));
+        assertEquals(Collections.singletonList("{}"), outPayloads);
+        verify(databaseManager).delete(0L);
+        verify(databaseManager, never()).delete(1L);
+        assertEquals(Collections.singleton(1L), persistence.mPendingDbIdentifiers);
+    }
+
     @Test
     public void getLogsWithGetCursorException() throws Exception {
 
@@ -146,7 +345,7 @@ public class DatabasePersistenceTest {
         DatabaseManager databaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenThrow(new RuntimeException());
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenThrow(new RuntimeException());
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs. */
@@ -169,7 +368,7 @@ public class DatabasePersistenceTest {
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
         Cursor mockCursor = mock(Cursor.class);
         when(mockCursor.moveToNext()).thenThrow(new RuntimeException());
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs. */
@@ -203,7 +402,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         Cursor failingCursor = mock(Cursor.class);
@@ -256,7 +455,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         List<ContentValues> idValues = new ArrayList<>(logCount);
@@ -345,7 +544,7 @@ public class DatabasePersistenceTest {
             }
         };
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         idValues = new ArrayList<>(4);
 
         /* Here the id cursor will also skip the new corrupted log which id would be 3. */
@@ -423,6 +622,143 @@ public class DatabasePersistenceTest {
         persistence.putLog(mock(Log.class), "test-p1", NORMAL);
     }
 
+    @Test
+    public void putLogWithWriteBatching() throws Exception {
+        mockStatic(AppCenterLog.class);
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(1024L * 1024);
+        when(databaseManager.put(anyListOf(ContentValues.class), anyString())).thenReturn(new long[]{1L, 2L}).thenReturn(new long[]{-1L});
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("mock");
+        persistence.setLogSerializer(logSerializer);
+        persistence.setWriteBatchSize(2);
+
+        /* First log is only buffered. */
+        assertEquals(Persistence.PENDING_WRITE_ID, persistence.putLog(mock(Log.class), "test-p1", NORMAL));
+        assertEquals(1, persistence.mPendingWrites.size());
+        verify(databaseManager, never()).put(any(ContentValues.class), anyString());
+        verify(databaseManager, never()).put(anyListOf(ContentValues.class), anyString());
+
+        /* Second log reaches the batch size: both logs are written at once. */
+        assertEquals(Persistence.PENDING_WRITE_ID, persistence.putLog(mock(Log.class), "test-p1", NORMAL));
+        assertEquals(0, persistence.mPendingWrites.size());
+        verify(databaseManager).put(anyListOf(ContentValues.class), eq(DatabasePersistence.COLUMN_PRIORITY));
+
+        /* Buffered logs are written before reading. */
+        persistence.putLog(mock(Log.class), "test-p1", NORMAL);
+        assertEquals(1, persistence.mPendingWrites.size());
+        persistence.countLogs("test-p1");
+        assertEquals(0, persistence.mPendingWrites.size());
+        verify(databaseManager, times(2)).put(anyListOf(ContentValues.class), eq(DatabasePersistence.COLUMN_PRIORITY));
+
+        /* Failed insertion is logged. */
+        verifyStatic();
+        AppCenterLog.error(AppCenter.LOG_TAG, "Failed to store 1 buffered log(s) to the Persistence database.");
+
+        /* Nothing to write on flush or close. */
+        persistence.flush();
+        persistence.close();
+        verify(databaseManager, times(2)).put(anyListOf(ContentValues.class), anyString());
+        verify(databaseManager, never()).put(any(ContentValues.class), anyString());
+    }
+
+    @Test
+    public void disableWriteBatchingFlushes() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(1024L * 1024);
+        when(databaseManager.put(anyListOf(ContentValues.class), anyString())).thenReturn(new long[]{1L});
+        when(databaseManager.put(any(ContentValues.class), anyString())).thenReturn(2L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("mock");
+        persistence.setLogSerializer(logSerializer);
+
+        /* Buffer a log then disable batching. */
+        persistence.setWriteBatchSize(10);
+        persistence.putLog(mock(Log.class), "test-p1", NORMAL);
+        persistence.setWriteBatchSize(1);
+        verify(databaseManager).put(anyListOf(ContentValues.class), anyString());
+        assertEquals(0, persistence.mPendingWrites.size());
+
+        /* Next log is written immediately. */
+        assertEquals(2L, persistence.putLog(mock(Log.class), "test-p1", NORMAL));
+        verify(databaseManager).put(any(ContentValues.class), anyString());
+    }
+
+    @Test
+    public void targetTokenCryptoCached() throws Exception {
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        mockStatic(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.encrypt(anyString())).then(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return "encrypted-" + invocation.getArguments()[0];
+            }
+        });
+        when(cryptoUtils.decrypt("encrypted-a-1")).thenReturn(new CryptoUtils.DecryptedData("a-1", null));
+        when(cryptoUtils.decrypt("encrypted-b-1")).thenReturn(new CryptoUtils.DecryptedData("encrypted-b-1", null));
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(1024L * 1024);
+        when(databaseManager.put(any(ContentValues.class), anyString())).thenReturn(1L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("mock");
+        when(logSerializer.deserializeLog(anyString(), anyString())).then(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                return mock(Log.class);
+            }
+        });
+        persistence.setLogSerializer(logSerializer);
+
+        /* Encrypt once per target token. */
+        CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton("a-1"));
+        persistence.putLog(log, "test-p1", NORMAL);
+        persistence.putLog(log, "test-p1", NORMAL);
+        verify(cryptoUtils).encrypt("a-1");
+
+        /* Cache is bounded. */
+        for (int i = 0; i < TargetTokenCrypto.CACHE_SIZE; i++) {
+            when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton("c-" + i));
+            persistence.putLog(log, "test-p1", NORMAL);
+        }
+        assertTrue(persistence.mTargetTokenCrypto.mEncryptedTargetTokens.size() <= TargetTokenCrypto.CACHE_SIZE);
+
+        /* Decrypt once per encrypted token, except failures. */
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 4; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            when(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN)).thenReturn(i < 2 ? "encrypted-a-1" : "encrypted-b-1");
+            fieldValues.add(values);
+        }
+        MockCursor mockCursor = new MockCursor(fieldValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test-p1", Collections.<String>emptyList(), 50, outLogs);
+        assertEquals(4, outLogs.size());
+        verify(outLogs.get(0)).addTransmissionTarget("a-1");
+        verify(outLogs.get(1)).addTransmissionTarget("a-1");
+        verify(cryptoUtils).decrypt("encrypted-a-1");
+        verify(cryptoUtils, times(2)).decrypt("encrypted-b-1");
+        assertEquals(1, persistence.mTargetTokenCrypto.mDecryptedTargetTokens.size());
+    }
+
     private static class MockCursor extends CursorWrapper {
 
         private final List<ContentValues> mList;
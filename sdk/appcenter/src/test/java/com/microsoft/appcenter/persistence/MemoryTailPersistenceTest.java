@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.microsoft.appcenter.persistence.Persistence.PENDING_WRITE_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({
+        AppCenterLog.class,
+        MemoryTailPersistence.class,
+        System.class
+})
+public class MemoryTailPersistenceTest {
+
+    private static final String TEST_GROUP = "group_test";
+
+    private static final int MAX_LOGS = 3;
+
+    private static final long MAX_AGE = 1000;
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Mock
+    private Persistence mStorage;
+
+    @Mock
+    private LogSerializer mLogSerializer;
+
+    private MemoryTailPersistence mMemoryTail;
+
+    @Before
+    public void setUp() throws JSONException {
+        mockStatic(AppCenterLog.class);
+        mockStatic(System.class);
+        when(mStorage.getLogSerializer()).thenReturn(mLogSerializer);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+        mMemoryTail = new MemoryTailPersistence(mStorage);
+        mMemoryTail.setMemoryPriorities(TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.setLimits(MAX_LOGS, MAX_AGE);
+    }
+
+    @Test
+    public void disabledStoresImmediately() throws Persistence.PersistenceException {
+        mMemoryTail.setLimits(0, MAX_AGE);
+        Log log = mock(Log.class);
+        when(mStorage.putLog(log, TEST_GROUP, Flags.NORMAL)).thenReturn(1L);
+        assertEquals(1L, mMemoryTail.putLog(log, TEST_GROUP, Flags.NORMAL));
+        assertEquals(0, mMemoryTail.getTailLogCount());
+
+        /* Storage is always queried. */
+        List<Log> logs = new ArrayList<>();
+        assertNull(mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs));
+        assertNull(mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs));
+        verify(mStorage, times(2)).getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs);
+    }
+
+    @Test
+    public void storeOtherPrioritiesAndGroupsImmediately() throws Persistence.PersistenceException {
+        Log log = mock(Log.class);
+        mMemoryTail.putLog(log, TEST_GROUP, Flags.CRITICAL);
+        mMemoryTail.putLog(log, "other", Flags.NORMAL);
+        verify(mStorage).putLog(log, TEST_GROUP, Flags.CRITICAL);
+        verify(mStorage).putLog(log, "other", Flags.NORMAL);
+        assertEquals(0, mMemoryTail.getTailLogCount());
+
+        /* Default flags are normal priority. */
+        assertEquals(PENDING_WRITE_ID, mMemoryTail.putLog(log, TEST_GROUP, Flags.DEFAULTS));
+        assertEquals(1, mMemoryTail.getTailLogCount());
+
+        /* Priorities can be reset. */
+        mMemoryTail.setMemoryPriorities(TEST_GROUP, 0);
+        mMemoryTail.putLog(log, TEST_GROUP, Flags.NORMAL);
+        verify(mStorage).putLog(log, TEST_GROUP, Flags.NORMAL);
+    }
+
+    @Test
+    public void sendFromMemory() throws Persistence.PersistenceException {
+        Log log1 = mock(Log.class);
+        Log log2 = mock(Log.class);
+        assertEquals(PENDING_WRITE_ID, mMemoryTail.putLog(log1, TEST_GROUP, Flags.NORMAL));
+        assertEquals(PENDING_WRITE_ID, mMemoryTail.putLog(log2, TEST_GROUP, Flags.NORMAL));
+        assertEquals(2, mMemoryTail.countLogs(TEST_GROUP));
+
+        /* Storage is queried first, then logs are returned from memory in order. */
+        List<Log> logs = new ArrayList<>();
+        List<String> payloads = new ArrayList<>();
+        String batchId = mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 1, logs, payloads);
+        assertNotNull(batchId);
+        assertEquals(1, logs.size());
+        assertSame(log1, logs.get(0));
+        assertEquals(Collections.singletonList("{}"), payloads);
+        assertEquals(2, mMemoryTail.countLogs(TEST_GROUP));
+
+        /* Storage is known to be empty now. */
+        logs.clear();
+        String batchId2 = mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs);
+        assertNotNull(batchId2);
+        assertEquals(Collections.singletonList(log2), logs);
+        assertNull(mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs));
+        verify(mStorage).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyListOf(Log.class), anyListOf(String.class));
+        verify(mStorage, never()).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyListOf(Log.class));
+
+        /* Deleting sent logs never touches the storage. */
+        mMemoryTail.deleteLogs(TEST_GROUP, batchId);
+        mMemoryTail.deleteLogs(TEST_GROUP, batchId2);
+        assertEquals(0, mMemoryTail.countLogs(TEST_GROUP));
+        verify(mStorage, never()).putLog(any(Log.class), anyString(), anyInt());
+        verify(mStorage, never()).deleteLogs(anyString(), anyString());
+
+        /* Storage batches are deleted from the storage. */
+        mMemoryTail.deleteLogs(TEST_GROUP, "storageBatch");
+        verify(mStorage).deleteLogs(TEST_GROUP, "storageBatch");
+    }
+
+    @Test
+    public void storeFirstLogsWhenStorageNotEmpty() throws Persistence.PersistenceException {
+        when(mStorage.getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenReturn("storageBatch");
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        assertEquals("storageBatch", mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, new ArrayList<Log>()));
+        assertEquals(1, mMemoryTail.getTailLogCount());
+    }
+
+    @Test
+    public void storeWhenBatchFails() throws Persistence.PersistenceException {
+        Log log = mock(Log.class);
+        mMemoryTail.putLog(log, TEST_GROUP, Flags.NORMAL);
+        assertNotNull(mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, new ArrayList<Log>()));
+        verify(mStorage, never()).putLog(any(Log.class), anyString(), anyInt());
+
+        /* The log being sent is stored and storage is queried again. */
+        mMemoryTail.clearPendingLogState();
+        verify(mStorage).clearPendingLogState();
+        verify(mStorage).putLog(log, TEST_GROUP, Flags.NORMAL);
+        verify(mStorage).flush();
+        mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, new ArrayList<Log>());
+        verify(mStorage, times(2)).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyListOf(Log.class));
+    }
+
+    @Test
+    public void storeWhenMemoryFull() throws Persistence.PersistenceException {
+        for (int i = 0; i < MAX_LOGS; i++) {
+            mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        }
+        verify(mStorage, never()).putLog(any(Log.class), anyString(), anyInt());
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        verify(mStorage, times(MAX_LOGS + 1)).putLog(any(Log.class), eq(TEST_GROUP), eq(Flags.NORMAL));
+        verify(mStorage).flush();
+        assertEquals(0, mMemoryTail.getTailLogCount());
+
+        /* Lowering the limit stores the logs exceeding it. */
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.setLimits(1, MAX_AGE);
+        assertEquals(0, mMemoryTail.getTailLogCount());
+    }
+
+    @Test
+    public void storeOnFlushAndClose() throws Exception {
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.flush();
+        verify(mStorage).putLog(any(Log.class), eq(TEST_GROUP), eq(Flags.NORMAL));
+        assertEquals(0, mMemoryTail.getTailLogCount());
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.close();
+        verify(mStorage, times(2)).putLog(any(Log.class), eq(TEST_GROUP), eq(Flags.NORMAL));
+        verify(mStorage).close();
+    }
+
+    @Test
+    public void storeExpiredLogs() throws Persistence.PersistenceException {
+        Log log1 = mock(Log.class);
+        Log log2 = mock(Log.class);
+        when(System.currentTimeMillis()).thenReturn(1000L);
+        mMemoryTail.putLog(log1, TEST_GROUP, Flags.NORMAL);
+        when(System.currentTimeMillis()).thenReturn(1400L);
+        mMemoryTail.putLog(log2, TEST_GROUP, Flags.NORMAL);
+
+        /* Nothing expired yet. */
+        when(System.currentTimeMillis()).thenReturn(1500L);
+        assertEquals(500, mMemoryTail.spillExpiredLogs());
+        verify(mStorage, never()).putLog(any(Log.class), anyString(), anyInt());
+
+        /* First log expired. */
+        when(System.currentTimeMillis()).thenReturn(2000L);
+        assertEquals(400, mMemoryTail.spillExpiredLogs());
+        verify(mStorage).putLog(log1, TEST_GROUP, Flags.NORMAL);
+        assertEquals(1, mMemoryTail.getTailLogCount());
+
+        /* Second log expired. */
+        when(System.currentTimeMillis()).thenReturn(2400L);
+        assertEquals(-1, mMemoryTail.spillExpiredLogs());
+        verify(mStorage).putLog(log2, TEST_GROUP, Flags.NORMAL);
+        assertEquals(0, mMemoryTail.getTailLogCount());
+    }
+
+    @Test
+    public void skipPausedTargets() throws Persistence.PersistenceException {
+        CommonSchemaLog pausedLog = mock(CommonSchemaLog.class);
+        when(pausedLog.getTransmissionTargetTokens()).thenReturn(Collections.singleton("paused-token"));
+        CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton("other-token"));
+        mMemoryTail.putLog(pausedLog, TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.putLog(log, TEST_GROUP, Flags.NORMAL);
+        List<Log> logs = new ArrayList<>();
+        assertNotNull(mMemoryTail.getLogs(TEST_GROUP, Collections.singletonList("paused"), 10, logs));
+        assertEquals(Collections.<Log>singletonList(log), logs);
+        assertEquals(1, mMemoryTail.getTailLogCount());
+
+        /* Storage might still have logs of the paused target. */
+        mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs);
+        verify(mStorage).getLogs(eq(TEST_GROUP), eq(Collections.<String>emptyList()), anyInt(), same(logs));
+    }
+
+    @Test
+    public void discardLogsFailingSerialization() throws Exception {
+        when(mLogSerializer.serializeLog(any(Log.class))).thenThrow(new JSONException("mock"));
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        List<Log> logs = new ArrayList<>();
+        assertNull(mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 10, logs, new ArrayList<String>()));
+        assertEquals(0, logs.size());
+        assertEquals(0, mMemoryTail.countLogs(TEST_GROUP));
+    }
+
+    @Test
+    public void deleteGroup() throws Persistence.PersistenceException {
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.getLogs(TEST_GROUP, Collections.<String>emptyList(), 1, new ArrayList<Log>());
+        mMemoryTail.deleteLogs(TEST_GROUP);
+        verify(mStorage).deleteLogs(TEST_GROUP);
+        assertEquals(0, mMemoryTail.countLogs(TEST_GROUP));
+
+        /* Nothing left to store. */
+        mMemoryTail.clearPendingLogState();
+        verify(mStorage, never()).putLog(any(Log.class), anyString(), anyInt());
+    }
+
+    @Test
+    public void storeFailure() throws Persistence.PersistenceException {
+        when(mStorage.putLog(any(Log.class), anyString(), anyInt())).thenThrow(new Persistence.PersistenceException("mock", null));
+        mMemoryTail.putLog(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        mMemoryTail.flush();
+        assertEquals(0, mMemoryTail.countLogs(TEST_GROUP));
+    }
+
+    @Test
+    public void delegateToStorage() {
+        mMemoryTail.setWriteBatchSize(10);
+        verify(mStorage).setWriteBatchSize(10);
+        when(mStorage.setMaxStorageSize(1024)).thenReturn(true);
+        assertTrue(mMemoryTail.setMaxStorageSize(1024));
+        assertSame(mStorage, mMemoryTail.getStorage());
+        assertSame(mLogSerializer, mMemoryTail.getLogSerializer());
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({AppCenterLog.class, CryptoUtils.class})
+public class SegmentFilePersistenceTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    private LogSerializer mLogSerializer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        mDirectory = mTemporaryFolder.newFolder("segments");
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.deserializeLog(anyString(), anyString())).then(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                return mock(Log.class);
+            }
+        });
+    }
+
+    private SegmentFilePersistence newPersistence() {
+        SegmentFilePersistence persistence = new SegmentFilePersistence(mock(Context.class), mDirectory);
+        persistence.setLogSerializer(mLogSerializer);
+        return persistence;
+    }
+
+    private Log mockLog(String payload) throws JSONException {
+        Log log = mock(Log.class);
+        when(log.getType()).thenReturn("mock");
+        when(mLogSerializer.serializeLog(log)).thenReturn(payload);
+        return log;
+    }
+
+    private List<String> getPayloads(Persistence persistence, String group, int limit) {
+        List<String> payloads = new ArrayList<>();
+        persistence.getLogs(group, Collections.<String>emptyList(), limit, null, payloads);
+        return payloads;
+    }
+
+    @Test
+    public void putGetDeleteAndReload() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        long firstId = persistence.putLog(mockLog("a1"), "a", NORMAL);
+        persistence.putLog(mockLog("b1"), "b", NORMAL);
+        long thirdId = persistence.putLog(mockLog("a2"), "a", CRITICAL);
+        persistence.putLog(mockLog("a3"), "a", NORMAL);
+        assertTrue(firstId > Persistence.PENDING_WRITE_ID);
+        assertTrue(thirdId > firstId);
+        assertEquals(3, persistence.countLogs("a"));
+        assertEquals(1, persistence.countLogs("b"));
+        assertEquals(0, persistence.countLogs("c"));
+
+        /* Critical logs first then oldest first, pending logs are not returned twice. */
+        List<Log> logs = new ArrayList<>();
+        List<String> payloads = new ArrayList<>();
+        String batchId = persistence.getLogs("a", Collections.<String>emptyList(), 2, logs, payloads);
+        assertNotNull(batchId);
+        assertEquals(2, logs.size());
+        assertEquals(Arrays.asList("a2", "a1"), payloads);
+        verify(mLogSerializer).deserializeLog("a2", "mock");
+        assertEquals(Collections.singletonList("a3"), getPayloads(persistence, "a", 2));
+        assertNull(persistence.getLogs("a", Collections.<String>emptyList(), 2, new ArrayList<Log>()));
+
+        /* Delete the first batch. */
+        persistence.deleteLogs("a", batchId);
+        assertEquals(1, persistence.countLogs("a"));
+
+        /* Reload from files: pending state is lost and identifiers keep increasing. */
+        persistence.close();
+        persistence = newPersistence();
+        assertEquals(1, persistence.countLogs("a"));
+        assertEquals(1, persistence.countLogs("b"));
+        assertEquals(Collections.singletonList("a3"), getPayloads(persistence, "a", 10));
+        assertTrue(persistence.putLog(mockLog("a4"), "a", NORMAL) > thirdId);
+
+        /* Delete a whole group. */
+        persistence.deleteLogs("a");
+        assertEquals(0, persistence.countLogs("a"));
+        assertEquals(Collections.singletonList("b1"), getPayloads(persistence, "b", 10));
+
+        /* Clearing pending state makes logs available again. */
+        persistence.clearPendingLogState();
+        assertEquals(Collections.singletonList("b1"), getPayloads(persistence, "b", 10));
+        persistence.close();
+    }
+
+    @Test
+    public void segmentFileRemovedWhenAllLogsDeleted() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        char[] chars = new char[SegmentFilePersistence.SEGMENT_SIZE / 3];
+        Arrays.fill(chars, 'x');
+        String payload = new String(chars);
+        for (int i = 0; i < 4; i++) {
+            persistence.putLog(mockLog(payload), "a", NORMAL);
+        }
+        assertEquals(2, persistence.mSegments.size());
+        String[] files = mDirectory.list();
+        assertNotNull(files);
+        assertEquals(2, files.length);
+
+        /* Deleting the logs of the first segment removes its file. */
+        String batchId = persistence.getLogs("a", Collections.<String>emptyList(), 2, new ArrayList<Log>());
+        assertNotNull(batchId);
+        persistence.deleteLogs("a", batchId);
+        assertEquals(1, persistence.mSegments.size());
+        files = mDirectory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        persistence.close();
+    }
+
+    @Test
+    public void evictLowerPriorityLogsWhenFull() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        assertTrue(persistence.setMaxStorageSize(SegmentFilePersistence.SEGMENT_SIZE * 2));
+        char[] chars = new char[SegmentFilePersistence.SEGMENT_SIZE / 3];
+        Arrays.fill(chars, 'x');
+        String payload = new String(chars);
+        persistence.putLog(mockLog("critical"), "a", CRITICAL);
+        for (int i = 0; i < 5; i++) {
+            persistence.putLog(mockLog(payload), "a", NORMAL);
+        }
+
+        /*
+         * The oldest segment with only normal logs is evicted to create a new one.
+         * The critical log is kept along with its segment and the normal logs sharing it.
+         */
+        assertEquals(2, persistence.mSegments.size());
+        assertEquals(4, persistence.countLogs("a"));
+        assertEquals("critical", getPayloads(persistence, "a", 1).get(0));
+
+        /* Storage cannot shrink below current size. */
+        assertFalse(persistence.setMaxStorageSize(SegmentFilePersistence.SEGMENT_SIZE));
+
+        /* A normal log cannot evict a critical log. */
+        persistence.close();
+        persistence = newPersistence();
+        assertTrue(persistence.setMaxStorageSize(SegmentFilePersistence.SEGMENT_SIZE * 2));
+        persistence.deleteLogs("a");
+        for (int i = 0; i < 6; i++) {
+            persistence.putLog(mockLog(payload), "a", CRITICAL);
+        }
+        assertEquals(4, persistence.countLogs("a"));
+        try {
+            persistence.putLog(mockLog(payload), "a", NORMAL);
+            fail("Expected persistence exception");
+        } catch (PersistenceException ignore) {
+        }
+        assertEquals(4, persistence.countLogs("a"));
+
+        /* A log larger than the storage is rejected. */
+        char[] largeChars = new char[SegmentFilePersistence.SEGMENT_SIZE * 2];
+        Arrays.fill(largeChars, 'x');
+        try {
+            persistence.putLog(mockLog(new String(largeChars)), "a", CRITICAL);
+            fail("Expected persistence exception");
+        } catch (PersistenceException ignore) {
+        }
+        persistence.close();
+    }
+
+    @Test
+    public void evictWholeSegmentsWithMixedPriorities() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        assertTrue(persistence.setMaxStorageSize(SegmentFilePersistence.SEGMENT_SIZE * 2));
+        char[] chars = new char[SegmentFilePersistence.SEGMENT_SIZE / 2];
+        Arrays.fill(chars, 'x');
+        String payload = new String(chars);
+
+        /* Fill storage with segments that each contain a normal and a critical log. */
+        persistence.putLog(mockLog("critical1"), "a", CRITICAL);
+        persistence.putLog(mockLog(payload), "a", NORMAL);
+        persistence.putLog(mockLog(payload), "a", NORMAL);
+        persistence.putLog(mockLog("critical2"), "a", CRITICAL);
+        assertEquals(2, persistence.mSegments.size());
+        assertEquals(4, persistence.countLogs("a"));
+
+        /* Deleting the normal logs would not free any segment: nothing is deleted. */
+        try {
+            persistence.putLog(mockLog(payload), "a", NORMAL);
+            fail("Expected persistence exception");
+        } catch (PersistenceException ignore) {
+        }
+        assertEquals(4, persistence.countLogs("a"));
+
+        /* A critical log evicts the oldest segment as a whole. */
+        persistence.putLog(mockLog(payload), "a", CRITICAL);
+        assertEquals(2, persistence.mSegments.size());
+        assertEquals(3, persistence.countLogs("a"));
+        assertEquals("critical2", getPayloads(persistence, "a", 1).get(0));
+        persistence.close();
+    }
+
+    @Test
+    public void commonSchemaLogs() throws Exception {
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        mockStatic(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.encrypt("a-1")).thenReturn("encrypted-a-1");
+        when(cryptoUtils.encrypt("b-1")).thenReturn("encrypted-b-1");
+        when(cryptoUtils.decrypt("encrypted-a-1")).thenReturn(new CryptoUtils.DecryptedData("a-1", null));
+        final Log deserializedLog = mock(Log.class);
+        when(mLogSerializer.deserializeLog(eq("cs-a"), anyString())).thenReturn(deserializedLog);
+        SegmentFilePersistence persistence = newPersistence();
+        CommonSchemaLog logA = mock(CommonSchemaLog.class);
+        when(logA.getTransmissionTargetTokens()).thenReturn(Collections.singleton("a-1"));
+        when(mLogSerializer.serializeLog(logA)).thenReturn("cs-a");
+        CommonSchemaLog logB = mock(CommonSchemaLog.class);
+        when(logB.getTransmissionTargetTokens()).thenReturn(Collections.singleton("b-1"));
+        when(mLogSerializer.serializeLog(logB)).thenReturn("cs-b");
+        persistence.putLog(logB, "one", NORMAL);
+        persistence.putLog(logA, "one", NORMAL);
+
+        /* Paused target keys are skipped and target token is restored. */
+        List<Log> logs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("one", Collections.singletonList("b"), 10, logs));
+        assertEquals(Collections.singletonList(deserializedLog), logs);
+        verify(deserializedLog).addTransmissionTarget("a-1");
+        persistence.close();
+    }
+
+    @Test
+    public void deleteLogsThatCannotBeDeserialized() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        persistence.putLog(mockLog("corrupted"), "a", NORMAL);
+        persistence.putLog(mockLog("valid"), "a", NORMAL);
+        when(mLogSerializer.deserializeLog(eq("corrupted"), anyString())).thenThrow(new JSONException("mock"));
+        List<Log> logs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("a", Collections.<String>emptyList(), 10, logs));
+        assertEquals(1, logs.size());
+        assertEquals(1, persistence.countLogs("a"));
+        persistence.close();
+    }
+
+    @Test
+    public void deleteStoredPayloadsThatCannotBeDeserialized() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        persistence.putLog(mockLog("corrupted"), "a", NORMAL);
+        persistence.putLog(mockLog("valid"), "a", NORMAL);
+        doThrow(new JSONException("mock")).when(mLogSerializer).validateLog(eq("corrupted"), anyString());
+        assertEquals(Collections.singletonList("valid"), getPayloads(persistence, "a", 10));
+        assertEquals(1, persistence.countLogs("a"));
+        persistence.close();
+    }
+
+    @Test
+    public void ignoreTornAndUnknownFiles() throws Exception {
+        SegmentFilePersistence persistence = newPersistence();
+        persistence.putLog(mockLog("a1"), "a", NORMAL);
+        persistence.putLog(mockLog("a2"), "a", NORMAL);
+        persistence.close();
+
+        /* Corrupt the second record length as if the process died while writing it. */
+        File[] files = mDirectory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        try {
+            int firstLength = file.readInt();
+            file.seek(4 + firstLength);
+            file.writeInt(Integer.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+        assertTrue(new File(mDirectory, "unknown.txt").createNewFile());
+
+        /* Only the first log is loaded and the segment is not appended to anymore. */
+        persistence = newPersistence();
+        assertEquals(Collections.singletonList("a1"), getPayloads(persistence, "a", 10));
+        persistence.putLog(mockLog("a3"), "a", NORMAL);
+        assertEquals(2, persistence.mSegments.size());
+        persistence.close();
+    }
+}
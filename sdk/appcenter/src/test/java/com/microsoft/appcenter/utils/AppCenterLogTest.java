@@ -19,6 +19,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -193,4 +194,63 @@ public class AppCenterLogTest {
         verifyError(times(1));
         verifyAssert(times(1));
     }
+
+    @Test
+    public void templates() {
+        AppCenter.setLogLevel(Log.VERBOSE);
+        AppCenterLog.verbose("my-tag", "verbose {} with my-tag", "template");
+        AppCenterLog.verbose("my-tag", "verbose {} with my-tag", 1);
+        AppCenterLog.debug("my-tag", "debug {} with my-tag", "template");
+        AppCenterLog.debug("my-tag", "debug {} with my-tag", 1);
+        AppCenterLog.debug("my-tag", "debug {} {} with my-tag", "template", null);
+        AppCenterLog.debug("my-tag", "debug {} {} with my-tag", "template", 2);
+        AppCenterLog.debug("my-tag", "debug {} {} with my-tag", 3, "template");
+        AppCenterLog.debug("my-tag", "debug {} {} {} with my-tag", "template", "a", 4);
+        AppCenterLog.debug("my-tag", "debug {} {} {} with my-tag", "template", 5, 6);
+
+        /* Missing or extra placeholders. */
+        AppCenterLog.debug("my-tag", "debug with my-tag", "extra");
+        AppCenterLog.debug("my-tag", "debug {} {} {} with my-tag", "missing", "b");
+        verifyStatic();
+        Log.v("my-tag", "verbose template with my-tag");
+        verifyStatic();
+        Log.v("my-tag", "verbose 1 with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug template with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug 1 with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug template null with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug template 2 with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug 3 template with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug template a 4 with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug template 5 6 with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug with my-tag");
+        verifyStatic();
+        Log.d("my-tag", "debug missing b {} with my-tag");
+    }
+
+    @Test
+    public void templatesNotBuiltWhenDisabled() {
+        AppCenter.setLogLevel(Log.INFO);
+        Object arg = new Object();
+        AppCenterLog.verbose("my-tag", "verbose {} with my-tag", arg);
+        AppCenterLog.verbose("my-tag", "verbose {} with my-tag", 1);
+        AppCenterLog.debug("my-tag", "debug {} with my-tag", arg);
+        AppCenterLog.debug("my-tag", "debug {} with my-tag", 1);
+        AppCenterLog.debug("my-tag", "debug {} {} with my-tag", arg, arg);
+        AppCenterLog.debug("my-tag", "debug {} {} with my-tag", arg, 2);
+        AppCenterLog.debug("my-tag", "debug {} {} with my-tag", 3, arg);
+        AppCenterLog.debug("my-tag", "debug {} {} {} with my-tag", arg, arg, 4);
+        AppCenterLog.debug("my-tag", "debug {} {} {} with my-tag", arg, 5, 6);
+        verifyStatic(never());
+        Log.v(anyString(), anyString());
+        verifyStatic(never());
+        Log.d(anyString(), anyString());
+    }
 }
@@ -24,15 +24,23 @@ import org.mockito.internal.stubbing.answers.Returns;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -73,6 +81,38 @@ public class DatabaseManagerTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void bulkDeleteFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        assertEquals(0, databaseManagerMock.delete(Arrays.asList(0L, 1L)));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+
+    @Test
+    public void bulkDeleteInSingleTransaction() {
+        SQLiteDatabase database = mock(SQLiteDatabase.class);
+        when(database.delete(eq("table"), anyString(), any(String[].class))).thenReturn(DatabaseManager.MAX_SQL_VARIABLES, 1);
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        doReturn(database).when(databaseManager).getDatabase();
+
+        /* Nothing to do without identifiers. */
+        assertEquals(0, databaseManager.delete(new ArrayList<Long>()));
+        verify(database, never()).beginTransaction();
+
+        /* Identifiers are split in statements with a limited number of arguments. */
+        List<Long> ids = new ArrayList<>();
+        for (long i = 0; i <= DatabaseManager.MAX_SQL_VARIABLES; i++) {
+            ids.add(i);
+        }
+        assertEquals(ids.size(), databaseManager.delete(ids));
+        verify(database).beginTransaction();
+        verify(database, times(2)).delete(eq("table"), anyString(), any(String[].class));
+        verify(database).delete("table", "oid IN (?)", new String[]{String.valueOf(DatabaseManager.MAX_SQL_VARIABLES)});
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
     @Test
     public void clearFailed() {
         DatabaseManager databaseManagerMock = getDatabaseManagerMock();
@@ -231,4 +271,68 @@ public class DatabaseManagerTest {
         long id = databaseManager.put(mock(ContentValues.class), "priority");
         assertEquals(1, id);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void putMultipleInTransaction() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+        when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenReturn(1L).thenReturn(2L);
+
+        /* Instantiate real instance for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        databaseManager.setSQLiteOpenHelper(helperMock);
+
+        /* Put 2 logs at once. */
+        long[] ids = databaseManager.put(Arrays.asList(mock(ContentValues.class), mock(ContentValues.class)), "priority");
+
+        /* Verify both logs were committed in a single transaction. */
+        assertArrayEquals(new long[]{1L, 2L}, ids);
+        verify(sqLiteDatabase).beginTransaction();
+        verify(sqLiteDatabase).setTransactionSuccessful();
+        verify(sqLiteDatabase).endTransaction();
+    }
+
+    @Test
+    public void putMultipleWhenFullFallsBackToSinglePut() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+
+        /* Simulate that database is full during the transaction. */
+        when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenThrow(new SQLiteFullException());
+
+        /* Instantiate real instance for DatabaseManager and mock the single put that evicts logs. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(contextMock, "database", "table", 1, null, null));
+        databaseManager.setSQLiteOpenHelper(helperMock);
+        ContentValues first = mock(ContentValues.class);
+        ContentValues second = mock(ContentValues.class);
+        doReturn(3L).when(databaseManager).put(first, "priority");
+        doReturn(-1L).when(databaseManager).put(second, "priority");
+
+        /* Put 2 logs at once. */
+        long[] ids = databaseManager.put(Arrays.asList(first, second), "priority");
+
+        /* Verify transaction was rolled back and logs inserted one by one. */
+        assertArrayEquals(new long[]{3L, -1L}, ids);
+        verify(sqLiteDatabase, never()).setTransactionSuccessful();
+        verify(sqLiteDatabase).endTransaction();
+        verify(databaseManager).put(first, "priority");
+        verify(databaseManager).put(second, "priority");
+    }
+
+    @Test
+    public void putMultipleFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        long[] ids = databaseManagerMock.put(Arrays.asList(new ContentValues(), new ContentValues()), "priority");
+        assertArrayEquals(new long[]{-1L, -1L}, ids);
+        verifyStatic(times(3));
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+}